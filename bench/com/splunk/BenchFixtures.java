@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds synthetic benchmark inputs by scaling the test data files in
+ * {@code tests/com/splunk} up to a given number of rows or entries. The rows
+ * of the original file are repeated in order, with their offsets renumbered,
+ * so the output has the same shape as what splunkd returns for a larger
+ * search.
+ * <p>
+ * The test data directory defaults to {@code tests/com/splunk} under the
+ * working directory and can be changed with the {@code splunk.bench.data}
+ * system property.
+ */
+class BenchFixtures {
+    private static final Pattern XML_RESULT = Pattern.compile("(?s)<result .*?</result>");
+    private static final Pattern XML_OFFSET = Pattern.compile("<result offset='\\d+'");
+    private static final Pattern ATOM_ENTRY = Pattern.compile("(?s)<entry>.*?</entry>");
+    private static final Pattern JSON_ROW = Pattern.compile("\\{[^{}]*\\}");
+    private static final Pattern JSON_OFFSET = Pattern.compile("\"offset\":\\d+");
+    private static final String JSON_LAST_ROW = "\"lastrow\":true,";
+
+    private BenchFixtures() {}
+
+    /**
+     * Returns the search results of {@code results.xml}, repeated to
+     * {@code rows} results.
+     */
+    static byte[] resultsXml(int rows) throws IOException {
+        return bytes(scaleXmlResults(read("results.xml"), rows));
+    }
+
+    /**
+     * Returns the search results of {@code results5.json} (the JSON output
+     * mode of Splunk 5 and later), repeated to {@code rows} results.
+     */
+    static byte[] resultsJson(int rows) throws IOException {
+        String json = read("results5.json");
+        int start = json.indexOf("\"results\":[") + "\"results\":[".length();
+        int end = json.lastIndexOf(']');
+        List<String> templates = matches(JSON_ROW, json.substring(start, end));
+
+        StringBuilder scaled = new StringBuilder(json.length() * (rows / templates.size() + 1));
+        scaled.append(json, 0, start);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                scaled.append(',');
+            }
+            scaled.append(templates.get(i % templates.size()));
+        }
+        scaled.append(json, end, json.length());
+        return bytes(scaled.toString());
+    }
+
+    /**
+     * Returns the CSV search results of {@code resultsMV.csv}, whose one
+     * result is repeated to {@code rows} results.
+     */
+    static byte[] resultsCsv(int rows) throws IOException {
+        String csv = read("resultsMV.csv");
+        int header = csv.indexOf('\n') + 1;
+        String result = csv.substring(header);
+        if (!result.endsWith("\n")) {
+            result += "\n";
+        }
+        StringBuilder scaled = new StringBuilder(header + result.length() * rows);
+        scaled.append(csv, 0, header);
+        for (int i = 0; i < rows; i++) {
+            scaled.append(result);
+        }
+        return bytes(scaled.toString());
+    }
+
+    /**
+     * Returns the export stream of {@code resultsExport.xml}, with its
+     * preview sets unchanged and its final set repeated to {@code rows}
+     * results.
+     */
+    static byte[] exportXml(int rows) throws IOException {
+        String xml = read("resultsExport.xml");
+        int finalSet = xml.lastIndexOf("<results preview='0'>");
+        return bytes(xml.substring(0, finalSet) + scaleXmlResults(xml.substring(finalSet), rows));
+    }
+
+    /**
+     * Returns the export stream of {@code resultsExport.json}, with its
+     * preview rows unchanged and its final set repeated to {@code rows} rows.
+     */
+    static byte[] exportJson(int rows) throws IOException {
+        StringBuilder scaled = new StringBuilder();
+        List<String> templates = new ArrayList<String>();
+        for (String line : read("resultsExport.json").split("\n")) {
+            if (line.contains("\"preview\":false")) {
+                templates.add(line.replace(JSON_LAST_ROW, ""));
+            } else {
+                scaled.append(line).append('\n');
+            }
+        }
+        for (int i = 0; i < rows; i++) {
+            String row = JSON_OFFSET.matcher(templates.get(i % templates.size()))
+                    .replaceFirst("\"offset\":" + i);
+            if (i == rows - 1) {
+                row = row.replace("\"result\":", JSON_LAST_ROW + "\"result\":");
+            }
+            scaled.append(row).append('\n');
+        }
+        return bytes(scaled.toString());
+    }
+
+    /**
+     * Returns the Atom feed of {@code data/atom/atom_with_several_entries.xml},
+     * with its entries repeated to {@code entries} entries.
+     */
+    static byte[] atomFeed(int entries) throws IOException {
+        String xml = read("data/atom/atom_with_several_entries.xml");
+        return bytes(scale(xml, ATOM_ENTRY, entries, null));
+    }
+
+    private static String scaleXmlResults(String xml, int rows) {
+        return scale(xml, XML_RESULT, rows, XML_OFFSET);
+    }
+
+    // Replaces the elements matching element, which must be contiguous apart
+    // from whitespace, with count copies of them, renumbering the offsets
+    // matching offset if it is not null.
+    private static String scale(String document, Pattern element, int count, Pattern offset) {
+        Matcher matcher = element.matcher(document);
+        List<String> templates = new ArrayList<String>();
+        int start = -1;
+        int end = -1;
+        while (matcher.find()) {
+            if (start < 0) {
+                start = matcher.start();
+            }
+            end = matcher.end();
+            templates.add(matcher.group());
+        }
+        if (templates.isEmpty()) {
+            throw new IllegalArgumentException("No elements to scale in the fixture.");
+        }
+
+        StringBuilder scaled = new StringBuilder(document.length() * (count / templates.size() + 1));
+        scaled.append(document, 0, start);
+        for (int i = 0; i < count; i++) {
+            String copy = templates.get(i % templates.size());
+            if (offset != null) {
+                copy = offset.matcher(copy).replaceFirst("<result offset='" + i + "'");
+            }
+            scaled.append(copy).append('\n');
+        }
+        scaled.append(document, end, document.length());
+        return scaled.toString();
+    }
+
+    private static List<String> matches(Pattern pattern, String text) {
+        List<String> found = new ArrayList<String>();
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            found.add(matcher.group());
+        }
+        return found;
+    }
+
+    private static String read(String name) throws IOException {
+        File file = new File(System.getProperty("splunk.bench.data", "tests/com/splunk"), name);
+        InputStream input = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = input.read(chunk)) != -1) {
+                buffer.write(chunk, 0, n);
+            }
+            return buffer.toString("UTF-8");
+        } finally {
+            input.close();
+        }
+    }
+
+    private static byte[] bytes(String text) throws IOException {
+        return text.getBytes("UTF-8");
+    }
+}
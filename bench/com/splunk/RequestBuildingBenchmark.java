@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the work done for every request before it is sent: encoding
+ * arguments, qualifying the path with a namespace, and converting the
+ * timestamps of the response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBuildingBenchmark {
+    private Service service;
+    private Service scopedService;
+    private Args namespace;
+    private Args searchArgs;
+
+    @Setup
+    public void setUp() {
+        service = new Service("localhost", 8089);
+
+        ServiceArgs scoped = new ServiceArgs();
+        scoped.setOwner("admin");
+        scoped.setApp("search");
+        scopedService = new Service(scoped);
+
+        namespace = new Args();
+        namespace.put("owner", "admin");
+        namespace.put("app", "search");
+        namespace.put("sharing", "user");
+
+        // The arguments of a typical search job dispatch.
+        searchArgs = new Args();
+        searchArgs.put("search", "search index=main sourcetype=\"access_combined\" status>=500 | stats count by host, uri_path");
+        searchArgs.put("earliest_time", "-24h@h");
+        searchArgs.put("latest_time", "now");
+        searchArgs.put("exec_mode", "normal");
+        searchArgs.put("output_mode", "json");
+        searchArgs.put("count", "0");
+        searchArgs.put("namespace", "search");
+        searchArgs.put("f", new String[] {"_time", "host", "source", "sourcetype", "_raw"});
+    }
+
+    @Benchmark
+    public String argsEncode() {
+        return searchArgs.encode();
+    }
+
+    @Benchmark
+    public String encodeValue() {
+        return Args.encode("search index=main sourcetype=\"access_combined\" | head 10");
+    }
+
+    @Benchmark
+    public String fullpathDefaultNamespace() {
+        return service.fullpath("search/jobs", null);
+    }
+
+    @Benchmark
+    public String fullpathServiceNamespace() {
+        return scopedService.fullpath("search/jobs", null);
+    }
+
+    @Benchmark
+    public String fullpathExplicitNamespace() {
+        return service.fullpath("saved/searches", namespace);
+    }
+
+    @Benchmark
+    public Date toDateIso8601() {
+        return Value.toDate("2012-12-19T15:27:58-08:00");
+    }
+
+    @Benchmark
+    public Date toDateIso8601Millis() {
+        return Value.toDate("2014-03-04T11:26:35.000-08:00");
+    }
+
+    @Benchmark
+    public Date toDateCtime() {
+        return Value.toDate("Wed Dec 19 15:27:58 2012");
+    }
+}
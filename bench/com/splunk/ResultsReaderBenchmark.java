@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast the results readers decode a search response that is
+ * already in memory, so that only parsing is timed. One operation reads
+ * every event of a response of {@code rows} results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultsReaderBenchmark {
+    @Param({"100", "10000"})
+    public int rows;
+
+    private byte[] xml;
+    private byte[] json;
+    private byte[] csv;
+    private byte[] exportXml;
+    private byte[] exportJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        xml = BenchFixtures.resultsXml(rows);
+        json = BenchFixtures.resultsJson(rows);
+        csv = BenchFixtures.resultsCsv(rows);
+        exportXml = BenchFixtures.exportXml(rows);
+        exportJson = BenchFixtures.exportJson(rows);
+    }
+
+    @Benchmark
+    public int readXml(Blackhole blackhole) throws IOException {
+        return drain(new ResultsReaderXml(new ByteArrayInputStream(xml)), blackhole);
+    }
+
+    @Benchmark
+    public int readJson(Blackhole blackhole) throws IOException {
+        return drain(new ResultsReaderJson(new ByteArrayInputStream(json)), blackhole);
+    }
+
+    @Benchmark
+    public int readCsv(Blackhole blackhole) throws IOException {
+        return drain(new ResultsReaderCsv(new ByteArrayInputStream(csv)), blackhole);
+    }
+
+    @Benchmark
+    public int readFastCsv(Blackhole blackhole) throws IOException {
+        return drain(new ResultsReaderFastCsv(new ByteArrayInputStream(csv)), blackhole);
+    }
+
+    @Benchmark
+    public int readExportXml(Blackhole blackhole) throws IOException {
+        return drain(new ResultsReaderXml(
+                new ExportResultsStream(new ByteArrayInputStream(exportXml))), blackhole);
+    }
+
+    @Benchmark
+    public int readExportJson(Blackhole blackhole) throws IOException {
+        return drain(new ResultsReaderJson(
+                new ExportResultsStream(new ByteArrayInputStream(exportJson))), blackhole);
+    }
+
+    static int drain(ResultsReader reader, Blackhole blackhole) throws IOException {
+        int count = 0;
+        Event event;
+        while ((event = reader.getNextEvent()) != null) {
+            blackhole.consume(event);
+            count++;
+        }
+        reader.close();
+        return count;
+    }
+}
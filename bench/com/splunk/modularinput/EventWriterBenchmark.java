@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk.modularinput;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares {@code EventWriter.synchronizedWriteEvent} with {@code BatchingEventWriter.writeEvent} for 1 to 32
+ * producer threads. Events go to a real file so that every flush costs a write system call, as it does on the
+ * stdout pipe to splunkd.
+ *
+ * Usage: {@code EventWriterBenchmark [eventsPerThread]}
+ */
+public class EventWriterBenchmark {
+    private static final int[] THREAD_COUNTS = new int[] {1, 2, 4, 8, 16, 32};
+    private static final int WARMUP_ROUNDS = 2;
+
+    interface WriterFactory {
+        EventWriter create(Writer out, Writer err) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int eventsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        WriterFactory synchronizedFactory = new WriterFactory() {
+            public EventWriter create(Writer out, Writer err) throws Exception {
+                return new EventWriter(out, err);
+            }
+        };
+        WriterFactory batchingFactory = new WriterFactory() {
+            public EventWriter create(Writer out, Writer err) throws Exception {
+                return new BatchingEventWriter(out, err);
+            }
+        };
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(synchronizedFactory, 4, eventsPerThread);
+            run(batchingFactory, 4, eventsPerThread);
+        }
+
+        System.out.println(String.format("%8s %22s %22s %8s", "threads", "synchronized (ev/s)",
+                "batching (ev/s)", "speedup"));
+        for (int threads : THREAD_COUNTS) {
+            double sync = run(synchronizedFactory, threads, eventsPerThread);
+            double batching = run(batchingFactory, threads, eventsPerThread);
+            System.out.println(String.format("%8d %22.0f %22.0f %7.1fx", threads, sync, batching, batching / sync));
+        }
+    }
+
+    /**
+     * Writes {@code eventsPerThread} events from each of {@code nThreads} threads and returns events per second,
+     * including the time {@code close} takes to drain.
+     */
+    static double run(WriterFactory factory, int nThreads, final int eventsPerThread) throws Exception {
+        File file = File.createTempFile("eventwriter", ".xml");
+        file.deleteOnExit();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        final EventWriter ew = factory.create(out, new StringWriter());
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(nThreads);
+        for (int t = 0; t < nThreads; t++) {
+            final String stanza = "bench://" + t;
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < eventsPerThread; i++) {
+                            Event event = new Event();
+                            event.setStanza(stanza);
+                            event.setTime(new Date());
+                            event.setSourceType("bench");
+                            event.setData("event number " + i + " from " + stanza);
+                            ew.synchronizedWriteEvent(event);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+            thread.start();
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        done.await();
+        ew.close();
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            // Nothing to do; the file is discarded.
+        }
+        file.delete();
+
+        return (double) nThreads * eventsPerThread * 1e9 / elapsedNanos;
+    }
+}
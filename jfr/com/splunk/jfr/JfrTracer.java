@@ -0,0 +1,264 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk.jfr;
+
+import com.splunk.RequestMetrics;
+import com.splunk.Tracer;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The {@code JfrTracer} class is a {@code Tracer} that emits Java Flight
+ * Recorder events, so that time spent in the SDK shows up next to GC, CPU,
+ * and I/O samples in a recording. It needs a JVM with the {@code jdk.jfr}
+ * module (JDK 11 or later, or JDK 8u262 or later).
+ * <p>
+ * The events are in the "Splunk SDK" category and are named
+ * {@code com.splunk.HttpRequest}, {@code com.splunk.AtomFeedParse},
+ * {@code com.splunk.ResultSet}, {@code com.splunk.ReceiverSubmit}, and
+ * {@code com.splunk.EventBatch}. They are enabled by default, and have no
+ * threshold, so they can be filtered in the recording settings like any JDK
+ * event, for example with {@code com.splunk.HttpRequest#threshold=10 ms}.
+ * <p>
+ * While no recording that enables an event is running, the SDK does not
+ * allocate anything for it, so the tracer can stay installed in production:
+ * <pre>
+ * JfrTracer.install();
+ * </pre>
+ */
+public class JfrTracer extends Tracer {
+    private static final EventType HTTP_REQUEST = EventType.getEventType(HttpRequestEvent.class);
+    private static final EventType ATOM_FEED_PARSE = EventType.getEventType(AtomFeedParseEvent.class);
+    private static final EventType RESULT_SET = EventType.getEventType(ResultSetEvent.class);
+    private static final EventType RECEIVER_SUBMIT = EventType.getEventType(ReceiverSubmitEvent.class);
+    private static final EventType EVENT_BATCH = EventType.getEventType(EventBatchEvent.class);
+
+    /**
+     * Installs a {@code JfrTracer} as the SDK's tracer.
+     */
+    public static void install() {
+        Tracer.setTracer(new JfrTracer());
+    }
+
+    @Override
+    public Object beginRequest(String method, String path) {
+        if (!HTTP_REQUEST.isEnabled()) {
+            return null;
+        }
+        HttpRequestEvent event = new HttpRequestEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endRequest(Object request, RequestMetrics metrics) {
+        HttpRequestEvent event = (HttpRequestEvent) request;
+        event.end();
+        if (event.shouldCommit()) {
+            event.method = metrics.getMethod();
+            event.endpoint = metrics.getEndpoint();
+            event.path = metrics.getPath();
+            event.status = metrics.getStatus();
+            event.bytesOut = metrics.getBytesOut();
+            event.bytesIn = metrics.getBytesIn();
+            event.connectTime = metrics.getConnectNanos();
+            event.firstByteTime = metrics.getFirstByteNanos();
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginFeedParse() {
+        if (!ATOM_FEED_PARSE.isEnabled()) {
+            return null;
+        }
+        AtomFeedParseEvent event = new AtomFeedParseEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endFeedParse(Object parse, int entries) {
+        AtomFeedParseEvent event = (AtomFeedParseEvent) parse;
+        event.end();
+        if (event.shouldCommit()) {
+            event.entries = entries;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginResultSet(String reader, boolean preview) {
+        if (!RESULT_SET.isEnabled()) {
+            return null;
+        }
+        ResultSetEvent event = new ResultSetEvent();
+        event.reader = reader;
+        event.preview = preview;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endResultSet(Object set, long rows) {
+        ResultSetEvent event = (ResultSetEvent) set;
+        event.end();
+        if (event.shouldCommit()) {
+            event.rows = rows;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginReceiverSubmit(String index, int chars) {
+        if (!RECEIVER_SUBMIT.isEnabled()) {
+            return null;
+        }
+        ReceiverSubmitEvent event = new ReceiverSubmitEvent();
+        event.index = index;
+        event.chars = chars;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endReceiverSubmit(Object submit, boolean succeeded) {
+        ReceiverSubmitEvent event = (ReceiverSubmitEvent) submit;
+        event.end();
+        if (event.shouldCommit()) {
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginEventBatch() {
+        if (!EVENT_BATCH.isEnabled()) {
+            return null;
+        }
+        EventBatchEvent event = new EventBatchEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endEventBatch(Object batch, int events, long chars) {
+        EventBatchEvent event = (EventBatchEvent) batch;
+        event.end();
+        if (event.shouldCommit()) {
+            event.events = events;
+            event.chars = chars;
+            event.commit();
+        }
+    }
+
+    @Name("com.splunk.HttpRequest")
+    @Label("Splunk HTTP Request")
+    @Description("An HTTP request to splunkd, until its response body was read or closed")
+    @Category("Splunk SDK")
+    static final class HttpRequestEvent extends Event {
+        @Label("Method")
+        String method;
+
+        @Label("Endpoint")
+        @Description("The request path with owner, app, and entity names replaced by placeholders")
+        String endpoint;
+
+        @Label("Path")
+        String path;
+
+        @Label("Status")
+        @Description("The HTTP status, or 0 if the request failed before a response arrived")
+        int status;
+
+        @Label("Bytes Out")
+        @DataAmount
+        long bytesOut;
+
+        @Label("Bytes In")
+        @DataAmount
+        long bytesIn;
+
+        @Label("Connect Time")
+        @Timespan
+        long connectTime;
+
+        @Label("Time to First Byte")
+        @Timespan
+        long firstByteTime;
+    }
+
+    @Name("com.splunk.AtomFeedParse")
+    @Label("Splunk Atom Feed Parse")
+    @Category("Splunk SDK")
+    @StackTrace(false)
+    static final class AtomFeedParseEvent extends Event {
+        @Label("Entries")
+        @Description("The number of entries parsed, or -1 if parsing failed")
+        int entries;
+    }
+
+    @Name("com.splunk.ResultSet")
+    @Label("Splunk Result Set")
+    @Description("A set of search results read by a ResultsReader")
+    @Category("Splunk SDK")
+    @StackTrace(false)
+    static final class ResultSetEvent extends Event {
+        @Label("Reader")
+        String reader;
+
+        @Label("Preview")
+        boolean preview;
+
+        @Label("Rows")
+        long rows;
+    }
+
+    @Name("com.splunk.ReceiverSubmit")
+    @Label("Splunk Receiver Submit")
+    @Category("Splunk SDK")
+    static final class ReceiverSubmitEvent extends Event {
+        @Label("Index")
+        String index;
+
+        @Label("Characters")
+        int chars;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("com.splunk.EventBatch")
+    @Label("Splunk Modular Input Event Batch")
+    @Description("A batch of modular input events written to Splunk")
+    @Category("Splunk SDK")
+    @StackTrace(false)
+    static final class EventBatchEvent extends Event {
+        @Label("Events")
+        int events;
+
+        @Label("Characters")
+        long chars;
+    }
+}
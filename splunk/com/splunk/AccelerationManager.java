@@ -0,0 +1,379 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code AccelerationManager} class keeps local acceleration jobs
+ * (see {@link DataModelObject#createLocalAccelerationJob}) alive for the data
+ * model objects it is asked to accelerate, and routes pivots on those objects
+ * to the jobs' tsidx namespaces.
+ * <p>
+ * Set the manager on a {@code Service} with
+ * {@link Service#setAccelerationManager}. From then on,
+ * {@link PivotSpecification#pivot()} uses the namespace {@code sid=<sid>} of
+ * the object's acceleration job once the job is done, unless the
+ * specification has a namespace of its own or its data model is accelerated
+ * globally; {@link Pivot#run()} then runs the {@code tstats} query instead of
+ * searching raw events.
+ * <p>
+ * Call {@link #renew()} periodically, or {@link #schedule} it, to touch jobs
+ * that are close to expiring and to start new jobs for the objects whose jobs
+ * are gone. Call {@link #close()} to cancel the jobs.
+ * <p>
+ * Pivots do not wait on each other for the state of a job: a pivot looks at
+ * a job that is not known to be done at most once every check interval, and
+ * the pivots that run meanwhile go without acceleration.
+ */
+public class AccelerationManager {
+    /** The default time to live, in seconds, below which jobs are touched. */
+    public static final int DEFAULT_RENEW_BELOW = 300;
+    /** The default time, in milliseconds, between looks at a job from pivots. */
+    public static final long DEFAULT_CHECK_INTERVAL = 1000;
+
+    private final String earliestTime;
+    private final int renewBelowSeconds;
+    private final long checkIntervalMillis;
+    private final Map<String, Acceleration> accelerations =
+            new LinkedHashMap<String, Acceleration>();
+
+    /**
+     * Creates a manager that indexes all time and touches jobs with less
+     * than {@link #DEFAULT_RENEW_BELOW} seconds to live.
+     */
+    public AccelerationManager() {
+        this(null, DEFAULT_RENEW_BELOW);
+    }
+
+    /**
+     * Creates a manager.
+     *
+     * @param earliestTime A time modifier (such as "-2w") for the earliest
+     * time to index, or {@code null} for all time.
+     * @param renewBelowSeconds The time to live, in seconds, below which
+     * {@link #renew()} touches a job.
+     */
+    public AccelerationManager(String earliestTime, int renewBelowSeconds) {
+        this(earliestTime, renewBelowSeconds, DEFAULT_CHECK_INTERVAL);
+    }
+
+    /**
+     * Creates a manager.
+     *
+     * @param earliestTime A time modifier (such as "-2w") for the earliest
+     * time to index, or {@code null} for all time.
+     * @param renewBelowSeconds The time to live, in seconds, below which
+     * {@link #renew()} touches a job.
+     * @param checkIntervalMillis The least time, in milliseconds, between
+     * looks at a job that is not known to be done from
+     * {@link #getAccelerationNamespace}.
+     */
+    public AccelerationManager(String earliestTime, int renewBelowSeconds, long checkIntervalMillis) {
+        if (renewBelowSeconds < 0)
+            throw new IllegalArgumentException("The renewal threshold must not be negative.");
+        if (checkIntervalMillis < 0)
+            throw new IllegalArgumentException("The check interval must not be negative.");
+        this.earliestTime = earliestTime;
+        this.renewBelowSeconds = renewBelowSeconds;
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    /**
+     * Starts keeping a local acceleration job for a data model object, unless
+     * there is one already.
+     *
+     * @param object The data model object.
+     * @return The acceleration job, or {@code null} if the object was
+     * released meanwhile.
+     */
+    public Job accelerate(DataModelObject object) {
+        String key = keyOf(object);
+        Acceleration acceleration;
+        synchronized (this) {
+            acceleration = accelerations.get(key);
+            if (acceleration == null) {
+                acceleration = new Acceleration(object);
+                accelerations.put(key, acceleration);
+            }
+        }
+        while (true) {
+            start(acceleration);
+            synchronized (this) {
+                // Wait for the job if another caller is starting it.
+                boolean interrupted = false;
+                while (acceleration.starting) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+                // Unless the other caller failed to start it.
+                if (acceleration.job != null || accelerations.get(key) != acceleration)
+                    return acceleration.job;
+            }
+        }
+    }
+
+    /**
+     * Returns the acceleration job of a data model object.
+     *
+     * @param object The data model object.
+     * @return The job, or {@code null} if the object is not accelerated by
+     * this manager.
+     */
+    public synchronized Job getJob(DataModelObject object) {
+        Acceleration acceleration = accelerations.get(keyOf(object));
+        return acceleration == null ? null : acceleration.job;
+    }
+
+    /**
+     * Returns the tsidx namespace to run pivots on a data model object
+     * against.
+     *
+     * @param object The data model object.
+     * @return The namespace {@code sid=<sid>} of the object's acceleration
+     * job, or {@code null} if the object is not accelerated or its job is not
+     * known to be done.
+     */
+    public String getAccelerationNamespace(DataModelObject object) {
+        Acceleration acceleration;
+        synchronized (this) {
+            acceleration = accelerations.get(keyOf(object));
+            if (acceleration == null || acceleration.job == null)
+                return null;
+            // Only look at the job when what we know of it is out of date.
+            if (acceleration.done && acceleration.expiresAt > System.currentTimeMillis())
+                return acceleration.getNamespace();
+        }
+        check(acceleration, false);
+        synchronized (this) {
+            return acceleration.getNamespace();
+        }
+    }
+
+    /**
+     * Refreshes every acceleration job: touches the jobs with less than the
+     * renewal threshold to live, and starts new jobs for the objects whose
+     * jobs have expired, failed, or been cancelled.
+     */
+    public void renew() {
+        List<Acceleration> current;
+        synchronized (this) {
+            current = new ArrayList<Acceleration>(accelerations.values());
+        }
+        for (Acceleration acceleration : current) {
+            check(acceleration, true);
+            start(acceleration);
+        }
+    }
+
+    /**
+     * Calls {@link #renew()} periodically.
+     *
+     * @param executor The executor to run the renewals on.
+     * @param period The time between renewals.
+     * @param unit The unit of {@code period}.
+     * @return The scheduled renewals, which can be cancelled.
+     */
+    public ScheduledFuture<?> schedule(ScheduledExecutorService executor, long period, TimeUnit unit) {
+        return executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    renew();
+                } catch (RuntimeException e) {
+                    // Try again at the next renewal rather than stop renewing.
+                }
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops accelerating a data model object and cancels its job.
+     *
+     * @param object The data model object.
+     */
+    public void release(DataModelObject object) {
+        Job job;
+        synchronized (this) {
+            Acceleration acceleration = accelerations.remove(keyOf(object));
+            if (acceleration == null)
+                return;
+            job = acceleration.drop();
+        }
+        // A job being started meanwhile is cancelled by start.
+        if (job != null)
+            job.cancel();
+    }
+
+    /**
+     * Stops accelerating every data model object and cancels their jobs.
+     */
+    public void close() {
+        List<Job> jobs = new ArrayList<Job>();
+        synchronized (this) {
+            for (Acceleration acceleration : accelerations.values()) {
+                Job job = acceleration.drop();
+                if (job != null)
+                    jobs.add(job);
+            }
+            accelerations.clear();
+        }
+        for (Job job : jobs)
+            job.cancel();
+    }
+
+    // Starts a job for an acceleration that has none, without holding the
+    // lock, so that pivots and the other objects do not wait for the request.
+    // Only one caller starts a job at a time; the others return at once.
+    private void start(Acceleration acceleration) {
+        synchronized (this) {
+            if (acceleration.job != null || acceleration.starting
+                    || accelerations.get(keyOf(acceleration.object)) != acceleration)
+                return;
+            acceleration.starting = true;
+        }
+        Job job = null;
+        boolean released = false;
+        try {
+            job = acceleration.object.createLocalAccelerationJob(earliestTime);
+        } finally {
+            synchronized (this) {
+                acceleration.starting = false;
+                released = accelerations.get(keyOf(acceleration.object)) != acceleration;
+                if (job != null && !released)
+                    acceleration.started(job);
+                notifyAll();
+            }
+        }
+        // Nobody wants the job if the object was released meanwhile.
+        if (released && job != null)
+            job.cancel();
+    }
+
+    // Looks at the job of an acceleration without holding the lock, so that
+    // pivots on other objects do not wait for the requests. Only one caller
+    // looks at a job at a time and, unless forced, no more than once every
+    // check interval.
+    private void check(Acceleration acceleration, boolean force) {
+        Job job;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (acceleration.job == null || acceleration.checking
+                    || (!force && now - acceleration.checkedAt < checkIntervalMillis))
+                return;
+            acceleration.checking = true;
+            acceleration.checkedAt = now;
+            job = acceleration.job;
+        }
+        boolean checked = false;
+        boolean alive = false;
+        boolean done = false;
+        int ttl = 0;
+        try {
+            job.refresh();
+            // These refresh the job again if it is not ready or done yet.
+            if (job.isReady()) {
+                alive = !job.isFailed() && !job.isZombie() && job.getTtl() > 0;
+                if (alive && job.getTtl() < renewBelowSeconds)
+                    job.control("touch").refresh();
+                if (alive) {
+                    done = job.isDone();
+                    ttl = job.getTtl();
+                }
+            } else {
+                alive = true;
+            }
+            checked = true;
+        } catch (HttpException e) {
+            if (e.getStatus() != 404)
+                throw e;
+            checked = true;
+        } finally {
+            synchronized (this) {
+                acceleration.checking = false;
+                // Unless the job was released or replaced meanwhile.
+                if (checked && acceleration.job == job) {
+                    if (alive)
+                        acceleration.update(done, ttl);
+                    else
+                        acceleration.drop();
+                }
+            }
+        }
+    }
+
+    private static String keyOf(DataModelObject object) {
+        return object.getDataModel().getName() + "/" + object.getName();
+    }
+
+    // The job of one data model object, and what was last seen of it. Guarded
+    // by the manager's lock.
+    private class Acceleration {
+        final DataModelObject object;
+        Job job;
+        boolean done;
+        // When the job needs touching, by its time to live when it was last
+        // seen.
+        long expiresAt;
+        // When the job was last looked at, and whether it is being looked at.
+        long checkedAt;
+        boolean checking;
+        // Whether a job is being started.
+        boolean starting;
+
+        Acceleration(DataModelObject object) {
+            this.object = object;
+        }
+
+        void started(Job job) {
+            this.job = job;
+            done = false;
+            expiresAt = 0;
+            checkedAt = 0;
+        }
+
+        // Records what was seen of the job.
+        void update(boolean done, int ttl) {
+            this.done = done;
+            expiresAt = System.currentTimeMillis()
+                    + 1000L * Math.max(0, ttl - renewBelowSeconds);
+        }
+
+        String getNamespace() {
+            return done && job != null ? "sid=" + job.getSid() : null;
+        }
+
+        // Forgets the job, and returns it.
+        Job drop() {
+            Job dropped = job;
+            job = null;
+            done = false;
+            expiresAt = 0;
+            return dropped;
+        }
+    }
+}
@@ -16,8 +16,6 @@
 
 package com.splunk;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -112,12 +110,17 @@ public class Args extends LinkedHashMap<String, Object> {
      */
     public static String encode(String value) {
         if (value == null) return "";
-        String result = null;
-        try {
-            result = URLEncoder.encode(value, "UTF-8");
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (!isUnreserved(value.charAt(i))) {
+                StringBuilder builder = new StringBuilder(length + 16);
+                builder.append(value, 0, i);
+                appendEncoded(builder, value, i);
+                return builder.toString();
+            }
         }
-        catch (UnsupportedEncodingException e) { assert false; }
-        return result;
+        // Most keys and many values need no escaping.
+        return value;
     }
 
     /**
@@ -128,19 +131,10 @@ public class Args extends LinkedHashMap<String, Object> {
      * @return The string.
      */
     public static String encode(Map<String, Object> args) {
-        return Args.create(args).encode();
-    }
-
-    // Encodes an argument with a list-valued argument.
-    private void 
-    encodeValues(StringBuilder builder, String key, String[] values) {
-        key = encode(key);
-        for (String value : values) {
-            if (builder.length() > 0) builder.append('&');
-            builder.append(key);
-            builder.append('=');
-            builder.append(encode(value));
-        }
+        if (args == null) return "";
+        StringBuilder builder = new StringBuilder(64 * args.size());
+        encode(builder, args);
+        return builder.toString();
     }
 
     /**
@@ -149,21 +143,96 @@ public class Args extends LinkedHashMap<String, Object> {
      * @return The UTF8-encoded string.
      */
     public String encode() {
-        StringBuilder builder = new StringBuilder();
-        for (Entry<String, Object> entry : entrySet()) {
-            if (builder.length() > 0) builder.append('&');
+        return encode(this);
+    }
+
+    /**
+     * Appends the encoding of a hash map of {@code String:String} or
+     * {@code String:String[]} to a builder, so that callers building a path
+     * and query string need only one buffer.
+     *
+     * @param builder The builder to append to.
+     * @param args The hash map.
+     */
+    static void encode(StringBuilder builder, Map<String, Object> args) {
+        boolean first = true;
+        for (Entry<String, Object> entry : args.entrySet()) {
             String key = entry.getKey();
             Object value = entry.getValue();
             if (value instanceof String[]) {
-                encodeValues(builder, key, (String[])value);
+                // Encodes an argument with a list-valued argument.
+                for (String item : (String[])value) {
+                    if (!first) builder.append('&');
+                    first = false;
+                    appendEncoded(builder, key, 0);
+                    builder.append('=');
+                    appendEncoded(builder, item, 0);
+                }
             }
             else {
-                builder.append(encode(key));
+                if (!first) builder.append('&');
+                first = false;
+                appendEncoded(builder, key, 0);
                 builder.append('=');
-                builder.append(encode(value.toString()));
+                appendEncoded(builder, value.toString(), 0);
             }
         }
-        return builder.toString();
+    }
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    // Appends value from index start, escaped exactly as URLEncoder does with
+    // UTF-8: unreserved characters are copied, spaces become '+', and
+    // everything else is percent-encoded UTF-8 (with '?' for unpaired
+    // surrogates).
+    private static void appendEncoded(StringBuilder builder, String value, int start) {
+        if (value == null) return;
+        int length = value.length();
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (isUnreserved(c)) {
+                builder.append(c);
+            }
+            else if (c == ' ') {
+                builder.append('+');
+            }
+            else if (c < 0x80) {
+                appendByte(builder, c);
+            }
+            else if (c < 0x800) {
+                appendByte(builder, 0xC0 | (c >> 6));
+                appendByte(builder, 0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                appendByte(builder, 0xF0 | (codePoint >> 18));
+                appendByte(builder, 0x80 | ((codePoint >> 12) & 0x3F));
+                appendByte(builder, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendByte(builder, 0x80 | (codePoint & 0x3F));
+            }
+            else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                appendByte(builder, '?');
+            }
+            else {
+                appendByte(builder, 0xE0 | (c >> 12));
+                appendByte(builder, 0x80 | ((c >> 6) & 0x3F));
+                appendByte(builder, 0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static void appendByte(StringBuilder builder, int b) {
+        builder.append('%');
+        builder.append(HEX[(b >> 4) & 0xF]);
+        builder.append(HEX[b & 0xF]);
+    }
+
+    // The characters URLEncoder leaves as they are.
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9')
+                || c == '.' || c == '-' || c == '*' || c == '_';
     }
 
     /**
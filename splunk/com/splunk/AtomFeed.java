@@ -54,18 +54,29 @@ public class AtomFeed extends AtomObject {
      * @return An {@code AtomFeed} instance representing the parsed stream.
      */
     public static AtomFeed parseStream(InputStream input) {
-        XMLStreamReader reader = createReader(input);
+        Tracer tracer = Tracer.getTracer();
+        Object trace = tracer == null ? null : tracer.beginFeedParse();
+        int entries = -1;
+        try {
+            XMLStreamReader reader = createReader(input);
 
-        AtomFeed result = AtomFeed.parse(reader);
+            AtomFeed result = AtomFeed.parse(reader);
 
-        try {
-            reader.close();
+            try {
+                reader.close();
+            }
+            catch (XMLStreamException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+
+            entries = result.entries.size();
+            return result;
         }
-        catch (XMLStreamException e) {
-            throw new RuntimeException(e.getMessage(), e);
+        finally {
+            if (trace != null) {
+                tracer.endFeedParse(trace, entries);
+            }
         }
-
-        return result;
     }
 
     /**
@@ -0,0 +1,510 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code ClusteredService} class spreads the work of a client over
+ * several search heads, such as the members of a search head cluster. Each
+ * member has a {@code Service} with its own session.
+ * <p>
+ * New searches go to the healthy member with the fewest outstanding requests
+ * or with the lowest latency, according to the {@link RoutingPolicy}. A
+ * search that cannot connect to its member is retried on the next one. The
+ * {@code Job} returned belongs to the {@code Service} of the member that
+ * created it, so its later requests (status, results, control) always go to
+ * the search head that owns its sid.
+ * <p>
+ * A member is marked unhealthy when a request cannot connect to it, and
+ * {@link #checkHealth()}, which can be {@link #scheduleHealthChecks scheduled},
+ * probes every member with a {@code server/info} request to mark it healthy
+ * or unhealthy again and to measure its latency.
+ * <p>
+ * For anything other than searches, use the {@code Service} returned by
+ * {@link #select()}, or that of a particular member.
+ */
+public class ClusteredService {
+    /**
+     * How new searches choose a member.
+     */
+    public enum RoutingPolicy {
+        /** The member with the fewest requests in progress. */
+        LEAST_OUTSTANDING_REQUESTS,
+        /** The member with the lowest recent latency. */
+        LOWEST_LATENCY
+    }
+
+    // The number of sids whose member is remembered.
+    private static final int MAX_OWNED_SIDS = 10000;
+    // The weight of the newest latency sample in the moving average.
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private final List<Member> members;
+    private final RoutingPolicy policy;
+    private final AtomicInteger nextMember = new AtomicInteger();
+    private final Map<String, Member> owners =
+            new LinkedHashMap<String, Member>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Member> eldest) {
+                    return size() > MAX_OWNED_SIDS;
+                }
+            };
+
+    /**
+     * The state of one search head.
+     */
+    public static class Member {
+        private final MemberService service;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile boolean healthy = true;
+        // The moving average of the time to the response, or -1 before any.
+        private volatile double latencyNanos = -1;
+        // Guarded by this member.
+        private boolean firstResponseSeen;
+
+        Member(Map<String, Object> args) {
+            this.service = new MemberService(this, args);
+        }
+
+        /**
+         * Returns the {@code Service} of this member.
+         *
+         * @return The service.
+         */
+        public Service getService() {
+            return service;
+        }
+
+        /**
+         * Indicates whether this member is considered able to serve requests.
+         *
+         * @return {@code true} if the member is healthy.
+         */
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        /**
+         * Returns the number of requests to this member in progress.
+         *
+         * @return The number of requests.
+         */
+        public int getOutstandingRequests() {
+            return outstanding.get();
+        }
+
+        /**
+         * Returns the moving average of the time the health checks of this
+         * member took.
+         *
+         * @return The latency, in milliseconds, or -1 if it is not known yet.
+         */
+        public double getLatencyMillis() {
+            double nanos = latencyNanos;
+            return nanos < 0 ? -1 : nanos / 1e6;
+        }
+
+        private synchronized void recordLatency(long nanos) {
+            // The first probe may include setting up the connection, and in
+            // a new process loading classes, so it says little about the
+            // member and would weigh on the average for a long time.
+            if (!firstResponseSeen) {
+                firstResponseSeen = true;
+                return;
+            }
+            latencyNanos = latencyNanos < 0
+                    ? nanos : LATENCY_WEIGHT * nanos + (1 - LATENCY_WEIGHT) * latencyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return service.getScheme() + "://" + service.getHost() + ":" + service.getPort()
+                    + (healthy ? "" : " (unhealthy)");
+        }
+    }
+
+    // A Service that counts the requests in progress on its member, and marks
+    // the member unhealthy when a request cannot connect to it.
+    static class MemberService extends Service {
+        private final Member member;
+
+        MemberService(Member member, Map<String, Object> args) {
+            super(args);
+            this.member = member;
+        }
+
+        // Whether there is a username and password to log in with.
+        boolean hasCredentials() {
+            return username != null && password != null;
+        }
+
+        @Override
+        public ResponseMessage send(String path, RequestMessage request) {
+            member.outstanding.incrementAndGet();
+            try {
+                return super.send(path, request);
+            } catch (RuntimeException e) {
+                if (isConnectFailure(e)) {
+                    member.healthy = false;
+                }
+                throw e;
+            } finally {
+                member.outstanding.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Creates a clustered service that routes by the number of outstanding
+     * requests.
+     *
+     * @param memberArgs The arguments of the {@code Service} of each member,
+     * such as {@link ServiceArgs} with the host, port, and credentials.
+     */
+    public ClusteredService(Collection<? extends Map<String, Object>> memberArgs) {
+        this(memberArgs, RoutingPolicy.LEAST_OUTSTANDING_REQUESTS);
+    }
+
+    /**
+     * Creates a clustered service.
+     *
+     * @param memberArgs The arguments of the {@code Service} of each member,
+     * such as {@link ServiceArgs} with the host, port, and credentials.
+     * @param policy How new searches choose a member.
+     */
+    public ClusteredService(Collection<? extends Map<String, Object>> memberArgs, RoutingPolicy policy) {
+        if (memberArgs.isEmpty())
+            throw new IllegalArgumentException("A clustered service needs at least one member.");
+        List<Member> members = new ArrayList<Member>();
+        for (Map<String, Object> args : memberArgs) {
+            members.add(new Member(args));
+        }
+        this.members = Collections.unmodifiableList(members);
+        this.policy = policy;
+    }
+
+    /**
+     * Creates a clustered service and logs in to its members.
+     *
+     * @param memberArgs The arguments of the {@code Service} of each member.
+     * @return The clustered service.
+     * @see #login()
+     */
+    public static ClusteredService connect(Collection<? extends Map<String, Object>> memberArgs) {
+        ClusteredService service = new ClusteredService(memberArgs);
+        service.login();
+        return service;
+    }
+
+    /**
+     * Logs in to every member that has a username and password. Members that cannot be
+     * reached are marked unhealthy, and are logged in to when a health check
+     * finds them again.
+     *
+     * @return This clustered service.
+     * @throws RuntimeException if no member could be logged in to.
+     */
+    public ClusteredService login() {
+        RuntimeException failure = null;
+        int loggedIn = 0;
+        for (Member member : members) {
+            try {
+                if (member.service.hasCredentials())
+                    member.service.login();
+                member.healthy = true;
+                loggedIn++;
+            } catch (RuntimeException e) {
+                member.healthy = false;
+                failure = e;
+            }
+        }
+        if (loggedIn == 0)
+            throw failure;
+        return this;
+    }
+
+    /**
+     * Returns the members, in the order they were given.
+     *
+     * @return The members.
+     */
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    /**
+     * Returns the routing policy.
+     *
+     * @return The policy.
+     */
+    public RoutingPolicy getRoutingPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the {@code Service} of the member that new work should go to.
+     *
+     * @return The service of the best member.
+     */
+    public Service select() {
+        return candidates().get(0).service;
+    }
+
+    /**
+     * Creates an asynchronous search job on the best member.
+     *
+     * @param query The search query.
+     * @return The search job, which belongs to the member's service.
+     */
+    public Job search(String query) {
+        return search(query, null);
+    }
+
+    /**
+     * Creates an asynchronous search job on the best member, trying the
+     * other members in turn if it cannot connect.
+     *
+     * @param query The search query.
+     * @param args The search arguments.
+     * @return The search job, which belongs to the member's service.
+     */
+    public Job search(final String query, final Map<String, Object> args) {
+        return route(new Request<Job>() {
+            public Job send(Member member) {
+                Job job = member.service.search(query, args);
+                synchronized (owners) {
+                    owners.put(job.getSid(), member);
+                }
+                return job;
+            }
+        });
+    }
+
+    /**
+     * Runs a oneshot search on the best member, trying the other members in
+     * turn if it cannot connect.
+     *
+     * @param query The search query.
+     * @param args The search arguments, or {@code null}.
+     * @return The results stream.
+     */
+    public InputStream oneshotSearch(final String query, final Map args) {
+        return route(new Request<InputStream>() {
+            public InputStream send(Member member) {
+                return member.service.oneshotSearch(query, args);
+            }
+        });
+    }
+
+    /**
+     * Runs an export search on the best member, trying the other members in
+     * turn if it cannot connect.
+     *
+     * @param query The search query.
+     * @param args The export arguments, or {@code null}.
+     * @return The results stream.
+     */
+    public InputStream export(final String query, final Map args) {
+        return route(new Request<InputStream>() {
+            public InputStream send(Member member) {
+                return member.service.export(query, args);
+            }
+        });
+    }
+
+    /**
+     * Returns a job on the member that owns it. Jobs created through this
+     * clustered service are found directly; other sids are looked up on each
+     * member in turn.
+     *
+     * @param sid The sid of the job.
+     * @return The job, or {@code null} if no member has it.
+     */
+    public Job getJob(String sid) {
+        Member owner;
+        synchronized (owners) {
+            owner = owners.get(sid);
+        }
+        if (owner != null)
+            return owner.service.getJob(sid);
+
+        for (Member member : candidates()) {
+            Job job = member.service.getJob(sid);
+            try {
+                job.refresh();
+            } catch (HttpException e) {
+                if (e.getStatus() == 404)
+                    continue;
+                throw e;
+            } catch (RuntimeException e) {
+                if (isConnectFailure(e))
+                    continue;
+                throw e;
+            }
+            synchronized (owners) {
+                owners.put(sid, member);
+            }
+            return job;
+        }
+        return null;
+    }
+
+    /**
+     * Probes every member with a {@code server/info} request, logging in to
+     * the members that have no session yet, and marks each one healthy or
+     * unhealthy. The time each probe takes is the member's latency; other
+     * requests, such as searches and exports that stream for as long as
+     * they have results, do not count toward it.
+     */
+    public void checkHealth() {
+        for (Member member : members) {
+            try {
+                if (member.service.getToken() == null && member.service.hasCredentials())
+                    member.service.login();
+                // getInfo() only creates the entity; refresh() sends the
+                // request.
+                ServiceInfo info = member.service.getInfo();
+                long start = System.nanoTime();
+                info.refresh();
+                member.recordLatency(System.nanoTime() - start);
+                member.healthy = true;
+            } catch (RuntimeException e) {
+                member.healthy = false;
+            }
+        }
+    }
+
+    /**
+     * Calls {@link #checkHealth()} periodically.
+     *
+     * @param executor The executor to run the health checks on.
+     * @param period The time between health checks.
+     * @param unit The unit of {@code period}.
+     * @return The scheduled health checks, which can be cancelled.
+     */
+    public ScheduledFuture<?> scheduleHealthChecks(ScheduledExecutorService executor, long period, TimeUnit unit) {
+        return executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                checkHealth();
+            }
+        }, period, period, unit);
+    }
+
+    // A request that can be sent to any member.
+    private interface Request<T> {
+        T send(Member member);
+    }
+
+    // Sends a request to the best member, and to the next ones if it cannot
+    // connect, which means the request did not reach the member.
+    private <T> T route(Request<T> request) {
+        RuntimeException failure = null;
+        for (Member member : candidates()) {
+            try {
+                return request.send(member);
+            } catch (RuntimeException e) {
+                if (!isConnectFailure(e))
+                    throw e;
+                // Until a health check finds it again, try it last.
+                member.healthy = false;
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    // The members in the order to try them: healthy ones first, by policy,
+    // with ties broken in turn.
+    private List<Member> candidates() {
+        int count = members.size();
+        int start = (nextMember.getAndIncrement() & Integer.MAX_VALUE) % count;
+        // Each member is ranked once, before sorting: other threads change
+        // the statistics meanwhile, and a sort whose comparisons change
+        // answers can fail.
+        List<Candidate> healthy = new ArrayList<Candidate>(count);
+        List<Member> unhealthy = new ArrayList<Member>();
+        for (int i = 0; i < count; i++) {
+            Member member = members.get((start + i) % count);
+            if (!member.healthy) {
+                unhealthy.add(member);
+            } else if (policy == RoutingPolicy.LOWEST_LATENCY) {
+                // Members not measured yet rank first, until a health check
+                // measures them.
+                healthy.add(new Candidate(member, member.latencyNanos));
+            } else {
+                healthy.add(new Candidate(member, member.outstanding.get()));
+            }
+        }
+        // A stable sort keeps the rotation among equal members.
+        Collections.sort(healthy);
+        List<Member> ordered = new ArrayList<Member>(count);
+        for (Candidate candidate : healthy) {
+            ordered.add(candidate.member);
+        }
+        ordered.addAll(unhealthy);
+        return ordered;
+    }
+
+    // A member, and its rank by the routing policy when it was chosen.
+    private static class Candidate implements Comparable<Candidate> {
+        final Member member;
+        final double rank;
+
+        Candidate(Member member, double rank) {
+            this.member = member;
+            this.rank = rank;
+        }
+
+        public int compareTo(Candidate other) {
+            return Double.compare(rank, other.rank);
+        }
+    }
+
+    // Whether a request failed to connect, so it never reached the member.
+    static boolean isConnectFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException
+                    || cause instanceof NoRouteToHostException
+                    || cause instanceof UnknownHostException) {
+                return true;
+            }
+            if (cause instanceof SocketTimeoutException
+                    && String.valueOf(cause.getMessage()).contains("connect")) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+}
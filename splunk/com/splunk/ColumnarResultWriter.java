@@ -0,0 +1,490 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@code ColumnarResultWriter} class writes search results in the Apache
+ * Arrow IPC streaming format, so that columnar tools can read them without
+ * parsing events. For example, with pyarrow:
+ * {@code pyarrow.ipc.open_stream(f).read_all()}.
+ * <p>
+ * Every field is a nullable string column. The schema is taken from the
+ * fields of the results and of the first batch of events; fields that
+ * appear only later are not written.
+ * <ul>
+ * <li>Fields with many repeated values (by default {@code host},
+ * {@code source}, {@code sourcetype}, {@code index} and
+ * {@code splunk_server}) are dictionary-encoded with 32-bit indices. New
+ * values are sent as delta dictionary batches.</li>
+ * <li>Fields that have several values in the first batch, or that are given
+ * to {@link #setMultiValueFields}, are list columns of strings, filled from
+ * {@link Event#getArray(String)}. Other fields hold the value returned by
+ * {@link Event#get(String)}.</li>
+ * </ul>
+ * Events are written in record batches of at most {@link #setBatchSize}
+ * rows, so memory use is bounded by the batch size (and by the dictionaries,
+ * which grow with the number of distinct values).
+ * <p>
+ * Example:
+ * <pre>
+ * ColumnarResultWriter writer = new ColumnarResultWriter(out);
+ * writer.write(new ResultsReaderXml(job.getResults(new Args("count", 0))));
+ * writer.close();
+ * </pre>
+ */
+public class ColumnarResultWriter implements Closeable {
+    private static final int CONTINUATION = 0xFFFFFFFF;
+    private static final short METADATA_V5 = 4;
+    private static final byte HEADER_SCHEMA = 1;
+    private static final byte HEADER_DICTIONARY_BATCH = 2;
+    private static final byte HEADER_RECORD_BATCH = 3;
+    private static final byte TYPE_UTF8 = 5;
+    private static final byte TYPE_LIST = 12;
+
+    private static final int UTF8 = 0;
+    private static final int DICTIONARY = 1;
+    private static final int LIST = 2;
+
+    private final OutputStream out;
+    private int batchSize = 1024;
+    private Set<String> dictionaryFields = new HashSet<String>(Arrays.asList(
+            "host", "source", "sourcetype", "index", "splunk_server"));
+    private Set<String> multiValueFields = new HashSet<String>();
+
+    private Column[] columns;
+    private long rows = 0;
+    private int batches = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a writer.
+     *
+     * @param out The stream to write to, which is closed by {@link #close}.
+     */
+    public ColumnarResultWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Sets the most rows in a record batch. The default is 1024.
+     *
+     * @param rows The batch size.
+     */
+    public void setBatchSize(int rows) {
+        if (rows < 1)
+            throw new IllegalArgumentException("The batch size must be positive.");
+        this.batchSize = rows;
+    }
+
+    /**
+     * Sets the fields to dictionary-encode. This must be called before the
+     * first results are written.
+     *
+     * @param fields The field names.
+     */
+    public void setDictionaryFields(String... fields) {
+        checkSchemaOpen();
+        this.dictionaryFields = new HashSet<String>(Arrays.asList(fields));
+    }
+
+    /**
+     * Sets fields to write as list columns, in addition to the fields that
+     * have several values in the first batch. This must be called before the
+     * first results are written.
+     *
+     * @param fields The field names.
+     */
+    public void setMultiValueFields(String... fields) {
+        checkSchemaOpen();
+        this.multiValueFields = new HashSet<String>(Arrays.asList(fields));
+    }
+
+    /**
+     * @return The number of rows written.
+     */
+    public long getRowCount() {
+        return rows;
+    }
+
+    /**
+     * @return The number of record batches written.
+     */
+    public int getBatchCount() {
+        return batches;
+    }
+
+    /**
+     * Writes all the events of a set of results. The first call writes the
+     * schema; later calls append to the same stream and schema.
+     *
+     * @param results The results, such as a {@link ResultsReader}.
+     * @return The number of rows written by this call.
+     * @throws IOException If the stream cannot be written.
+     */
+    public long write(SearchResults results) throws IOException {
+        if (closed)
+            throw new IllegalStateException("The writer is closed.");
+        long written = 0;
+        Iterator<Event> events = results.iterator();
+        List<Event> batch = new ArrayList<Event>(batchSize);
+        while (true) {
+            while (batch.size() < batchSize && events.hasNext())
+                batch.add(events.next());
+            if (batch.isEmpty())
+                break;
+            if (columns == null)
+                writeSchema(fieldsOf(results), batch);
+            writeBatch(batch);
+            written += batch.size();
+            if (batch.size() < batchSize)
+                break;
+            batch.clear();
+        }
+        if (columns == null)
+            writeSchema(fieldsOf(results), batch);
+        return written;
+    }
+
+    /**
+     * Ends the stream and closes it. If no results were written, the stream
+     * has an empty schema.
+     *
+     * @throws IOException If the stream cannot be written.
+     */
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            if (columns == null)
+                writeSchema(new ArrayList<String>(), new ArrayList<Event>());
+            writeInt(CONTINUATION);
+            writeInt(0);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void checkSchemaOpen() {
+        if (columns != null)
+            throw new IllegalStateException("The schema has already been written.");
+    }
+
+    private static Collection<String> fieldsOf(SearchResults results) {
+        try {
+            Collection<String> fields = results.getFields();
+            return fields == null ? new ArrayList<String>() : fields;
+        } catch (UnsupportedOperationException e) {
+            // The JSON reader does not know its fields up front.
+            return new ArrayList<String>();
+        }
+    }
+
+    private void writeSchema(Collection<String> declared, List<Event> first) throws IOException {
+        Set<String> names = new LinkedHashSet<String>(declared);
+        for (Event event : first)
+            names.addAll(event.keySet());
+
+        columns = new Column[names.size()];
+        List<FlatBuffer.Table> fields = new ArrayList<FlatBuffer.Table>();
+        int i = 0;
+        for (String name : names) {
+            int kind = multiValueFields.contains(name) ? LIST
+                    : dictionaryFields.contains(name) ? DICTIONARY : UTF8;
+            if (kind != LIST) {
+                for (Event event : first) {
+                    String[] values = event.getArray(name);
+                    if (values != null && values.length > 1) {
+                        kind = LIST;
+                        break;
+                    }
+                }
+            }
+            columns[i] = new Column(name, kind, i);
+            fields.add(columns[i].field());
+            i++;
+        }
+
+        FlatBuffer.Table schema = new FlatBuffer.Table(4)
+                .putShort(0, 0) // little endian
+                .putTables(1, fields);
+        writeMessage(HEADER_SCHEMA, schema, new Body());
+    }
+
+    private void writeBatch(List<Event> batch) throws IOException {
+        Body body = new Body();
+        for (Column column : columns)
+            column.encode(batch, body);
+
+        // Dictionaries must precede the first batch that uses their values.
+        for (Column column : columns) {
+            if (column.kind == DICTIONARY && (column.pending.size() > 0 || !column.dictionarySent))
+                writeDictionary(column);
+        }
+
+        writeMessage(HEADER_RECORD_BATCH, body.recordBatch(batch.size()), body);
+        rows += batch.size();
+        batches++;
+    }
+
+    private void writeDictionary(Column column) throws IOException {
+        Body body = new Body();
+        body.strings(column.pending);
+        FlatBuffer.Table dictionaryBatch = new FlatBuffer.Table(3)
+                .putLong(0, column.id)
+                .putTable(1, body.recordBatch(column.pending.size()))
+                .putBoolean(2, column.dictionarySent);
+        writeMessage(HEADER_DICTIONARY_BATCH, dictionaryBatch, body);
+        column.pending.clear();
+        column.dictionarySent = true;
+    }
+
+    // Writes an encapsulated message: a continuation marker, the length of
+    // the metadata, the metadata, and the body.
+    private void writeMessage(byte type, FlatBuffer.Table header, Body body) throws IOException {
+        FlatBuffer.Table message = new FlatBuffer.Table(5)
+                .putShort(0, METADATA_V5)
+                .putByte(1, type)
+                .putTable(2, header)
+                .putLong(3, body.size);
+        byte[] metadata = FlatBuffer.serialize(message);
+        writeInt(CONTINUATION);
+        writeInt(metadata.length);
+        out.write(metadata);
+        out.write(body.bytes, 0, body.size);
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static FlatBuffer.Table utf8Field(String name) {
+        return new FlatBuffer.Table(7)
+                .putString(0, name)
+                .putBoolean(1, true)
+                .putByte(2, TYPE_UTF8)
+                .putTable(3, new FlatBuffer.Table(0))
+                .putTables(5, new ArrayList<FlatBuffer.Table>());
+    }
+
+    // A column of the schema, and its dictionary if it is encoded.
+    private static final class Column {
+        final String name;
+        final int kind;
+        final int id;
+        final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        final List<String> pending = new ArrayList<String>();
+        boolean dictionarySent = false;
+
+        Column(String name, int kind, int id) {
+            this.name = name;
+            this.kind = kind;
+            this.id = id;
+        }
+
+        FlatBuffer.Table field() {
+            FlatBuffer.Table field = utf8Field(name);
+            if (kind == DICTIONARY) {
+                FlatBuffer.Table indexType = new FlatBuffer.Table(2)
+                        .putInt(0, 32)
+                        .putBoolean(1, true);
+                field.putTable(4, new FlatBuffer.Table(4)
+                        .putLong(0, id)
+                        .putTable(1, indexType)
+                        .putBoolean(2, false));
+            } else if (kind == LIST) {
+                List<FlatBuffer.Table> children = new ArrayList<FlatBuffer.Table>();
+                children.add(utf8Field("item"));
+                field.putByte(2, TYPE_LIST)
+                        .putTable(3, new FlatBuffer.Table(0))
+                        .putTables(5, children);
+            }
+            return field;
+        }
+
+        void encode(List<Event> batch, Body body) {
+            int length = batch.size();
+            if (kind == UTF8) {
+                String[] values = new String[length];
+                for (int i = 0; i < length; i++)
+                    values[i] = batch.get(i).get(name);
+                body.strings(Arrays.asList(values));
+            } else if (kind == DICTIONARY) {
+                boolean[] valid = new boolean[length];
+                int[] indices = new int[length];
+                for (int i = 0; i < length; i++) {
+                    String value = batch.get(i).get(name);
+                    if (value == null)
+                        continue;
+                    Integer index = dictionary.get(value);
+                    if (index == null) {
+                        index = dictionary.size();
+                        dictionary.put(value, index);
+                        pending.add(value);
+                    }
+                    valid[i] = true;
+                    indices[i] = index;
+                }
+                body.node(length, body.validity(valid));
+                body.ints(indices, length);
+            } else {
+                boolean[] valid = new boolean[length];
+                int[] offsets = new int[length + 1];
+                List<String> items = new ArrayList<String>();
+                for (int i = 0; i < length; i++) {
+                    String[] values = batch.get(i).getArray(name);
+                    if (values != null) {
+                        valid[i] = true;
+                        items.addAll(Arrays.asList(values));
+                    }
+                    offsets[i + 1] = items.size();
+                }
+                body.node(length, body.validity(valid));
+                body.ints(offsets, length + 1);
+                body.strings(items);
+            }
+        }
+    }
+
+    // The body of a message: its buffers, each padded to 8 bytes, and the
+    // field nodes and buffer locations that describe them, in the order of
+    // the columns.
+    private static final class Body {
+        byte[] bytes = new byte[1024];
+        int size = 0;
+        final List<Long> nodes = new ArrayList<Long>();
+        final List<Long> buffers = new ArrayList<Long>();
+
+        void node(long length, long nulls) {
+            nodes.add(length);
+            nodes.add(nulls);
+        }
+
+        // Writes a validity bitmap, which is left empty when every value is
+        // valid, and returns the number of nulls.
+        int validity(boolean[] valid) {
+            int nulls = 0;
+            for (boolean v : valid) {
+                if (!v)
+                    nulls++;
+            }
+            if (nulls == 0) {
+                finishBuffer(0);
+                return 0;
+            }
+            int length = (valid.length + 7) / 8;
+            ensure(length + 8);
+            for (int i = 0; i < valid.length; i++) {
+                if (valid[i])
+                    bytes[size + (i >>> 3)] |= 1 << (i & 7);
+            }
+            finishBuffer(length);
+            return nulls;
+        }
+
+        void ints(int[] values, int count) {
+            ensure(4 * count + 8);
+            int start = size;
+            for (int i = 0; i < count; i++) {
+                int value = values[i];
+                int p = start + 4 * i;
+                bytes[p] = (byte) value;
+                bytes[p + 1] = (byte) (value >>> 8);
+                bytes[p + 2] = (byte) (value >>> 16);
+                bytes[p + 3] = (byte) (value >>> 24);
+            }
+            finishBuffer(4 * count);
+        }
+
+        // Writes a string array: a node, its validity, offsets and data.
+        void strings(List<String> values) {
+            int length = values.size();
+            boolean[] valid = new boolean[length];
+            byte[][] utf8 = new byte[length][];
+            int[] offsets = new int[length + 1];
+            for (int i = 0; i < length; i++) {
+                String value = values.get(i);
+                valid[i] = value != null;
+                utf8[i] = value == null ? new byte[0] : utf8(value);
+                offsets[i + 1] = offsets[i] + utf8[i].length;
+            }
+            node(length, validity(valid));
+            ints(offsets, length + 1);
+            ensure(offsets[length] + 8);
+            for (int i = 0; i < length; i++)
+                System.arraycopy(utf8[i], 0, bytes, size + offsets[i], utf8[i].length);
+            finishBuffer(offsets[length]);
+        }
+
+        FlatBuffer.Table recordBatch(int length) {
+            return new FlatBuffer.Table(4)
+                    .putLong(0, length)
+                    .putLongStructs(1, toArray(nodes), 2)
+                    .putLongStructs(2, toArray(buffers), 2);
+        }
+
+        // Records a buffer of the given length at the end of the body, and
+        // pads the body to 8 bytes.
+        private void finishBuffer(int length) {
+            buffers.add((long) size);
+            buffers.add((long) length);
+            size += (length + 7) & ~7;
+        }
+
+        private void ensure(int count) {
+            if (size + count > bytes.length) {
+                byte[] grown = new byte[Math.max(bytes.length * 2, size + count)];
+                System.arraycopy(bytes, 0, grown, 0, size);
+                bytes = grown;
+            }
+        }
+
+        private static byte[] utf8(String value) {
+            try {
+                return value.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        }
+
+        private static long[] toArray(List<Long> values) {
+            long[] array = new long[values.size()];
+            for (int i = 0; i < array.length; i++)
+                array[i] = values.get(i);
+            return array;
+        }
+    }
+}
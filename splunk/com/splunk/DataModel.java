@@ -18,6 +18,7 @@ package com.splunk;
 
 import com.google.gson.*;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -40,6 +41,9 @@ public class DataModel extends Entity {
     // Human readable description, as opposed to the raw JSON, which is also called 'description'
     private String description;
 
+    // The index of the objects in the raw JSON, shared by models with the same JSON.
+    private DataModelDescription index;
+    // The objects parsed so far.
     private Map<String, DataModelObject> objects;
     private boolean accelerationEnabled;
     private String earliestAcceleratedTime;
@@ -60,7 +64,7 @@ public class DataModel extends Entity {
      * @return true if there is an object with that name; false otherwise.
      */
     public boolean containsObject(String name) {
-        return this.objects.containsKey(name);
+        return this.index.containsObject(name);
     }
 
     /**
@@ -69,15 +73,24 @@ public class DataModel extends Entity {
      * @param name Name of the object to retrieve.
      * @return a DataModelObject if there is such an object; null otherwise.
      */
-    public DataModelObject getObject(String name) {
-        return this.objects.get(name);
+    public synchronized DataModelObject getObject(String name) {
+        DataModelObject object = this.objects.get(name);
+        if (object == null && this.index.containsObject(name)) {
+            object = this.index.parseObject(this, name);
+            this.objects.put(name, object);
+        }
+        return object;
     }
 
     /**
      * @return a collection of all objects in this data model.
      */
     public Collection<DataModelObject> getObjects() {
-        return Collections.unmodifiableCollection(objects.values());
+        Collection<DataModelObject> result = new ArrayList<DataModelObject>();
+        for (String name : index.getObjectNames()) {
+            result.add(getObject(name));
+        }
+        return Collections.unmodifiableCollection(result);
     }
 
     /**
@@ -135,32 +148,23 @@ public class DataModel extends Entity {
     /**
      * Parse the JSON returned from splunkd describing this data model.
      *
-     * This method writes the results into fields of this object.
+     * This method writes the results into fields of this object. Only the
+     * index of the objects is built here; each object is parsed the first
+     * time it is asked for.
      *
      * @param input a String containing JSON.
      */
     private void parseDescription(String input) {
+        index = DataModelDescription.of(input);
         objects = new HashMap<String, DataModelObject>();
 
-        JsonElement rootElement = jsonParser.parse(input);
-
-        for (Entry<String, JsonElement> entry : rootElement.getAsJsonObject().entrySet()) {
-            if (entry.getKey().equals(MODEL_NAME_LABEL)) {
-                content.put(MODEL_NAME_LABEL, entry.getValue().getAsString());
-            } else if (entry.getKey().equals(DISPLAY_NAME_LABEL)) {
-                content.put(DISPLAY_NAME_LABEL, entry.getValue().getAsString());
-            } else if (entry.getKey().equals(DESCRIPTION_LABEL)) {
-                description = entry.getValue().getAsString();
-            } else if (entry.getKey().equals("objects")) {
-                JsonArray objectArray = entry.getValue().getAsJsonArray();
-                for (JsonElement object : objectArray) {
-                    DataModelObject dmo = DataModelObject.parse(this, object);
-                    objects.put(dmo.getName(), dmo);
-                }
-            } else {
-                // Allow new keys without complaining
-            }
+        if (index.getModelName() != null) {
+            content.put(MODEL_NAME_LABEL, index.getModelName());
         }
+        if (index.getDisplayName() != null) {
+            content.put(DISPLAY_NAME_LABEL, index.getDisplayName());
+        }
+        description = index.getDescription();
     }
 
     /**
@@ -298,5 +302,11 @@ public class DataModel extends Entity {
 
         // Now update like we would any other entity.
         super.update();
+
+        // Pivots translated against the old definition are stale.
+        PivotCache pivotCache = getService().getPivotCache();
+        if (pivotCache != null) {
+            pivotCache.invalidate(getName());
+        }
     }
 }
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code DataModelDescription} class is an index of the JSON description
+ * of a data model: its names and description, and the range of the JSON text
+ * that holds each of its objects. The objects themselves are only parsed when
+ * {@link #parseObject} is called, so a {@code DataModel} with hundreds of
+ * objects only pays for the ones that are used.
+ * <p>
+ * Descriptions are immutable and shared: every {@code DataModel} loaded with
+ * the same JSON text gets the same index from {@link #of}, as long as the
+ * recently used descriptions fit in a few megabytes. {@link #clearShared}
+ * forgets them all.
+ */
+class DataModelDescription {
+    private static final JsonParser jsonParser = new JsonParser();
+    // The total length of the descriptions to keep for sharing, in chars.
+    static final long MAX_SHARED_CHARS = 4L * 1024 * 1024;
+    // Keyed by the digest of the JSON, so that the keys do not hold the text
+    // a second time; in access order, so the least recently used goes first.
+    private static final LinkedHashMap<String, DataModelDescription> shared =
+            new LinkedHashMap<String, DataModelDescription>(16, 0.75f, true);
+    private static long sharedChars = 0;
+
+    private final String json;
+    private String modelName;
+    private String displayName;
+    private String description;
+    // The offsets in json of each object, by name, in the order of the description.
+    private final Map<String, int[]> objectRanges = new LinkedHashMap<String, int[]>();
+
+    /**
+     * Returns the index of a JSON description, indexing it if no equal
+     * description has been indexed recently.
+     *
+     * @param json The JSON description of a data model.
+     * @return The index.
+     */
+    static DataModelDescription of(String json) {
+        String key = digest(json);
+        synchronized (shared) {
+            DataModelDescription index = shared.get(key);
+            if (index != null && index.json.equals(json))
+                return index;
+        }
+        // Index outside the lock; if two threads race, both indexes are equal.
+        DataModelDescription index = new DataModelDescription(json);
+        // A description longer than the bound is not kept at all.
+        if (json.length() > MAX_SHARED_CHARS)
+            return index;
+        synchronized (shared) {
+            DataModelDescription other = shared.get(key);
+            if (other != null && other.json.equals(json))
+                return other;
+            if (other != null)
+                sharedChars -= other.json.length();
+            shared.put(key, index);
+            sharedChars += json.length();
+            // Evict the least recently used, down to the bound.
+            Iterator<DataModelDescription> eldest = shared.values().iterator();
+            while (sharedChars > MAX_SHARED_CHARS && eldest.hasNext()) {
+                sharedChars -= eldest.next().json.length();
+                eldest.remove();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Forgets every shared description, so that their memory can be
+     * reclaimed once no {@code DataModel} uses them.
+     */
+    static void clearShared() {
+        synchronized (shared) {
+            shared.clear();
+            sharedChars = 0;
+        }
+    }
+
+    /**
+     * @return The total length of the shared descriptions, in chars.
+     */
+    static long sharedChars() {
+        synchronized (shared) {
+            return sharedChars;
+        }
+    }
+
+    private static String digest(String json) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+                key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private DataModelDescription(String json) {
+        this.json = json;
+        try {
+            new Scanner(json).scanModel();
+        } catch (RuntimeException e) {
+            // Let the full parser report what is wrong with the JSON.
+            jsonParser.parse(json);
+            throw e;
+        }
+    }
+
+    /**
+     * @return The name of the data model, or {@code null}.
+     */
+    String getModelName() {
+        return modelName;
+    }
+
+    /**
+     * @return The human readable name of the data model, or {@code null}.
+     */
+    String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @return The human readable description of the data model, or {@code null}.
+     */
+    String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return The names of the objects, in the order of the description.
+     */
+    List<String> getObjectNames() {
+        return Collections.unmodifiableList(new ArrayList<String>(objectRanges.keySet()));
+    }
+
+    /**
+     * @param name The name of an object.
+     * @return {@code true} if the data model has an object of that name.
+     */
+    boolean containsObject(String name) {
+        return objectRanges.containsKey(name);
+    }
+
+    /**
+     * Parses one object of the description.
+     *
+     * @param dataModel The data model the object belongs to.
+     * @param name The name of the object.
+     * @return The object, or {@code null} if there is no object of that name.
+     */
+    DataModelObject parseObject(DataModel dataModel, String name) {
+        int[] range = objectRanges.get(name);
+        if (range == null)
+            return null;
+        JsonElement object = jsonParser.parse(json.substring(range[0], range[1]));
+        return DataModelObject.parse(dataModel, object);
+    }
+
+    // Finds the top-level properties and the extent of each object without
+    // building a tree.
+    private class Scanner {
+        private final String text;
+        private int position = 0;
+
+        Scanner(String text) {
+            this.text = text;
+        }
+
+        void scanModel() {
+            expect('{');
+            if (peek() == '}') {
+                position++;
+                return;
+            }
+            while (true) {
+                String key = readString();
+                expect(':');
+                if (key.equals("modelName")) {
+                    modelName = readScalar();
+                } else if (key.equals("displayName")) {
+                    displayName = readScalar();
+                } else if (key.equals("description")) {
+                    description = readScalar();
+                } else if (key.equals("objects") && peek() == '[') {
+                    scanObjects();
+                } else {
+                    skipValue();
+                }
+                if (peek() == ',') {
+                    position++;
+                    continue;
+                }
+                expect('}');
+                return;
+            }
+        }
+
+        private void scanObjects() {
+            expect('[');
+            if (peek() == ']') {
+                position++;
+                return;
+            }
+            while (true) {
+                peek();
+                int start = position;
+                String name = scanObjectName();
+                // Later objects of the same name win, as they do in a full parse.
+                objectRanges.remove(name);
+                objectRanges.put(name, new int[] {start, position});
+                if (peek() == ',') {
+                    position++;
+                    continue;
+                }
+                expect(']');
+                return;
+            }
+        }
+
+        // Skips one object and returns the value of its objectName.
+        private String scanObjectName() {
+            String name = null;
+            expect('{');
+            if (peek() == '}') {
+                position++;
+                return null;
+            }
+            while (true) {
+                String key = readString();
+                expect(':');
+                if (key.equals("objectName")) {
+                    name = readScalar();
+                } else {
+                    skipValue();
+                }
+                if (peek() == ',') {
+                    position++;
+                    continue;
+                }
+                expect('}');
+                return name;
+            }
+        }
+
+        // Reads a string, number, or literal as a string.
+        private String readScalar() {
+            char c = peek();
+            if (c == '"')
+                return readString();
+            int start = position;
+            skipValue();
+            String literal = text.substring(start, position).trim();
+            return literal.equals("null") ? null : literal;
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder builder = null;
+            int start = position;
+            while (true) {
+                char c = charAt(position++);
+                if (c == '"') {
+                    if (builder == null)
+                        return text.substring(start, position - 1);
+                    return builder.append(text, start, position - 1).toString();
+                }
+                if (c != '\\')
+                    continue;
+                if (builder == null)
+                    builder = new StringBuilder();
+                builder.append(text, start, position - 1);
+                char escaped = charAt(position++);
+                switch (escaped) {
+                    case 'b': builder.append('\b'); break;
+                    case 'f': builder.append('\f'); break;
+                    case 'n': builder.append('\n'); break;
+                    case 'r': builder.append('\r'); break;
+                    case 't': builder.append('\t'); break;
+                    case 'u':
+                        builder.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default: builder.append(escaped);
+                }
+                start = position;
+            }
+        }
+
+        private void skipValue() {
+            char c = peek();
+            if (c == '"') {
+                skipString();
+                return;
+            }
+            if (c != '{' && c != '[') {
+                while (position < text.length() && ",}] \t\r\n".indexOf(text.charAt(position)) < 0)
+                    position++;
+                return;
+            }
+            int depth = 0;
+            while (true) {
+                c = charAt(position);
+                if (c == '"') {
+                    skipString();
+                    continue;
+                }
+                position++;
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (--depth == 0)
+                        return;
+                }
+            }
+        }
+
+        private void skipString() {
+            position++;
+            while (true) {
+                char c = charAt(position++);
+                if (c == '"')
+                    return;
+                if (c == '\\')
+                    position++;
+            }
+        }
+
+        private char peek() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+                position++;
+            return charAt(position);
+        }
+
+        private void expect(char expected) {
+            char c = peek();
+            if (c != expected)
+                throw new JsonParseException("Expected '" + expected + "' at " + position + " of the data model JSON.");
+            position++;
+        }
+
+        private char charAt(int index) {
+            if (index >= text.length())
+                throw new JsonParseException("Unexpected end of the data model JSON.");
+            return text.charAt(index);
+        }
+    }
+}
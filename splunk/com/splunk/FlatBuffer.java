@@ -0,0 +1,263 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+/**
+ * The {@code FlatBuffer} class serializes small trees of FlatBuffers tables,
+ * which is all that the Arrow IPC metadata written by
+ * {@link ColumnarResultWriter} needs, without the FlatBuffers library.
+ * <p>
+ * Tables are laid out front to back: each table is preceded by its vtable
+ * and followed by the strings, vectors and tables it refers to, so that
+ * every reference is a forward offset, as the format requires.
+ */
+final class FlatBuffer {
+    private byte[] bytes = new byte[512];
+    private int size = 0;
+
+    private FlatBuffer() {}
+
+    /**
+     * Serializes a table as the root of a buffer. The buffer is padded to a
+     * multiple of 8 bytes.
+     *
+     * @param root The root table.
+     * @return The buffer.
+     */
+    static byte[] serialize(Table root) {
+        FlatBuffer buffer = new FlatBuffer();
+        buffer.reserve(4);
+        int position = buffer.writeTable(root);
+        buffer.putInt(0, position);
+        buffer.pad(8);
+        byte[] result = new byte[buffer.size];
+        System.arraycopy(buffer.bytes, 0, result, 0, buffer.size);
+        return result;
+    }
+
+    /**
+     * A table under construction, whose fields are set by their number in
+     * the schema. Unset fields take their schema defaults.
+     */
+    static final class Table {
+        private final Object[] fields;
+
+        Table(int fieldCount) {
+            this.fields = new Object[fieldCount];
+        }
+
+        Table putBoolean(int field, boolean value) {
+            fields[field] = new Scalar(1, value ? 1 : 0);
+            return this;
+        }
+
+        Table putByte(int field, int value) {
+            fields[field] = new Scalar(1, value);
+            return this;
+        }
+
+        Table putShort(int field, int value) {
+            fields[field] = new Scalar(2, value);
+            return this;
+        }
+
+        Table putInt(int field, int value) {
+            fields[field] = new Scalar(4, value);
+            return this;
+        }
+
+        Table putLong(int field, long value) {
+            fields[field] = new Scalar(8, value);
+            return this;
+        }
+
+        Table putString(int field, String value) {
+            fields[field] = value;
+            return this;
+        }
+
+        Table putTable(int field, Table value) {
+            fields[field] = value;
+            return this;
+        }
+
+        Table putTables(int field, List<Table> value) {
+            fields[field] = value.toArray(new Table[value.size()]);
+            return this;
+        }
+
+        // A vector of structs made of longs, such as Arrow's FieldNode and
+        // Buffer, given as the concatenation of their fields.
+        Table putLongStructs(int field, long[] values, int longsPerStruct) {
+            fields[field] = new LongStructs(values, longsPerStruct);
+            return this;
+        }
+    }
+
+    private static final class Scalar {
+        final int size;
+        final long value;
+
+        Scalar(int size, long value) {
+            this.size = size;
+            this.value = value;
+        }
+    }
+
+    private static final class LongStructs {
+        final long[] values;
+        final int longsPerStruct;
+
+        LongStructs(long[] values, int longsPerStruct) {
+            this.values = values;
+            this.longsPerStruct = longsPerStruct;
+        }
+    }
+
+    private static int inlineSize(Object field) {
+        return field instanceof Scalar ? ((Scalar) field).size : 4;
+    }
+
+    private int writeTable(Table table) {
+        Object[] fields = table.fields;
+
+        // Lay out the fields from the largest to the smallest, after the
+        // offset to the vtable, so that each is aligned to its size.
+        int[] offsets = new int[fields.length];
+        int inline = 4;
+        int lastField = -1;
+        for (int fieldSize = 8; fieldSize >= 1; fieldSize /= 2) {
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] == null || inlineSize(fields[i]) != fieldSize)
+                    continue;
+                inline = (inline + fieldSize - 1) & -fieldSize;
+                offsets[i] = inline;
+                inline += fieldSize;
+                lastField = Math.max(lastField, i);
+            }
+        }
+
+        pad(2);
+        int vtable = size;
+        int vtableSize = 4 + 2 * (lastField + 1);
+        reserve(vtableSize);
+        putShort(vtable, vtableSize);
+        putShort(vtable + 2, inline);
+        for (int i = 0; i <= lastField; i++)
+            putShort(vtable + 4 + 2 * i, offsets[i]);
+
+        pad(8);
+        int start = size;
+        reserve(inline);
+        putInt(start, start - vtable);
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] instanceof Scalar) {
+                Scalar scalar = (Scalar) fields[i];
+                for (int b = 0; b < scalar.size; b++)
+                    bytes[start + offsets[i] + b] = (byte) (scalar.value >>> (8 * b));
+            }
+        }
+
+        for (int i = 0; i < fields.length; i++) {
+            Object field = fields[i];
+            if (field == null || field instanceof Scalar)
+                continue;
+            int position;
+            if (field instanceof String)
+                position = writeString((String) field);
+            else if (field instanceof Table)
+                position = writeTable((Table) field);
+            else if (field instanceof Table[])
+                position = writeTables((Table[]) field);
+            else
+                position = writeLongStructs((LongStructs) field);
+            putInt(start + offsets[i], position - (start + offsets[i]));
+        }
+        return start;
+    }
+
+    private int writeString(String value) {
+        byte[] utf8;
+        try {
+            utf8 = value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        pad(4);
+        int start = size;
+        reserve(4 + utf8.length + 1);
+        putInt(start, utf8.length);
+        System.arraycopy(utf8, 0, bytes, start + 4, utf8.length);
+        return start;
+    }
+
+    private int writeTables(Table[] tables) {
+        pad(4);
+        int start = size;
+        reserve(4 + 4 * tables.length);
+        putInt(start, tables.length);
+        for (int i = 0; i < tables.length; i++) {
+            int element = start + 4 + 4 * i;
+            putInt(element, writeTable(tables[i]) - element);
+        }
+        return start;
+    }
+
+    private int writeLongStructs(LongStructs structs) {
+        // The length precedes elements that are aligned to 8 bytes.
+        pad(8);
+        reserve(4);
+        int start = size;
+        reserve(4 + 8 * structs.values.length);
+        putInt(start, structs.values.length / structs.longsPerStruct);
+        for (int i = 0; i < structs.values.length; i++)
+            putLong(start + 4 + 8 * i, structs.values[i]);
+        return start;
+    }
+
+    private void pad(int alignment) {
+        reserve((alignment - size % alignment) % alignment);
+    }
+
+    // Appends zeroed bytes.
+    private void reserve(int count) {
+        if (size + count > bytes.length) {
+            byte[] grown = new byte[Math.max(bytes.length * 2, size + count)];
+            System.arraycopy(bytes, 0, grown, 0, size);
+            bytes = grown;
+        }
+        size += count;
+    }
+
+    private void putShort(int position, int value) {
+        bytes[position] = (byte) value;
+        bytes[position + 1] = (byte) (value >>> 8);
+    }
+
+    private void putInt(int position, int value) {
+        for (int b = 0; b < 4; b++)
+            bytes[position + b] = (byte) (value >>> (8 * b));
+    }
+
+    private void putLong(int position, long value) {
+        for (int b = 0; b < 8; b++)
+            bytes[position + b] = (byte) (value >>> (8 * b));
+    }
+}
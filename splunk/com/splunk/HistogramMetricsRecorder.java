@@ -0,0 +1,222 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code HistogramMetricsRecorder} class is a {@code MetricsRecorder} that
+ * keeps request counts, byte counts, and latency histograms per endpoint, keyed
+ * by HTTP method and endpoint template (such as
+ * {@code "GET /services/search/jobs/{name}/results"}).
+ * <p>
+ * Recording is lock-free. To bound memory, at most {@code maxEndpoints}
+ * endpoints are tracked; requests to further endpoints are counted under
+ * {@code OTHER_ENDPOINT}.
+ * <p>
+ * Example:
+ * <pre>
+ * HistogramMetricsRecorder metrics = new HistogramMetricsRecorder();
+ * service.setMetricsRecorder(metrics);
+ * ...
+ * for (HistogramMetricsRecorder.EndpointStats stats : metrics.getSnapshot().values()) {
+ *     System.out.println(stats);
+ * }
+ * </pre>
+ */
+public class HistogramMetricsRecorder implements MetricsRecorder {
+    public static final int DEFAULT_MAX_ENDPOINTS = 512;
+    public static final String OTHER_ENDPOINT = "{other}";
+
+    private final int maxEndpoints;
+    private final ConcurrentMap<String, EndpointStats> endpoints =
+            new ConcurrentHashMap<String, EndpointStats>();
+
+    /**
+     * Creates a recorder tracking up to {@code DEFAULT_MAX_ENDPOINTS}
+     * endpoints.
+     */
+    public HistogramMetricsRecorder() {
+        this(DEFAULT_MAX_ENDPOINTS);
+    }
+
+    /**
+     * Creates a recorder.
+     *
+     * @param maxEndpoints The largest number of endpoints tracked separately.
+     */
+    public HistogramMetricsRecorder(int maxEndpoints) {
+        this.maxEndpoints = maxEndpoints;
+    }
+
+    public void record(RequestMetrics metrics) {
+        String key = metrics.getMethod() + " " + metrics.getEndpoint();
+        EndpointStats stats = endpoints.get(key);
+        if (stats == null) {
+            if (endpoints.size() >= maxEndpoints) {
+                key = metrics.getMethod() + " " + OTHER_ENDPOINT;
+            }
+            stats = endpoints.get(key);
+            if (stats == null) {
+                EndpointStats created = new EndpointStats(key);
+                stats = endpoints.putIfAbsent(key, created);
+                if (stats == null) {
+                    stats = created;
+                }
+            }
+        }
+        stats.add(metrics);
+    }
+
+    /**
+     * Returns a snapshot of the statistics of every endpoint, keyed by method
+     * and endpoint template and sorted by key. Later requests do not change
+     * the snapshot.
+     *
+     * @return A map from endpoint to its statistics.
+     */
+    public Map<String, EndpointStats> getSnapshot() {
+        Map<String, EndpointStats> snapshot = new TreeMap<String, EndpointStats>();
+        for (EndpointStats stats : endpoints.values()) {
+            snapshot.put(stats.getEndpoint(), stats.copy());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Forgets all the statistics recorded so far.
+     */
+    public void reset() {
+        endpoints.clear();
+    }
+
+    /**
+     * The {@code EndpointStats} class holds the statistics of one endpoint.
+     */
+    public static class EndpointStats {
+        private final String endpoint;
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong bytesOut = new AtomicLong();
+        private final AtomicLong bytesIn = new AtomicLong();
+        private final LatencyHistogram connect;
+        private final LatencyHistogram firstByte;
+        private final LatencyHistogram total;
+
+        EndpointStats(String endpoint) {
+            this(endpoint, new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram());
+        }
+
+        private EndpointStats(String endpoint, LatencyHistogram connect,
+                              LatencyHistogram firstByte, LatencyHistogram total) {
+            this.endpoint = endpoint;
+            this.connect = connect;
+            this.firstByte = firstByte;
+            this.total = total;
+        }
+
+        void add(RequestMetrics metrics) {
+            requests.incrementAndGet();
+            if (metrics.getStatus() == 0 || metrics.getStatus() >= 400) {
+                errors.incrementAndGet();
+            }
+            bytesOut.addAndGet(metrics.getBytesOut());
+            bytesIn.addAndGet(metrics.getBytesIn());
+            connect.recordNanos(metrics.getConnectNanos());
+            firstByte.recordNanos(metrics.getFirstByteNanos());
+            total.recordNanos(metrics.getTotalNanos());
+        }
+
+        EndpointStats copy() {
+            EndpointStats copy = new EndpointStats(endpoint, connect.copy(), firstByte.copy(), total.copy());
+            copy.requests.set(requests.get());
+            copy.errors.set(errors.get());
+            copy.bytesOut.set(bytesOut.get());
+            copy.bytesIn.set(bytesIn.get());
+            return copy;
+        }
+
+        /**
+         * @return The HTTP method and endpoint template these statistics
+         * belong to.
+         */
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        /**
+         * @return The number of requests.
+         */
+        public long getRequestCount() {
+            return requests.get();
+        }
+
+        /**
+         * @return The number of requests that failed or returned an HTTP
+         * status of 400 or above.
+         */
+        public long getErrorCount() {
+            return errors.get();
+        }
+
+        /**
+         * @return The number of bytes of request content sent.
+         */
+        public long getBytesOut() {
+            return bytesOut.get();
+        }
+
+        /**
+         * @return The number of bytes of response content read.
+         */
+        public long getBytesIn() {
+            return bytesIn.get();
+        }
+
+        /**
+         * @return The histogram of connect times.
+         */
+        public LatencyHistogram getConnectLatency() {
+            return connect;
+        }
+
+        /**
+         * @return The histogram of times to first byte.
+         */
+        public LatencyHistogram getFirstByteLatency() {
+            return firstByte;
+        }
+
+        /**
+         * @return The histogram of total request durations.
+         */
+        public LatencyHistogram getTotalLatency() {
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s requests=%d errors=%d out=%d in=%d total[%s] ttfb[%s]",
+                    endpoint, getRequestCount(), getErrorCount(), getBytesOut(), getBytesIn(),
+                    total, firstByte);
+        }
+    }
+}
@@ -20,13 +20,16 @@ import javax.net.ssl.*;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
 import java.net.*;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The {@code HttpService} class represents a generic HTTP service at a given
@@ -37,6 +40,14 @@ public class HttpService {
     // For debugging purposes
     private static final boolean VERBOSE_REQUESTS = false;
     protected static SSLSecurityProtocol sslSecurityProtocol = SSLSecurityProtocol.SSLv3;
+    // TLS settings of the default socket factory; see setSslProtocols and
+    // the other setters. They must be initialized before sslSocketFactory.
+    private static String[] sslProtocols = null;
+    private static String[] sslCipherSuites = null;
+    private static int sslSessionCacheSize = -1;
+    private static int sslSessionTimeout = -1;
+    private static final AtomicLong sslHandshakes = new AtomicLong();
+    private static final AtomicLong sslResumedHandshakes = new AtomicLong();
     private static SSLSocketFactory sslSocketFactory = createSSLFactory();
     private static String HTTPS_SCHEME = "https";
     private static String HTTP_SCHEME = "http";
@@ -70,6 +81,11 @@ public class HttpService {
     protected Integer connectTimeout = null;
     protected Integer readTimeout = null;
 
+    /**
+     * The recorder notified of every request, or {@code null} for none.
+     */
+    protected MetricsRecorder metricsRecorder = null;
+
     private String prefix = null;
 
     static Map<String, String> defaultHeader = new HashMap<String, String>() {{
@@ -164,11 +180,19 @@ public class HttpService {
      */
     public ResponseMessage get(String path, Map<String, Object> args) {
         if (count(args) > 0)
-            path = path + "?" + Args.encode(args);
+            path = withQuery(path, args);
         RequestMessage request = new RequestMessage("GET");
         return send(path, request);
     }
 
+    // Appends the encoded query arguments to a path, in one buffer.
+    private static String withQuery(String path, Map<String, Object> args) {
+        StringBuilder builder = new StringBuilder(path.length() + 32 * args.size());
+        builder.append(path).append('?');
+        Args.encode(builder, args);
+        return builder.toString();
+    }
+
     /**
      * Returns the host name of this service.
      *
@@ -203,10 +227,101 @@ public class HttpService {
         // Only update the SSL_SOCKET_FACTORY if changing protocols
         if (sslSecurityProtocol != securityProtocol) {
             sslSecurityProtocol = securityProtocol;
-            sslSocketFactory = new SplunkHttpsSocketFactory(createSSLFactory(), securityProtocol);
+            sslSocketFactory = createSSLFactory();
         }
     }
 
+    /**
+     * Sets the protocols to offer on HTTPS connections, in order of
+     * preference, such as {@code {"TLSv1.3", "TLSv1.2"}}. Protocols that the
+     * JVM does not support are ignored. This overrides the single protocol
+     * set by {@code setSslSecurityProtocol}; {@code null} restores it.
+     * <p>
+     * Changing the protocols replaces the default SSL socket factory, which
+     * discards its cached TLS sessions.
+     *
+     * @param protocols The protocol names, or {@code null}.
+     */
+    public static void setSslProtocols(String[] protocols) {
+        String[] previous = sslProtocols;
+        sslProtocols = protocols == null ? null : protocols.clone();
+        try {
+            sslSocketFactory = createSSLFactory();
+        } catch (RuntimeException e) {
+            sslProtocols = previous;
+            throw e;
+        }
+    }
+
+    /**
+     * Sets the cipher suites to offer on HTTPS connections, in order of
+     * preference. Suites that the JVM does not support are ignored, and
+     * {@code null} restores the JVM's defaults.
+     * <p>
+     * Changing the cipher suites replaces the default SSL socket factory,
+     * which discards its cached TLS sessions.
+     *
+     * @param cipherSuites The cipher suite names, or {@code null}.
+     */
+    public static void setSslCipherSuites(String[] cipherSuites) {
+        String[] previous = sslCipherSuites;
+        sslCipherSuites = cipherSuites == null ? null : cipherSuites.clone();
+        try {
+            sslSocketFactory = createSSLFactory();
+        } catch (RuntimeException e) {
+            sslCipherSuites = previous;
+            throw e;
+        }
+    }
+
+    /**
+     * Sets the number of TLS sessions the default SSL socket factory keeps
+     * for resumption. A resumed session skips the key exchange of a full
+     * handshake when a new connection is opened to the same host and port.
+     *
+     * @param size The number of sessions, or 0 for no limit.
+     */
+    public static void setSslSessionCacheSize(int size) {
+        if (size < 0)
+            throw new IllegalArgumentException("The session cache size cannot be negative.");
+        sslSessionCacheSize = size;
+        applySessionSettings(sslSocketFactory);
+    }
+
+    /**
+     * Sets how long the default SSL socket factory keeps a TLS session for
+     * resumption.
+     *
+     * @param seconds The session lifetime in seconds, or 0 for no limit.
+     */
+    public static void setSslSessionTimeout(int seconds) {
+        if (seconds < 0)
+            throw new IllegalArgumentException("The session timeout cannot be negative.");
+        sslSessionTimeout = seconds;
+        applySessionSettings(sslSocketFactory);
+    }
+
+    /**
+     * Returns the number of TLS handshakes completed on sockets from the
+     * SSL socket factories created by {@code createSSLFactory}, including
+     * resumed ones.
+     *
+     * @return The number of handshakes.
+     */
+    public static long getSslHandshakeCount() {
+        return sslHandshakes.get();
+    }
+
+    /**
+     * Returns the number of TLS handshakes counted by
+     * {@code getSslHandshakeCount} that resumed a cached session.
+     *
+     * @return The number of resumed handshakes.
+     */
+    public static long getSslResumedHandshakeCount() {
+        return sslResumedHandshakes.get();
+    }
+
     /**
      * Returns the URL prefix of this service, consisting of
      * {@code scheme://host[:port]}.
@@ -321,6 +436,26 @@ public class HttpService {
         this.readTimeout = readTimeout;
     }
 
+    /**
+     * Returns the recorder notified of every request sent by this service.
+     *
+     * @return The {@code MetricsRecorder}, or {@code null} if there is none.
+     */
+    public MetricsRecorder getMetricsRecorder() {
+        return metricsRecorder;
+    }
+
+    /**
+     * Sets a recorder to be notified of every request sent by this service,
+     * with its endpoint, status, byte counts, and timings.
+     *
+     * @param metricsRecorder The {@code MetricsRecorder}, or {@code null} to
+     *                        record nothing.
+     */
+    public void setMetricsRecorder(MetricsRecorder metricsRecorder) {
+        this.metricsRecorder = metricsRecorder;
+    }
+
     /**
      * Issues a POST request against the service using a given path.
      *
@@ -369,7 +504,7 @@ public class HttpService {
      */
     public ResponseMessage delete(String path, Map<String, Object> args) {
         if (count(args) > 0)
-            path = path + "?" + Args.encode(args);
+            path = withQuery(path, args);
         RequestMessage request = new RequestMessage("DELETE");
         return send(path, request);
     }
@@ -396,6 +531,12 @@ public class HttpService {
      * @return The HTTP response.
      */
     public ResponseMessage send(String path, RequestMessage request) {
+        MetricsRecorder recorder = this.metricsRecorder;
+        Tracer tracer = Tracer.getTracer();
+        Object trace = tracer == null
+                ? null : tracer.beginRequest(request.getMethod(), path);
+        long startNanos = System.nanoTime();
+
         // Construct a full URL to the resource
         URL url = getUrl(path);
 
@@ -437,28 +578,44 @@ public class HttpService {
         // Add cookies to header
         cn.setRequestProperty("Cookie", cookieStore.getCookies());
 
-        // Write out request content, if any
-        try {
-            Object content = request.getContent();
-            if (content != null) {
-                cn.setDoOutput(true);
-                OutputStream stream = cn.getOutputStream();
-                OutputStreamWriter writer = new OutputStreamWriter(stream, "UTF-8");
-                writer.write((String) content);
-                writer.close();
+        byte[] body = null;
+        Object content = request.getContent();
+        if (content != null) {
+            cn.setDoOutput(true);
+            try {
+                body = ((String) content).getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                // This is unreachable, since UTF-8 is always supported.
+                assert false;
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e.getMessage(), e);
         }
+        long bytesOut = body == null ? 0 : body.length;
 
         if (VERBOSE_REQUESTS) {
             System.out.format("%s %s => ", method, url.toString());
         }
 
         // Execute the request
+        long connectNanos;
         try {
             cn.connect();
+            connectNanos = System.nanoTime() - startNanos;
+        } catch (IOException e) {
+            recordFailure(recorder, tracer, trace, path, method, bytesOut,
+                    startNanos);
+            throw new RuntimeException(e.getMessage(), e);
+        }
+
+        // Write out request content, if any
+        try {
+            if (body != null) {
+                OutputStream stream = cn.getOutputStream();
+                stream.write(body);
+                stream.close();
+            }
         } catch (IOException e) {
+            recordFailure(recorder, tracer, trace, path, method, bytesOut,
+                    startNanos);
             throw new RuntimeException(e.getMessage(), e);
         }
 
@@ -466,8 +623,11 @@ public class HttpService {
         try {
             status = cn.getResponseCode();
         } catch (IOException e) {
+            recordFailure(recorder, tracer, trace, path, method, bytesOut,
+                    startNanos);
             throw new RuntimeException(e.getMessage(), e);
         }
+        long firstByteNanos = System.nanoTime() - startNanos;
 
         InputStream input = null;
         try {
@@ -487,6 +647,19 @@ public class HttpService {
             }
         }
 
+        if (recorder != null || trace != null) {
+            if (input == null) {
+                record(recorder, tracer, trace, new RequestMetrics(
+                        RequestMetrics.endpointTemplate(path), path, method,
+                        status, bytesOut, 0, connectNanos, firstByteNanos,
+                        firstByteNanos));
+            } else {
+                input = new MeteredInputStream(input, recorder, tracer, trace,
+                        path, method, status, bytesOut, startNanos,
+                        connectNanos, firstByteNanos);
+            }
+        }
+
         ResponseMessage response = new ResponseMessage(status, input);
 
         if (VERBOSE_REQUESTS) {
@@ -502,6 +675,32 @@ public class HttpService {
         return response;
     }
 
+    // Records a request that failed before a response arrived.
+    private static void recordFailure(MetricsRecorder recorder, Tracer tracer,
+                                      Object trace, String path,
+                                      String method, long bytesOut,
+                                      long startNanos) {
+        if (recorder == null && trace == null) {
+            return;
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        record(recorder, tracer, trace, new RequestMetrics(
+                RequestMetrics.endpointTemplate(path), path, method, 0,
+                bytesOut, 0, 0, elapsed, elapsed));
+    }
+
+    // Reports a finished request to the metrics recorder and the tracer
+    // span, either of which may be null.
+    static void record(MetricsRecorder recorder, Tracer tracer, Object trace,
+                       RequestMetrics metrics) {
+        if (recorder != null) {
+            recorder.record(metrics);
+        }
+        if (trace != null) {
+            tracer.endRequest(trace, metrics);
+        }
+    }
+
     public static void setSSLSocketFactory(SSLSocketFactory sslSocketFactory) {
         if (sslSocketFactory == null)
             throw new IllegalArgumentException("The sslSocketFactory cannot be null.");
@@ -528,7 +727,7 @@ public class HttpService {
         };
         try {
             SSLContext context;
-            switch (HttpService.sslSecurityProtocol) {
+            switch (sslProtocols != null ? SSLSecurityProtocol.TLSv1_2 : HttpService.sslSecurityProtocol) {
                 case TLSv1_2:
                 case TLSv1_1:
                 case TLSv1:
@@ -539,29 +738,82 @@ public class HttpService {
             }
 
             context.init(null, trustAll, new java.security.SecureRandom());
-            return new SplunkHttpsSocketFactory(context.getSocketFactory(), HttpService.sslSecurityProtocol);
+            SplunkHttpsSocketFactory factory = new SplunkHttpsSocketFactory(context);
+            applySessionSettings(factory);
+            return factory;
+        } catch (IllegalArgumentException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Error setting up SSL socket factory: " + e, e);
         }
     }
 
-    private static final class SplunkHttpsSocketFactory extends SSLSocketFactory {
-        private final SSLSocketFactory delegate;
-        private SSLSecurityProtocol sslSecurityProtocol;
+    private static void applySessionSettings(SSLSocketFactory factory) {
+        if (!(factory instanceof SplunkHttpsSocketFactory))
+            return;
+        SSLSessionContext sessions = ((SplunkHttpsSocketFactory) factory).sessionContext;
+        if (sslSessionCacheSize >= 0)
+            sessions.setSessionCacheSize(sslSessionCacheSize);
+        if (sslSessionTimeout >= 0)
+            sessions.setSessionTimeout(sslSessionTimeout);
+    }
+
+    // Returns the entries of wanted that are in supported, in the order of
+    // wanted.
+    private static String[] filter(String[] wanted, String[] supported) {
+        List<String> available = Arrays.asList(supported);
+        List<String> result = new ArrayList<String>(wanted.length);
+        for (String name : wanted) {
+            if (available.contains(name))
+                result.add(name);
+        }
+        if (result.isEmpty())
+            throw new IllegalArgumentException("None of " + Arrays.toString(wanted) + " is supported.");
+        return result.toArray(new String[result.size()]);
+    }
+
+    // Counts a completed handshake, as resumed if its session was created
+    // before the socket was.
+    private static final class HandshakeCounter implements HandshakeCompletedListener {
+        private final long socketCreated;
+
+        private HandshakeCounter(long socketCreated) {
+            this.socketCreated = socketCreated;
+        }
 
-        private SplunkHttpsSocketFactory(SSLSocketFactory delegate) {
-            this.delegate = delegate;
-            this.sslSecurityProtocol = HttpService.sslSecurityProtocol;
+        public void handshakeCompleted(HandshakeCompletedEvent event) {
+            sslHandshakes.incrementAndGet();
+            if (event.getSession().getCreationTime() < socketCreated)
+                sslResumedHandshakes.incrementAndGet();
         }
+    }
 
-        private SplunkHttpsSocketFactory(SSLSocketFactory delegate, SSLSecurityProtocol securityProtocol) {
-            this.delegate = delegate;
-            this.sslSecurityProtocol = securityProtocol;
+    private static final class SplunkHttpsSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+        private final SSLSessionContext sessionContext;
+        private final String[] protocols;
+        private final String[] cipherSuites;
+
+        private SplunkHttpsSocketFactory(SSLContext context) {
+            this.delegate = context.getSocketFactory();
+            this.sessionContext = context.getClientSessionContext();
+            String[] supported = context.getSupportedSSLParameters().getProtocols();
+            this.protocols = sslProtocols == null
+                    ? new String[]{sslSecurityProtocol.toString()}
+                    : filter(sslProtocols, supported);
+            this.cipherSuites = sslCipherSuites == null
+                    ? null
+                    : filter(sslCipherSuites, delegate.getSupportedCipherSuites());
         }
 
         private Socket configure(Socket socket) {
             if (socket instanceof SSLSocket) {
-                ((SSLSocket) socket).setEnabledProtocols(new String[]{sslSecurityProtocol.toString()});
+                SSLSocket sslSocket = (SSLSocket) socket;
+                sslSocket.setEnabledProtocols(protocols);
+                if (cipherSuites != null) {
+                    sslSocket.setEnabledCipherSuites(cipherSuites);
+                }
+                sslSocket.addHandshakeCompletedListener(new HandshakeCounter(System.currentTimeMillis()));
             }
             return socket;
         }
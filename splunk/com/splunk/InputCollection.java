@@ -17,6 +17,17 @@
 package com.splunk;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The {@code InputCollection} class represents a collection of inputs. The 
@@ -24,6 +35,14 @@ import java.util.*;
  * value that indicates the specific type of input.
  */
 public class InputCollection extends EntityCollection<Input> {
+    // Runs the requests of a refresh on the calling thread.
+    private static final Executor DIRECT = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
     protected Set<InputKind> inputKinds = new HashSet<InputKind>();
 
     /**
@@ -231,53 +250,88 @@ public class InputCollection extends EntityCollection<Input> {
 
     /**
      * Assembles a set of all the input kinds that are available on this Splunk
-     * instance. To list all inputs, pass an empty list to {@code subPath}. Or, 
-     * specify a component of the path such as "tcp" to list all TCP inputs. 
+     * instance, by listing data/inputs and the endpoints under it that are not
+     * input kinds themselves. The listings of each level are made at once on
+     * the executor.
      *
-     * @param subPath A list of strings containing the components of the
-     * endpoint path that follow data/inputs/.
+     * @param executor The executor to make the requests on.
      * @return A set of available {@code InputKind}s.
      */
-    private Set<InputKind> assembleInputKindSet(List<String> subPath) {
+    private Set<InputKind> assembleInputKindSet(Executor executor) {
         Set<InputKind> kinds = new HashSet<InputKind>();
-        ResponseMessage response = service.get(this.path + "/" + Util.join("/", subPath));
-        AtomFeed feed = AtomFeed.parseStream(response.getContent());
-        for (AtomEntry entry : feed.entries) {
-            String itemKeyName = itemKey(entry);
-
-            boolean hasCreateLink = false;
-            for (String linkName : entry.links.keySet()) {
-                if (linkName.equals("create")) {
-                    hasCreateLink = true;
-                }
-            }
-
-            List<String> thisSubPath = new ArrayList<String>(subPath);
-            thisSubPath.add(itemKeyName);
-            
-            String relpath = Util.join("/", thisSubPath);
-
-            if (relpath.equals("all") || relpath.equals("tcp/ssl")) {
-                // Skip these input types
-                continue;
-            } else if (hasCreateLink) {
-                // Found an InputKind leaf
-                InputKind newKind = InputKind.create(relpath);
-                kinds.add(newKind);
-            } else {
-                Set<InputKind> subKinds = assembleInputKindSet(thisSubPath);
-                kinds.addAll(subKinds);
+        CompletionService<KindListing> listings = new ExecutorCompletionService<KindListing>(executor);
+        listings.submit(listKinds(new ArrayList<String>()));
+        int pending = 1;
+        while (pending > 0) {
+            KindListing listing = take(listings);
+            pending--;
+            kinds.addAll(listing.kinds);
+            for (List<String> subPath : listing.subPaths) {
+                listings.submit(listKinds(subPath));
+                pending++;
             }
         }
         return kinds;
     }
 
     /**
-     * Refreshes the {@code inputKinds} field on this object.
+     * Lists one level of the input endpoints. To list data/inputs, pass an
+     * empty list to {@code subPath}. Or, specify a component of the path such
+     * as "tcp" to list all TCP inputs.
+     *
+     * @param subPath A list of strings containing the components of the
+     * endpoint path that follow data/inputs/.
+     * @return A task returning the input kinds and the sub-paths to list.
      */
-    private void refreshInputKinds() {
-        Set<InputKind> kinds = assembleInputKindSet(new ArrayList<String>());
-        
+    private Callable<KindListing> listKinds(final List<String> subPath) {
+        return new Callable<KindListing>() {
+            public KindListing call() {
+                KindListing listing = new KindListing();
+                ResponseMessage response = service.get(path + "/" + Util.join("/", subPath));
+                AtomFeed feed = AtomFeed.parseStream(response.getContent());
+                for (AtomEntry entry : feed.entries) {
+                    String itemKeyName = itemKey(entry);
+
+                    boolean hasCreateLink = false;
+                    for (String linkName : entry.links.keySet()) {
+                        if (linkName.equals("create")) {
+                            hasCreateLink = true;
+                        }
+                    }
+
+                    List<String> thisSubPath = new ArrayList<String>(subPath);
+                    thisSubPath.add(itemKeyName);
+
+                    String relpath = Util.join("/", thisSubPath);
+
+                    if (relpath.equals("all") || relpath.equals("tcp/ssl")) {
+                        // Skip these input types
+                        continue;
+                    } else if (hasCreateLink) {
+                        // Found an InputKind leaf
+                        listing.kinds.add(InputKind.create(relpath));
+                    } else {
+                        listing.subPaths.add(thisSubPath);
+                    }
+                }
+                return listing;
+            }
+        };
+    }
+
+    /**
+     * Refreshes the {@code inputKinds} field on this object, unless the
+     * service has input kinds that are recent enough.
+     *
+     * @param executor The executor to make the requests on.
+     */
+    private void refreshInputKinds(Executor executor) {
+        Set<InputKind> kinds = service.getCachedInputKinds();
+        if (kinds == null) {
+            kinds = assembleInputKindSet(executor);
+            service.cacheInputKinds(kinds);
+        }
+
         this.inputKinds.clear();
         this.inputKinds.addAll(kinds);
     }
@@ -285,16 +339,83 @@ public class InputCollection extends EntityCollection<Input> {
     /**
      * Refreshes this input collection.
      *
+     * The input kinds are discovered again unless the service reuses them
+     * (see {@link Service#setInputKindsTtl}), and the inputs of every kind are
+     * listed, making up to {@link Service#getInputDiscoveryThreads()} requests
+     * at once.
+     *
      * @return The refreshed {@code InputCollection}.
      */
     @Override public InputCollection refresh() {
-        // Populate this.inputKinds
-        refreshInputKinds();
-
-        items.clear();
+        ExecutorService pool = newPool();
+        Executor executor = pool == null ? DIRECT : pool;
+        try {
+            // Populate this.inputKinds
+            refreshInputKinds(executor);
+
+            items.clear();
+            loadInputs(this.inputKinds, executor);
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        return this;
+    }
 
-        // Iterate over all input kinds and collect all instances.
+    /**
+     * Refreshes the inputs of the given kinds only, leaving the inputs of
+     * other kinds as they were last loaded. The input kinds are not
+     * discovered again.
+     *
+     * @param kinds The kinds of input to list again.
+     * @return The refreshed {@code InputCollection}.
+     */
+    public InputCollection refresh(InputKind... kinds) {
+        Set<String> known = new HashSet<String>();
         for (InputKind kind : this.inputKinds) {
+            known.add(kind.getRelativePath());
+        }
+        Set<String> selected = new HashSet<String>();
+        for (InputKind kind : kinds) {
+            selected.add(kind.getRelativePath());
+            // Kinds that were not discovered yet are added, so that their
+            // inputs get the right kind.
+            if (known.add(kind.getRelativePath())) {
+                this.inputKinds.add(kind);
+            }
+        }
+
+        for (Iterator<Entry<String, LinkedList<Input>>> entries = items.entrySet().iterator(); entries.hasNext(); ) {
+            LinkedList<Input> inputs = entries.next().getValue();
+            for (Iterator<Input> it = inputs.iterator(); it.hasNext(); ) {
+                if (selected.contains(it.next().getKind().getRelativePath())) {
+                    it.remove();
+                }
+            }
+            if (inputs.isEmpty()) {
+                entries.remove();
+            }
+        }
+
+        ExecutorService pool = newPool();
+        try {
+            loadInputs(Arrays.asList(kinds), pool == null ? DIRECT : pool);
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Lists the inputs of some kinds on the executor, and loads them in the
+     * order of the kinds.
+     */
+    private void loadInputs(Collection<InputKind> kinds, Executor executor) {
+        List<Future<AtomFeed>> feeds = new ArrayList<Future<AtomFeed>>();
+        for (InputKind kind : kinds) {
             if (service.versionIsAtLeast("6.0.0")) {
                 // In Splunk 6 and later, the registry endpoint has been deprecated in favor of the new
                 // WinRegMon modular input, but both now point to the same place. To avoid duplicates, we have
@@ -303,29 +424,97 @@ public class InputCollection extends EntityCollection<Input> {
                     continue;
                 }
             }
-            String relpath = kind.getRelativePath();
-            String inputs = String.format("%s/%s?count=-1", path, relpath);
-            ResponseMessage response;
-            try {
-                response = service.get(inputs);
+            FutureTask<AtomFeed> feed = new FutureTask<AtomFeed>(listInputs(kind));
+            executor.execute(feed);
+            feeds.add(feed);
+        }
+        for (Future<AtomFeed> feed : feeds) {
+            AtomFeed value = get(feed);
+            if (value != null) {
+                load(value);
             }
-            catch (HttpException e) {
-                // On some platforms certain input endpoints don't exist, for
-                // example the Windows inputs endpoints don't exist on non-
-                // Windows platforms.
-                if (e.getStatus() == 404) continue;
-                throw e;
+        }
+    }
+
+    /**
+     * @return A task returning the inputs of a kind, or {@code null} if its
+     * endpoint does not exist.
+     */
+    private Callable<AtomFeed> listInputs(final InputKind kind) {
+        return new Callable<AtomFeed>() {
+            public AtomFeed call() {
+                String relpath = kind.getRelativePath();
+                String inputs = path + "/" + relpath + "?count=-1";
+                ResponseMessage response;
+                try {
+                    response = service.get(inputs);
+                }
+                catch (HttpException e) {
+                    // On some platforms certain input endpoints don't exist, for
+                    // example the Windows inputs endpoints don't exist on non-
+                    // Windows platforms.
+                    if (e.getStatus() == 404) return null;
+                    throw e;
+                }
+                try {
+                    return AtomFeed.parseStream(response.getContent());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return A pool for the service's number of input discovery threads,
+     * or {@code null} to make the requests on the calling thread.
+     */
+    private ExecutorService newPool() {
+        int threads = service.getInputDiscoveryThreads();
+        if (threads <= 1) {
+            return null;
+        }
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "splunk-input-discovery-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
             }
-            AtomFeed feed;
-            try {
-                feed = AtomFeed.parseStream(response.getContent());
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+        });
+    }
+
+    private static KindListing take(CompletionService<KindListing> listings) {
+        try {
+            return get(listings.take());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Waits for a request, rethrowing what it threw.
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
             }
-            load(feed);
+            throw new RuntimeException(cause);
         }
+    }
 
-        return this;
+    // The input kinds and the endpoints to list further of one level.
+    private static class KindListing {
+        final List<InputKind> kinds = new ArrayList<InputKind>();
+        final List<List<String>> subPaths = new ArrayList<List<String>>();
     }
 
     /**
@@ -551,6 +551,31 @@ public class Job extends Entity {
         return getResults((Map<String, Object>) args);
     }
 
+    /**
+     * Returns all the results of this job as a range that is read in pages
+     * of {@link JobResultsRange#DEFAULT_PAGE_SIZE} results, and that can be
+     * split to read the pages in parallel. The job must be done.
+     *
+     * @return The range of results.
+     */
+    public JobResultsRange getResultsRange() {
+        return getResultsRange(JobResultsRange.DEFAULT_PAGE_SIZE, null);
+    }
+
+    /**
+     * Returns all the results of this job as a range that is read in pages,
+     * and that can be split to read the pages in parallel. The job must be
+     * done.
+     *
+     * @param pageSize The number of results to request at a time.
+     * @param args Additional arguments for the results endpoint (see
+     * {@link JobResultsArgs}), or {@code null}.
+     * @return The range of results.
+     */
+    public JobResultsRange getResultsRange(int pageSize, Map args) {
+        return new JobResultsRange(this, 0, getResultCountLong(), pageSize, args);
+    }
+
     /**
      * Returns the {@code InputStream} IO handle for the preview results from 
      * this job.
@@ -750,6 +775,32 @@ public class Job extends Entity {
         return getSummary((Map<String, Object>) args);
     }
 
+    /**
+     * Reads the summary for this job into a {@code JobSummary}.
+     *
+     * @param summary The summary to read into, which is reused when polling
+     * a running job, or {@code null} for a new one.
+     * @return The summary.
+     */
+    public JobSummary readSummary(JobSummary summary) {
+        return readSummary(null, summary);
+    }
+
+    /**
+     * Reads the summary for this job into a {@code JobSummary}.
+     *
+     * @param args Optional arguments (see {@link JobSummaryArgs}). The
+     * output mode must be XML, the default.
+     * @param summary The summary to read into, which is reused when polling
+     * a running job, or {@code null} for a new one.
+     * @return The summary.
+     */
+    public JobSummary readSummary(Map args, JobSummary summary) {
+        if (summary == null)
+            summary = new JobSummary();
+        return summary.read(getSummary(args));
+    }
+
     /**
      * Returns the maximum number of timeline buckets for this job.
      *
@@ -782,6 +833,19 @@ public class Job extends Entity {
         return response.getContent();
     }
 
+    /**
+     * Reads the timeline for this job into a {@code JobTimeline}.
+     *
+     * @param timeline The timeline to read into, which is reused when
+     * polling a running job, or {@code null} for a new one.
+     * @return The timeline.
+     */
+    public JobTimeline readTimeline(JobTimeline timeline) {
+        if (timeline == null)
+            timeline = new JobTimeline();
+        return timeline.read(getTimeline());
+    }
+
     /**
      * Returns this job's time to live--that is, the time
      * before the search job expires and is still available.
@@ -78,6 +78,26 @@ public class JobCollection extends EntityCollection<Job> {
                 throw new RuntimeException(oneShotNotAllowed);
         }
         args = Args.create(args).add("search", query);
+
+        SearchResultCache cache = service.getSearchResultCache();
+        String key = cache == null
+                ? null : SearchResultCache.key(service.getPrefix() + service.fullpath(path), args);
+        if (key != null) {
+            String sid = cache.getSid(key);
+            if (sid != null) {
+                Job job = new Job(service, REST_PATH + "/" + sid);
+                try {
+                    job.refresh();
+                    return job;
+                } catch (HttpException e) {
+                    if (e.getStatus() != 404)
+                        throw e;
+                    // The job has expired or was cancelled; dispatch again.
+                    cache.remove(key);
+                }
+            }
+        }
+
         ResponseMessage response = service.post(path, args);
         assert(response.getStatus() == 201);
 
@@ -88,6 +108,9 @@ public class JobCollection extends EntityCollection<Job> {
 
         Job job = new Job(service, REST_PATH + "/" + sid);
         job.refresh();
+        if (key != null) {
+            cache.putSid(key, sid);
+        }
 
         return job;
     }
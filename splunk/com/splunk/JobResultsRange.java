@@ -0,0 +1,277 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The {@code JobResultsRange} class represents a range of result offsets of
+ * a finished search job, which is read page by page, each page being its
+ * own {@code offset}/{@code count} request. A range can be split into
+ * disjoint ranges, so that its results can be read over several
+ * connections at once, and its size is always known exactly.
+ * <p>
+ * Iterating over a range returns its events in order:
+ * <pre>
+ * for (Event event : job.getResultsRange()) {
+ *     ...
+ * }
+ * </pre>
+ * To read the results on several threads, use
+ * {@link #forEach(ExecutorService, int, EventHandler)}:
+ * <pre>
+ * job.getResultsRange().forEach(executor, 8, new JobResultsRange.EventHandler() {
+ *     public void handle(Event event) {
+ *         ...
+ *     }
+ * });
+ * </pre>
+ * On Java 8, {@code com.splunk.streams.JobResultsStreams} in the
+ * {@code splunk-streams} jar reads a range as a sequential or parallel
+ * {@code Stream<Event>}, through a {@code Spliterator} that splits with
+ * {@link #trySplit()}.
+ * <p>
+ * An iterator requests a page when it reaches it, and closes each page once
+ * all of its events are returned. An iteration that is abandoned in the
+ * middle of a page leaves that page's connection open until it is
+ * garbage-collected.
+ */
+public class JobResultsRange implements Iterable<Event> {
+    /** The default number of results in a page. */
+    public static final int DEFAULT_PAGE_SIZE = 10000;
+
+    private final Job job;
+    private final Args args;
+    private final int pageSize;
+    private long offset;
+    private final long end;
+
+    /**
+     * Receives the events read by
+     * {@link JobResultsRange#forEach(ExecutorService, int, EventHandler)},
+     * on several threads at once.
+     */
+    public interface EventHandler {
+        /**
+         * Handles an event. This method is called concurrently.
+         *
+         * @param event The event.
+         */
+        void handle(Event event);
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param job The job, which must be done.
+     * @param offset The offset of the first result.
+     * @param end The offset after the last result.
+     * @param pageSize The number of results to request at a time.
+     * @param args Additional arguments for the results endpoint, such as
+     * {@code f} or {@code search}, or {@code null}. The offset, count, and
+     * output mode are set by this class.
+     */
+    public JobResultsRange(Job job, long offset, long end, int pageSize, Map args) {
+        if (offset < 0 || end < offset)
+            throw new IllegalArgumentException("Invalid range: [" + offset + ", " + end + ").");
+        if (pageSize < 1)
+            throw new IllegalArgumentException("The page size must be positive.");
+        this.job = job;
+        this.args = Args.create(args);
+        this.args.put("output_mode", "json");
+        this.pageSize = pageSize;
+        this.offset = offset;
+        this.end = end;
+    }
+
+    /**
+     * Returns the offset of the first result in the range.
+     *
+     * @return The offset.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the offset after the last result in the range.
+     *
+     * @return The offset.
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the number of results in the range.
+     *
+     * @return The number of results.
+     */
+    public long size() {
+        return end - offset;
+    }
+
+    /**
+     * Splits off the first half of the range, rounded to whole pages, and
+     * removes it from this range.
+     *
+     * @return The first half, or {@code null} if the range is no larger
+     * than one page.
+     */
+    public JobResultsRange trySplit() {
+        long size = size();
+        if (size <= pageSize)
+            return null;
+        long pages = (size + pageSize - 1) / pageSize;
+        long middle = offset + (pages / 2) * pageSize;
+        JobResultsRange prefix = new JobResultsRange(job, offset, middle, pageSize, args);
+        offset = middle;
+        return prefix;
+    }
+
+    /**
+     * Splits the range into at most {@code parts} disjoint ranges of about
+     * the same size, in order. This range is left unchanged.
+     *
+     * @param parts The number of ranges.
+     * @return The ranges.
+     */
+    public List<JobResultsRange> split(int parts) {
+        List<JobResultsRange> ranges = new ArrayList<JobResultsRange>();
+        long pages = (size() + pageSize - 1) / pageSize;
+        parts = (int) Math.max(1, Math.min(parts, pages));
+        long start = offset;
+        for (int i = 0; i < parts; i++) {
+            long stop = i == parts - 1 ? end
+                    : Math.min(end, offset + (pages * (i + 1) / parts) * pageSize);
+            ranges.add(new JobResultsRange(job, start, stop, pageSize, args));
+            start = stop;
+        }
+        return ranges;
+    }
+
+    /**
+     * Reads the range in {@code parallelism} parts on an executor, and
+     * passes every event to a handler. The events of each part are handled
+     * in order, but the parts are handled at the same time.
+     *
+     * @param executor The executor that reads the parts.
+     * @param parallelism The number of parts.
+     * @param handler The handler, which must be thread-safe.
+     * @throws InterruptedException If the calling thread is interrupted;
+     * the parts that are still running are cancelled.
+     */
+    public void forEach(ExecutorService executor, int parallelism, final EventHandler handler)
+            throws InterruptedException {
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (final JobResultsRange range : split(parallelism)) {
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        for (Event event : range) {
+                            handler.handle(event);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause.getMessage(), cause);
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Returns an iterator over the events of the range, in order.
+     *
+     * @return An iterator.
+     */
+    public Iterator<Event> iterator() {
+        final long first = offset;
+        return new Iterator<Event>() {
+            private long next = first;
+            private ResultsReaderJson page;
+            private long pageEnd;
+            private Event event;
+
+            public boolean hasNext() {
+                try {
+                    while (event == null && next < end) {
+                        if (page == null) {
+                            page = openPage(next);
+                            pageEnd = Math.min(end, next + pageSize);
+                        }
+                        event = page.getNextEvent();
+                        if (event != null) {
+                            next++;
+                        } else {
+                            // A page can be short if the results changed
+                            // since the size was read.
+                            page.close();
+                            page = null;
+                            next = pageEnd;
+                        }
+                    }
+                    if (event == null && page != null) {
+                        page.close();
+                        page = null;
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+                return event != null;
+            }
+
+            public Event next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Event result = event;
+                event = null;
+                return result;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private ResultsReaderJson openPage(long start) throws IOException {
+                Args pageArgs = new Args(args);
+                pageArgs.put("offset", start);
+                pageArgs.put("count", Math.min(pageSize, end - start));
+                return new ResultsReaderJson(job.getResults(pageArgs));
+            }
+        };
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The {@code JobSummary} class represents the field summary of a search job,
+ * as returned by {@link Job#getSummary}: for each field, the number of
+ * events that have it, the number of distinct and numeric values, numeric
+ * statistics, and the most common values.
+ * <p>
+ * The summary is parsed as a stream. To poll the summary of a running job,
+ * pass the same {@code JobSummary} to {@link Job#readSummary(JobSummary)}
+ * each time; it keeps its {@link Field} objects and their arrays, and only
+ * drops the fields that are no longer in the summary.
+ */
+public class JobSummary {
+    private final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    private final Map<String, Field> fields = new LinkedHashMap<String, Field>();
+    private long generation = 0;
+    private boolean busy;
+    private long eventCount;
+    private double duration;
+    private String earliestTime;
+    private String latestTime;
+
+    /**
+     * The summary of one field.
+     */
+    public static class Field {
+        private final String name;
+        private long generation;
+        private long count;
+        private long numericCount;
+        private long distinctCount;
+        private boolean exact;
+        private double min;
+        private double max;
+        private double mean;
+        private double stdev;
+        private String[] topValues = new String[10];
+        private long[] topCounts = new long[10];
+        private int topValueCount;
+
+        Field(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Returns the name of the field.
+         *
+         * @return The field name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of events that have the field.
+         *
+         * @return The number of events.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the number of events in which the field is numeric.
+         *
+         * @return The number of events.
+         */
+        public long getNumericCount() {
+            return numericCount;
+        }
+
+        /**
+         * Returns the number of distinct values of the field.
+         *
+         * @return The number of distinct values.
+         */
+        public long getDistinctCount() {
+            return distinctCount;
+        }
+
+        /**
+         * Indicates whether the distinct count and the counts of the top
+         * values are exact, rather than estimated.
+         *
+         * @return {@code true} if the counts are exact.
+         */
+        public boolean isExact() {
+            return exact;
+        }
+
+        /**
+         * Indicates whether the summary has numeric statistics for the field.
+         *
+         * @return {@code true} if the minimum, maximum, mean, and standard
+         * deviation are known.
+         */
+        public boolean hasNumericStats() {
+            return !Double.isNaN(mean);
+        }
+
+        /**
+         * Returns the smallest numeric value of the field.
+         *
+         * @return The minimum, or {@code NaN} if it is unknown.
+         */
+        public double getMin() {
+            return min;
+        }
+
+        /**
+         * Returns the largest numeric value of the field.
+         *
+         * @return The maximum, or {@code NaN} if it is unknown.
+         */
+        public double getMax() {
+            return max;
+        }
+
+        /**
+         * Returns the mean of the numeric values of the field.
+         *
+         * @return The mean, or {@code NaN} if it is unknown.
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * Returns the standard deviation of the numeric values of the field.
+         *
+         * @return The standard deviation, or {@code NaN} if it is unknown.
+         */
+        public double getStdev() {
+            return stdev;
+        }
+
+        /**
+         * Returns the number of top values, most common first.
+         *
+         * @return The number of top values.
+         */
+        public int getTopValueCount() {
+            return topValueCount;
+        }
+
+        /**
+         * Returns a top value.
+         *
+         * @param index The index of the value, from 0 for the most common.
+         * @return The value.
+         */
+        public String getTopValue(int index) {
+            checkIndex(index);
+            return topValues[index];
+        }
+
+        /**
+         * Returns the number of events with a top value.
+         *
+         * @param index The index of the value, from 0 for the most common.
+         * @return The number of events.
+         */
+        public long getTopValueEventCount(int index) {
+            checkIndex(index);
+            return topCounts[index];
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= topValueCount)
+                throw new IndexOutOfBoundsException(
+                        "Index " + index + " of " + topValueCount + " top values.");
+        }
+
+        private void reset(long generation) {
+            this.generation = generation;
+            count = numericCount = distinctCount = 0;
+            exact = false;
+            min = max = mean = stdev = Double.NaN;
+            for (int i = 0; i < topValueCount; i++)
+                topValues[i] = null;
+            topValueCount = 0;
+        }
+
+        private void addTopValue(String value, long count) {
+            if (topValueCount == topValues.length) {
+                String[] values = new String[2 * topValueCount];
+                long[] counts = new long[2 * topValueCount];
+                System.arraycopy(topValues, 0, values, 0, topValueCount);
+                System.arraycopy(topCounts, 0, counts, 0, topValueCount);
+                topValues = values;
+                topCounts = counts;
+            }
+            topValues[topValueCount] = value;
+            topCounts[topValueCount] = count;
+            topValueCount++;
+        }
+    }
+
+    /**
+     * Parses a summary in the XML output format, replacing the contents of
+     * this object, and closes the stream.
+     *
+     * @param stream The summary stream, such as the one returned by
+     * {@link Job#getSummary}.
+     * @return This summary.
+     */
+    public JobSummary read(InputStream stream) {
+        long generation = ++this.generation;
+        busy = false;
+        eventCount = 0;
+        duration = Double.NaN;
+        earliestTime = latestTime = null;
+        try {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(stream);
+            try {
+                Field field = null;
+                long valueCount = 0;
+                boolean inValue = false;
+                while (reader.hasNext()) {
+                    int type = reader.next();
+                    if (type == XMLStreamConstants.END_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if (name.equals("field"))
+                            field = null;
+                        else if (name.equals("value"))
+                            inValue = false;
+                        continue;
+                    }
+                    if (type != XMLStreamConstants.START_ELEMENT)
+                        continue;
+
+                    String name = reader.getLocalName();
+                    if (name.equals("summary")) {
+                        busy = getLong(reader, "busy", 0) != 0;
+                        eventCount = getLong(reader, "event_count", 0);
+                        duration = getDouble(reader, "duration");
+                        earliestTime = reader.getAttributeValue(null, "earliest_time");
+                        latestTime = reader.getAttributeValue(null, "latest_time");
+                    } else if (name.equals("field")) {
+                        field = startField(reader, generation);
+                    } else if (field == null) {
+                        continue;
+                    } else if (name.equals("min")) {
+                        field.min = parseDouble(reader.getElementText());
+                    } else if (name.equals("max")) {
+                        field.max = parseDouble(reader.getElementText());
+                    } else if (name.equals("mean")) {
+                        field.mean = parseDouble(reader.getElementText());
+                    } else if (name.equals("stdev")) {
+                        field.stdev = parseDouble(reader.getElementText());
+                    } else if (name.equals("value")) {
+                        inValue = true;
+                        valueCount = getLong(reader, "c", 0);
+                    } else if (name.equals("text") && inValue) {
+                        field.addTopValue(reader.getElementText(), valueCount);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // The summary has been read.
+            }
+        }
+
+        // Drop the fields that are gone.
+        for (Iterator<Field> it = fields.values().iterator(); it.hasNext(); ) {
+            if (it.next().generation != generation)
+                it.remove();
+        }
+        return this;
+    }
+
+    private Field startField(XMLStreamReader reader, long generation) {
+        String name = reader.getAttributeValue(null, "k");
+        // Put the field back at the end, so the fields end up in the order
+        // of this read.
+        Field field = fields.remove(name);
+        if (field == null)
+            field = new Field(name);
+        fields.put(name, field);
+        field.reset(generation);
+        field.count = getLong(reader, "c", 0);
+        field.numericCount = getLong(reader, "nc", 0);
+        field.distinctCount = getLong(reader, "dc", 0);
+        field.exact = getLong(reader, "exact", 0) != 0;
+        return field;
+    }
+
+    private static long getLong(XMLStreamReader reader, String attribute, long defaultValue) {
+        String value = reader.getAttributeValue(null, attribute);
+        if (value == null || value.length() == 0)
+            return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return (long) parseDouble(value);
+        }
+    }
+
+    private static double getDouble(XMLStreamReader reader, String attribute) {
+        String value = reader.getAttributeValue(null, attribute);
+        return value == null ? Double.NaN : parseDouble(value);
+    }
+
+    private static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Indicates whether the summary was still being computed.
+     *
+     * @return {@code true} if the summary is incomplete.
+     */
+    public boolean isBusy() {
+        return busy;
+    }
+
+    /**
+     * Returns the number of events summarized.
+     *
+     * @return The number of events.
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Returns the time the job has spent, according to the summary.
+     *
+     * @return The duration, in seconds, or {@code NaN} if it is unknown.
+     */
+    public double getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the time of the earliest event summarized.
+     *
+     * @return The time, as formatted by the server, or {@code null}.
+     */
+    public String getEarliestTime() {
+        return earliestTime;
+    }
+
+    /**
+     * Returns the time of the latest event summarized.
+     *
+     * @return The time, as formatted by the server, or {@code null}.
+     */
+    public String getLatestTime() {
+        return latestTime;
+    }
+
+    /**
+     * Returns the summaries of the fields, in the order of the server.
+     *
+     * @return The field summaries.
+     */
+    public Collection<Field> getFields() {
+        return Collections.unmodifiableCollection(fields.values());
+    }
+
+    /**
+     * Returns the summary of a field.
+     *
+     * @param name The name of the field.
+     * @return The field summary, or {@code null} if the field is not in the
+     * summary.
+     */
+    public Field getField(String name) {
+        return fields.get(name);
+    }
+}
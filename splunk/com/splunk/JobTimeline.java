@@ -0,0 +1,224 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The {@code JobTimeline} class represents the timeline of a search job, as
+ * returned by {@link Job#getTimeline}: the number of events in each time
+ * bucket.
+ * <p>
+ * The buckets are held in parallel arrays of primitives, indexed from 0 to
+ * {@link #getBucketCount()} - 1. The getters return the arrays themselves,
+ * which may be longer than the number of buckets. To poll the timeline of a
+ * running job, pass the same {@code JobTimeline} to
+ * {@link Job#readTimeline(JobTimeline)} each time; its arrays are
+ * overwritten, and only replaced when there are more buckets than they can
+ * hold.
+ */
+public class JobTimeline {
+    private final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    private int bucketCount;
+    private long eventCount;
+    private long cursorTime;
+    private long[] earliestTimes = new long[0];
+    private long[] durations = new long[0];
+    private long[] eventCounts = new long[0];
+    private long[] availableCounts = new long[0];
+    private boolean[] finalized = new boolean[0];
+
+    /**
+     * Parses a timeline in the XML output format, replacing the contents of
+     * this object, and closes the stream.
+     *
+     * @param stream The timeline stream, such as the one returned by
+     * {@link Job#getTimeline}.
+     * @return This timeline.
+     */
+    public JobTimeline read(InputStream stream) {
+        bucketCount = 0;
+        eventCount = 0;
+        cursorTime = 0;
+        try {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(stream);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT)
+                        continue;
+                    String name = reader.getLocalName();
+                    if (name.equals("timeline")) {
+                        eventCount = getLong(reader, "c");
+                        cursorTime = getMillis(reader, "cursor");
+                    } else if (name.equals("bucket")) {
+                        addBucket(reader);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // The timeline has been read.
+            }
+        }
+        return this;
+    }
+
+    private void addBucket(XMLStreamReader reader) {
+        if (bucketCount == earliestTimes.length) {
+            int capacity = Math.max(64, 2 * bucketCount);
+            earliestTimes = grow(earliestTimes, capacity);
+            durations = grow(durations, capacity);
+            eventCounts = grow(eventCounts, capacity);
+            availableCounts = grow(availableCounts, capacity);
+            finalized = grow(finalized, capacity);
+        }
+        int i = bucketCount++;
+        earliestTimes[i] = getMillis(reader, "t");
+        durations[i] = getMillis(reader, "d");
+        eventCounts[i] = getLong(reader, "c");
+        availableCounts[i] = getLong(reader, "a");
+        finalized[i] = getLong(reader, "f") != 0;
+    }
+
+    private long[] grow(long[] array, int capacity) {
+        long[] grown = new long[capacity];
+        System.arraycopy(array, 0, grown, 0, bucketCount);
+        return grown;
+    }
+
+    private boolean[] grow(boolean[] array, int capacity) {
+        boolean[] grown = new boolean[capacity];
+        System.arraycopy(array, 0, grown, 0, bucketCount);
+        return grown;
+    }
+
+    private static long getLong(XMLStreamReader reader, String attribute) {
+        String value = reader.getAttributeValue(null, attribute);
+        if (value == null || value.length() == 0)
+            return 0;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return (long) Double.parseDouble(value);
+        }
+    }
+
+    // Reads a time in seconds, such as "1359655200.250", as milliseconds.
+    private static long getMillis(XMLStreamReader reader, String attribute) {
+        String value = reader.getAttributeValue(null, attribute);
+        if (value == null || value.length() == 0)
+            return 0;
+        int dot = value.indexOf('.');
+        if (dot < 0)
+            return Long.parseLong(value) * 1000;
+        return Math.round(Double.parseDouble(value) * 1000);
+    }
+
+    /**
+     * Returns the number of buckets.
+     *
+     * @return The number of buckets.
+     */
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    /**
+     * Returns the number of events in the timeline.
+     *
+     * @return The number of events.
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Returns the time up to which the timeline is complete, for a search
+     * that is still running.
+     *
+     * @return The time, in milliseconds since the epoch, or 0 if it is
+     * unknown.
+     */
+    public long getCursorTime() {
+        return cursorTime;
+    }
+
+    /**
+     * Returns the start times of the buckets.
+     *
+     * @return The times, in milliseconds since the epoch. Only the first
+     * {@link #getBucketCount()} entries are valid.
+     */
+    public long[] getEarliestTimes() {
+        return earliestTimes;
+    }
+
+    /**
+     * Returns the durations of the buckets.
+     *
+     * @return The durations, in milliseconds. Only the first
+     * {@link #getBucketCount()} entries are valid.
+     */
+    public long[] getDurations() {
+        return durations;
+    }
+
+    /**
+     * Returns the number of events in each bucket.
+     *
+     * @return The numbers of events. Only the first
+     * {@link #getBucketCount()} entries are valid.
+     */
+    public long[] getEventCounts() {
+        return eventCounts;
+    }
+
+    /**
+     * Returns the number of events in each bucket that are available to be
+     * read as events.
+     *
+     * @return The numbers of events. Only the first
+     * {@link #getBucketCount()} entries are valid.
+     */
+    public long[] getAvailableCounts() {
+        return availableCounts;
+    }
+
+    /**
+     * Indicates whether a bucket is complete.
+     *
+     * @param index The index of the bucket.
+     * @return {@code true} if the bucket will not change.
+     */
+    public boolean isFinalized(int index) {
+        if (index < 0 || index >= bucketCount)
+            throw new IndexOutOfBoundsException(
+                    "Index " + index + " of " + bucketCount + " buckets.");
+        return finalized[index];
+    }
+}
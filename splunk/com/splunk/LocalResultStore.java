@@ -0,0 +1,461 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code LocalResultStore} class holds the results of a search in a
+ * local, memory-mapped file, so that they can be paged through repeatedly
+ * without asking the server again. The results are streamed into the file
+ * once, with {@link #fromJob} or {@link #write}, and then any row can be
+ * read directly by its number.
+ * <p>
+ * Field values can be read as {@code Event} objects, like those of a
+ * {@code ResultsReader}, or without copying, as {@code CharSequence} or
+ * {@code ByteBuffer} views of the mapped file. The views are valid until
+ * the store is closed.
+ * <p>
+ * The file is a header, the rows, the field names, and an index of row
+ * offsets. Each row is a count of fields and, for each field, its number in
+ * the field names and its values. Numbers are unsigned variable-length
+ * integers, and each value is a length, with a flag for pure ASCII, followed
+ * by its UTF-8 bytes. A store is limited to 2GB.
+ * <p>
+ * To keep the stores of many jobs within a disk budget, use a
+ * {@link LocalResultStorePool}.
+ */
+public class LocalResultStore implements Closeable {
+    private static final int MAGIC = 0x4C525331; // "LRS1"
+    // magic, row count, field count, field names offset, index offset
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8;
+
+    private final File file;
+    private final int rowCount;
+    private final List<String> fieldNames;
+    private final Map<String, Integer> fieldNumbers;
+    private final int indexOffset;
+    private volatile MappedByteBuffer buffer;
+
+    private LocalResultStore(File file) throws IOException {
+        this.file = file;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(file + " is too large for a result store.");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException(file + " is not a result store.");
+        rowCount = buffer.getInt(4);
+        int fieldCount = buffer.getInt(8);
+        int[] position = new int[] {(int) buffer.getLong(12)};
+        indexOffset = (int) buffer.getLong(20);
+
+        List<String> names = new ArrayList<String>(fieldCount);
+        Map<String, Integer> numbers = new HashMap<String, Integer>();
+        for (int i = 0; i < fieldCount; i++) {
+            String name = readValue(position).toString();
+            names.add(name);
+            numbers.put(name, i);
+        }
+        fieldNames = Collections.unmodifiableList(names);
+        fieldNumbers = numbers;
+    }
+
+    /**
+     * Opens a store written earlier.
+     *
+     * @param file The file of the store.
+     * @return The store.
+     * @throws IOException If the file cannot be read or is not a store.
+     */
+    public static LocalResultStore open(File file) throws IOException {
+        return new LocalResultStore(file);
+    }
+
+    /**
+     * Streams all the results of a finished job into a new store.
+     *
+     * @param job The job, which must be done.
+     * @param file The file to write, which is replaced if it exists.
+     * @return The store.
+     * @throws IOException If the results cannot be read or written.
+     */
+    public static LocalResultStore fromJob(Job job, File file) throws IOException {
+        Args args = new Args("count", 0);
+        ResultsReader reader = new ResultsReaderXml(job.getResults(args));
+        try {
+            return write(reader, file);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Streams the results of a reader into a new store.
+     *
+     * @param reader The reader, which is read to the end but not closed.
+     * @param file The file to write, which is replaced if it exists.
+     * @return The store.
+     * @throws IOException If the results cannot be read or written.
+     */
+    public static LocalResultStore write(ResultsReader reader, File file) throws IOException {
+        List<String> names = new ArrayList<String>();
+        Map<String, Integer> numbers = new HashMap<String, Integer>();
+        long[] offsets = new long[1024];
+        int rows = 0;
+
+        CountingOutputStream counter = new CountingOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 65536));
+        DataOutputStream out = new DataOutputStream(counter);
+        boolean written = false;
+        try {
+            out.write(new byte[HEADER_SIZE]);
+            Event event;
+            while ((event = reader.getNextEvent()) != null) {
+                if (rows == offsets.length)
+                    offsets = Arrays.copyOf(offsets, rows * 2);
+                offsets[rows++] = counter.count;
+
+                writeVarint(out, event.size());
+                for (String name : event.keySet()) {
+                    Integer number = numbers.get(name);
+                    if (number == null) {
+                        number = names.size();
+                        names.add(name);
+                        numbers.put(name, number);
+                    }
+                    String[] values = event.getArray(name);
+                    writeVarint(out, number);
+                    writeVarint(out, values.length);
+                    for (String value : values)
+                        writeValue(out, value);
+                }
+            }
+
+            long namesOffset = counter.count;
+            for (String name : names)
+                writeValue(out, name);
+            long indexOffset = counter.count;
+            for (int i = 0; i < rows; i++)
+                out.writeLong(offsets[i]);
+            out.flush();
+            if (counter.count > Integer.MAX_VALUE)
+                throw new IOException("The results are too large for a result store.");
+            out.close();
+
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.writeInt(MAGIC);
+                raf.writeInt(rows);
+                raf.writeInt(names.size());
+                raf.writeLong(namesOffset);
+                raf.writeLong(indexOffset);
+            } finally {
+                raf.close();
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                out.close();
+                file.delete();
+            }
+        }
+        return new LocalResultStore(file);
+    }
+
+    /**
+     * @return The file of this store.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The number of rows in this store.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return The names of the fields that appear in any row.
+     */
+    public List<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    /**
+     * Returns a row as an {@code Event}.
+     *
+     * @param row The row number, from 0.
+     * @return The row.
+     */
+    public Event getRow(int row) {
+        int[] position = new int[] {rowOffset(row)};
+        Event event = new Event();
+        int fields = readVarint(position);
+        for (int i = 0; i < fields; i++) {
+            String name = fieldNames.get(readVarint(position));
+            int count = readVarint(position);
+            if (count == 1) {
+                event.putSingleOrDelimited(name, readValue(position).toString());
+            } else {
+                String[] values = new String[count];
+                for (int j = 0; j < count; j++)
+                    values[j] = readValue(position).toString();
+                event.putArray(name, values);
+            }
+        }
+        return event;
+    }
+
+    /**
+     * Returns a page of rows as {@code Event} objects.
+     *
+     * @param offset The number of the first row.
+     * @param count The most rows to return.
+     * @return The rows, fewer than {@code count} at the end of the store.
+     */
+    public List<Event> getRows(int offset, int count) {
+        int end = (int) Math.min((long) offset + count, rowCount);
+        List<Event> rows = new ArrayList<Event>(Math.max(end - offset, 0));
+        for (int row = offset; row < end; row++)
+            rows.add(getRow(row));
+        return rows;
+    }
+
+    /**
+     * Returns the first value of a field in a row, as a view of the mapped
+     * file. Values that are pure ASCII are not decoded or copied.
+     *
+     * @param row The row number, from 0.
+     * @param field The field name.
+     * @return The value, or {@code null} if the row does not have the field.
+     */
+    public CharSequence getValue(int row, String field) {
+        int[] position = findField(row, field);
+        if (position == null)
+            return null;
+        readVarint(position); // the number of values
+        return readValue(position);
+    }
+
+    /**
+     * Returns the UTF-8 bytes of the first value of a field in a row, as a
+     * read-only view of the mapped file.
+     *
+     * @param row The row number, from 0.
+     * @param field The field name.
+     * @return The bytes, or {@code null} if the row does not have the field.
+     */
+    public ByteBuffer getValueBytes(int row, String field) {
+        int[] position = findField(row, field);
+        if (position == null)
+            return null;
+        readVarint(position); // the number of values
+        int length = readVarint(position) >>> 1;
+        ByteBuffer view = mapped().duplicate();
+        view.limit(position[0] + length);
+        view.position(position[0]);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Closes this store. Its views must not be used afterwards.
+     */
+    public void close() {
+        buffer = null;
+    }
+
+    // Returns the position after the field number of a field in a row, or
+    // null if the row does not have the field.
+    private int[] findField(int row, String field) {
+        Integer wanted = fieldNumbers.get(field);
+        int[] position = new int[] {rowOffset(row)};
+        if (wanted == null)
+            return null;
+        int fields = readVarint(position);
+        for (int i = 0; i < fields; i++) {
+            int number = readVarint(position);
+            if (number == wanted)
+                return position;
+            int count = readVarint(position);
+            for (int j = 0; j < count; j++) {
+                int length = readVarint(position) >>> 1;
+                position[0] += length;
+            }
+        }
+        return null;
+    }
+
+    private int rowOffset(int row) {
+        if (row < 0 || row >= rowCount)
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+        return (int) mapped().getLong(indexOffset + 8 * row);
+    }
+
+    private MappedByteBuffer mapped() {
+        MappedByteBuffer mapped = buffer;
+        if (mapped == null)
+            throw new IllegalStateException("The result store is closed.");
+        return mapped;
+    }
+
+    private int readVarint(int[] position) {
+        ByteBuffer mapped = mapped();
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = mapped.get(position[0]++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private CharSequence readValue(int[] position) {
+        int header = readVarint(position);
+        int start = position[0];
+        int length = header >>> 1;
+        position[0] += length;
+        return new Utf8Slice(mapped(), start, length, (header & 1) != 0);
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeValue(DataOutputStream out, String value) throws IOException {
+        boolean ascii = true;
+        for (int i = 0; i < value.length() && ascii; i++)
+            ascii = value.charAt(i) < 0x80;
+        byte[] bytes = value.getBytes("UTF-8");
+        writeVarint(out, (bytes.length << 1) | (ascii ? 1 : 0));
+        out.write(bytes);
+    }
+
+    // A string stored in the mapped file. ASCII strings are read in place;
+    // others are decoded once, when first used.
+    private static final class Utf8Slice implements CharSequence {
+        private final ByteBuffer buffer;
+        private final int start;
+        private final int length;
+        private final boolean ascii;
+        private String decoded;
+
+        Utf8Slice(ByteBuffer buffer, int start, int length, boolean ascii) {
+            this.buffer = buffer;
+            this.start = start;
+            this.length = length;
+            this.ascii = ascii;
+        }
+
+        public int length() {
+            return ascii ? length : toString().length();
+        }
+
+        public char charAt(int index) {
+            if (!ascii)
+                return toString().charAt(index);
+            if (index < 0 || index >= length)
+                throw new IndexOutOfBoundsException();
+            return (char) buffer.get(start + index);
+        }
+
+        public CharSequence subSequence(int from, int to) {
+            if (!ascii)
+                return toString().subSequence(from, to);
+            if (from < 0 || to > length || from > to)
+                throw new IndexOutOfBoundsException();
+            return new Utf8Slice(buffer, start + from, to - from, true);
+        }
+
+        @Override
+        public String toString() {
+            if (decoded == null) {
+                byte[] bytes = new byte[length];
+                ByteBuffer view = buffer.duplicate();
+                view.position(start);
+                view.get(bytes);
+                try {
+                    decoded = new String(bytes, "UTF-8");
+                } catch (IOException e) {
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+            }
+            return decoded;
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            count += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The {@code LocalResultStorePool} class keeps the {@link LocalResultStore}
+ * of each job in one directory, within a disk budget. The store of a job is
+ * written the first time it is asked for, and the least recently used
+ * stores are closed and deleted when the budget is exceeded.
+ * <p>
+ * Since a store can be evicted at any time, get it from the pool for each
+ * page rather than holding on to it.
+ */
+public class LocalResultStorePool {
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, LocalResultStore> stores =
+            new LinkedHashMap<String, LocalResultStore>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    /**
+     * Creates a pool of stores.
+     *
+     * @param directory The directory for the store files, which is created
+     * if necessary.
+     * @param maxBytes The most bytes of store files to keep. The most
+     * recently used store is kept even if it alone is larger.
+     * @throws IOException If the directory cannot be created.
+     */
+    public LocalResultStorePool(File directory, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the store of a job's results, writing it if the pool does not
+     * have it.
+     *
+     * @param job The job, which must be done.
+     * @return The store.
+     * @throws IOException If the results cannot be read or written.
+     */
+    public LocalResultStore get(Job job) throws IOException {
+        String sid = job.getSid();
+        synchronized (this) {
+            LocalResultStore store = stores.get(sid);
+            if (store != null)
+                return store;
+        }
+
+        // Write outside the lock, so that other jobs can be read meanwhile.
+        File file = File.createTempFile(fileName(sid), ".lrs", directory);
+        LocalResultStore written = LocalResultStore.fromJob(job, file);
+
+        synchronized (this) {
+            LocalResultStore store = stores.get(sid);
+            if (store != null) {
+                // Another thread wrote the same job first.
+                written.close();
+                file.delete();
+                return store;
+            }
+            stores.put(sid, written);
+            totalBytes += file.length();
+            evict();
+            return written;
+        }
+    }
+
+    /**
+     * Closes and deletes the store of a job, if the pool has it.
+     *
+     * @param sid The search ID of the job.
+     */
+    public synchronized void remove(String sid) {
+        LocalResultStore store = stores.remove(sid);
+        if (store != null)
+            discard(store);
+    }
+
+    /**
+     * Closes and deletes every store.
+     */
+    public synchronized void clear() {
+        for (LocalResultStore store : stores.values())
+            discard(store);
+        stores.clear();
+    }
+
+    /**
+     * @return The total size of the store files, in bytes.
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return The number of stores in the pool.
+     */
+    public synchronized int size() {
+        return stores.size();
+    }
+
+    // Evicts least recently used stores until the pool is within its
+    // budget, keeping the most recent one.
+    private void evict() {
+        Iterator<Map.Entry<String, LocalResultStore>> eldest = stores.entrySet().iterator();
+        while (totalBytes > maxBytes && stores.size() > 1) {
+            LocalResultStore store = eldest.next().getValue();
+            eldest.remove();
+            discard(store);
+        }
+    }
+
+    private void discard(LocalResultStore store) {
+        totalBytes -= store.getFile().length();
+        store.close();
+        store.getFile().delete();
+    }
+
+    // A file name prefix from a search ID, which may contain any character.
+    private static String fileName(String sid) {
+        StringBuilder name = new StringBuilder(sid.length() + 1);
+        for (int i = 0; i < sid.length(); i++) {
+            char c = sid.charAt(i);
+            boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                    || (c >= '0' && c <= '9') || c == '.' || c == '_' || c == '-';
+            name.append(safe ? c : '_');
+        }
+        // createTempFile needs a prefix of at least three characters.
+        while (name.length() < 3)
+            name.append('_');
+        return name.append('-').toString();
+    }
+}
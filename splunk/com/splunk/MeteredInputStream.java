@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a response body and reports the request to a
+ * {@code MetricsRecorder} and {@code Tracer} span, either of which may be
+ * {@code null}, once the body has been read to the end or closed.
+ */
+class MeteredInputStream extends FilterInputStream {
+    private final MetricsRecorder recorder;
+    private final Tracer tracer;
+    private final Object trace;
+    private final String path;
+    private final String method;
+    private final int status;
+    private final long bytesOut;
+    private final long startNanos;
+    private final long connectNanos;
+    private final long firstByteNanos;
+    private long bytesIn = 0;
+    private boolean reported = false;
+
+    MeteredInputStream(InputStream in, MetricsRecorder recorder,
+                       Tracer tracer, Object trace, String path, String method,
+                       int status, long bytesOut, long startNanos,
+                       long connectNanos, long firstByteNanos) {
+        super(in);
+        this.recorder = recorder;
+        this.tracer = tracer;
+        this.trace = trace;
+        this.path = path;
+        this.method = method;
+        this.status = status;
+        this.bytesOut = bytesOut;
+        this.startNanos = startNanos;
+        this.connectNanos = connectNanos;
+        this.firstByteNanos = firstByteNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b == -1) {
+            report();
+        } else {
+            bytesIn++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int n = super.read(buffer, offset, length);
+        if (n == -1) {
+            report();
+        } else {
+            bytesIn += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        bytesIn += skipped;
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            report();
+        }
+    }
+
+    private void report() {
+        if (reported) {
+            return;
+        }
+        reported = true;
+        HttpService.record(recorder, tracer, trace, new RequestMetrics(
+                RequestMetrics.endpointTemplate(path), path, method, status,
+                bytesOut, bytesIn, connectNanos, firstByteNanos,
+                System.nanoTime() - startNanos));
+    }
+}
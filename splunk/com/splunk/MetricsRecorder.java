@@ -0,0 +1,39 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+/**
+ * The {@code MetricsRecorder} interface receives a {@code RequestMetrics}
+ * for every HTTP request an {@code HttpService} (and so a {@code Service})
+ * sends. Set one with {@code HttpService.setMetricsRecorder}.
+ * <p>
+ * A request is recorded once its response body has been read to the end or
+ * closed, so that the byte count and total duration cover the whole body.
+ * Requests that fail before a response arrives are recorded with a status of
+ * 0. Implementations are called on the thread that finishes the request, and
+ * must be thread safe and fast.
+ *
+ * @see HistogramMetricsRecorder
+ */
+public interface MetricsRecorder {
+    /**
+     * Records a finished request.
+     *
+     * @param metrics The measurements of the request.
+     */
+    void record(RequestMetrics metrics);
+}
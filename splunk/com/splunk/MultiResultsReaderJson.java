@@ -18,6 +18,7 @@ package com.splunk;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Set;
 
 /**
  * The {@code MultiResultsReaderJson} class represents a streaming JSON reader
@@ -39,4 +40,19 @@ public class MultiResultsReaderJson
     public MultiResultsReaderJson(InputStream inputStream) throws IOException {
         super(new ResultsReaderJson(inputStream, true));
     }
+
+    /**
+     * Class constructor.
+     *
+     * Constructs a streaming JSON reader for the event stream that reads
+     * only some fields, skipping the values of the others.
+     *
+     * @param inputStream The JSON stream to parse.
+     * @param fields The names of the fields to read.
+     * @throws IOException
+     */
+    public MultiResultsReaderJson(InputStream inputStream, Set<String> fields)
+            throws IOException {
+        super(new ResultsReaderJson(inputStream, true, fields));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,647 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code ParallelResultsReader} class decodes one large XML or JSON
+ * results stream on several cores. A splitter thread reads the stream and
+ * cuts it into chunks of about {@code chunkSize} bytes at result boundaries
+ * ({@code <result} elements in XML, result objects or export rows in JSON),
+ * making each chunk a small document of its own. Worker threads decode the
+ * chunks with {@link ResultsReaderXml} or {@link ResultsReaderJson}, and
+ * this reader returns their events in the order of the stream.
+ * <p>
+ * The format is detected from the first bytes of the stream. Streams from
+ * the export endpoint are read as {@code ResultsReaderXml} and
+ * {@code ResultsReaderJson} read them: previews are skipped, and the final
+ * results are returned. At most {@code 2 * parallelism} chunks are read
+ * ahead of the caller, which bounds memory use.
+ * <p>
+ * Example:
+ * <pre>
+ * InputStream stream = job.getResults(new Args("count", 0));
+ * ParallelResultsReader reader = new ParallelResultsReader(stream, 4, 1 &lt;&lt; 20);
+ * for (Event event : reader) {
+ *     ...
+ * }
+ * reader.close();
+ * </pre>
+ */
+public class ParallelResultsReader extends ResultsReader {
+    private static final AtomicInteger readerCount = new AtomicInteger();
+    private static final int XML = 0;
+    private static final int JSON = 1;
+    private static final int JSON_LINES = 2;
+
+    private final BlockingQueue<Future<Decoded>> chunks;
+    private final ExecutorService workers;
+    private final Thread splitterThread;
+    private Decoded first;
+    private Decoded current;
+    private int currentIndex;
+    private boolean done = false;
+
+    /**
+     * Class constructor.
+     *
+     * Constructs a reader that decodes chunks of 1MB on as many threads as
+     * there are processors.
+     *
+     * @param inputStream The XML or JSON stream to parse.
+     * @throws IOException
+     */
+    public ParallelResultsReader(InputStream inputStream) throws IOException {
+        this(inputStream, Runtime.getRuntime().availableProcessors(), 1 << 20);
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param inputStream The XML or JSON stream to parse.
+     * @param parallelism The number of decoding threads.
+     * @param chunkSize The approximate size of a chunk, in bytes. A chunk
+     * always holds at least one result.
+     * @throws IOException
+     */
+    public ParallelResultsReader(InputStream inputStream, int parallelism, int chunkSize)
+            throws IOException {
+        super(inputStream, false);
+        if (parallelism < 1 || chunkSize < 1)
+            throw new IllegalArgumentException("The parallelism and chunk size must be positive.");
+
+        final int id = readerCount.incrementAndGet();
+        this.chunks = new ArrayBlockingQueue<Future<Decoded>>(2 * parallelism);
+        this.workers = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                        "splunk-results-decoder-" + id + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final Splitter splitter = new Splitter(inputStream, chunkSize);
+        this.splitterThread = new Thread(new Runnable() {
+            public void run() {
+                split(splitter);
+            }
+        }, "splunk-results-splitter-" + id);
+        splitterThread.setDaemon(true);
+        splitterThread.start();
+        beginSetTrace();
+    }
+
+    /** {@inheritDoc} */
+    public boolean isPreview() {
+        Decoded decoded = first();
+        return decoded != null && decoded.preview;
+    }
+
+    /**
+     * Returns the fields of the results. This is only supported for XML, and
+     * waits for the first chunk to be decoded.
+     *
+     * @return The field names.
+     */
+    public Collection<String> getFields() {
+        Decoded decoded = first();
+        if (decoded != null && decoded.fields == null)
+            throw new UnsupportedOperationException(
+                    "getFields() is not supported for JSON results.");
+        return decoded == null ? Collections.<String>emptyList() : decoded.fields;
+    }
+
+    /** {@inheritDoc} */
+    @Override public void close() throws IOException {
+        done = true;
+        splitterThread.interrupt();
+        workers.shutdownNow();
+        chunks.clear();
+        current = null;
+        super.close();
+    }
+
+    @Override Event getNextEventInCurrentSet() throws IOException {
+        while (current == null || currentIndex == current.events.size()) {
+            current = nextChunk();
+            currentIndex = 0;
+            if (current == null)
+                return null;
+        }
+        return current.events.get(currentIndex++);
+    }
+
+    private Decoded first() {
+        if (first == null && !done) {
+            try {
+                current = nextChunk();
+                currentIndex = 0;
+            } catch (IOException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        }
+        return first;
+    }
+
+    // Returns the next decoded chunk in stream order, or null at the end.
+    private Decoded nextChunk() throws IOException {
+        if (done)
+            return null;
+        Decoded decoded;
+        try {
+            decoded = chunks.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e.getMessage(), e);
+        } catch (ExecutionException e) {
+            done = true;
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException(cause.getMessage(), cause);
+        }
+        if (decoded == null) {
+            done = true;
+            return null;
+        }
+        if (first == null)
+            first = decoded;
+        return decoded;
+    }
+
+    // Runs on the splitter thread: queues a decoding task for each chunk,
+    // then a task returning null for the end of the stream, or one that
+    // throws the splitter's error.
+    private void split(Splitter splitter) {
+        try {
+            byte[] chunk;
+            while ((chunk = splitter.next()) != null) {
+                final byte[] bytes = chunk;
+                final int format = splitter.format;
+                final boolean export = isExportStream;
+                chunks.put(workers.submit(new Callable<Decoded>() {
+                    public Decoded call() throws IOException {
+                        return decode(bytes, format, export);
+                    }
+                }));
+            }
+            chunks.put(finished(null, null));
+        } catch (InterruptedException e) {
+            // Closed.
+        } catch (final Exception e) {
+            try {
+                chunks.put(finished(null, e));
+            } catch (InterruptedException interrupted) {
+                // Closed.
+            }
+        }
+    }
+
+    private static Future<Decoded> finished(final Decoded value, final Exception error) {
+        FutureTask<Decoded> task = new FutureTask<Decoded>(new Callable<Decoded>() {
+            public Decoded call() throws Exception {
+                if (error != null)
+                    throw error;
+                return value;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    private static Decoded decode(byte[] chunk, int format, boolean export) throws IOException {
+        InputStream stream = new ByteArrayInputStream(chunk);
+        if (export)
+            stream = new ExportResultsStream(stream);
+        ResultsReader reader = format == XML
+                ? new ResultsReaderXml(stream)
+                : new ResultsReaderJson(stream);
+        try {
+            Decoded decoded = new Decoded();
+            Event event;
+            while ((event = reader.getNextEvent()) != null)
+                decoded.events.add(event);
+            if (format == XML)
+                decoded.fields = new ArrayList<String>(reader.getFields());
+            try {
+                decoded.preview = reader.isPreview();
+            } catch (UnsupportedOperationException e) {
+                // A Splunk 4.x JSON stream has no preview flag.
+            }
+            return decoded;
+        } finally {
+            reader.close();
+        }
+    }
+
+    // The events of a chunk, and what its reader knew about the results.
+    private static final class Decoded {
+        final List<Event> events = new ArrayList<Event>();
+        List<String> fields;
+        boolean preview;
+    }
+
+    /*
+     * Cuts a stream into chunks that the ordinary readers can decode on
+     * their own. The stream is scanned once, in a window that holds the
+     * bytes not yet copied into a chunk.
+     *
+     * XML: a chunk is the text before the first <results> element, then
+     * whole or partial result sets. A set cut after a <result> element is
+     * closed with </results>, and the next chunk reopens it with a copy of
+     * its header (the <results> start tag and the <meta> before the first
+     * <result>).
+     *
+     * JSON: a chunk is the text up to the first result object, some result
+     * objects, and the closing brackets. Export streams are one row per
+     * line, and are cut at line ends.
+     *
+     * The preview sets of an export, which the readers would skip, are left
+     * out of the chunks.
+     */
+    private static final class Splitter {
+        private final InputStream input;
+        private final int chunkSize;
+        int format = -1;
+
+        // The window holds the bytes of the stream from windowStart.
+        private byte[] window = new byte[64 * 1024];
+        private long windowStart = 0;
+        private int windowLength = 0;
+        private boolean endOfStream = false;
+        private long scan = 0;
+
+        private ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        private long regionStart = 0;
+        private byte[] documentPrefix;
+        private long setStart = -1;
+        private byte[] setHeader;
+        private boolean finished = false;
+
+        // JSON scanning state.
+        private int depth = 0;
+        private boolean inString = false;
+        private boolean escaped = false;
+        private int rowDepth = -1;
+        private boolean topLevelArray;
+        private long keyStart = -1;
+        private boolean resultsKey = false;
+
+        Splitter(InputStream input, int chunkSize) {
+            this.input = input;
+            this.chunkSize = chunkSize;
+        }
+
+        // Returns the next chunk, or null at the end of the stream.
+        byte[] next() throws IOException {
+            if (format < 0 && !detectFormat())
+                return null;
+            while (!finished) {
+                byte[] cut = format == XML ? scanXml()
+                        : format == JSON ? scanJson() : scanLines();
+                if (cut != null)
+                    return cut;
+            }
+            return null;
+        }
+
+        private boolean detectFormat() throws IOException {
+            long position = 0;
+            while (available(position)) {
+                int b = at(position) & 0xFF;
+                if (b == '<') {
+                    format = XML;
+                    return true;
+                }
+                if (b == '{' || b == '[') {
+                    format = isExport() ? JSON_LINES : JSON;
+                    topLevelArray = b == '[';
+                    return true;
+                }
+                position++;
+            }
+            finished = true;
+            return false;
+        }
+
+        private boolean isExport() {
+            return ResultsReader.isExportStream(input);
+        }
+
+        private byte[] scanXml() throws IOException {
+            while (true) {
+                if (!available(scan + 9)) {
+                    // Too few bytes left for another tag that matters.
+                    return finish();
+                }
+                byte b = at(scan);
+                if (b != '<' || !matches(scan + 1, "result")) {
+                    scan++;
+                    continue;
+                }
+                long tag = scan;
+                byte after = at(tag + 7);
+                scan = tag + 7;
+                if (after == 's') {
+                    byte end = at(tag + 8);
+                    if (end == ' ' || end == '>' || end == '\t' || end == '\r' || end == '\n')
+                        return startSet(tag);
+                } else if (after == ' ' || after == '>' || after == '\t' || after == '\r' || after == '\n') {
+                    byte[] cut = startRow(tag);
+                    if (cut != null)
+                        return cut;
+                }
+            }
+        }
+
+        private byte[] startSet(long tag) throws IOException {
+            byte[] cut = null;
+            if (documentPrefix == null) {
+                documentPrefix = copy(windowStart, tag);
+            } else if (setHeader != null) {
+                // The previous set had results: keep the rest of it.
+                append(regionStart, tag);
+                if (chunk.size() >= chunkSize)
+                    cut = emit();
+            }
+            // The readers skip the previews of an export, so they are not
+            // copied into chunks at all.
+            setStart = isExport() && isPreviewSet(tag) ? -1 : tag;
+            setHeader = null;
+            regionStart = tag;
+            discardBefore(tag);
+            return cut;
+        }
+
+        // Whether the <results> start tag at tag has preview='1'.
+        private boolean isPreviewSet(long tag) throws IOException {
+            for (long position = tag; available(position); position++) {
+                byte b = at(position);
+                if (b == '>')
+                    return false;
+                if (b == 'p' && (matches(position, "preview='1'")
+                        || matches(position, "preview=\"1\"")))
+                    return true;
+            }
+            return false;
+        }
+
+        private byte[] startRow(long tag) throws IOException {
+            if (setStart < 0)
+                return null;
+            if (setHeader == null) {
+                setHeader = copy(setStart, tag);
+                return null;
+            }
+            if (chunk.size() + (tag - regionStart) < chunkSize)
+                return null;
+            append(regionStart, tag);
+            chunk.write(bytes("</results>\n"));
+            byte[] cut = emit();
+            chunk.write(setHeader);
+            regionStart = tag;
+            discardBefore(tag);
+            return cut;
+        }
+
+        private byte[] scanJson() throws IOException {
+            while (true) {
+                if (!available(scan))
+                    return finish();
+                byte b = at(scan);
+                long position = scan++;
+                if (inString) {
+                    if (escaped)
+                        escaped = false;
+                    else if (b == '\\')
+                        escaped = true;
+                    else if (b == '"') {
+                        inString = false;
+                        resultsKey = depth == 1 && position - keyStart == 8
+                                && matches(keyStart, "\"results");
+                    }
+                    continue;
+                }
+                if (b == '"') {
+                    inString = true;
+                    keyStart = position;
+                } else if (b == '[') {
+                    depth++;
+                    if (rowDepth < 0 && (topLevelArray ? depth == 1 : depth == 2 && resultsKey))
+                        rowDepth = depth;
+                } else if (b == '{') {
+                    if (depth == rowDepth) {
+                        byte[] cut = startJsonRow(position);
+                        depth++;
+                        if (cut != null)
+                            return cut;
+                        continue;
+                    }
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+            }
+        }
+
+        private byte[] startJsonRow(long row) throws IOException {
+            if (documentPrefix == null) {
+                documentPrefix = copy(windowStart, row);
+                regionStart = row;
+                discardBefore(row);
+                return null;
+            }
+            if (chunk.size() + (row - regionStart) < chunkSize)
+                return null;
+            // Drop the comma between this row and the previous one.
+            long end = row;
+            while (end > regionStart) {
+                byte b = at(end - 1);
+                if (b != ',' && b != ' ' && b != '\t' && b != '\r' && b != '\n')
+                    break;
+                end--;
+            }
+            append(regionStart, end);
+            chunk.write(bytes(topLevelArray ? "]" : "]}"));
+            byte[] cut = emit();
+            regionStart = row;
+            discardBefore(row);
+            return cut;
+        }
+
+        // Export rows are cut at line ends. Preview rows are dropped, and
+        // the last row of a chunk is marked as the last row of its set, so
+        // that the chunk ends cleanly.
+        private byte[] scanLines() throws IOException {
+            while (true) {
+                boolean end = !available(scan);
+                if (!end && at(scan++) != '\n')
+                    continue;
+                long lineEnd = end ? windowStart + windowLength : scan;
+                byte[] cut = null;
+                if (!isPreviewLine(regionStart, lineEnd)) {
+                    if (!end && chunk.size() + (lineEnd - regionStart) >= chunkSize) {
+                        appendLastRow(regionStart, lineEnd);
+                        cut = emit();
+                    } else {
+                        append(regionStart, lineEnd);
+                    }
+                }
+                regionStart = lineEnd;
+                discardBefore(lineEnd);
+                if (end) {
+                    finished = true;
+                    return chunk.size() == 0 ? null : emit();
+                }
+                if (cut != null)
+                    return cut;
+            }
+        }
+
+        private boolean isPreviewLine(long from, long to) throws IOException {
+            // Skip a byte order mark and white space.
+            while (from < to && (at(from) == (byte) 0xEF || at(from) == (byte) 0xBB
+                    || at(from) == (byte) 0xBF || at(from) == ' ' || at(from) == '\t'))
+                from++;
+            return to - from > 15 && matches(from, "{\"preview\":true");
+        }
+
+        private void appendLastRow(long from, long to) {
+            for (long position = from; position < to; position++) {
+                if (at(position) == '{') {
+                    append(from, position + 1);
+                    byte[] lastRow = bytes("\"lastrow\":true,");
+                    chunk.write(lastRow, 0, lastRow.length);
+                    append(position + 1, to);
+                    return;
+                }
+            }
+            append(from, to);
+        }
+
+        private byte[] finish() throws IOException {
+            finished = true;
+            long end = windowStart + windowLength;
+            if (format == XML && setHeader == null) {
+                // The last set, if any, has no results.
+                end = setStart < 0 ? regionStart : setStart;
+            }
+            append(regionStart, end);
+            if (chunk.size() == 0)
+                return null;
+            return emit();
+        }
+
+        // Returns the current chunk, with the document prefix, and starts
+        // a new one.
+        private byte[] emit() throws IOException {
+            ByteArrayOutputStream cut = new ByteArrayOutputStream(
+                    (documentPrefix == null ? 0 : documentPrefix.length) + chunk.size());
+            if (documentPrefix != null && format != JSON_LINES)
+                cut.write(documentPrefix);
+            chunk.writeTo(cut);
+            chunk = new ByteArrayOutputStream(chunkSize + chunkSize / 4);
+            return cut.toByteArray();
+        }
+
+        private boolean matches(long position, String text) throws IOException {
+            if (!available(position + text.length() - 1))
+                return false;
+            for (int i = 0; i < text.length(); i++) {
+                if (at(position + i) != text.charAt(i))
+                    return false;
+            }
+            return true;
+        }
+
+        private byte at(long position) {
+            return window[(int) (position - windowStart)];
+        }
+
+        // Reads until the window holds the byte at position. Returns false
+        // if the stream ends first.
+        private boolean available(long position) throws IOException {
+            while (position >= windowStart + windowLength) {
+                if (endOfStream)
+                    return false;
+                if (windowLength == window.length) {
+                    byte[] grown = new byte[2 * window.length];
+                    System.arraycopy(window, 0, grown, 0, windowLength);
+                    window = grown;
+                }
+                int n = input.read(window, windowLength, window.length - windowLength);
+                if (n < 0)
+                    endOfStream = true;
+                else
+                    windowLength += n;
+            }
+            return true;
+        }
+
+        private void append(long from, long to) {
+            if (to > from)
+                chunk.write(window, (int) (from - windowStart), (int) (to - from));
+        }
+
+        private byte[] copy(long from, long to) {
+            byte[] bytes = new byte[(int) (to - from)];
+            System.arraycopy(window, (int) (from - windowStart), bytes, 0, bytes.length);
+            return bytes;
+        }
+
+        // Drops the bytes before position from the window, once they are no
+        // longer needed.
+        private void discardBefore(long position) {
+            int drop = (int) (position - windowStart);
+            if (drop < window.length / 2)
+                return;
+            System.arraycopy(window, drop, window, 0, windowLength - drop);
+            windowLength -= drop;
+            windowStart = position;
+        }
+
+        private static byte[] bytes(String text) {
+            try {
+                return text.getBytes("UTF-8");
+            } catch (IOException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -39,6 +39,34 @@ public class Pivot {
         this.tstatsSearch = entry.content.getString("tstats_search", null);
     }
 
+    private Pivot(Pivot pivot, Replacer replacer) {
+        this.service = pivot.service;
+        this.openInSearch = replacer.replace(pivot.openInSearch);
+        this.drilldownSearch = replacer.replace(pivot.drilldownSearch);
+        this.pivotSearch = replacer.replace(pivot.pivotSearch);
+        this.search = replacer.replace(pivot.search);
+        this.tstatsSearch = replacer.replace(pivot.tstatsSearch);
+    }
+
+    /**
+     * Rewrites the queries of a pivot.
+     */
+    interface Replacer {
+        /**
+         * @param query a query, or null.
+         * @return the rewritten query, or null.
+         */
+        String replace(String query);
+    }
+
+    /**
+     * @param replacer the rewriting to apply to each query.
+     * @return a copy of this pivot with rewritten queries.
+     */
+    Pivot withReplacements(Replacer replacer) {
+        return new Pivot(this, replacer);
+    }
+
     /**
      * @return a SPL query using the pivot search command to implement this pivot.
      */
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code PivotCache} class is an opt-in, client-side cache of the
+ * queries that splunkd translates pivot specifications into, which saves
+ * the round trip of {@link PivotSpecification#pivot()} for pivots that are
+ * built again and again. Set it on a {@code Service} with
+ * {@link Service#setPivotCache}.
+ * <p>
+ * Specifications are keyed by a canonical form of their JSON, with the
+ * properties of each object sorted by name. Specifications that
+ * differ only in the values of their string filters share a translation:
+ * the first is translated with placeholders for those values, which are
+ * then substituted into the queries of every specification of that shape.
+ * Placeholders are only used for values made of letters, digits, and
+ * {@code _ . : @ / -}, which splunkd copies into the queries unchanged;
+ * other values, regular expressions, and shapes whose translation does not
+ * show the placeholders as they were sent are cached by their exact value.
+ * <p>
+ * The key includes a hash of the data model's JSON, so specifications on a
+ * data model that has since changed are translated again, and entries of a
+ * data model are dropped when it is updated through the SDK. Entries also
+ * expire after a time to live.
+ */
+public class PivotCache {
+    private static final String PLACEHOLDER_PREFIX = "SDKPIVOTPARAM";
+    private static final String PLACEHOLDER_SUFFIX = "X";
+
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries The most translations to keep.
+     * @param ttlMillis How long a translation may be used, in milliseconds.
+     */
+    public PivotCache(int maxEntries, long ttlMillis) {
+        if (maxEntries <= 0 || ttlMillis <= 0)
+            throw new IllegalArgumentException("The size and time to live must be positive.");
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Removes the translations of the pivots on a data model.
+     *
+     * @param dataModelName The name of the data model.
+     */
+    public synchronized void invalidate(String dataModelName) {
+        String prefix = dataModelName + "\n";
+        for (Iterator<String> keys = entries.keySet().iterator(); keys.hasNext(); ) {
+            if (keys.next().startsWith(prefix))
+                keys.remove();
+        }
+    }
+
+    /**
+     * Removes every translation.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of translations in the cache.
+     *
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of pivots served from the cache.
+     *
+     * @return The number of hits.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of pivots that splunkd had to translate.
+     *
+     * @return The number of misses.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the pivot for a specification, translating it if needed.
+     *
+     * @param namespace The acceleration namespace to translate it with.
+     */
+    Pivot pivot(PivotSpecification specification, String namespace) {
+        DataModel model = specification.getDataModelObject().getDataModel();
+        String prefix = model.getName() + "\n" + fingerprint(model.getRawJson()) + "\n"
+                + namespace + "\n";
+        JsonObject json = specification.toJson();
+
+        // Replace the simple string filter values with placeholders.
+        JsonObject template = (JsonObject) copy(json);
+        List<String> values = new ArrayList<String>();
+        JsonElement filters = template.get("filters");
+        if (filters instanceof JsonArray) {
+            for (JsonElement filter : (JsonArray) filters) {
+                JsonObject rule = ruleOf(filter);
+                if (rule == null)
+                    continue;
+                String value = rule.get("compareTo").getAsString();
+                rule.add("compareTo", new JsonPrimitive(placeholder(values.size())));
+                values.add(value);
+            }
+        }
+        if (values.isEmpty())
+            return pivotByValue(specification, namespace, json, prefix);
+
+        String templateKey = prefix + canonical(template);
+        Entry entry = lookup(templateKey);
+        if (entry == null) {
+            misses.incrementAndGet();
+            Pivot translated = specification.translate(template, namespace);
+            if (showsPlaceholders(translated, values.size())) {
+                put(templateKey, new Entry(translated));
+                return substitute(translated, values);
+            }
+            // Remember that this shape must be cached by value.
+            put(templateKey, new Entry(null));
+        } else if (entry.pivot != null) {
+            hits.incrementAndGet();
+            return substitute(entry.pivot, values);
+        }
+        return pivotByValue(specification, namespace, json, prefix);
+    }
+
+    private Pivot pivotByValue(PivotSpecification specification, String namespace,
+                               JsonObject json, String prefix) {
+        String key = prefix + canonical(json);
+        Entry entry = lookup(key);
+        if (entry != null && entry.pivot != null) {
+            hits.incrementAndGet();
+            return entry.pivot;
+        }
+        misses.incrementAndGet();
+        Pivot translated = specification.translate(json, namespace);
+        put(key, new Entry(translated));
+        return translated;
+    }
+
+    // Returns the rule of a string filter whose value can be a placeholder.
+    private static JsonObject ruleOf(JsonElement filter) {
+        if (!(filter instanceof JsonObject))
+            return null;
+        JsonElement type = ((JsonObject) filter).get("type");
+        JsonElement rule = ((JsonObject) filter).get("rule");
+        if (type == null || !"string".equals(type.getAsString()) || !(rule instanceof JsonObject))
+            return null;
+        JsonElement comparator = ((JsonObject) rule).get("comparator");
+        JsonElement value = ((JsonObject) rule).get("compareTo");
+        if (comparator == null || "regex".equals(comparator.getAsString()))
+            return null;
+        if (!(value instanceof JsonPrimitive) || !((JsonPrimitive) value).isString())
+            return null;
+        return isSimple(value.getAsString()) ? (JsonObject) rule : null;
+    }
+
+    private static boolean isSimple(String value) {
+        if (value.length() == 0 || value.contains(PLACEHOLDER_PREFIX))
+            return false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '_' || c == '.' || c == ':' || c == '@' || c == '/' || c == '-'))
+                return false;
+        }
+        return true;
+    }
+
+    private static String placeholder(int index) {
+        return PLACEHOLDER_PREFIX + index + PLACEHOLDER_SUFFIX;
+    }
+
+    // Whether substituting values into the pivot's queries gives what
+    // translating the values would: the queries that can be run (the pivot
+    // query, and the tstats query that Pivot.run() prefers) show every
+    // placeholder, and no query holds placeholder text that substitution
+    // would leave behind, such as a placeholder rendered in lower case.
+    private static boolean showsPlaceholders(Pivot pivot, int count) {
+        if (pivot.getPivotQuery() == null)
+            return false;
+        for (String query : new String[] { pivot.getPivotQuery(), pivot.getAcceleratedQuery() }) {
+            if (query == null)
+                continue;
+            for (int i = 0; i < count; i++) {
+                if (!query.contains(placeholder(i)))
+                    return false;
+            }
+        }
+        List<String> blanks = Collections.nCopies(count, "");
+        for (String query : new String[] { pivot.getPivotQuery(), pivot.getAcceleratedQuery(),
+                pivot.getQueryForDrilldown(), pivot.getPrettyQuery(), pivot.getRawQuery() }) {
+            if (query != null && substitute(query, blanks).toUpperCase(Locale.ROOT).contains(PLACEHOLDER_PREFIX))
+                return false;
+        }
+        return true;
+    }
+
+    private static Pivot substitute(Pivot template, final List<String> values) {
+        return template.withReplacements(new Pivot.Replacer() {
+            public String replace(String query) {
+                return substitute(query, values);
+            }
+        });
+    }
+
+    private static String substitute(String query, List<String> values) {
+        if (query == null)
+            return null;
+        StringBuilder result = new StringBuilder(query.length());
+        int position = 0;
+        while (true) {
+            int start = query.indexOf(PLACEHOLDER_PREFIX, position);
+            if (start < 0)
+                break;
+            int end = query.indexOf(PLACEHOLDER_SUFFIX, start + PLACEHOLDER_PREFIX.length());
+            int index = end < 0 ? -1 : parseIndex(query, start + PLACEHOLDER_PREFIX.length(), end);
+            if (index < 0 || index >= values.size()) {
+                result.append(query, position, start + PLACEHOLDER_PREFIX.length());
+                position = start + PLACEHOLDER_PREFIX.length();
+                continue;
+            }
+            result.append(query, position, start).append(values.get(index));
+            position = end + PLACEHOLDER_SUFFIX.length();
+        }
+        result.append(query, position, query.length());
+        return result.toString();
+    }
+
+    private static int parseIndex(String query, int start, int end) {
+        if (start == end || end - start > 9)
+            return -1;
+        int index = 0;
+        for (int i = start; i < end; i++) {
+            char c = query.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            index = 10 * index + (c - '0');
+        }
+        return index;
+    }
+
+    // Serializes JSON with the properties of every object sorted by name.
+    static String canonical(JsonElement element) {
+        StringBuilder builder = new StringBuilder();
+        appendCanonical(builder, element);
+        return builder.toString();
+    }
+
+    private static void appendCanonical(StringBuilder builder, JsonElement element) {
+        if (element instanceof JsonObject) {
+            TreeMap<String, JsonElement> sorted = new TreeMap<String, JsonElement>();
+            for (Map.Entry<String, JsonElement> property : ((JsonObject) element).entrySet())
+                sorted.put(property.getKey(), property.getValue());
+            builder.append('{');
+            boolean first = true;
+            for (Map.Entry<String, JsonElement> property : sorted.entrySet()) {
+                if (!first)
+                    builder.append(',');
+                first = false;
+                builder.append(new JsonPrimitive(property.getKey())).append(':');
+                appendCanonical(builder, property.getValue());
+            }
+            builder.append('}');
+        } else if (element instanceof JsonArray) {
+            builder.append('[');
+            boolean first = true;
+            for (JsonElement item : (JsonArray) element) {
+                if (!first)
+                    builder.append(',');
+                first = false;
+                appendCanonical(builder, item);
+            }
+            builder.append(']');
+        } else {
+            builder.append(element);
+        }
+    }
+
+    private static JsonElement copy(JsonElement element) {
+        if (element instanceof JsonObject) {
+            JsonObject copy = new JsonObject();
+            for (Map.Entry<String, JsonElement> property : ((JsonObject) element).entrySet())
+                copy.add(property.getKey(), copy(property.getValue()));
+            return copy;
+        }
+        if (element instanceof JsonArray) {
+            JsonArray copy = new JsonArray();
+            for (JsonElement item : (JsonArray) element)
+                copy.add(copy(item));
+            return copy;
+        }
+        return element;
+    }
+
+    private static String fingerprint(String json) {
+        if (json == null)
+            return "";
+        // Two 32-bit hashes, so that a changed model is not mistaken for
+        // the one it was.
+        int h = 0x811C9DC5;
+        for (int i = 0; i < json.length(); i++)
+            h = (h ^ json.charAt(i)) * 0x01000193;
+        return Integer.toHexString(json.hashCode()) + Integer.toHexString(h) + json.length();
+    }
+
+    private synchronized Entry lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expires <= System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        entry.expires = System.currentTimeMillis() + ttlMillis;
+        entries.put(key, entry);
+        Iterator<String> eldest = entries.keySet().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    // A translation, or a null pivot for a shape that must be cached by the
+    // values of its filters.
+    private static class Entry {
+        final Pivot pivot;
+        long expires;
+
+        Entry(Pivot pivot) {
+            this.pivot = pivot;
+        }
+    }
+}
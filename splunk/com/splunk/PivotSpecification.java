@@ -29,6 +29,8 @@ public class PivotSpecification {
 
     private DataModelObject dataModelObject;
     private String accelerationNamespace = null;
+    // Whether the namespace was chosen by the caller rather than by default.
+    private boolean accelerationNamespaceSet = false;
 
     private List<PivotColumnSplit> columns = new ArrayList<PivotColumnSplit>();
     private List<PivotFilter> filters = new ArrayList<PivotFilter>();
@@ -52,6 +54,7 @@ public class PivotSpecification {
      */
     public PivotSpecification setAccelerationNamespace(String namespace) {
         this.accelerationNamespace = namespace;
+        this.accelerationNamespaceSet = true;
         return this;
     }
 
@@ -66,6 +69,7 @@ public class PivotSpecification {
             throw new IllegalArgumentException("Sid to use for acceleration must not be null.");
         } else {
             this.accelerationNamespace = "sid=" + sid;
+            this.accelerationNamespaceSet = true;
         }
         return this;
     }
@@ -402,6 +406,13 @@ public class PivotSpecification {
         return this;
     }
 
+    /**
+     * @return the data model object this pivot is on.
+     */
+    DataModelObject getDataModelObject() {
+        return this.dataModelObject;
+    }
+
     /**
      * @return a JSON serialization of this object.
      */
@@ -459,17 +470,44 @@ public class PivotSpecification {
     }
 
     /**
-     * Query Splunk for SPL queries corresponding to this pivot.
+     * Query Splunk for SPL queries corresponding to this pivot, or reuse them from the service's
+     * {@link PivotCache}, if it has one.
+     *
+     * If no acceleration namespace has been set and the data model is not accelerated, the pivot
+     * uses the local acceleration job of the service's {@link AccelerationManager}, if it has one
+     * that is done.
      *
      * @return a Pivot object encapsulating the returned queries.
      */
     public Pivot pivot() {
         Service service = this.dataModelObject.getDataModel().getService();
+        String namespace = this.accelerationNamespace;
+        AccelerationManager manager = service.getAccelerationManager();
+        if (namespace == null && !this.accelerationNamespaceSet && manager != null) {
+            namespace = manager.getAccelerationNamespace(this.dataModelObject);
+        }
+
+        PivotCache cache = service.getPivotCache();
+        if (cache != null) {
+            return cache.pivot(this, namespace);
+        }
+        return translate(toJson(), namespace);
+    }
+
+    /**
+     * Asks splunkd to translate a pivot into queries.
+     *
+     * @param pivotJson the JSON serialization of the pivot.
+     * @param namespace the acceleration namespace to use, or null for none.
+     * @return a Pivot object.
+     */
+    Pivot translate(JsonObject pivotJson, String namespace) {
+        Service service = this.dataModelObject.getDataModel().getService();
 
         Args args = new Args();
-        args.put("pivot_json", toJson());
-        if (this.accelerationNamespace != null) {
-            args.put("namespace", this.accelerationNamespace);
+        args.put("pivot_json", pivotJson);
+        if (namespace != null) {
+            args.put("namespace", namespace);
         }
 
         ResponseMessage response = service.get(
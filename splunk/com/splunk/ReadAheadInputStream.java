@@ -0,0 +1,363 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code ReadAheadInputStream} class reads a stream, such as the results
+ * of a job or an export, on a background thread, so that reading from the
+ * network and parsing the results overlap. The thread reads into a ring of
+ * buffers that are reused for the life of the stream, and hands each buffer
+ * to the reader once it is full or the stream has ended. It stops reading
+ * when they are all full, so it reads ahead at most
+ * {@code bufferCount * bufferSize} bytes.
+ * <p>
+ * The stream can be passed to any results reader. Wrapping the stream
+ * returned by {@link Service#export} keeps it recognizable as an export, so
+ * that the readers still skip its previews:
+ * <pre>
+ * ReadAheadInputStream stream = new ReadAheadInputStream(service.export(search));
+ * ResultsReaderXml reader = new ResultsReaderXml(stream);
+ * ...
+ * reader.close();
+ * </pre>
+ * The stall counters tell which side is the bottleneck: time spent in
+ * {@link #getReadStallNanos} means the reader was waiting for the network,
+ * and time spent in {@link #getFullStallNanos} means the network was
+ * waiting for the reader.
+ * <p>
+ * A {@code ReadAheadInputStream} is meant to be read by one thread.
+ */
+public class ReadAheadInputStream extends InputStream {
+    private static final AtomicInteger streamCount = new AtomicInteger();
+
+    private final InputStream in;
+    private final boolean exportStream;
+    private final byte[][] buffers;
+    private final int[] lengths;
+    private final Thread thread;
+
+    // Guarded by this: the filled buffers are the count buffers from head,
+    // in ring order. The buffer at head belongs to the reading thread while
+    // it is filled; the others belong to the background thread while they
+    // are empty.
+    private int head = 0;
+    private int count = 0;
+    private boolean endOfStream = false;
+    private boolean closed = false;
+    private IOException error;
+
+    // Where the reading thread is in the buffer at head.
+    private int position = 0;
+
+    // Statistics, guarded by this.
+    private long bytesRead = 0;
+    private long readStalls = 0;
+    private long readStallNanos = 0;
+    private long fullStalls = 0;
+    private long fullStallNanos = 0;
+    private long occupancySum = 0;
+    private long occupancySamples = 0;
+
+    /**
+     * Class constructor.
+     *
+     * Constructs a stream that reads ahead up to four buffers of 64KB, that
+     * is, 256KB.
+     *
+     * @param in The stream to read.
+     */
+    public ReadAheadInputStream(InputStream in) {
+        this(in, 4, 64 * 1024);
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param in The stream to read.
+     * @param bufferCount The number of buffers in the ring.
+     * @param bufferSize The size of each buffer, in bytes.
+     */
+    public ReadAheadInputStream(InputStream in, int bufferCount, int bufferSize) {
+        if (bufferCount < 1 || bufferSize < 1)
+            throw new IllegalArgumentException("The buffer count and size must be positive.");
+        this.in = in;
+        this.exportStream = ResultsReader.isExportStream(in);
+        this.buffers = new byte[bufferCount][bufferSize];
+        this.lengths = new int[bufferCount];
+        this.thread = new Thread(new Runnable() {
+            public void run() {
+                fill();
+            }
+        }, "splunk-read-ahead-" + streamCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns whether the wrapped stream is the stream of an export.
+     */
+    boolean isExportStream() {
+        return exportStream;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!awaitData())
+            return -1;
+        int b = buffers[head][position++] & 0xFF;
+        if (position == lengths[head])
+            release();
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+        if (!awaitData())
+            return -1;
+        // Copy from the buffer at head only; the caller reads again for
+        // more, as it would from a socket.
+        int n = Math.min(length, lengths[head] - position);
+        System.arraycopy(buffers[head], position, buffer, offset, n);
+        position += n;
+        if (position == lengths[head])
+            release();
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || !awaitData())
+            return 0;
+        int skipped = (int) Math.min(n, lengths[head] - position);
+        position += skipped;
+        if (position == lengths[head])
+            release();
+        return skipped;
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        if (count == 0)
+            return 0;
+        long available = lengths[head] - position;
+        for (int i = 1; i < count; i++)
+            available += lengths[(head + i) % buffers.length];
+        return (int) Math.min(available, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Stops reading ahead and closes the wrapped stream.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            count = 0;
+            notifyAll();
+        }
+        // Closing the wrapped stream also ends a read that is blocked on
+        // the network.
+        in.close();
+    }
+
+    /**
+     * Returns the number of bytes read ahead from the wrapped stream so far.
+     *
+     * @return The number of bytes.
+     */
+    public synchronized long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the number of buffers in the ring.
+     *
+     * @return The number of buffers.
+     */
+    public int getBufferCount() {
+        return buffers.length;
+    }
+
+    /**
+     * Returns the number of buffers that are filled and waiting to be read.
+     *
+     * @return The number of filled buffers.
+     */
+    public synchronized int getFilledBufferCount() {
+        return count;
+    }
+
+    /**
+     * Returns the average number of filled buffers, sampled each time the
+     * background thread fills one. An average close to the buffer count
+     * means that the stream is read more slowly than it arrives.
+     *
+     * @return The average number of filled buffers.
+     */
+    public synchronized double getAverageFilledBufferCount() {
+        return occupancySamples == 0 ? 0 : (double) occupancySum / occupancySamples;
+    }
+
+    /**
+     * Returns the number of times that reading from this stream had to wait
+     * for the background thread, because no data had arrived.
+     *
+     * @return The number of stalls.
+     */
+    public synchronized long getReadStallCount() {
+        return readStalls;
+    }
+
+    /**
+     * Returns the time that reading from this stream spent waiting for the
+     * background thread.
+     *
+     * @return The time, in nanoseconds.
+     */
+    public synchronized long getReadStallNanos() {
+        return readStallNanos;
+    }
+
+    /**
+     * Returns the number of times that the background thread had to wait,
+     * because all the buffers were full.
+     *
+     * @return The number of stalls.
+     */
+    public synchronized long getFullStallCount() {
+        return fullStalls;
+    }
+
+    /**
+     * Returns the time that the background thread spent waiting for a
+     * buffer to be read.
+     *
+     * @return The time, in nanoseconds.
+     */
+    public synchronized long getFullStallNanos() {
+        return fullStallNanos;
+    }
+
+    // Waits until the buffer at head has data. Returns false at the end of
+    // the stream.
+    private synchronized boolean awaitData() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed.");
+        if (count == 0 && !endOfStream && error == null) {
+            long start = System.nanoTime();
+            readStalls++;
+            try {
+                while (count == 0 && !endOfStream && error == null && !closed)
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for data.");
+            } finally {
+                readStallNanos += System.nanoTime() - start;
+            }
+            if (closed)
+                throw new IOException("Stream closed.");
+        }
+        if (count > 0)
+            return true;
+        if (error != null)
+            throw error;
+        return false;
+    }
+
+    // Hands the buffer at head back to the background thread.
+    private synchronized void release() {
+        if (closed)
+            return;
+        head = (head + 1) % buffers.length;
+        count--;
+        position = 0;
+        notifyAll();
+    }
+
+    // Runs on the background thread.
+    private void fill() {
+        try {
+            while (true) {
+                int slot;
+                synchronized (this) {
+                    if (count == buffers.length && !closed) {
+                        long start = System.nanoTime();
+                        fullStalls++;
+                        while (count == buffers.length && !closed)
+                            wait();
+                        fullStallNanos += System.nanoTime() - start;
+                    }
+                    if (closed)
+                        return;
+                    slot = (head + count) % buffers.length;
+                }
+                // Fill the buffer before handing it over, so that how far the
+                // thread reads ahead is set by the buffers and not by how
+                // much each read of a socket happens to return.
+                byte[] buffer = buffers[slot];
+                int n = 0;
+                boolean end = false;
+                IOException failure = null;
+                try {
+                    while (n < buffer.length) {
+                        int read = in.read(buffer, n, buffer.length - n);
+                        if (read < 0) {
+                            end = true;
+                            break;
+                        }
+                        n += read;
+                    }
+                } catch (IOException e) {
+                    // The bytes read before the failure still reach the
+                    // reader, ahead of the error.
+                    failure = e;
+                }
+                synchronized (this) {
+                    if (closed)
+                        return;
+                    if (n > 0) {
+                        lengths[slot] = n;
+                        count++;
+                        bytesRead += n;
+                        occupancySum += count;
+                        occupancySamples++;
+                    }
+                    if (failure != null)
+                        error = failure;
+                    else if (end)
+                        endOfStream = true;
+                    notifyAll();
+                    if (failure != null || end)
+                        return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed.
+        }
+    }
+}
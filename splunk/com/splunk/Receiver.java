@@ -166,12 +166,24 @@ public class Receiver {
             sendString = sendString +  ((indexName == null) ? "?" : "&");
             sendString = sendString + args.encode();
         }
-        ResponseMessage response = service.send(service.simpleReceiverEndPoint
-                + sendString, request);
+        Tracer tracer = Tracer.getTracer();
+        Object trace = tracer == null
+                ? null : tracer.beginReceiverSubmit(
+                        indexName, data == null ? 0 : data.length());
+        boolean succeeded = false;
         try {
-            response.getContent().close();
-        } catch (IOException e) {
-            // noop
+            ResponseMessage response = service.send(
+                    service.simpleReceiverEndPoint + sendString, request);
+            succeeded = true;
+            try {
+                response.getContent().close();
+            } catch (IOException e) {
+                // noop
+            }
+        } finally {
+            if (trace != null) {
+                tracer.endReceiverSubmit(trace, succeeded);
+            }
         }
     }
 
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@code RequestMetrics} class holds the measurements of one HTTP request,
+ * as passed to a {@code MetricsRecorder}.
+ */
+public class RequestMetrics {
+    // The templates of recently seen paths. Entity names make the set of
+    // paths unbounded, so the cache is emptied whenever it fills up.
+    private static final int TEMPLATE_CACHE_SIZE = 1024;
+    private static final ConcurrentMap<String, String> templates =
+            new ConcurrentHashMap<String, String>();
+
+    private final String endpoint;
+    private final String path;
+    private final String method;
+    private final int status;
+    private final long bytesOut;
+    private final long bytesIn;
+    private final long connectNanos;
+    private final long firstByteNanos;
+    private final long totalNanos;
+
+    RequestMetrics(String endpoint, String path, String method, int status,
+                   long bytesOut, long bytesIn, long connectNanos,
+                   long firstByteNanos, long totalNanos) {
+        this.endpoint = endpoint;
+        this.path = path;
+        this.method = method;
+        this.status = status;
+        this.bytesOut = bytesOut;
+        this.bytesIn = bytesIn;
+        this.connectNanos = connectNanos;
+        this.firstByteNanos = firstByteNanos;
+        this.totalNanos = totalNanos;
+    }
+
+    /**
+     * Returns the endpoint template of the request: its path without the
+     * query string, with the owner and app of a {@code servicesNS} path and
+     * any entity names or IDs replaced by placeholders, such as
+     * {@code /servicesNS/{owner}/{app}/search/jobs/{name}/results}.
+     *
+     * @return The endpoint template.
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Returns the full path of the request, including any query string.
+     *
+     * @return The request path.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the HTTP method of the request.
+     *
+     * @return The HTTP method.
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the HTTP status of the response, or 0 if the request failed
+     * before a response arrived.
+     *
+     * @return The HTTP status.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the number of bytes of request content sent.
+     *
+     * @return The number of bytes sent.
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * Returns the number of bytes of response content read.
+     *
+     * @return The number of bytes read.
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * Returns the time spent opening the connection, in nanoseconds. This is
+     * close to 0 when a pooled keep-alive connection was reused.
+     *
+     * @return The connect time in nanoseconds.
+     */
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    /**
+     * Returns the time from the start of the request until the response
+     * status and headers arrived, in nanoseconds.
+     *
+     * @return The time to first byte in nanoseconds.
+     */
+    public long getFirstByteNanos() {
+        return firstByteNanos;
+    }
+
+    /**
+     * Returns the time from the start of the request until its response body
+     * was read to the end or closed, in nanoseconds.
+     *
+     * @return The total duration in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s %d out=%d in=%d connect=%dus ttfb=%dus total=%dus",
+                method, endpoint, status, bytesOut, bytesIn,
+                connectNanos / 1000, firstByteNanos / 1000, totalNanos / 1000);
+    }
+
+    /**
+     * Returns the endpoint template of a request path.
+     *
+     * @see #getEndpoint
+     * @param path A request path, with or without a query string.
+     * @return The endpoint template.
+     */
+    static String endpointTemplate(String path) {
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+
+        String template = templates.get(path);
+        if (template == null) {
+            template = computeTemplate(path);
+            if (templates.size() >= TEMPLATE_CACHE_SIZE) {
+                templates.clear();
+            }
+            templates.put(path, template);
+        }
+        return template;
+    }
+
+    private static String computeTemplate(String path) {
+        String[] segments = path.split("/", -1);
+        StringBuilder template = new StringBuilder(path.length());
+        int first = 1;
+        if (segments.length > 3 && segments[1].equals("servicesNS")) {
+            template.append("/servicesNS/{owner}/{app}");
+            first = 4;
+        }
+        for (int i = first; i < segments.length; i++) {
+            template.append('/');
+            String segment = segments[i];
+            // The first segment is the services root, or under
+            // servicesNS/{owner}/{app} the endpoint family; keep it as is.
+            if (i == first || isLiteralSegment(segment)) {
+                template.append(segment);
+            } else {
+                template.append("{name}");
+            }
+        }
+        return template.toString();
+    }
+
+    // Endpoint names are lowercase words; entity names and IDs usually are
+    // not (search IDs contain digits, saved searches are URL encoded).
+    private static boolean isLiteralSegment(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || c == '_' || c == '-')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
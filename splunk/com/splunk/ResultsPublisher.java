@@ -0,0 +1,323 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code ResultsPublisher} class pushes the events of a
+ * {@link ResultsReader}, or the result sets of a {@link MultiResultsReader},
+ * to a subscriber as the subscriber asks for them. Its interfaces follow the
+ * Reactive Streams contract, as {@code java.util.concurrent.Flow} does, so a
+ * subscriber can be adapted to any reactive library in a few lines.
+ * <p>
+ * Results are read only while the subscriber has outstanding demand. When
+ * it has none, nothing reads the stream, and the network connection fills
+ * up and stops the server from sending more. Reading happens in tasks on
+ * the executor given to the publisher, which can be shared by many
+ * publishers: a task emits at most a batch of items before it gives the
+ * executor to other tasks, and no thread is held between requests.
+ * <p>
+ * Cancelling the subscription closes the reader, which ends an export,
+ * and cancels the search job, if the publisher was given one.
+ * <p>
+ * Example:
+ * <pre>
+ * ExecutorService executor = Executors.newFixedThreadPool(4);
+ * ResultsPublisher&lt;Event&gt; publisher = ResultsPublisher.events(
+ *         new ResultsReaderJson(service.export(search, args)), executor);
+ * publisher.subscribe(subscriber);
+ * </pre>
+ *
+ * @param <T> The type of the items: {@link Event} or {@link SearchResults}.
+ */
+public class ResultsPublisher<T> {
+    private static final int BATCH_SIZE = 128;
+
+    /**
+     * Receives the items of a publisher. The publisher calls the methods of
+     * a subscriber one at a time: {@code onSubscribe} first, then
+     * {@code onNext} for at most as many items as were requested, then
+     * either {@code onComplete} or {@code onError}.
+     *
+     * @param <T> The type of the items.
+     */
+    public interface Subscriber<T> {
+        /**
+         * Called before any other method, with the subscription to request
+         * items from.
+         *
+         * @param subscription The subscription.
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called for each item.
+         *
+         * @param item The item.
+         */
+        void onNext(T item);
+
+        /**
+         * Called when the results could not be read. No other method is
+         * called afterwards.
+         *
+         * @param error The error.
+         */
+        void onError(Throwable error);
+
+        /**
+         * Called after the last item. No other method is called afterwards.
+         */
+        void onComplete();
+    }
+
+    /**
+     * The link between a publisher and its subscriber.
+     */
+    public interface Subscription {
+        /**
+         * Adds to the number of items that the subscriber is ready to
+         * receive. {@code Long.MAX_VALUE} means that there is no limit.
+         *
+         * @param n The number of items, which must be positive.
+         */
+        void request(long n);
+
+        /**
+         * Asks the publisher to stop sending items and to release the
+         * results.
+         */
+        void cancel();
+    }
+
+    // Where the items come from.
+    interface Source<T> {
+        // Returns the next item, or null at the end.
+        T next() throws IOException;
+
+        void close() throws IOException;
+    }
+
+    private final Source<T> source;
+    private final Executor executor;
+    private final Job job;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    ResultsPublisher(Source<T> source, Executor executor, Job job) {
+        this.source = source;
+        this.executor = executor;
+        this.job = job;
+    }
+
+    /**
+     * Returns a publisher of the events of a reader.
+     *
+     * @param reader The reader.
+     * @param executor The executor that runs the reading tasks.
+     * @return The publisher.
+     */
+    public static ResultsPublisher<Event> events(ResultsReader reader, Executor executor) {
+        return events(reader, executor, null);
+    }
+
+    /**
+     * Returns a publisher of the events of a reader of the results of a
+     * job, which cancels the job when its subscription is cancelled.
+     *
+     * @param reader The reader.
+     * @param executor The executor that runs the reading tasks.
+     * @param job The job, or {@code null}.
+     * @return The publisher.
+     */
+    public static ResultsPublisher<Event> events(final ResultsReader reader,
+            Executor executor, Job job) {
+        return new ResultsPublisher<Event>(new Source<Event>() {
+            public Event next() throws IOException {
+                return reader.getNextEvent();
+            }
+
+            public void close() throws IOException {
+                reader.close();
+            }
+        }, executor, job);
+    }
+
+    /**
+     * Returns a publisher of the result sets of a reader, such as the
+     * previews and the final results of an export.
+     * <p>
+     * A result set is read from the same stream as the sets after it, so
+     * its events must be read within {@code onNext}.
+     *
+     * @param reader The reader.
+     * @param executor The executor that runs the reading tasks.
+     * @return The publisher.
+     */
+    public static ResultsPublisher<SearchResults> resultSets(
+            final MultiResultsReader<? extends ResultsReader> reader, Executor executor) {
+        return new ResultsPublisher<SearchResults>(new Source<SearchResults>() {
+            public SearchResults next() throws IOException {
+                return reader.getNextElement();
+            }
+
+            public void close() throws IOException {
+                reader.close();
+            }
+        }, executor, null);
+    }
+
+    /**
+     * Starts sending items to a subscriber. The results can only be read
+     * once, so a publisher accepts a single subscriber; any other is sent
+     * an {@code IllegalStateException}.
+     *
+     * @param subscriber The subscriber.
+     */
+    public void subscribe(Subscriber<? super T> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException("subscriber");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                public void request(long n) {}
+
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException(
+                    "The results can only be published to one subscriber."));
+            return;
+        }
+        subscriber.onSubscribe(new ResultsSubscription(subscriber));
+    }
+
+    /*
+     * Emits items on the executor. Only one task runs at a time: request()
+     * and cancel() count the work they add, and whichever call finds no
+     * task running submits one, which runs until the count is drained.
+     */
+    private final class ResultsSubscription implements Subscription, Runnable {
+        private final Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger work = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        private volatile Throwable invalidRequest;
+        // Only touched by the running task.
+        private boolean finished = false;
+
+        ResultsSubscription(Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException(
+                        "The number of items requested must be positive, not " + n + ".");
+            } else {
+                while (true) {
+                    long current = demand.get();
+                    long updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+                    if (demand.compareAndSet(current, updated))
+                        break;
+                }
+            }
+            schedule();
+        }
+
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (work.getAndIncrement() == 0)
+                executor.execute(this);
+        }
+
+        public void run() {
+            int missed = 1;
+            while (true) {
+                if (finished)
+                    return;
+                if (cancelled) {
+                    release(true);
+                    return;
+                }
+                if (invalidRequest != null) {
+                    release(true);
+                    subscriber.onError(invalidRequest);
+                    return;
+                }
+
+                long requested = demand.get();
+                long emitted = 0;
+                while (emitted != requested && emitted < BATCH_SIZE) {
+                    if (cancelled) {
+                        release(true);
+                        return;
+                    }
+                    T item;
+                    try {
+                        item = source.next();
+                    } catch (Throwable e) {
+                        release(false);
+                        subscriber.onError(e);
+                        return;
+                    }
+                    if (item == null) {
+                        release(false);
+                        subscriber.onComplete();
+                        return;
+                    }
+                    subscriber.onNext(item);
+                    emitted++;
+                }
+                if (emitted > 0 && requested != Long.MAX_VALUE)
+                    demand.addAndGet(-emitted);
+
+                if (emitted == BATCH_SIZE && demand.get() > 0) {
+                    // Let other publishers on the executor run, and carry
+                    // on in a new task, which still owns the work count.
+                    executor.execute(this);
+                    return;
+                }
+                missed = work.addAndGet(-missed);
+                if (missed == 0)
+                    return;
+            }
+        }
+
+        private void release(boolean cancelJob) {
+            finished = true;
+            try {
+                source.close();
+            } catch (IOException e) {
+                // Nothing more is read from the source.
+            }
+            if (cancelJob && job != null) {
+                try {
+                    job.cancel();
+                } catch (RuntimeException e) {
+                    // The job may be done already.
+                }
+            }
+        }
+    }
+}
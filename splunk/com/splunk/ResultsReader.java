@@ -34,20 +34,32 @@ public abstract class ResultsReader
     boolean isPreview;
     boolean isExportStream;
     private boolean isInMultiReader;
+    // The tracer span of the result set being read, if any.
+    private Tracer tracer;
+    private Object setTrace;
+    private long setRows;
 
     ResultsReader(InputStream inputStream, boolean isInMultiReader)
             throws IOException {
         this.inputStream = inputStream;
-        isExportStream = inputStream instanceof ExportResultsStream;
+        isExportStream = isExportStream(inputStream);
         this.isInMultiReader = isInMultiReader;
     }
 
+    // Whether a stream holds the results of an export, possibly read ahead.
+    static boolean isExportStream(InputStream inputStream) {
+        return inputStream instanceof ExportResultsStream
+                || (inputStream instanceof ReadAheadInputStream
+                    && ((ReadAheadInputStream) inputStream).isExportStream());
+    }
+
     /**
      * Closes the reader and returns resources.
      *
      * @throws IOException On IO exception.
      */
     public void close() throws IOException {
+        endSetTrace();
         inputStream.close();
     }
 
@@ -87,8 +99,12 @@ public abstract class ResultsReader
             event = getNextEventInCurrentSet();
 
             // If we actually managed to get an event, then we break and return it
-            if (event != null)
+            if (event != null) {
+                setRows++;
                 break;
+            }
+
+            endSetTrace();
 
             // We don't concatenate across previews across sets, since each set
             // might be a snapshot at a given time or a summary result with
@@ -100,7 +116,7 @@ public abstract class ResultsReader
 
             // If we did not advance to next set, i.e. the end of stream is
             // reached, break. Null return indicating the end of the set.
-            if (!advanceStreamToNextSet())
+            if (!advanceToNextSet())
                 break;
 
             // We have advanced to the next set. isPreview is for that set.
@@ -126,7 +142,7 @@ public abstract class ResultsReader
 
         // Get to the beginning of the next set in the stream
         // skipping remaining event(s) if any in the current set.
-        boolean hasMoreResults = advanceStreamToNextSet();
+        boolean hasMoreResults = advanceToNextSet();
 
         // Reset the iterator so that it would either fetch a new
         // element for the next iteration or stop.
@@ -135,6 +151,41 @@ public abstract class ResultsReader
         return hasMoreResults;
     }
 
+    /*
+     * Advance to the next set as advanceStreamToNextSet does, ending the
+     * tracer span of the current set and beginning one for the next.
+     * Return false if the end is reached.
+     */
+    private boolean advanceToNextSet() throws IOException {
+        endSetTrace();
+        boolean advanced = advanceStreamToNextSet();
+        if (advanced) {
+            beginSetTrace();
+        }
+        return advanced;
+    }
+
+    /*
+     * Begin the tracer span of a result set. Readers that do not support
+     * multiple sets call this once, when the stream is opened.
+     */
+    final void beginSetTrace() {
+        tracer = Tracer.getTracer();
+        if (tracer != null) {
+            setTrace = tracer.beginResultSet(
+                    getClass().getSimpleName(), isPreview);
+        }
+        setRows = 0;
+    }
+
+    private void endSetTrace() {
+        if (setTrace != null) {
+            Object trace = setTrace;
+            setTrace = null;
+            tracer.endResultSet(trace, setRows);
+        }
+    }
+
     /*
      * Return false if the end is reached.
      */
@@ -157,7 +208,7 @@ public abstract class ResultsReader
 
         while (true) {
             // Stop if no more set is available
-            if (!advanceStreamToNextSet()) {
+            if (!advanceToNextSet()) {
                 // Terminating the iteration.
                 // This avoids future callings into the underlying reader
                 // to get events, which may result in exceptions.
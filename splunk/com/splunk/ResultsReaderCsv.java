@@ -61,6 +61,7 @@ public class ResultsReaderCsv extends ResultsReader {
             keyArray = csvReader.readNext();
         }
         keys = Arrays.asList(keyArray);
+        beginSetTrace();
     }
 
     /** {@inheritDoc} */
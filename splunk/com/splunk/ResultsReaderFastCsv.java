@@ -0,0 +1,344 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The {@code ResultsReaderFastCsv} class represents a streaming CSV reader for
+ * Splunk search results that decodes the UTF-8 bytes of the stream directly,
+ * without opencsv, and reuses its row buffers between events. Unlike
+ * {@link ResultsReaderCsv}, it also reads streams from the export endpoint.
+ * <p>
+ * Multivalue fields are read from the {@code __mv_} columns that splunkd
+ * adds for them, such as {@code __mv_host} holding {@code $a$;$b$}; their
+ * values are available from {@link Event#getArray(String)}, and the
+ * {@code __mv_} columns themselves are not returned as fields. Without
+ * {@code __mv_} columns, multiple values are joined by newlines, and can be
+ * read with {@code getArray(key, "\n")}.
+ * <p>
+ * A stream can hold several result sets, each starting with a header line
+ * of field names and ending with a blank line or the end of the stream, as
+ * exports do. The CSV output mode has no preview flag, so every set is read
+ * as final results and this reader returns the events of all sets in turn.
+ * To read the sets separately, for example to keep only the last set of a
+ * reporting search that sends previews, use {@link MultiResultsReaderFastCsv}.
+ */
+public class ResultsReaderFastCsv extends ResultsReader {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String MULTIVALUE_PREFIX = "__mv_";
+
+    private final byte[] buffer = new byte[64 * 1024];
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfStream = false;
+
+    // The fields of the current record, stored one after another in row,
+    // with the end of field i at ends[i].
+    private byte[] row = new byte[1024];
+    private int rowLength;
+    private int[] ends = new int[32];
+    private int fieldCount;
+    private boolean blankLine;
+    private char[] chars = new char[256];
+
+    private boolean inSet = false;
+    private List<String> fields = Collections.emptyList();
+    // For each field, the column of its value and of its __mv_ encoding,
+    // or -1 if there is none.
+    private int[] valueColumns = new int[0];
+    private int[] multiValueColumns = new int[0];
+
+    /**
+     * Class constructor.
+     *
+     * Constructs a streaming CSV reader for the event stream. You should only
+     * attempt to parse a CSV stream with this reader. If you attempt to parse
+     * a different type of stream, unpredictable results may occur.
+     *
+     * @param inputStream The CSV stream to parse.
+     * @throws IOException
+     */
+    public ResultsReaderFastCsv(InputStream inputStream) throws IOException {
+        this(inputStream, false);
+    }
+
+    ResultsReaderFastCsv(InputStream inputStream, boolean isInMultiReader)
+            throws IOException {
+        super(inputStream, isInMultiReader);
+        // A multi-reader returns each set separately; the base class only
+        // ends iteration at the end of a set for previews. The flag is not
+        // exposed, since isPreview() always returns false.
+        isPreview = isInMultiReader;
+        finishInitialization();
+    }
+
+    /**
+     * Always returns {@code false}, since the CSV output format does not
+     * mark previews.
+     *
+     * @return {@code false}.
+     */
+    public boolean isPreview() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public Collection<String> getFields() {
+        return fields;
+    }
+
+    @Override Event getNextEventInCurrentSet() throws IOException {
+        if (!inSet)
+            return null;
+        if (!readRecord() || blankLine) {
+            inSet = false;
+            return null;
+        }
+
+        Event event = new Event();
+        for (int f = 0; f < valueColumns.length; f++) {
+            String name = fields.get(f);
+            int mv = multiValueColumns[f];
+            if (mv >= 0 && mv < fieldCount && ends[mv] > start(mv)) {
+                event.putArray(name, decodeMultiValue(string(mv)));
+            } else if (valueColumns[f] >= 0 && valueColumns[f] < fieldCount) {
+                event.putSingleOrDelimited(name, string(valueColumns[f]));
+            }
+        }
+        return event;
+    }
+
+    @Override boolean advanceStreamToNextSet() throws IOException {
+        // Skip the rest of the current set.
+        if (inSet) {
+            while (readRecord() && !blankLine) { }
+            inSet = false;
+        }
+        // Skip blank lines, such as the one before the header of a oneshot
+        // search, and read the header.
+        do {
+            if (!readRecord())
+                return false;
+        } while (blankLine);
+        readHeader();
+        inSet = true;
+        return true;
+    }
+
+    private void readHeader() {
+        List<String> names = new ArrayList<String>(fieldCount);
+        List<Integer> values = new ArrayList<Integer>(fieldCount);
+        List<Integer> multiValues = new ArrayList<Integer>(fieldCount);
+        for (int c = 0; c < fieldCount; c++) {
+            String column = string(c);
+            boolean multiValue = column.startsWith(MULTIVALUE_PREFIX);
+            String name = multiValue ? column.substring(MULTIVALUE_PREFIX.length()) : column;
+            int f = names.indexOf(name);
+            if (f < 0) {
+                f = names.size();
+                names.add(name);
+                values.add(-1);
+                multiValues.add(-1);
+            }
+            (multiValue ? multiValues : values).set(f, c);
+        }
+        fields = Collections.unmodifiableList(names);
+        valueColumns = toArray(values);
+        multiValueColumns = toArray(multiValues);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = list.get(i);
+        return array;
+    }
+
+    // Decodes the __mv_ encoding of a field, "$a$;$b$", where "$$" stands
+    // for "$".
+    private static String[] decodeMultiValue(String encoded) {
+        List<String> values = new ArrayList<String>();
+        StringBuilder value = new StringBuilder();
+        int i = 0;
+        int n = encoded.length();
+        while (i < n) {
+            if (encoded.charAt(i) != '$') {
+                // Not encoded after all: keep the text as one value.
+                return new String[] {encoded};
+            }
+            i++;
+            value.setLength(0);
+            while (i < n) {
+                char c = encoded.charAt(i++);
+                if (c == '$') {
+                    if (i < n && encoded.charAt(i) == '$') {
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                value.append(c);
+            }
+            values.add(value.toString());
+            if (i < n && encoded.charAt(i) == ';')
+                i++;
+        }
+        return values.toArray(new String[values.size()]);
+    }
+
+    private int start(int field) {
+        return field == 0 ? 0 : ends[field - 1];
+    }
+
+    // Decodes a field of the current record. ASCII, the common case, is
+    // widened directly rather than through the UTF-8 decoder.
+    private String string(int field) {
+        int start = start(field);
+        int length = ends[field] - start;
+        if (chars.length < length)
+            chars = new char[Math.max(length, 2 * chars.length)];
+        for (int i = 0; i < length; i++) {
+            byte b = row[start + i];
+            if (b < 0)
+                return new String(row, start, length, UTF8);
+            chars[i] = (char) b;
+        }
+        return new String(chars, 0, length);
+    }
+
+    // Reads the next record into the row buffer. Returns false at the end
+    // of the stream.
+    private boolean readRecord() throws IOException {
+        if (position == limit && !fill())
+            return false;
+        fieldCount = 0;
+        rowLength = 0;
+        blankLine = buffer[position] == '\n' || buffer[position] == '\r';
+
+        while (true) {
+            if ((position < limit || fill()) && buffer[position] == '"') {
+                position++;
+                readQuoted();
+            } else {
+                readUnquoted();
+            }
+            endField();
+
+            if (position == limit && !fill())
+                return true;
+            byte delimiter = buffer[position++];
+            if (delimiter == ',')
+                continue;
+            if (delimiter == '\r') {
+                if (position < limit || fill()) {
+                    if (buffer[position] == '\n')
+                        position++;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Copies bytes up to the next delimiter or line end.
+    private void readUnquoted() throws IOException {
+        while (true) {
+            int start = position;
+            while (position < limit) {
+                byte b = buffer[position];
+                if (b == ',' || b == '\n' || b == '\r')
+                    break;
+                position++;
+            }
+            append(start, position);
+            if (position < limit || !fill())
+                return;
+        }
+    }
+
+    // Copies bytes up to the closing quote, unescaping doubled quotes. The
+    // opening quote has been read.
+    private void readQuoted() throws IOException {
+        while (true) {
+            int start = position;
+            while (position < limit && buffer[position] != '"')
+                position++;
+            append(start, position);
+            if (position == limit) {
+                if (!fill())
+                    return; // unterminated at the end of the stream
+                continue;
+            }
+            position++; // the quote
+            if (position == limit && !fill())
+                return;
+            if (buffer[position] != '"')
+                break;
+            // A doubled quote stands for one quote.
+            append(position, position + 1);
+            position++;
+        }
+        // Any text between the closing quote and the delimiter is kept, as
+        // opencsv does.
+        readUnquoted();
+    }
+
+    private void append(int from, int to) {
+        int length = to - from;
+        if (length == 0)
+            return;
+        if (rowLength + length > row.length) {
+            byte[] grown = new byte[Math.max(rowLength + length, 2 * row.length)];
+            System.arraycopy(row, 0, grown, 0, rowLength);
+            row = grown;
+        }
+        System.arraycopy(buffer, from, row, rowLength, length);
+        rowLength += length;
+    }
+
+    private void endField() {
+        if (fieldCount == ends.length) {
+            int[] grown = new int[2 * ends.length];
+            System.arraycopy(ends, 0, grown, 0, fieldCount);
+            ends = grown;
+        }
+        ends[fieldCount++] = rowLength;
+    }
+
+    private boolean fill() throws IOException {
+        if (endOfStream)
+            return false;
+        int n;
+        do {
+            n = inputStream.read(buffer, 0, buffer.length);
+        } while (n == 0);
+        if (n < 0) {
+            endOfStream = true;
+            position = limit = 0;
+            return false;
+        }
+        position = 0;
+        limit = n;
+        return true;
+    }
+}
@@ -25,7 +25,11 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * The {@code ResultsReaderJson} class represents a streaming JSON reader for
@@ -40,6 +44,10 @@ public class ResultsReaderJson extends ResultsReader {
     private ExportHelper exportHelper;
     // Whether the 'preview' flag is read
     private boolean previewFlagRead;
+    // The fields to read, or null for all of them.
+    private final Set<String> fields;
+    private final Map<String, String> names = new HashMap<String, String>();
+    private final List<String> values = new ArrayList<String>();
 
     /**
      * Class constructor.
@@ -55,9 +63,32 @@ public class ResultsReaderJson extends ResultsReader {
         this(inputStream, false);
     }
 
+    /**
+     * Class constructor.
+     *
+     * Constructs a streaming JSON reader for the event stream that reads
+     * only some fields. The values of other fields are skipped without
+     * being decoded, which saves time and memory when the results have
+     * many more fields than the caller needs.
+     *
+     * @param inputStream The JSON stream to parse.
+     * @param fields The names of the fields to read.
+     * @throws IOException
+     */
+    public ResultsReaderJson(InputStream inputStream, Set<String> fields)
+            throws IOException {
+        this(inputStream, false, fields);
+    }
+
     ResultsReaderJson(InputStream inputStream, boolean isInMultiReader)
             throws IOException {
+        this(inputStream, isInMultiReader, null);
+    }
+
+    ResultsReaderJson(InputStream inputStream, boolean isInMultiReader,
+            Set<String> fields) throws IOException {
         super(inputStream, isInMultiReader);
+        this.fields = fields == null ? null : new HashSet<String>(fields);
         jsonReader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
         // if stream is empty, return a null reader.
         jsonReader.setLenient(true);
@@ -245,63 +276,52 @@ public class ResultsReaderJson extends ResultsReader {
     }
 
     private Event readEvent() throws IOException {
-        Event returnData = null;
-        String name = null;
-        List<String> values = new ArrayList<String>();
-
-        if (jsonReader == null)
+        if (jsonReader == null || !jsonReader.hasNext())
             return null;
 
-        // Events are almost flat, so no need for a true general parser
-        // solution. But the Gson parser is a little unintuitive here. Nested
-        // objects, have their own relative notion of hasNext. This
-        // means that for every object or array start, hasNext() returns false
-        // and one must consume the closing (END) object to get back to the
-        // previous object.
+        // The reader is at the start of an event object, whether it is an
+        // element of a results array or the "result" value of an export row.
+        Event returnData = new Event();
+        jsonReader.beginObject();
         while (jsonReader.hasNext()) {
-            if (returnData == null) {
-                returnData = new Event();
+            String name = internName(jsonReader.nextName());
+            if (fields != null && !fields.contains(name)) {
+                jsonReader.skipValue();
+                continue;
             }
-            if (jsonReader.peek() == JsonToken.BEGIN_OBJECT) {
-                jsonReader.beginObject();
-            }
-            if (jsonReader.peek() == JsonToken.BEGIN_ARRAY) {
+            JsonToken token = jsonReader.peek();
+            if (token == JsonToken.BEGIN_ARRAY) {
                 jsonReader.beginArray();
-                // The Gson parser is a little unintuitive here. Nested objects,
-                // have their own relative notion of hasNext; when hasNext()
-                // is done, it is only for this array.
                 while (jsonReader.hasNext()) {
-                    JsonToken jsonToken2 = jsonReader.peek();
-                    if (jsonToken2 == JsonToken.STRING) {
+                    if (jsonReader.peek() == JsonToken.STRING)
                         values.add(jsonReader.nextString());
-                    }
+                    else
+                        jsonReader.skipValue();
                 }
                 jsonReader.endArray();
-
-                String[] valuesArray =
-                    values.toArray(new String[values.size()]);
-                returnData.putArray(name, valuesArray);
-
+                returnData.putArray(name, values.toArray(new String[values.size()]));
                 values.clear();
-            }
-            if (jsonReader.peek() == JsonToken.NAME) {
-                name = jsonReader.nextName();
-            }
-            if (jsonReader.peek() == JsonToken.STRING) {
-                String delimitedValues = jsonReader.nextString();
-                returnData.putSingleOrDelimited(name, delimitedValues);
-            }
-            if (jsonReader.peek() == JsonToken.END_OBJECT) {
-                jsonReader.endObject();
-                break;
-            }
-            if (jsonReader.peek() == JsonToken.END_ARRAY) {
-                jsonReader.endArray();
+            } else if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                returnData.putSingleOrDelimited(name, jsonReader.nextString());
+            } else {
+                jsonReader.skipValue();
             }
         }
+        jsonReader.endObject();
         return returnData;
     }
 
+    // Returns the instance of a field name first seen in this stream, so
+    // that the events share their keys.
+    private String internName(String name) {
+        String interned = names.get(name);
+        if (interned == null) {
+            names.put(name, name);
+            interned = name;
+        }
+        return interned;
+    }
+
     @Override boolean advanceStreamToNextSet() throws IOException{
         return advanceIntoNextSetBeforeEvent();
     }
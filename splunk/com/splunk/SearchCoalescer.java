@@ -0,0 +1,297 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code SearchCoalescer} class dispatches identical concurrent searches
+ * once. The first caller of {@link #create} for a search dispatches the job.
+ * Callers that ask for the same search (the same query, ignoring whitespace
+ * outside quotes, and the same arguments and namespace) while it is in use
+ * share that job instead of dispatching their own.
+ * <p>
+ * Each caller gets its own {@link SharedSearch}, reads the results through
+ * it independently, and closes it when done. When the last caller closes,
+ * the job is cancelled, or, with {@code setCancelOnRelease(false)}, left to
+ * expire on the server.
+ * <p>
+ * Example:
+ * <pre>
+ * SearchCoalescer coalescer = new SearchCoalescer(service);
+ * // On each request thread:
+ * SearchCoalescer.SharedSearch search = coalescer.create(query, args);
+ * try {
+ *     ResultsReader reader = search.getResultsReader(new Args("count", 0));
+ *     ...
+ * } finally {
+ *     search.close();
+ * }
+ * </pre>
+ */
+public class SearchCoalescer {
+    private final Service service;
+    private final Map<String, Flight> flights = new HashMap<String, Flight>();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong attached = new AtomicLong();
+    private volatile boolean cancelOnRelease = true;
+    private volatile long pollIntervalMillis = 250;
+
+    /**
+     * Creates a coalescer for searches on a service.
+     *
+     * @param service The service to dispatch searches on.
+     */
+    public SearchCoalescer(Service service) {
+        this.service = service;
+    }
+
+    /**
+     * Sets whether a job is cancelled when its last caller closes, which is
+     * the default, or left to expire on the server.
+     *
+     * @param cancel {@code true} to cancel released jobs.
+     */
+    public void setCancelOnRelease(boolean cancel) {
+        this.cancelOnRelease = cancel;
+    }
+
+    /**
+     * Sets how often a shared job is polled while callers wait for it to
+     * finish. The default is 250 milliseconds.
+     *
+     * @param millis The poll interval in milliseconds.
+     */
+    public void setPollInterval(long millis) {
+        this.pollIntervalMillis = millis;
+    }
+
+    /**
+     * @return The number of jobs this coalescer dispatched.
+     */
+    public long getDispatchCount() {
+        return dispatched.get();
+    }
+
+    /**
+     * @return The number of callers that shared a job dispatched for an
+     * earlier caller.
+     */
+    public long getAttachCount() {
+        return attached.get();
+    }
+
+    /**
+     * @return The number of jobs in use by at least one caller.
+     */
+    public int getActiveSearchCount() {
+        synchronized (flights) {
+            return flights.size();
+        }
+    }
+
+    /**
+     * Creates a search, or joins an identical one in use.
+     *
+     * @param query The search query.
+     * @return The caller's handle to the search, which must be closed.
+     */
+    public SharedSearch create(String query) {
+        return create(query, null);
+    }
+
+    /**
+     * Creates a search, or joins an identical one in use. Real-time searches
+     * are never shared.
+     *
+     * @param query The search query.
+     * @param args Additional arguments for the job (see {@link JobArgs}).
+     * @return The caller's handle to the search, which must be closed.
+     */
+    public SharedSearch create(String query, Map args) {
+        Args key = Args.create(args).add("search", query);
+        String flightKey = SearchResultCache.key(
+                service.getPrefix() + service.fullpath(JobCollection.REST_PATH), key);
+
+        Flight flight;
+        boolean dispatch;
+        synchronized (flights) {
+            flight = flightKey == null ? null : flights.get(flightKey);
+            dispatch = flight == null;
+            if (dispatch) {
+                flight = new Flight(flightKey);
+                if (flightKey != null)
+                    flights.put(flightKey, flight);
+            } else {
+                flight.references++;
+            }
+        }
+
+        if (dispatch) {
+            dispatched.incrementAndGet();
+            try {
+                flight.job = service.getJobs().create(query, args);
+            } catch (RuntimeException e) {
+                flight.failure = e;
+            } finally {
+                flight.dispatched.countDown();
+            }
+        } else {
+            attached.incrementAndGet();
+            try {
+                flight.dispatched.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                release(flight);
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        }
+
+        if (flight.failure != null) {
+            release(flight);
+            throw flight.failure;
+        }
+        return new SharedSearch(flight);
+    }
+
+    // Drops one reference to a flight, and cancels its job after the last.
+    private void release(Flight flight) {
+        synchronized (flights) {
+            flight.references--;
+            if (flight.references > 0)
+                return;
+            if (flight.key != null && flights.get(flight.key) == flight)
+                flights.remove(flight.key);
+        }
+        if (flight.job != null && cancelOnRelease)
+            flight.job.cancel();
+    }
+
+    // A dispatched search and the number of callers using it.
+    private static class Flight {
+        final String key;
+        final CountDownLatch dispatched = new CountDownLatch(1);
+        volatile Job job;
+        volatile RuntimeException failure;
+        int references = 1;
+        boolean done = false;
+
+        Flight(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * The {@code SharedSearch} class is one caller's handle to a search
+     * that may be shared with other callers.
+     */
+    public class SharedSearch implements Closeable {
+        private final Flight flight;
+        private boolean closed = false;
+
+        private SharedSearch(Flight flight) {
+            this.flight = flight;
+        }
+
+        /**
+         * Returns the job, which may be shared with other callers.
+         *
+         * @return The job.
+         */
+        public Job getJob() {
+            return flight.job;
+        }
+
+        /**
+         * Waits until the job is done. Only one of the callers sharing the
+         * job polls the server.
+         */
+        public void waitUntilDone() {
+            synchronized (flight) {
+                while (!flight.done) {
+                    if (flight.job.isDone()) {
+                        flight.done = true;
+                        break;
+                    }
+                    try {
+                        Thread.sleep(pollIntervalMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e.getMessage(), e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Waits until the job is done, and returns a stream of its results
+         * for this caller alone.
+         *
+         * @param args Optional arguments (see {@link JobResultsArgs}).
+         * @return The results.
+         */
+        public InputStream getResults(Map args) {
+            checkOpen();
+            waitUntilDone();
+            return flight.job.getResults(args == null ? new Args() : new Args(args));
+        }
+
+        /**
+         * Waits until the job is done, and returns a reader of its results
+         * for this caller alone, in the given "output_mode" (XML by
+         * default, JSON, or CSV).
+         *
+         * @param args Optional arguments (see {@link JobResultsArgs}).
+         * @return The results reader.
+         * @throws IOException If the results cannot be read.
+         */
+        public ResultsReader getResultsReader(Map args) throws IOException {
+            InputStream results = getResults(args);
+            Object mode = args == null ? null : args.get("output_mode");
+            if ("json".equals(mode))
+                return new ResultsReaderJson(results);
+            if ("csv".equals(mode))
+                return new ResultsReaderCsv(results);
+            return new ResultsReaderXml(results);
+        }
+
+        /**
+         * Releases this caller's use of the job. The job is cancelled when
+         * the last caller sharing it closes, unless
+         * {@code setCancelOnRelease(false)} was called.
+         */
+        public void close() {
+            synchronized (this) {
+                if (closed)
+                    return;
+                closed = true;
+            }
+            release(flight);
+        }
+
+        private synchronized void checkOpen() {
+            if (closed)
+                throw new IllegalStateException("The search has been closed.");
+        }
+    }
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The {@code SearchResultCache} class is an opt-in, client-side cache of
+ * search results, for applications that issue the same searches many times
+ * within a short period. Set it on a {@code Service} with
+ * {@link ServiceArgs#setSearchResultCache} or
+ * {@link Service#setSearchResultCache}, and it is used by
+ * {@link Service#oneshotSearch}, {@link Service#export}, and
+ * {@link JobCollection#create}.
+ * <p>
+ * Searches are identified by their endpoint and namespace, their query with
+ * whitespace outside quotes normalized, and their other arguments in any
+ * order. For {@code oneshotSearch} and {@code export}, the response body is
+ * cached once it has been read to the end, and later identical searches are
+ * answered from the cache with a stream that the usual {@code ResultsReader}
+ * classes read as they would the server's. For {@code JobCollection.create},
+ * the search ID is cached and later identical searches return the same job,
+ * for as long as the server still has it; callers sharing a cached job should
+ * not cancel it.
+ * <p>
+ * Entries expire after a fixed time to live, since relative time ranges such
+ * as {@code -15m} move on. Real-time searches are never cached. The entries
+ * are held in memory up to a total size, least recently used first out; with
+ * a spill directory, entries evicted from memory are written there,
+ * compressed, up to a second size limit.
+ */
+public class SearchResultCache {
+    private static final int SPILL_MAGIC = 0x53524331; // "SRC1"
+    private static final String SPILL_SUFFIX = ".src";
+
+    private final long maxMemoryBytes;
+    private final long ttlMillis;
+    private long maxEntryBytes;
+    private File spillDirectory = null;
+    private long maxDiskBytes = 0;
+
+    private final LinkedHashMap<String, MemoryEntry> memory =
+            new LinkedHashMap<String, MemoryEntry>(16, 0.75f, true);
+    private final LinkedHashMap<String, DiskEntry> disk =
+            new LinkedHashMap<String, DiskEntry>(16, 0.75f, true);
+    private long memoryBytes = 0;
+    private long diskBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache held in memory.
+     *
+     * @param maxMemoryBytes The most bytes of results to hold in memory.
+     * @param ttlMillis How long an entry may be served, in milliseconds.
+     */
+    public SearchResultCache(long maxMemoryBytes, long ttlMillis) {
+        if (maxMemoryBytes <= 0 || ttlMillis <= 0)
+            throw new IllegalArgumentException("The size and time to live must be positive.");
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.ttlMillis = ttlMillis;
+        this.maxEntryBytes = maxMemoryBytes / 4;
+    }
+
+    /**
+     * Sets the size of the largest response to cache. Larger responses are
+     * passed through uncached. The default is a quarter of the memory size.
+     *
+     * @param maxEntryBytes The most bytes in one entry.
+     */
+    public synchronized void setMaxEntryBytes(long maxEntryBytes) {
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    /**
+     * Makes entries evicted from memory spill to files in a directory,
+     * compressed with gzip, instead of being dropped. Spilled entries from
+     * an earlier cache in the same directory are deleted.
+     *
+     * @param directory The directory, which is created if necessary.
+     * @param maxDiskBytes The most bytes of spilled entries to keep.
+     * @throws IOException If the directory cannot be created.
+     */
+    public synchronized void setSpillDirectory(File directory, long maxDiskBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+        File[] stale = directory.listFiles();
+        if (stale != null) {
+            for (File file : stale) {
+                if (file.getName().endsWith(SPILL_SUFFIX))
+                    file.delete();
+            }
+        }
+        clearDisk();
+        this.spillDirectory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * Removes every entry, in memory and on disk.
+     */
+    public synchronized void clear() {
+        memory.clear();
+        memoryBytes = 0;
+        clearDisk();
+    }
+
+    /**
+     * @return The number of lookups answered from the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of lookups answered from spilled entries, which
+     * are included in {@link #getHitCount}.
+     */
+    public long getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return The number of lookups not answered from the cache.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of bytes of results held in memory.
+     */
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * @return The number of bytes of spilled entries on disk.
+     */
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    /**
+     * Returns the cache key of a search, or {@code null} if it must not be
+     * cached.
+     *
+     * @param path The URL of the endpoint, which carries the server and
+     * namespace.
+     * @param args The arguments of the request, including "search".
+     */
+    static String key(String path, Map<String, Object> args) {
+        if (isRealTime(args.get("earliest_time")) || isRealTime(args.get("latest_time"))
+                || "realtime".equals(args.get("search_mode")))
+            return null;
+
+        StringBuilder key = new StringBuilder(256);
+        key.append(path);
+        for (Map.Entry<String, Object> entry : new TreeMap<String, Object>(args).entrySet()) {
+            key.append('\n').append(entry.getKey()).append('=');
+            Object value = entry.getValue();
+            if (entry.getKey().equals("search")) {
+                appendNormalized(key, value.toString());
+            } else if (value instanceof String[]) {
+                for (String item : (String[]) value)
+                    key.append(item).append('\u0000');
+            } else {
+                key.append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    private static boolean isRealTime(Object time) {
+        return time != null && time.toString().startsWith("rt");
+    }
+
+    // Appends a query, trimmed and with each run of whitespace outside
+    // double quotes replaced by one space.
+    private static void appendNormalized(StringBuilder key, String query) {
+        boolean quoted = false;
+        boolean space = false;
+        query = query.trim();
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (!quoted && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space) {
+                key.append(' ');
+                space = false;
+            }
+            if (c == '"' && (i == 0 || query.charAt(i - 1) != '\\'))
+                quoted = !quoted;
+            key.append(c);
+        }
+    }
+
+    /**
+     * Returns a stream of the cached body for a key, or {@code null}.
+     */
+    InputStream get(String key) {
+        byte[] body = lookup(key);
+        return body == null ? null : new ByteArrayInputStream(body);
+    }
+
+    /**
+     * Returns a stream that reads {@code content} and, if it is read to the
+     * end, caches what it read under {@code key}.
+     */
+    InputStream cache(String key, InputStream content) {
+        return new CachingInputStream(key, content);
+    }
+
+    /**
+     * Returns the cached search ID for a key, or {@code null}.
+     */
+    String getSid(String key) {
+        byte[] sid = lookup(key);
+        return sid == null ? null : fromUtf8(sid);
+    }
+
+    /**
+     * Caches a search ID under a key.
+     */
+    void putSid(String key, String sid) {
+        put(key, utf8(sid));
+    }
+
+    /**
+     * Removes the entry for a key.
+     */
+    synchronized void remove(String key) {
+        MemoryEntry entry = memory.remove(key);
+        if (entry != null)
+            memoryBytes -= entry.body.length;
+        removeFromDisk(key);
+    }
+
+    private synchronized byte[] lookup(String key) {
+        long now = System.currentTimeMillis();
+        MemoryEntry entry = memory.get(key);
+        if (entry != null) {
+            if (entry.expires > now) {
+                hits.incrementAndGet();
+                return entry.body;
+            }
+            memory.remove(key);
+            memoryBytes -= entry.body.length;
+        }
+
+        DiskEntry spilled = disk.get(key);
+        if (spilled != null) {
+            byte[] body = spilled.expires > now ? readSpill(key, spilled) : null;
+            removeFromDisk(key);
+            if (body != null) {
+                hits.incrementAndGet();
+                diskHits.incrementAndGet();
+                store(key, body, spilled.expires);
+                return body;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private synchronized void put(String key, byte[] body) {
+        if (body.length > maxEntryBytes)
+            return;
+        store(key, body, System.currentTimeMillis() + ttlMillis);
+    }
+
+    private void store(String key, byte[] body, long expires) {
+        MemoryEntry previous = memory.put(key, new MemoryEntry(body, expires));
+        if (previous != null)
+            memoryBytes -= previous.body.length;
+        memoryBytes += body.length;
+        removeFromDisk(key);
+
+        Iterator<Map.Entry<String, MemoryEntry>> eldest = memory.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+            Map.Entry<String, MemoryEntry> evicted = eldest.next();
+            eldest.remove();
+            memoryBytes -= evicted.getValue().body.length;
+            spill(evicted.getKey(), evicted.getValue());
+        }
+    }
+
+    private void spill(String key, MemoryEntry entry) {
+        if (spillDirectory == null || entry.expires <= System.currentTimeMillis())
+            return;
+        File file = new File(spillDirectory, fileName(key));
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                byte[] keyBytes = utf8(key);
+                out.writeInt(SPILL_MAGIC);
+                out.writeLong(entry.expires);
+                out.writeInt(keyBytes.length);
+                out.write(keyBytes);
+                out.writeInt(entry.body.length);
+                GZIPOutputStream gzip = new GZIPOutputStream(out);
+                gzip.write(entry.body);
+                gzip.finish();
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            file.delete();
+            return; // Spilling is best effort; the entry is dropped.
+        }
+
+        DiskEntry spilled = new DiskEntry(file, file.length(), entry.expires);
+        disk.put(key, spilled);
+        diskBytes += spilled.size;
+        Iterator<Map.Entry<String, DiskEntry>> eldest = disk.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+            DiskEntry evicted = eldest.next().getValue();
+            eldest.remove();
+            diskBytes -= evicted.size;
+            evicted.file.delete();
+        }
+    }
+
+    private byte[] readSpill(String key, DiskEntry entry) {
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(entry.file)));
+            try {
+                if (in.readInt() != SPILL_MAGIC)
+                    return null;
+                in.readLong();
+                byte[] keyBytes = new byte[in.readInt()];
+                in.readFully(keyBytes);
+                if (!fromUtf8(keyBytes).equals(key))
+                    return null;
+                byte[] body = new byte[in.readInt()];
+                new DataInputStream(new GZIPInputStream(in)).readFully(body);
+                return body;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void removeFromDisk(String key) {
+        DiskEntry entry = disk.remove(key);
+        if (entry != null) {
+            diskBytes -= entry.size;
+            entry.file.delete();
+        }
+    }
+
+    private void clearDisk() {
+        for (DiskEntry entry : disk.values())
+            entry.file.delete();
+        disk.clear();
+        diskBytes = 0;
+    }
+
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(utf8(key));
+            StringBuilder name = new StringBuilder(digest.length * 2 + SPILL_SUFFIX.length());
+            for (byte b : digest)
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return name.append(SPILL_SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private static String fromUtf8(byte[] value) {
+        try {
+            return new String(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private static class MemoryEntry {
+        final byte[] body;
+        final long expires;
+
+        MemoryEntry(byte[] body, long expires) {
+            this.body = body;
+            this.expires = expires;
+        }
+    }
+
+    private static class DiskEntry {
+        final File file;
+        final long size;
+        final long expires;
+
+        DiskEntry(File file, long size, long expires) {
+            this.file = file;
+            this.size = size;
+            this.expires = expires;
+        }
+    }
+
+    // Copies what is read into a buffer, and caches it at the end of the
+    // stream. Streams that are closed early or grow too large are not cached.
+    private class CachingInputStream extends FilterInputStream {
+        private final String key;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream(8192);
+
+        CachingInputStream(String key, InputStream in) {
+            super(in);
+            this.key = key;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                finish();
+            } else if (copy != null) {
+                copy.write(b);
+                checkSize();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n == -1) {
+                finish();
+            } else if (copy != null) {
+                copy.write(buffer, offset, n);
+                checkSize();
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] skipped = new byte[(int) Math.min(n, 8192)];
+            int read = read(skipped, 0, skipped.length);
+            return read == -1 ? 0 : read;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void mark(int limit) {
+        }
+
+        @Override
+        public void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+
+        private void checkSize() {
+            if (copy.size() > maxEntryBytes)
+                copy = null;
+        }
+
+        private void finish() {
+            if (copy != null) {
+                put(key, copy.toByteArray());
+                copy = null;
+            }
+        }
+    }
+}
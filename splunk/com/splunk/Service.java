@@ -18,11 +18,12 @@ package com.splunk;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.net.Socket;
-import java.net.URLEncoder;
 import java.net.URLStreamHandler;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * The {@code Service} class represents a Splunk service instance at a given
@@ -57,6 +58,31 @@ public class Service extends BaseService {
     /** The password, which is used to authenticate the Splunk instance. */
     protected String password = null;
 
+    /** The number of connections to open when logging in. */
+    protected int prewarmConnections = 0;
+
+    /** The cache of search results, or {@code null} for none. */
+    protected volatile SearchResultCache searchResultCache = null;
+
+    /** The cache of pivot translations, or {@code null} for none. */
+    protected volatile PivotCache pivotCache = null;
+
+    /** The manager of local acceleration jobs for pivots, or {@code null} for none. */
+    protected volatile AccelerationManager accelerationManager = null;
+
+    /** The number of requests an input collection makes at once when it is refreshed. */
+    protected volatile int inputDiscoveryThreads = 1;
+
+    /** How long, in milliseconds, discovered input kinds are reused, or 0 for not at all. */
+    protected volatile long inputKindsTtl = 0;
+
+    /** The input kinds last discovered, and when they expire. */
+    private volatile Set<InputKind> inputKinds = null;
+    private volatile long inputKindsExpiry = 0;
+
+    /** The cached path prefix of the owner and app context. */
+    private volatile NamespacePrefix defaultPrefix = null;
+
     /** The default simple receiver endpoint. */
     protected String simpleReceiverEndPoint = "/services/receivers/simple";
 
@@ -151,6 +177,13 @@ public class Service extends BaseService {
         this.httpsHandler = Args.<URLStreamHandler>get(args, "httpsHandler", null);
         this.setSslSecurityProtocol(Args.get(args, "SSLSecurityProtocol", Service.getSslSecurityProtocol()));
         this.addCookie((String)args.get("cookie"));
+        this.metricsRecorder = Args.<MetricsRecorder>get(args, "metricsRecorder", null);
+        this.prewarmConnections = Args.<Integer>get(args, "prewarmConnections", 0);
+        this.searchResultCache = Args.<SearchResultCache>get(args, "searchResultCache", null);
+        this.pivotCache = Args.<PivotCache>get(args, "pivotCache", null);
+        this.accelerationManager = Args.<AccelerationManager>get(args, "accelerationManager", null);
+        this.inputDiscoveryThreads = Args.<Integer>get(args, "inputDiscoveryThreads", 1);
+        this.inputKindsTtl = Args.<Long>get(args, "inputKindsTtl", 0L);
     }
 
     /**
@@ -173,6 +206,13 @@ public class Service extends BaseService {
         this.addCookie((String)args.get("cookie"));
         this.connectTimeout = Args.<Integer>get(args, "connectTimeout", null);
         this.readTimeout = Args.<Integer>get(args, "readTimeout", null);
+        this.metricsRecorder = Args.<MetricsRecorder>get(args, "metricsRecorder", null);
+        this.prewarmConnections = Args.<Integer>get(args, "prewarmConnections", 0);
+        this.searchResultCache = Args.<SearchResultCache>get(args, "searchResultCache", null);
+        this.pivotCache = Args.<PivotCache>get(args, "pivotCache", null);
+        this.accelerationManager = Args.<AccelerationManager>get(args, "accelerationManager", null);
+        this.inputDiscoveryThreads = Args.<Integer>get(args, "inputDiscoveryThreads", 1);
+        this.inputKindsTtl = Args.<Long>get(args, "inputKindsTtl", 0L);
     }
 
     /**
@@ -221,8 +261,21 @@ public class Service extends BaseService {
         if (!args.containsKey("segmentation")) {
             args.put("segmentation", "none");
         }
-        ResponseMessage response = get(JobCollection.REST_PATH + "/export", args);
-        return new ExportResultsStream(response.getContent());
+        String path = JobCollection.REST_PATH + "/export";
+        SearchResultCache cache = this.searchResultCache;
+        String key = cache == null ? null : SearchResultCache.key(getPrefix() + fullpath(path), args);
+        if (key != null) {
+            InputStream cached = cache.get(key);
+            if (cached != null) {
+                return new ExportResultsStream(cached);
+            }
+        }
+        ResponseMessage response = get(path, args);
+        InputStream content = response.getContent();
+        if (key != null) {
+            content = cache.cache(key, content);
+        }
+        return new ExportResultsStream(content);
     }
 
     /**
@@ -270,7 +323,18 @@ public class Service extends BaseService {
         // if no namespace at all, and no service instance of app, and no
         // sharing, return base service endpoint + path.
         if (namespace == null && app == null) {
-            return "/services/" + path;
+            return "/services/".concat(path);
+        }
+
+        // the service's own namespace is the common case, so its prefix is
+        // built once and reused.
+        if (namespace == null) {
+            NamespacePrefix prefix = defaultPrefix;
+            if (prefix == null || !prefix.isFor(owner, app)) {
+                prefix = new NamespacePrefix(owner, app);
+                defaultPrefix = prefix;
+            }
+            return prefix.prefix.concat(path);
         }
 
         // base namespace values
@@ -279,27 +343,15 @@ public class Service extends BaseService {
         String localSharing = "";
 
         // override with invocation namespace if set.
-        if (namespace != null) {
-            // URL encode the owner and app.
-            if (namespace.containsKey("app")) {
-                try {
-                    localApp = URLEncoder.encode((String)namespace.get("app"), "UTF-8");
-                } catch (UnsupportedEncodingException e) {
-                    // This is unreachable, since UTF-8 is always supported.
-                    assert false;
-                }
-            }
-            if (namespace.containsKey("owner")) {
-                try {
-                    localOwner = URLEncoder.encode((String)namespace.get("owner"), "UTF-8");
-                } catch (UnsupportedEncodingException e) {
-                    // This is unreachable, since UTF-8 is always supported.
-                    assert false;
-                }
-            }
-            if (namespace.containsKey("sharing")) {
-                localSharing = (String)namespace.get("sharing");
-            }
+        // URL encode the owner and app.
+        if (namespace.containsKey("app")) {
+            localApp = Args.encode((String)namespace.get("app"));
+        }
+        if (namespace.containsKey("owner")) {
+            localOwner = Args.encode((String)namespace.get("owner"));
+        }
+        if (namespace.containsKey("sharing")) {
+            localSharing = (String)namespace.get("sharing");
         }
 
         // sharing, if set calls for special mapping, override here.
@@ -314,10 +366,36 @@ public class Service extends BaseService {
             localOwner = "nobody";
         }
 
-        return String.format("/servicesNS/%s/%s/%s",
-                localOwner == null ? "-" : localOwner,
-                localApp   == null ? "-" : localApp,
-                path);
+        return namespacePath(localOwner, localApp, path);
+    }
+
+    // Returns /servicesNS/{owner}/{app}/{path}, built in one buffer.
+    private static String namespacePath(String owner, String app, String path) {
+        if (owner == null) owner = "-";
+        if (app == null) app = "-";
+        StringBuilder builder = new StringBuilder(
+                14 + owner.length() + app.length() + path.length());
+        builder.append("/servicesNS/").append(owner).append('/')
+                .append(app).append('/').append(path);
+        return builder.toString();
+    }
+
+    // The path prefix of the service's own owner and app context.
+    private static class NamespacePrefix {
+        final String owner;
+        final String app;
+        final String prefix;
+
+        NamespacePrefix(String owner, String app) {
+            this.owner = owner;
+            this.app = app;
+            this.prefix = namespacePath(owner, app, "");
+        }
+
+        boolean isFor(String owner, String app) {
+            return (owner == null ? this.owner == null : owner.equals(this.owner))
+                    && (app == null ? this.app == null : app.equals(this.app));
+        }
     }
 
     /**
@@ -378,6 +456,15 @@ public class Service extends BaseService {
         return new DataModelCollection(this);
     }
 
+    /**
+     * Forgets the data model descriptions shared by the data models loaded
+     * in this JVM, so that their memory can be reclaimed. Data models that
+     * are already loaded keep their descriptions.
+     */
+    public static void clearDataModelDescriptions() {
+        DataModelDescription.clearShared();
+    }
+
     /**
      * Returns the configuration and status of a deployment client.
      *
@@ -573,6 +660,144 @@ public class Service extends BaseService {
         return new IndexCollection(this, args);
     }
 
+    /**
+     * Returns the cache of search results used by {@code oneshotSearch},
+     * {@code export}, and {@code JobCollection.create}.
+     *
+     * @return The cache, or {@code null} if searches are not cached.
+     */
+    public SearchResultCache getSearchResultCache() {
+        return this.searchResultCache;
+    }
+
+    /**
+     * Sets the cache of search results used by {@code oneshotSearch},
+     * {@code export}, and {@code JobCollection.create}. A cache can be
+     * shared by {@code Service} instances that log in as the same user.
+     *
+     * @param cache The cache, or {@code null} to stop caching.
+     */
+    public void setSearchResultCache(SearchResultCache cache) {
+        this.searchResultCache = cache;
+    }
+
+    /**
+     * Returns the cache of pivot translations used by
+     * {@link PivotSpecification#pivot()}.
+     *
+     * @return The cache, or {@code null} if pivots are not cached.
+     */
+    public PivotCache getPivotCache() {
+        return this.pivotCache;
+    }
+
+    /**
+     * Sets the cache of pivot translations used by
+     * {@link PivotSpecification#pivot()}.
+     *
+     * @param cache The cache, or {@code null} to stop caching.
+     */
+    public void setPivotCache(PivotCache cache) {
+        this.pivotCache = cache;
+    }
+
+    /**
+     * Returns the manager of the local acceleration jobs that
+     * {@link PivotSpecification#pivot()} routes pivots to.
+     *
+     * @return The manager, or {@code null} if pivots are not routed.
+     */
+    public AccelerationManager getAccelerationManager() {
+        return this.accelerationManager;
+    }
+
+    /**
+     * Sets the manager of the local acceleration jobs that
+     * {@link PivotSpecification#pivot()} routes pivots to.
+     *
+     * @param manager The manager, or {@code null} to stop routing pivots.
+     */
+    public void setAccelerationManager(AccelerationManager manager) {
+        this.accelerationManager = manager;
+    }
+
+    /**
+     * Returns the number of requests an {@link InputCollection} makes at once
+     * to discover the input kinds and list their inputs.
+     *
+     * @return The number of requests.
+     */
+    public int getInputDiscoveryThreads() {
+        return this.inputDiscoveryThreads;
+    }
+
+    /**
+     * Sets the number of requests an {@link InputCollection} makes at once
+     * to discover the input kinds and list their inputs. The default is 1.
+     *
+     * @param threads The number of requests.
+     */
+    public void setInputDiscoveryThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("There must be at least one thread.");
+        this.inputDiscoveryThreads = threads;
+    }
+
+    /**
+     * Returns how long the input kinds discovered by an
+     * {@link InputCollection} are reused by the collections of this service.
+     *
+     * @return The time, in milliseconds, or 0 if they are discovered on
+     * every refresh.
+     */
+    public long getInputKindsTtl() {
+        return this.inputKindsTtl;
+    }
+
+    /**
+     * Sets how long the input kinds discovered by an {@link InputCollection}
+     * are reused by the collections of this service, independently of the
+     * inputs, which are listed on every refresh. The default is 0, so the
+     * kinds are discovered on every refresh.
+     *
+     * @param ttlMillis The time, in milliseconds.
+     */
+    public void setInputKindsTtl(long ttlMillis) {
+        this.inputKindsTtl = ttlMillis;
+        invalidateInputKinds();
+    }
+
+    /**
+     * Forgets the input kinds discovered so far, so that the next refresh of
+     * an {@link InputCollection} discovers them again.
+     */
+    public void invalidateInputKinds() {
+        this.inputKinds = null;
+    }
+
+    /**
+     * @return the input kinds discovered less than the input kinds time to
+     * live ago, or {@code null}.
+     */
+    Set<InputKind> getCachedInputKinds() {
+        Set<InputKind> kinds = this.inputKinds;
+        if (kinds == null || System.currentTimeMillis() >= this.inputKindsExpiry) {
+            return null;
+        }
+        return kinds;
+    }
+
+    /**
+     * @param kinds the input kinds just discovered.
+     */
+    void cacheInputKinds(Set<InputKind> kinds) {
+        if (this.inputKindsTtl <= 0) {
+            return;
+        }
+        this.inputKindsExpiry = System.currentTimeMillis() + this.inputKindsTtl;
+        this.inputKinds = Collections.unmodifiableSet(new HashSet<InputKind>(kinds));
+    }
+
     /**
      * Returns information about the Splunk service.
      *
@@ -1130,10 +1355,51 @@ public class Service extends BaseService {
         this.version = this.getInfo().getVersion();
         if (versionCompare("4.3") >= 0)
             this.passwordEndPoint = "storage/passwords";
+        if (prewarmConnections > 0)
+            prewarm(prewarmConnections);
 
         return this;
     }
 
+    /**
+     * Opens connections to the Splunk server in parallel and returns them
+     * to the JVM's keep-alive cache, so that the next requests reuse them
+     * instead of paying for new TCP and TLS handshakes. Connections closed
+     * later still benefit, since their TLS sessions can be resumed.
+     * <p>
+     * The JVM keeps at most {@code http.maxConnections} (by default, 5) idle
+     * connections per server. Failures are ignored, since pre-warming is
+     * only an optimization.
+     *
+     * @param count The number of connections to open.
+     */
+    public void prewarm(int count) {
+        Thread[] threads = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        InputStream content = get("/services/server/info").getContent();
+                        byte[] buffer = new byte[4096];
+                        while (content.read(buffer) != -1) { }
+                        content.close();
+                    } catch (Exception e) {
+                        // Pre-warming is best effort.
+                    }
+                }
+            }, "splunk-prewarm-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Forgets the current session token.
      *
@@ -1181,7 +1447,19 @@ public class Service extends BaseService {
             args.put("segmentation", "none");
         }
 
+        SearchResultCache cache = this.searchResultCache;
+        String key = cache == null
+                ? null : SearchResultCache.key(getPrefix() + fullpath(JobCollection.REST_PATH), args);
+        if (key != null) {
+            InputStream cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
         ResponseMessage response = post(JobCollection.REST_PATH, args);
+        if (key != null) {
+            return cache.cache(key, response.getContent());
+        }
         return response.getContent();
     }
 
@@ -97,6 +97,69 @@ public class ServiceArgs extends Args {
     	this.put("httpsHandler", handler);
     }
 
+    /**
+     * @param metricsRecorder
+     *      A recorder to be notified of every request the service sends.
+     */
+    public void setMetricsRecorder(MetricsRecorder metricsRecorder) {
+        this.put("metricsRecorder", metricsRecorder);
+    }
+
+    /**
+     * @param count
+     *      The number of connections to open in parallel when the service
+     *      logs in, so that the first requests do not wait for TCP and TLS
+     *      handshakes. See {@link Service#prewarm(int)}.
+     */
+    public void setPrewarmConnections(int count) {
+        this.put("prewarmConnections", count);
+    }
+
+    /**
+     * @param cache
+     *      A cache of search results for the service to use. See
+     *      {@link SearchResultCache}.
+     */
+    public void setSearchResultCache(SearchResultCache cache) {
+        this.put("searchResultCache", cache);
+    }
+
+    /**
+     * @param cache
+     *      A cache of pivot translations for the service to use. See
+     *      {@link PivotCache}.
+     */
+    public void setPivotCache(PivotCache cache) {
+        this.put("pivotCache", cache);
+    }
+
+    /**
+     * @param manager
+     *      A manager of local acceleration jobs for pivots on the service.
+     *      See {@link AccelerationManager}.
+     */
+    public void setAccelerationManager(AccelerationManager manager) {
+        this.put("accelerationManager", manager);
+    }
+
+    /**
+     * @param threads
+     *      The number of requests an input collection makes at once to
+     *      discover the input kinds and list their inputs. The default is 1.
+     */
+    public void setInputDiscoveryThreads(int threads) {
+        this.put("inputDiscoveryThreads", threads);
+    }
+
+    /**
+     * @param ttlMillis
+     *      How long, in milliseconds, input collections reuse the input kinds
+     *      they discovered. The default is 0, for not at all.
+     */
+    public void setInputKindsTtl(long ttlMillis) {
+        this.put("inputKindsTtl", ttlMillis);
+    }
+
     /**
      * @param owner
      *      The owner context of the service.
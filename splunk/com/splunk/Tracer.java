@@ -0,0 +1,162 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+/**
+ * The {@code Tracer} class is the hook through which the SDK reports the
+ * spans of work it does: HTTP requests, Atom feed parses, search result sets,
+ * receiver submissions, and modular input event batches. A profiler or
+ * tracing system subclasses it and installs the subclass with
+ * {@code setTracer}; the {@code splunk-jfr} jar provides one that emits Java
+ * Flight Recorder events.
+ * <p>
+ * Each span is reported as a pair of calls. A {@code begin} method returns an
+ * opaque token, or {@code null} if the tracer is not interested in the span
+ * (for example, because no recording is running). The SDK passes a non-null
+ * token to the matching {@code end} method when the span finishes, possibly
+ * on another thread, and never calls {@code end} for a {@code null} token.
+ * <p>
+ * Every method of this class does nothing and returns {@code null}, so
+ * subclasses override only the spans they care about. With no tracer
+ * installed, the cost of a span is one volatile read.
+ */
+public abstract class Tracer {
+    private static volatile Tracer tracer = null;
+
+    /**
+     * Installs the tracer that the SDK reports to, replacing any previous
+     * one. Spans that have already begun are still ended on the tracer that
+     * began them.
+     *
+     * @param tracer The {@code Tracer}, or {@code null} to stop tracing.
+     */
+    public static void setTracer(Tracer tracer) {
+        Tracer.tracer = tracer;
+    }
+
+    /**
+     * Returns the installed tracer.
+     *
+     * @return The {@code Tracer}, or {@code null} if none is installed.
+     */
+    public static Tracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Begins an HTTP request sent by {@code HttpService.send}. The request
+     * ends once its response body is read to the end or closed, or when it
+     * fails before a response arrives.
+     *
+     * @param method The HTTP method.
+     * @param path The request path, including any query string.
+     * @return A token for {@code endRequest}, or {@code null}.
+     */
+    public Object beginRequest(String method, String path) {
+        return null;
+    }
+
+    /**
+     * Ends an HTTP request.
+     *
+     * @param request The token returned by {@code beginRequest}.
+     * @param metrics The measurements of the request.
+     */
+    public void endRequest(Object request, RequestMetrics metrics) {
+    }
+
+    /**
+     * Begins parsing an Atom feed in {@code AtomFeed.parseStream}.
+     *
+     * @return A token for {@code endFeedParse}, or {@code null}.
+     */
+    public Object beginFeedParse() {
+        return null;
+    }
+
+    /**
+     * Ends parsing an Atom feed.
+     *
+     * @param parse The token returned by {@code beginFeedParse}.
+     * @param entries The number of entries parsed, or -1 if parsing failed.
+     */
+    public void endFeedParse(Object parse, int entries) {
+    }
+
+    /**
+     * Begins reading a set of search results with a {@code ResultsReader}.
+     * The set ends when the reader reaches its end, moves on to the next
+     * set, or is closed.
+     *
+     * @param reader The simple name of the reader class, such as
+     * {@code "ResultsReaderXml"}.
+     * @param preview Whether the set is a preview.
+     * @return A token for {@code endResultSet}, or {@code null}.
+     */
+    public Object beginResultSet(String reader, boolean preview) {
+        return null;
+    }
+
+    /**
+     * Ends reading a set of search results.
+     *
+     * @param set The token returned by {@code beginResultSet}.
+     * @param rows The number of results read from the set.
+     */
+    public void endResultSet(Object set, long rows) {
+    }
+
+    /**
+     * Begins submitting events through {@code Receiver.submit} or
+     * {@code Receiver.log}.
+     *
+     * @param index The target index, or {@code null} for the default index.
+     * @param chars The number of characters of event data.
+     * @return A token for {@code endReceiverSubmit}, or {@code null}.
+     */
+    public Object beginReceiverSubmit(String index, int chars) {
+        return null;
+    }
+
+    /**
+     * Ends a receiver submission.
+     *
+     * @param submit The token returned by {@code beginReceiverSubmit}.
+     * @param succeeded Whether Splunk accepted the events.
+     */
+    public void endReceiverSubmit(Object submit, boolean succeeded) {
+    }
+
+    /**
+     * Begins writing a batch of modular input events to Splunk.
+     *
+     * @return A token for {@code endEventBatch}, or {@code null}.
+     */
+    public Object beginEventBatch() {
+        return null;
+    }
+
+    /**
+     * Ends writing a batch of modular input events.
+     *
+     * @param batch The token returned by {@code beginEventBatch}.
+     * @param events The number of events in the batch.
+     * @param chars The number of characters written.
+     */
+    public void endEventBatch(Object batch, int events, long chars) {
+    }
+}
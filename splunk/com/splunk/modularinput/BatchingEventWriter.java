@@ -0,0 +1,309 @@
+/*
+ * Copyright 2013 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk.modularinput;
+
+import com.splunk.Tracer;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code BatchingEventWriter} class is an {@code EventWriter} for modular inputs that write events from many
+ * threads at once.
+ *
+ * Calls to {@code writeEvent} only append the {@code Event} to a lock-free multi-producer queue. A single writer
+ * thread drains the queue, serializes the events to XML into a batch buffer, and writes the batch to the output
+ * stream (with one flush) whenever it holds {@code maxBatchEvents} events, holds {@code maxBatchChars} characters,
+ * or its oldest event has waited {@code maxBatchDelayMillis} milliseconds. {@code close} drains every queued event
+ * before writing the closing {@code </stream>} tag.
+ *
+ * {@code writeEvent} and {@code synchronizedWriteEvent} are both thread safe and never take a monitor. Once the
+ * queue holds {@code queueCapacity} events, producers wait for the writer thread to catch up.
+ */
+public class BatchingEventWriter extends EventWriter {
+    public static final int DEFAULT_MAX_BATCH_EVENTS = 512;
+    public static final int DEFAULT_MAX_BATCH_CHARS = 64 * 1024;
+    public static final long DEFAULT_MAX_BATCH_DELAY_MILLIS = 100;
+    public static final int DEFAULT_QUEUE_CAPACITY = 65536;
+
+    // How long a producer waits for room in a full queue before checking again.
+    private static final long FULL_QUEUE_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Writer rawOutputWriter;
+    private final int maxBatchEvents;
+    private final int maxBatchChars;
+    private final long maxBatchDelayNanos;
+    private final int queueCapacity;
+
+    private final ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<Event>();
+    private final AtomicInteger queued = new AtomicInteger();
+    // The producers inside writeEvent; the writer thread does not stop until they are done.
+    private final AtomicInteger activeWriters = new AtomicInteger();
+    private final AtomicBoolean writerParked = new AtomicBoolean();
+    private volatile boolean closed = false;
+    private final Thread writerThread;
+
+    // Owned by the writer thread.
+    private final CharArrayWriter batch = new CharArrayWriter(8192);
+    private final XMLStreamWriter batchWriter;
+    private boolean headerWritten = false;
+    private int batchEvents = 0;
+    private long batchStartNanos = 0;
+
+    private final AtomicLong eventsWritten = new AtomicLong();
+    private final AtomicLong batchesWritten = new AtomicLong();
+
+    public BatchingEventWriter() throws XMLStreamException {
+        this(wrapWriter(System.out), wrapWriter(System.err));
+    }
+
+    public BatchingEventWriter(Writer outputWriter, Writer errorWriter) throws XMLStreamException {
+        this(outputWriter, errorWriter, DEFAULT_MAX_BATCH_EVENTS, DEFAULT_MAX_BATCH_CHARS,
+                DEFAULT_MAX_BATCH_DELAY_MILLIS);
+    }
+
+    public BatchingEventWriter(Writer outputWriter, Writer errorWriter, int maxBatchEvents, int maxBatchChars,
+                               long maxBatchDelayMillis) throws XMLStreamException {
+        this(outputWriter, errorWriter, maxBatchEvents, maxBatchChars, maxBatchDelayMillis, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates a {@code BatchingEventWriter} and starts its writer thread.
+     *
+     * @param outputWriter The {@code Writer} events are written to.
+     * @param errorWriter The {@code Writer} log messages are written to.
+     * @param maxBatchEvents The number of events after which a batch is flushed.
+     * @param maxBatchChars The number of serialized characters after which a batch is flushed.
+     * @param maxBatchDelayMillis The longest time, in milliseconds, an event waits in a batch before it is flushed.
+     * @param queueCapacity The number of events that may be queued before {@code writeEvent} waits.
+     */
+    public BatchingEventWriter(Writer outputWriter, Writer errorWriter, int maxBatchEvents, int maxBatchChars,
+                               long maxBatchDelayMillis, int queueCapacity) throws XMLStreamException {
+        super(outputWriter, errorWriter);
+        if (maxBatchEvents < 1 || maxBatchChars < 1 || maxBatchDelayMillis < 0 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Batch limits and queue capacity must be positive.");
+        }
+        this.rawOutputWriter = outputWriter;
+        this.maxBatchEvents = maxBatchEvents;
+        this.maxBatchChars = maxBatchChars;
+        this.maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMillis);
+        this.queueCapacity = queueCapacity;
+        this.batchWriter = XMLOutputFactory.newInstance().createXMLStreamWriter(batch);
+
+        this.writerThread = new Thread(new Runnable() {
+            public void run() {
+                drainLoop();
+            }
+        }, "splunk-event-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Returns the number of events written to the output stream so far.
+     *
+     * @return The number of events written.
+     */
+    public long getEventsWritten() {
+        return eventsWritten.get();
+    }
+
+    /**
+     * Returns the number of batches written (and flushed) to the output stream so far.
+     *
+     * @return The number of batches written.
+     */
+    public long getBatchesWritten() {
+        return batchesWritten.get();
+    }
+
+    /**
+     * Queues an {@code Event} object to be written to Splunk. This method is thread safe.
+     *
+     * If you try to write an {@code Event} with null data, throws {@code MalformedDataException}.
+     *
+     * @param event The {@code Event} object to write.
+     * @throws MalformedDataException
+     * @throws IllegalStateException if this {@code BatchingEventWriter} has been closed.
+     */
+    @Override
+    public void writeEvent(Event event) throws MalformedDataException {
+        if (event.getData() == null) {
+            MalformedDataException e = new MalformedDataException(
+                    "Events must have at least the data field set to be written to XML.");
+            synchronizedLog(WARN, e.toString());
+            throw e;
+        }
+        // Counted before closed is checked, so either this producer sees closed or the writer thread sees it
+        // and keeps draining until its event is queued.
+        activeWriters.incrementAndGet();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Cannot write events to a closed EventWriter.");
+            }
+
+            while (queued.incrementAndGet() > queueCapacity) {
+                queued.decrementAndGet();
+                wakeWriter();
+                LockSupport.parkNanos(FULL_QUEUE_WAIT_NANOS);
+            }
+            queue.offer(event);
+        } finally {
+            activeWriters.decrementAndGet();
+        }
+        wakeWriter();
+    }
+
+    /**
+     * Same as {@code writeEvent}, which is already thread safe.
+     * @see #writeEvent
+     */
+    @Override
+    public void synchronizedWriteEvent(Event event) throws MalformedDataException {
+        writeEvent(event);
+    }
+
+    /**
+     * Writes every queued event, including those of {@code writeEvent} calls still in progress, then the closing
+     * {@code </stream>} tag, and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writerThread);
+        boolean interrupted = false;
+        while (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void wakeWriter() {
+        if (writerParked.get() && writerParked.compareAndSet(true, false)) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            Event event = queue.poll();
+            if (event != null) {
+                queued.decrementAndGet();
+                append(event);
+                if (batchEvents >= maxBatchEvents || batch.size() >= maxBatchChars) {
+                    flushBatch();
+                }
+                continue;
+            }
+
+            if (closed) {
+                // Producers may have queued events between the poll and the check of closed, and producers
+                // that got past their own check of closed may still be about to queue theirs.
+                if (activeWriters.get() == 0 && queue.isEmpty()) {
+                    break;
+                }
+                if (queue.isEmpty()) {
+                    LockSupport.parkNanos(this, FULL_QUEUE_WAIT_NANOS);
+                }
+                continue;
+            }
+
+            long waitNanos = maxBatchDelayNanos;
+            if (batchEvents > 0) {
+                waitNanos = maxBatchDelayNanos - (System.nanoTime() - batchStartNanos);
+                if (waitNanos <= 0) {
+                    flushBatch();
+                    continue;
+                }
+            }
+
+            writerParked.set(true);
+            if (queue.isEmpty() && !closed) {
+                if (waitNanos > 0) {
+                    LockSupport.parkNanos(this, waitNanos);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+            writerParked.set(false);
+        }
+
+        try {
+            batchWriter.writeEndElement();
+            batchWriter.flush();
+        } catch (XMLStreamException e) {
+            synchronizedLog(ERROR, e.toString());
+        }
+        flushBatch();
+    }
+
+    private void append(Event event) {
+        try {
+            if (!headerWritten) {
+                batchWriter.writeStartElement("stream");
+                headerWritten = true;
+            }
+            if (batchEvents == 0) {
+                batchStartNanos = System.nanoTime();
+            }
+            event.writeTo(batchWriter);
+            batchEvents++;
+        } catch (MalformedDataException e) {
+            synchronizedLog(WARN, e.toString());
+        } catch (XMLStreamException e) {
+            synchronizedLog(ERROR, e.toString());
+        }
+    }
+
+    private void flushBatch() {
+        if (batch.size() == 0) {
+            return;
+        }
+        Tracer tracer = Tracer.getTracer();
+        Object trace = tracer == null ? null : tracer.beginEventBatch();
+        try {
+            batch.writeTo(rawOutputWriter);
+            rawOutputWriter.flush();
+            eventsWritten.addAndGet(batchEvents);
+            batchesWritten.incrementAndGet();
+        } catch (IOException e) {
+            setError();
+        } finally {
+            if (trace != null) {
+                tracer.endEventBatch(trace, batchEvents, batch.size());
+            }
+            batch.reset();
+            batchEvents = 0;
+        }
+    }
+}
@@ -0,0 +1,610 @@
+/*
+ * Copyright 2013 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk.modularinput;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code CheckpointStore} class keeps string checkpoints for a modular input, keyed by stanza and key, in the
+ * input's checkpoint directory.
+ *
+ * All checkpoints are held in memory, so {@code get} never touches the disk. Each {@code put} or {@code remove}
+ * appends one record to a memory-mapped log file; the operating system writes it out, and it survives the script
+ * crashing as soon as the call returns. The log is forced to the disk (fsync) in the background every
+ * {@code syncIntervalMillis} milliseconds, on {@code sync}, and on {@code close}, so a crash of the whole machine
+ * can lose at most that interval. Once the log holds many more records than there are live checkpoints, it is
+ * compacted into a new log holding one record per checkpoint.
+ *
+ * A {@code CheckpointStore} is safe to use from many threads. Only one process may open a given store at a time;
+ * modular inputs that Splunk runs as one process per stanza should give each stanza its own store name.
+ *
+ * Example:
+ * <pre>
+ * CheckpointStore checkpoints = CheckpointStore.open(inputs);
+ * String lastId = checkpoints.get(stanzaName, "last_id");
+ * ...
+ * checkpoints.put(stanzaName, "last_id", newLastId);
+ * </pre>
+ */
+public class CheckpointStore implements Closeable {
+    public static final String DEFAULT_NAME = "checkpoints";
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x53434B31; // "SCK1"
+    private static final int HEADER_SIZE = 4;
+    // Every record starts with the length of its body and the CRC32 of its body.
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    private static final int INITIAL_MAP_SIZE = 1 << 20;
+    private static final int MAX_MAP_SIZE = Integer.MAX_VALUE;
+    private static final long MIN_COMPACTION_RECORDS = 10000;
+
+    private final File directory;
+    private final String name;
+
+    private final ConcurrentMap<String, ConcurrentMap<String, String>> checkpoints =
+            new ConcurrentHashMap<String, ConcurrentMap<String, String>>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // Guarded by writeLock.
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer log;
+    private long generation;
+    private long records;
+    private long liveCheckpoints;
+    private boolean dirty;
+    private boolean closed;
+
+    private final RandomAccessFile lockFile;
+    private final FileLock processLock;
+    private final ScheduledExecutorService syncer;
+
+    /**
+     * Opens the default checkpoint store in the checkpoint directory of an {@code InputDefinition}.
+     *
+     * @param inputs The {@code InputDefinition} passed to {@code streamEvents}.
+     * @return An open {@code CheckpointStore}.
+     * @throws IOException If the store cannot be opened.
+     */
+    public static CheckpointStore open(InputDefinition inputs) throws IOException {
+        if (inputs.getCheckpointDir() == null) {
+            throw new IllegalArgumentException("Input definition has no checkpoint directory.");
+        }
+        return new CheckpointStore(new File(inputs.getCheckpointDir()));
+    }
+
+    public CheckpointStore(File directory) throws IOException {
+        this(directory, DEFAULT_NAME, DEFAULT_SYNC_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Opens (creating it if needed) a checkpoint store and loads its checkpoints.
+     *
+     * @param directory The directory holding the store's files.
+     * @param name The name of the store; its files are named after it.
+     * @param syncIntervalMillis How often, in milliseconds, writes are forced to disk. 0 forces every write.
+     * @throws IOException If the store cannot be opened, or is already open.
+     */
+    public CheckpointStore(File directory, String name, long syncIntervalMillis) throws IOException {
+        if (syncIntervalMillis < 0) {
+            throw new IllegalArgumentException("syncIntervalMillis must not be negative.");
+        }
+        this.directory = directory;
+        this.name = name;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create checkpoint directory " + directory);
+        }
+
+        this.lockFile = new RandomAccessFile(new File(directory, name + ".lock"), "rw");
+        FileLock acquired;
+        try {
+            acquired = lockFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Already open in this process.
+            acquired = null;
+        }
+        this.processLock = acquired;
+        if (processLock == null) {
+            lockFile.close();
+            throw new IOException("Checkpoint store " + name + " in " + directory +
+                    " is already open.");
+        }
+
+        try {
+            recover();
+        } catch (IOException e) {
+            releaseProcessLock();
+            throw e;
+        }
+
+        if (syncIntervalMillis > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "splunk-checkpoint-sync");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            syncer.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        sync();
+                    } catch (IOException e) {
+                        // Retried on the next tick, and reported by the next explicit sync or close.
+                    }
+                }
+            }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    /**
+     * Returns a checkpoint.
+     *
+     * @param stanza The stanza the checkpoint belongs to.
+     * @param key The key of the checkpoint.
+     * @return The value of the checkpoint, or {@code null} if there is none.
+     */
+    public String get(String stanza, String key) {
+        Map<String, String> stanzaCheckpoints = checkpoints.get(stanza);
+        return stanzaCheckpoints == null ? null : stanzaCheckpoints.get(key);
+    }
+
+    /**
+     * Returns all the checkpoints of a stanza.
+     *
+     * @param stanza The stanza the checkpoints belong to.
+     * @return An unmodifiable copy of the stanza's checkpoints, keyed by key.
+     */
+    public Map<String, String> getAll(String stanza) {
+        Map<String, String> stanzaCheckpoints = checkpoints.get(stanza);
+        if (stanzaCheckpoints == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(new HashMap<String, String>(stanzaCheckpoints));
+    }
+
+    /**
+     * Sets a checkpoint. Setting a checkpoint to the value it already has writes nothing.
+     *
+     * @param stanza The stanza the checkpoint belongs to.
+     * @param key The key of the checkpoint.
+     * @param value The new value of the checkpoint.
+     * @throws IOException If the checkpoint cannot be written.
+     */
+    public void put(String stanza, String key, String value) throws IOException {
+        if (stanza == null || key == null || value == null) {
+            throw new NullPointerException("Checkpoint stanza, key, and value must not be null.");
+        }
+        if (value.equals(get(stanza, key))) {
+            return;
+        }
+        byte[] body = encode(OP_PUT, stanza, key, value);
+        writeLock.lock();
+        try {
+            ensureOpen();
+            append(body);
+            ConcurrentMap<String, String> stanzaCheckpoints = checkpoints.get(stanza);
+            if (stanzaCheckpoints == null) {
+                stanzaCheckpoints = new ConcurrentHashMap<String, String>();
+                checkpoints.put(stanza, stanzaCheckpoints);
+            }
+            if (stanzaCheckpoints.put(key, value) == null) {
+                liveCheckpoints++;
+            }
+            afterWrite();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a checkpoint.
+     *
+     * @param stanza The stanza the checkpoint belongs to.
+     * @param key The key of the checkpoint.
+     * @throws IOException If the removal cannot be written.
+     */
+    public void remove(String stanza, String key) throws IOException {
+        if (get(stanza, key) == null) {
+            return;
+        }
+        byte[] body = encode(OP_REMOVE, stanza, key, null);
+        writeLock.lock();
+        try {
+            ensureOpen();
+            ConcurrentMap<String, String> stanzaCheckpoints = checkpoints.get(stanza);
+            if (stanzaCheckpoints == null || !stanzaCheckpoints.containsKey(key)) {
+                return;
+            }
+            // Only forget the checkpoint once its removal is in the log.
+            append(body);
+            stanzaCheckpoints.remove(key);
+            liveCheckpoints--;
+            afterWrite();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Forces every write so far to disk.
+     *
+     * @throws IOException If the log cannot be forced to disk.
+     */
+    public void sync() throws IOException {
+        MappedByteBuffer toForce;
+        writeLock.lock();
+        try {
+            if (closed || !dirty) {
+                return;
+            }
+            toForce = log;
+            dirty = false;
+        } finally {
+            writeLock.unlock();
+        }
+        // Force without holding the lock, so writers are not held up for the whole fsync. Records appended
+        // meanwhile set dirty again and are forced by the next sync; a mapping replaced by grow or compact
+        // stays valid until it is collected.
+        boolean forced = false;
+        try {
+            toForce.force();
+            forced = true;
+        } finally {
+            if (!forced) {
+                markDirty();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the log to hold exactly one record per checkpoint. This happens automatically as the log grows;
+     * there is rarely a reason to call it directly.
+     *
+     * @throws IOException If the new log cannot be written.
+     */
+    public void compact() throws IOException {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            long nextGeneration = generation + 1;
+            File tmp = new File(directory, name + ".compact.tmp");
+            FileOutputStream fileOut = new FileOutputStream(tmp);
+            long count = 0;
+            long length = HEADER_SIZE;
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 65536));
+                out.writeInt(MAGIC);
+                CRC32 crc = new CRC32();
+                for (Map.Entry<String, ConcurrentMap<String, String>> stanza : checkpoints.entrySet()) {
+                    for (Map.Entry<String, String> entry : stanza.getValue().entrySet()) {
+                        byte[] body = encode(OP_PUT, stanza.getKey(), entry.getKey(), entry.getValue());
+                        crc.reset();
+                        crc.update(body);
+                        out.writeInt(body.length);
+                        out.writeInt((int) crc.getValue());
+                        out.write(body);
+                        count++;
+                        length += RECORD_HEADER_SIZE + body.length;
+                    }
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                fileOut.close();
+            }
+
+            File next = generationFile(nextGeneration);
+            if (!tmp.renameTo(next)) {
+                tmp.delete();
+                throw new IOException("Could not rename " + tmp + " to " + next);
+            }
+
+            File previous = generationFile(generation);
+            closeLog();
+            openLog(nextGeneration);
+            log.position((int) length);
+            records = count;
+            liveCheckpoints = count;
+            // A file still mapped cannot be deleted on some platforms; recover() removes it on the next open.
+            previous.delete();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Forces every write to disk and closes the store.
+     */
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        writeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            try {
+                if (dirty) {
+                    log.force();
+                }
+                closeLog();
+            } finally {
+                closed = true;
+                releaseProcessLock();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void markDirty() {
+        writeLock.lock();
+        try {
+            dirty = true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Checkpoint store " + name + " is closed.");
+        }
+    }
+
+    private void afterWrite() throws IOException {
+        records++;
+        if (syncer == null) {
+            log.force();
+            dirty = false;
+        }
+        if (records > MIN_COMPACTION_RECORDS && records > 2 * liveCheckpoints) {
+            compact();
+        }
+    }
+
+    // Must hold writeLock.
+    private void append(byte[] body) throws IOException {
+        int needed = RECORD_HEADER_SIZE + body.length;
+        // Keep at least a zero length word after the last record to mark the end of the log.
+        if (log.remaining() < needed + 4) {
+            grow(needed + 4);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        int start = log.position();
+        // Write the body and CRC before the length, so a torn record reads as the end of the log.
+        log.position(start + RECORD_HEADER_SIZE);
+        log.put(body);
+        log.putInt(start + 4, (int) crc.getValue());
+        log.putInt(start, body.length);
+        dirty = true;
+    }
+
+    private void grow(int needed) throws IOException {
+        long size = log.capacity();
+        while (size - log.position() < needed) {
+            size *= 2;
+        }
+        if (size > MAX_MAP_SIZE) {
+            throw new IOException("Checkpoint log " + name + " is too large to map.");
+        }
+        int position = log.position();
+        log.force();
+        log = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        log.position(position);
+    }
+
+    private void recover() throws IOException {
+        long latest = -1;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                long g = parseGeneration(f.getName());
+                if (g > latest) {
+                    latest = g;
+                }
+            }
+            for (File f : files) {
+                long g = parseGeneration(f.getName());
+                if ((g >= 0 && g != latest) || f.getName().equals(name + ".compact.tmp")) {
+                    f.delete();
+                }
+            }
+        }
+        openLog(latest < 0 ? 0 : latest);
+
+        log.position(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        while (true) {
+            int start = log.position();
+            int length;
+            int expectedCrc;
+            byte[] body;
+            try {
+                length = log.getInt();
+                if (length <= 0 || length > log.remaining() - 4) {
+                    log.position(start);
+                    break;
+                }
+                expectedCrc = log.getInt();
+                body = new byte[length];
+                log.get(body);
+            } catch (BufferUnderflowException e) {
+                log.position(start);
+                break;
+            }
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != expectedCrc) {
+                log.position(start);
+                break;
+            }
+            apply(body);
+            records++;
+        }
+
+        // Clear whatever a torn write left behind, so it cannot be mistaken for records appended later.
+        int end = log.position();
+        for (int i = end; i < log.capacity(); i++) {
+            if (log.get(i) != 0) {
+                for (int j = end; j < log.capacity(); j++) {
+                    log.put(j, (byte) 0);
+                }
+                dirty = true;
+                break;
+            }
+        }
+        log.position(end);
+    }
+
+    private void apply(byte[] body) {
+        ByteBuffer in = ByteBuffer.wrap(body);
+        byte op = in.get();
+        String stanza = readString(in);
+        String key = readString(in);
+        ConcurrentMap<String, String> stanzaCheckpoints = checkpoints.get(stanza);
+        if (op == OP_PUT) {
+            String value = readString(in);
+            if (stanzaCheckpoints == null) {
+                stanzaCheckpoints = new ConcurrentHashMap<String, String>();
+                checkpoints.put(stanza, stanzaCheckpoints);
+            }
+            if (stanzaCheckpoints.put(key, value) == null) {
+                liveCheckpoints++;
+            }
+        } else if (op == OP_REMOVE && stanzaCheckpoints != null) {
+            if (stanzaCheckpoints.remove(key) != null) {
+                liveCheckpoints--;
+            }
+        }
+    }
+
+    private void openLog(long generation) throws IOException {
+        File f = generationFile(generation);
+        boolean created = !f.exists() || f.length() < HEADER_SIZE;
+        file = new RandomAccessFile(f, "rw");
+        channel = file.getChannel();
+        long size = INITIAL_MAP_SIZE;
+        while (size < channel.size() + INITIAL_MAP_SIZE / 2 && size < MAX_MAP_SIZE) {
+            size *= 2;
+        }
+        log = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(size, MAX_MAP_SIZE));
+        if (created) {
+            log.putInt(0, MAGIC);
+            log.force();
+        } else if (log.getInt(0) != MAGIC) {
+            file.close();
+            throw new IOException(f + " is not a checkpoint log.");
+        }
+        log.position(HEADER_SIZE);
+        this.generation = generation;
+        dirty = false;
+    }
+
+    private void closeLog() throws IOException {
+        log = null;
+        channel = null;
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    private void releaseProcessLock() throws IOException {
+        try {
+            processLock.release();
+        } finally {
+            lockFile.close();
+        }
+    }
+
+    private File generationFile(long generation) {
+        return new File(directory, name + "." + generation + ".ckpt");
+    }
+
+    private long parseGeneration(String fileName) {
+        String prefix = name + ".";
+        String suffix = ".ckpt";
+        if (!fileName.startsWith(prefix) || !fileName.endsWith(suffix) ||
+                fileName.length() <= prefix.length() + suffix.length()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(prefix.length(), fileName.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] encode(byte op, String stanza, String key, String value) {
+        byte[] stanzaBytes = stanza.getBytes(UTF8);
+        byte[] keyBytes = key.getBytes(UTF8);
+        byte[] valueBytes = value == null ? null : value.getBytes(UTF8);
+        int size = 1 + 4 + stanzaBytes.length + 4 + keyBytes.length;
+        if (valueBytes != null) {
+            size += 4 + valueBytes.length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.put(op);
+        out.putInt(stanzaBytes.length).put(stanzaBytes);
+        out.putInt(keyBytes.length).put(keyBytes);
+        if (valueBytes != null) {
+            out.putInt(valueBytes.length).put(valueBytes);
+        }
+        return out.array();
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        String s = new String(in.array(), in.position(), length, UTF8);
+        in.position(in.position() + length);
+        return s;
+    }
+}
@@ -56,7 +56,7 @@ public class EventWriter {
      * @param stream an OutputStream to wrap.
      * @return a Writer object wrapping the stream.
      */
-    private static Writer wrapWriter(OutputStream stream) {
+    static Writer wrapWriter(OutputStream stream) {
         try {
             return new OutputStreamWriter(stream, "UTF-8");
         } catch (UnsupportedEncodingException e) {
@@ -74,6 +74,16 @@ public class EventWriter {
         this.errorStreamWriter = errorWriter;
     }
 
+    /**
+     * Creates an {@code EventWriter} sharing the streams of {@code other}. Only for subclasses that route their
+     * writes through another {@code EventWriter}.
+     */
+    EventWriter(EventWriter other) {
+        this.rawOutputStreamWriter = other.rawOutputStreamWriter;
+        this.outputStreamWriter = other.outputStreamWriter;
+        this.errorStreamWriter = other.errorStreamWriter;
+    }
+
     /**
      * Clears the error state on this {@code EventWriter}.
      *
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk.modularinput;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code ParallelScript} class is an abstract base class for modular inputs that handle each input stanza
+ * independently. Instead of {@code streamEvents(InputDefinition, EventWriter)}, subclasses override
+ * {@code streamStanzaEvents}, which is called once per stanza on a pool of at most {@code getMaxParallelism()}
+ * threads.
+ *
+ * An exception thrown for one stanza is logged to Splunk and recorded in that stanza's {@code StanzaMetrics};
+ * the other stanzas keep running. If the {@code EventWriter} reports an error (typically because splunkd has
+ * closed stdout), or {@code requestShutdown} is called, {@code isShuttingDown} starts returning {@code true} and
+ * the stanza threads are interrupted. Long-running stanzas should poll {@code isShuttingDown}.
+ *
+ * When run from the command line, a {@code ParallelScript} writes through a {@code BatchingEventWriter}, so stanzas
+ * do not contend on a lock to write events.
+ */
+public abstract class ParallelScript extends Script {
+    // How often the thread waiting for the stanzas checks the EventWriter for errors.
+    private static final long SHUTDOWN_POLL_MILLIS = 200;
+
+    private int maxParallelism = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private volatile boolean shuttingDown = false;
+    private volatile Map<String, StanzaMetrics> stanzaMetrics = Collections.emptyMap();
+
+    /**
+     * Returns the largest number of stanzas run at the same time.
+     *
+     * @return The maximum number of stanza threads.
+     */
+    public int getMaxParallelism() {
+        return maxParallelism;
+    }
+
+    /**
+     * Sets the largest number of stanzas run at the same time. The default is the number of processors, but at
+     * least 4.
+     *
+     * @param maxParallelism The maximum number of stanza threads.
+     */
+    public void setMaxParallelism(int maxParallelism) {
+        if (maxParallelism < 1) {
+            throw new IllegalArgumentException("maxParallelism must be at least 1.");
+        }
+        this.maxParallelism = maxParallelism;
+    }
+
+    /**
+     * Returns whether the stanzas should stop, because the {@code EventWriter} reported an error or
+     * {@code requestShutdown} was called.
+     *
+     * @return {@code true} if stanzas should stop streaming events.
+     */
+    public boolean isShuttingDown() {
+        return shuttingDown;
+    }
+
+    /**
+     * Asks every running stanza to stop. {@code isShuttingDown} returns {@code true} afterwards, and the stanza
+     * threads are interrupted.
+     */
+    public void requestShutdown() {
+        shuttingDown = true;
+    }
+
+    /**
+     * Returns the metrics of each stanza of the current (or most recent) run, keyed by stanza name.
+     *
+     * @return An unmodifiable map from stanza name to {@code StanzaMetrics}.
+     */
+    public Map<String, StanzaMetrics> getStanzaMetrics() {
+        return stanzaMetrics;
+    }
+
+    @Override
+    protected EventWriter createEventWriter() throws XMLStreamException {
+        return new BatchingEventWriter();
+    }
+
+    /**
+     * Streams events for a single input stanza. Called once per stanza, on a thread of its own.
+     *
+     * The {@code EventWriter} passed in is thread safe, and sets the stanza of any {@code Event} that has none to
+     * {@code stanzaName}.
+     *
+     * @param stanzaName The name of the stanza (e.g., foobar://this-input-name).
+     * @param parameters The parameters of this stanza, keyed by name.
+     * @param inputs The whole input definition, for access to fields such as the checkpoint directory.
+     * @param ew An object with methods to write events and log messages to Splunk.
+     */
+    public abstract void streamStanzaEvents(String stanzaName, Map<String, Parameter> parameters,
+                                            InputDefinition inputs, EventWriter ew) throws Exception;
+
+    /**
+     * Runs {@code streamStanzaEvents} for every stanza in {@code inputs} and returns when all of them have finished.
+     */
+    @Override
+    public final void streamEvents(final InputDefinition inputs, final EventWriter ew)
+            throws MalformedDataException, XMLStreamException, IOException {
+        Map<String, Map<String, Parameter>> stanzas = inputs.getInputs();
+        Map<String, StanzaMetrics> metrics = new LinkedHashMap<String, StanzaMetrics>();
+        for (String name : stanzas.keySet()) {
+            metrics.put(name, new StanzaMetrics(name));
+        }
+        this.stanzaMetrics = Collections.unmodifiableMap(metrics);
+        if (stanzas.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(maxParallelism, stanzas.size()), new StanzaThreadFactory());
+        for (Map.Entry<String, Map<String, Parameter>> entry : stanzas.entrySet()) {
+            final String name = entry.getKey();
+            final Map<String, Parameter> parameters = entry.getValue();
+            final StanzaMetrics stanzaMetrics = metrics.get(name);
+            executor.execute(new Runnable() {
+                public void run() {
+                    runStanza(name, parameters, inputs, ew, stanzaMetrics);
+                }
+            });
+        }
+        executor.shutdown();
+
+        try {
+            while (!executor.awaitTermination(SHUTDOWN_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (!shuttingDown && ew.checkError()) {
+                    shuttingDown = true;
+                }
+                if (shuttingDown) {
+                    executor.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            shuttingDown = true;
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runStanza(String name, Map<String, Parameter> parameters, InputDefinition inputs, EventWriter ew,
+                           StanzaMetrics metrics) {
+        if (shuttingDown) {
+            return;
+        }
+        metrics.started();
+        try {
+            streamStanzaEvents(name, parameters, inputs, new StanzaEventWriter(ew, metrics));
+        } catch (Exception e) {
+            metrics.recordError(e);
+            ew.synchronizedLog(EventWriter.ERROR, "Input " + name + " failed: " + e.toString() + " " +
+                    stackTraceToLogEntry(e));
+        } finally {
+            metrics.finished();
+            ew.synchronizedLog(EventWriter.DEBUG, metrics.toString());
+        }
+    }
+
+    private static class StanzaThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "splunk-stanza-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
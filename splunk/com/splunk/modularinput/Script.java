@@ -40,7 +40,7 @@ public abstract class Script {
     public int run(String[] args) {
         EventWriter eventWriter;
         try {
-            eventWriter = new EventWriter();
+            eventWriter = createEventWriter();
             return run(args, eventWriter, System.in);
         } catch (XMLStreamException e) {
             System.err.print(stackTraceToLogEntry(e));
@@ -63,8 +63,12 @@ public abstract class Script {
                 // This script is running as an input. Input definitions will be passed on stdin as XML, and
                 // the script will write events on stdout and log entries on stderr.
                 InputDefinition inputDefinition = InputDefinition.parseDefinition(in);
-                streamEvents(inputDefinition, eventWriter);
-                eventWriter.close();
+                try {
+                    streamEvents(inputDefinition, eventWriter);
+                } finally {
+                    // Write out what was queued before streamEvents failed, if it did.
+                    eventWriter.close();
+                }
                 return 0;
             } else if (args[0].toLowerCase().equals("--scheme")) {
                 // Splunk has requested XML specifying the scheme for this modular input. Return it and exit.
@@ -120,6 +124,16 @@ public abstract class Script {
         }
     }
 
+    /**
+     * Creates the {@code EventWriter} used by {@code run(String[])} to write to stdout and stderr. Override this
+     * to use a different kind of {@code EventWriter}, such as a {@code BatchingEventWriter}.
+     *
+     * @return An {@code EventWriter} writing to stdout and stderr.
+     */
+    protected EventWriter createEventWriter() throws XMLStreamException {
+        return new EventWriter();
+    }
+
     protected String stackTraceToLogEntry(Exception e) {
         // Concatenate all the lines of the exception's stack trace with \\ between them.
         StringBuilder sb = new StringBuilder();
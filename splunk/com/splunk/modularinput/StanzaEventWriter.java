@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk.modularinput;
+
+/**
+ * The {@code StanzaEventWriter} class is the {@code EventWriter} handed to each stanza of a {@code ParallelScript}.
+ * It routes everything through the thread safe methods of the script's shared {@code EventWriter}, fills in the
+ * stanza of events that do not name one, and counts events and errors in the stanza's {@code StanzaMetrics}.
+ */
+class StanzaEventWriter extends EventWriter {
+    private final EventWriter target;
+    private final StanzaMetrics metrics;
+
+    StanzaEventWriter(EventWriter target, StanzaMetrics metrics) {
+        super(target);
+        this.target = target;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void writeEvent(Event event) throws MalformedDataException {
+        if (event.getStanza() == null) {
+            event.setStanza(metrics.getStanza());
+        }
+        try {
+            target.synchronizedWriteEvent(event);
+        } catch (MalformedDataException e) {
+            metrics.recordError(e);
+            throw e;
+        }
+        metrics.recordEvent();
+    }
+
+    @Override
+    public void synchronizedWriteEvent(Event event) throws MalformedDataException {
+        writeEvent(event);
+    }
+
+    @Override
+    public void log(String severity, String errorMessage) {
+        target.synchronizedLog(severity, errorMessage);
+    }
+
+    @Override
+    public void synchronizedLog(String severity, String errorMessage) {
+        target.synchronizedLog(severity, errorMessage);
+    }
+
+    @Override
+    public boolean checkError() {
+        return target.checkError();
+    }
+
+    /**
+     * Does nothing. The shared {@code EventWriter} is closed once every stanza has finished.
+     */
+    @Override
+    public void close() {
+    }
+}
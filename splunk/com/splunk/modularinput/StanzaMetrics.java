@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk.modularinput;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code StanzaMetrics} class counts the events written and errors raised by one input stanza run by a
+ * {@code ParallelScript}.
+ */
+public class StanzaMetrics {
+    private final String stanza;
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private volatile long startNanos = 0;
+    private volatile long endNanos = 0;
+    private volatile Exception lastError = null;
+
+    StanzaMetrics(String stanza) {
+        this.stanza = stanza;
+    }
+
+    void started() {
+        startNanos = System.nanoTime();
+    }
+
+    void finished() {
+        endNanos = System.nanoTime();
+    }
+
+    void recordEvent() {
+        events.incrementAndGet();
+    }
+
+    void recordError(Exception e) {
+        errors.incrementAndGet();
+        lastError = e;
+    }
+
+    /**
+     * @return The name of the stanza these metrics belong to.
+     */
+    public String getStanza() {
+        return stanza;
+    }
+
+    /**
+     * @return The number of events this stanza has written.
+     */
+    public long getEventCount() {
+        return events.get();
+    }
+
+    /**
+     * Returns the number of errors raised by this stanza, counting both events that could not be written and an
+     * exception ending the stanza.
+     *
+     * @return The number of errors.
+     */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * @return The most recent error raised by this stanza, or {@code null} if there was none.
+     */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    /**
+     * @return Whether this stanza has started and not yet finished.
+     */
+    public boolean isRunning() {
+        return startNanos != 0 && endNanos == 0;
+    }
+
+    /**
+     * Returns how long this stanza has run, or ran for if it has finished.
+     *
+     * @return The elapsed time in milliseconds, or 0 if the stanza has not started.
+     */
+    public long getElapsedMillis() {
+        long start = startNanos;
+        if (start == 0) {
+            return 0;
+        }
+        long end = endNanos;
+        return TimeUnit.NANOSECONDS.toMillis((end == 0 ? System.nanoTime() : end) - start);
+    }
+
+    /**
+     * @return The average number of events per second this stanza has written while running.
+     */
+    public double getEventsPerSecond() {
+        long start = startNanos;
+        if (start == 0) {
+            return 0;
+        }
+        long end = endNanos;
+        long elapsed = (end == 0 ? System.nanoTime() : end) - start;
+        return elapsed <= 0 ? 0 : events.get() * 1e9 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("stanza=%s events=%d errors=%d elapsed_ms=%d events_per_sec=%.1f",
+                stanza, getEventCount(), getErrorCount(), getElapsedMillis(), getEventsPerSecond());
+    }
+}
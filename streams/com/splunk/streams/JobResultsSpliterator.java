@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk.streams;
+
+import com.splunk.Event;
+import com.splunk.JobResultsRange;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * The {@code JobResultsSpliterator} class is a {@code Spliterator} over the
+ * events of a {@link JobResultsRange}. It splits on whole pages with
+ * {@link JobResultsRange#trySplit}, so each part of a parallel stream reads
+ * its own pages over its own connection.
+ * <p>
+ * The spliterator is {@code SIZED}, {@code SUBSIZED}, and {@code ORDERED}:
+ * its size is the result count of the job, and splitting keeps the events
+ * in order. It can only be split before its first event is read.
+ */
+public class JobResultsSpliterator implements Spliterator<Event> {
+    private final JobResultsRange range;
+    private Iterator<Event> iterator;
+    private long consumed;
+
+    /**
+     * Creates a spliterator over a range of job results.
+     *
+     * @param range The range, which the spliterator takes over.
+     */
+    public JobResultsSpliterator(JobResultsRange range) {
+        this.range = range;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Event> action) {
+        if (iterator == null)
+            iterator = range.iterator();
+        if (!iterator.hasNext())
+            return false;
+        consumed++;
+        action.accept(iterator.next());
+        return true;
+    }
+
+    @Override
+    public Spliterator<Event> trySplit() {
+        if (iterator != null)
+            return null;
+        JobResultsRange prefix = range.trySplit();
+        return prefix == null ? null : new JobResultsSpliterator(prefix);
+    }
+
+    @Override
+    public long estimateSize() {
+        return Math.max(0, range.size() - consumed);
+    }
+
+    @Override
+    public int characteristics() {
+        return SIZED | SUBSIZED | ORDERED | NONNULL;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk.streams;
+
+import com.splunk.Event;
+import com.splunk.Job;
+import com.splunk.JobResultsRange;
+
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The {@code JobResultsStreams} class reads the results of finished search
+ * jobs as Java 8 streams. A parallel stream splits the results into pages
+ * that are read at the same time on the common fork-join pool:
+ * <pre>
+ * long errors = JobResultsStreams.resultsStream(job, true)
+ *         .filter(event -&gt; "error".equals(event.get("level")))
+ *         .count();
+ * </pre>
+ * Each page's connection is closed once all of its events are read. A
+ * stream that stops early, such as with {@code findFirst}, leaves the
+ * connection of the page it stopped in open until it is garbage-collected.
+ */
+public class JobResultsStreams {
+    private JobResultsStreams() {
+    }
+
+    /**
+     * Returns a stream of all the results of a job, read in pages of
+     * {@link JobResultsRange#DEFAULT_PAGE_SIZE} results.
+     *
+     * @param job The job, which must be done.
+     * @param parallel Whether to read the pages in parallel.
+     * @return The stream of events, in order.
+     */
+    public static Stream<Event> resultsStream(Job job, boolean parallel) {
+        return resultsStream(job.getResultsRange(), parallel);
+    }
+
+    /**
+     * Returns a stream of the results in a range.
+     *
+     * @param range The range, which the stream takes over.
+     * @param parallel Whether to read the pages in parallel.
+     * @return The stream of events, in order.
+     */
+    public static Stream<Event> resultsStream(JobResultsRange range, boolean parallel) {
+        return StreamSupport.stream(new JobResultsSpliterator(range), parallel);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+/**
+ * Tests managed local acceleration jobs against the stub splunkd, which
+ * serves a canned data model, so no Splunk instance is needed.
+ */
+public class AccelerationManagerTest {
+    private StubSplunkd splunkd;
+    private Service stubService;
+    private AccelerationManager manager;
+    private DataModelObject dataModelObject;
+
+    @Before
+    public void setUp() throws IOException {
+        splunkd = new StubSplunkd();
+        String rawJson = SDKTestCase.streamToString(
+                SDKTestCase.openResource("data/datamodels/data_model_for_pivot.json"));
+        splunkd.setResponse("GET", PivotCacheTest.MODEL_PATH, 200, "text/xml",
+                PivotCacheTest.modelFeed(rawJson).getBytes("UTF-8"));
+        splunkd.start();
+
+        stubService = Service.connect(splunkd.getServiceArgs());
+        // Look at jobs on every call, so the tests need not wait.
+        manager = new AccelerationManager(null, AccelerationManager.DEFAULT_RENEW_BELOW, 0);
+        stubService.setAccelerationManager(manager);
+        dataModelObject = new DataModel(stubService, PivotCacheTest.MODEL_PATH).getObject("test_data");
+        Assert.assertNotNull(dataModelObject);
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+        splunkd.stop();
+    }
+
+    @Test
+    public void testNamespaceOnceDone() {
+        splunkd.setJobPollsUntilDone(2);
+        Assert.assertNull(manager.getAccelerationNamespace(dataModelObject));
+
+        Job job = manager.accelerate(dataModelObject);
+        Assert.assertSame(job, manager.accelerate(dataModelObject));
+        Assert.assertSame(job, manager.getJob(dataModelObject));
+        Assert.assertEquals("| datamodel pivot_model test_data search | tscollect", job.getString("search"));
+
+        String namespace = null;
+        for (int i = 0; i < 5 && namespace == null; i++) {
+            namespace = manager.getAccelerationNamespace(dataModelObject);
+        }
+        Assert.assertEquals("sid=" + job.getSid(), namespace);
+    }
+
+    @Test
+    public void testChecksAreRateLimited() {
+        splunkd.setJobPollsUntilDone(100);
+        AccelerationManager limited = new AccelerationManager();
+        stubService.setAccelerationManager(limited);
+        try {
+            limited.accelerate(dataModelObject);
+            Assert.assertNull(limited.getAccelerationNamespace(dataModelObject));
+            long requests = splunkd.getRequestCount();
+            for (int i = 0; i < 10; i++) {
+                Assert.assertNull(limited.getAccelerationNamespace(dataModelObject));
+            }
+            Assert.assertEquals(requests, splunkd.getRequestCount());
+
+            // Renewals look at the job regardless.
+            limited.renew();
+            Assert.assertTrue(splunkd.getRequestCount() > requests);
+        } finally {
+            limited.close();
+        }
+    }
+
+    @Test
+    public void testPivotIsRouted() throws IOException {
+        PivotCache cache = new PivotCache(16, 60000);
+        stubService.setPivotCache(cache);
+        splunkd.setResponse("GET", "datamodel/pivot/pivot_model", 200, "text/xml", pivotFeed());
+
+        dataModelObject.createPivotSpecification().pivot();
+        Job job = manager.accelerate(dataModelObject);
+        dataModelObject.createPivotSpecification().pivot();
+        // A namespace chosen by the caller is not routed.
+        dataModelObject.createPivotSpecification().setAccelerationNamespace(null).pivot();
+
+        // The routed pivot was translated with the job's namespace, so it has
+        // an entry of its own.
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals("sid=" + job.getSid(), manager.getAccelerationNamespace(dataModelObject));
+    }
+
+    @Test
+    public void testRenewTouchesExpiringJobs() {
+        splunkd.setJobTtl(100);
+        Job job = manager.accelerate(dataModelObject);
+        manager.renew();
+        Assert.assertEquals(StubSplunkd.DEFAULT_JOB_TTL, job.refresh().getTtl());
+    }
+
+    @Test
+    public void testRenewRestartsLostJobs() {
+        Job job = manager.accelerate(dataModelObject);
+        String sid = job.getSid();
+        job.cancel();
+
+        manager.renew();
+        Job restarted = manager.getJob(dataModelObject);
+        Assert.assertNotNull(restarted);
+        Assert.assertFalse(sid.equals(restarted.getSid()));
+    }
+
+    @Test
+    public void testRelease() {
+        String sid = manager.accelerate(dataModelObject).getSid();
+        manager.release(dataModelObject);
+        Assert.assertNull(manager.getJob(dataModelObject));
+        Assert.assertNull(manager.getAccelerationNamespace(dataModelObject));
+        Assert.assertNull(stubService.getJobs().get(sid));
+    }
+
+    @Test
+    public void testConcurrentAcceleratesStartOneJob() throws Exception {
+        splunkd.setLatency(50, 50);
+        final Job[] jobs = new Job[8];
+        Thread[] threads = new Thread[jobs.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int slot = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    jobs[slot] = manager.accelerate(dataModelObject);
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Job job : jobs) {
+            Assert.assertSame(jobs[0], job);
+        }
+        Assert.assertNotNull(jobs[0]);
+    }
+
+    @Test
+    public void testStartDoesNotHoldTheLock() throws Exception {
+        splunkd.setLatency(500, 500);
+        Thread starter = new Thread() {
+            public void run() {
+                manager.accelerate(dataModelObject);
+            }
+        };
+        starter.start();
+        Thread.sleep(100);
+        // The job is being created; reading the state does not wait for it.
+        long start = System.currentTimeMillis();
+        Assert.assertNull(manager.getJob(dataModelObject));
+        Assert.assertNull(manager.getAccelerationNamespace(dataModelObject));
+        Assert.assertTrue(System.currentTimeMillis() - start < 400);
+
+        // Releasing the object meanwhile cancels the job once it is created.
+        manager.release(dataModelObject);
+        starter.join();
+        Assert.assertNull(manager.getJob(dataModelObject));
+        splunkd.setLatency(0, 0);
+        Assert.assertEquals(0, stubService.getJobs().size());
+    }
+
+    private static byte[] pivotFeed() throws IOException {
+        return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:s=\"http://dev.splunk.com/ns/rest\">\n"
+                + "  <entry>\n"
+                + "    <title>pivot_model</title>\n"
+                + "    <content type=\"text/xml\">\n"
+                + "      <s:dict>\n"
+                + "        <s:key name=\"drilldown_search\">| datamodel</s:key>\n"
+                + "        <s:key name=\"open_in_search\">| pivot</s:key>\n"
+                + "        <s:key name=\"pivot_search\">| pivot</s:key>\n"
+                + "        <s:key name=\"search\">search</s:key>\n"
+                + "        <s:key name=\"tstats_search\">| tstats</s:key>\n"
+                + "      </s:dict>\n"
+                + "    </content>\n"
+                + "  </entry>\n"
+                + "</feed>\n").getBytes("UTF-8");
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests routing, job pinning, and failover across two stub splunkds and a
+ * port that nothing listens on, so no Splunk instance is needed.
+ */
+public class ClusteredServiceTest {
+    private StubSplunkd first;
+    private StubSplunkd second;
+
+    @Before
+    public void setUp() throws IOException {
+        first = new StubSplunkd();
+        first.start();
+        second = new StubSplunkd();
+        second.start();
+    }
+
+    @After
+    public void tearDown() {
+        first.stop();
+        second.stop();
+    }
+
+    @Test
+    public void testSearchesAreSpreadAndPinned() throws IOException {
+        ClusteredService cluster = ClusteredService.connect(
+                Arrays.asList(first.getServiceArgs(), second.getServiceArgs()));
+
+        Job a = cluster.search("search a");
+        Job b = cluster.search("search b");
+        Assert.assertNotSame(a.getService(), b.getService());
+
+        // Follow-up calls go to the member that created the job.
+        Job job = a.getService() == cluster.getMembers().get(0).getService() ? a : b;
+        long requestsOnSecond = second.getRequestCount();
+        job.refresh();
+        job.getResults().close();
+        Assert.assertEquals(requestsOnSecond, second.getRequestCount());
+
+        Assert.assertSame(job.getService(), cluster.getJob(job.getSid()).getService());
+    }
+
+    @Test
+    public void testGetJobFindsOwner() {
+        Service direct = Service.connect(second.getServiceArgs());
+        String sid = direct.search("search *").getSid();
+
+        ClusteredService cluster = ClusteredService.connect(
+                Arrays.asList(first.getServiceArgs(), second.getServiceArgs()));
+        Job job = cluster.getJob(sid);
+        Assert.assertSame(cluster.getMembers().get(1).getService(), job.getService());
+        Assert.assertNull(cluster.getJob("no-such-sid"));
+    }
+
+    @Test
+    public void testFailover() throws IOException {
+        List<ServiceArgs> members = new ArrayList<ServiceArgs>();
+        members.add(deadMember());
+        members.add(first.getServiceArgs());
+        ClusteredService cluster = ClusteredService.connect(members);
+
+        ClusteredService.Member dead = cluster.getMembers().get(0);
+        Assert.assertFalse(dead.isHealthy());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertSame(cluster.getMembers().get(1).getService(), cluster.search("search *").getService());
+        }
+
+        // A member that was healthy when the search was routed to it fails
+        // over as well.
+        cluster = new ClusteredService(members);
+        cluster.getMembers().get(1).getService().login();
+        for (int i = 0; i < 4; i++) {
+            Assert.assertSame(cluster.getMembers().get(1).getService(), cluster.search("search *").getService());
+        }
+        Assert.assertFalse(cluster.getMembers().get(0).isHealthy());
+    }
+
+    @Test
+    public void testHealthChecks() throws IOException {
+        ServiceArgs deadArgs = deadMember();
+        ClusteredService cluster = ClusteredService.connect(
+                Arrays.asList(deadArgs, first.getServiceArgs(), second.getServiceArgs()));
+        long requests = first.getRequestCount();
+        cluster.checkHealth();
+        Assert.assertEquals(requests + 1, first.getRequestCount());
+        Assert.assertFalse(cluster.getMembers().get(0).isHealthy());
+        Assert.assertTrue(cluster.getMembers().get(1).isHealthy());
+        Assert.assertTrue(cluster.getMembers().get(2).isHealthy());
+        // The first probe of each member is not counted.
+        Assert.assertTrue(cluster.getMembers().get(1).getLatencyMillis() < 0);
+        cluster.checkHealth();
+        Assert.assertTrue(cluster.getMembers().get(1).getLatencyMillis() >= 0);
+        Assert.assertTrue(cluster.getMembers().get(0).getLatencyMillis() < 0);
+
+        // Only the probes count toward the latency.
+        double latency = cluster.getMembers().get(1).getLatencyMillis();
+        for (int i = 0; i < 4; i++) {
+            cluster.search("search *").getResults().close();
+        }
+        Assert.assertEquals(latency, cluster.getMembers().get(1).getLatencyMillis(), 0);
+
+        // A member that goes away after logging in is found by the probe.
+        second.stop();
+        cluster.checkHealth();
+        Assert.assertTrue(cluster.getMembers().get(1).isHealthy());
+        Assert.assertFalse(cluster.getMembers().get(2).isHealthy());
+    }
+
+    @Test
+    public void testLowestLatency() {
+        second.setLatency(50, 50);
+        ClusteredService cluster = new ClusteredService(
+                Arrays.asList(first.getServiceArgs(), second.getServiceArgs()),
+                ClusteredService.RoutingPolicy.LOWEST_LATENCY).login();
+        // The first probe of each member is not counted.
+        for (int i = 0; i < 3; i++) {
+            cluster.checkHealth();
+        }
+        Assert.assertTrue(cluster.getMembers().get(1).getLatencyMillis() >= 50);
+
+        Service fast = cluster.getMembers().get(0).getService();
+        for (int i = 0; i < 4; i++) {
+            Assert.assertSame(fast, cluster.select());
+            Assert.assertSame(fast, cluster.search("search *").getService());
+        }
+    }
+
+    @Test
+    public void testConcurrentRouting() throws Exception {
+        // Enough members that the sort of the candidates is a merge sort,
+        // which fails on comparisons that change while it runs.
+        List<ServiceArgs> members = new ArrayList<ServiceArgs>();
+        for (int i = 0; i < 40; i++) {
+            members.add((i % 2 == 0 ? first : second).getServiceArgs());
+        }
+        final ClusteredService cluster = ClusteredService.connect(members);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 25; j++) {
+                            cluster.search("search *");
+                            cluster.select();
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(Collections.<Throwable>emptyList(), failures);
+        for (ClusteredService.Member member : cluster.getMembers()) {
+            Assert.assertEquals(0, member.getOutstandingRequests());
+        }
+    }
+
+    private static ServiceArgs deadMember() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        ServiceArgs args = new ServiceArgs();
+        args.setHost("127.0.0.1");
+        args.setPort(port);
+        args.setScheme("http");
+        args.setUsername("admin");
+        args.setPassword("changeme");
+        return args;
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the Arrow IPC stream written by the columnar result writer, by
+ * decoding it back with a minimal reader of the format.
+ */
+public class ColumnarResultWriterTest {
+    @Test
+    public void testStubResults() throws IOException {
+        StubSplunkd splunkd = new StubSplunkd();
+        splunkd.setResultCount(1000);
+        splunkd.start();
+        try {
+            Service service = Service.connect(splunkd.getServiceArgs());
+            Job job = service.getJobs().create("search *");
+            List<Event> expected = readAll(new ResultsReaderXml(job.getResults(new Args("count", 0))));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ColumnarResultWriter writer = new ColumnarResultWriter(out);
+            writer.setBatchSize(5);
+            Assert.assertEquals(1000, writer.write(new ResultsReaderXml(job.getResults(new Args("count", 0)))));
+            writer.close();
+            Assert.assertEquals(200, writer.getBatchCount());
+
+            ArrowStream stream = new ArrowStream(out.toByteArray());
+            Assert.assertEquals(Arrays.asList("_time", "host", "source", "sourcetype", "_raw"), stream.names);
+            Assert.assertEquals(Arrays.asList(false, true, true, true, false), stream.dictionary);
+            Assert.assertEquals(200, stream.batches);
+            // host cycles through 8 values, which are new in the first two
+            // batches, so a delta follows the first dictionary batch.
+            Assert.assertEquals(8, stream.dictionaries.get(1L).size());
+            Assert.assertEquals(2, stream.dictionaryBatches.get(1L).intValue());
+            Assert.assertEquals(1, stream.dictionaryBatches.get(2L).intValue());
+            assertRows(expected, stream);
+        } finally {
+            splunkd.stop();
+        }
+    }
+
+    @Test
+    public void testMultiValueAndMissingFields() throws IOException {
+        List<Event> expected = readAll(new ResultsReaderXml(SDKTestCase.openResource("resultsMV.xml")));
+        expected.addAll(readAll(new ResultsReaderXml(SDKTestCase.openResource("results.xml"))));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ColumnarResultWriter writer = new ColumnarResultWriter(out);
+        writer.setBatchSize(2);
+        writer.write(new ResultsReaderXml(SDKTestCase.openResource("resultsMV.xml")));
+        writer.write(new ResultsReaderXml(SDKTestCase.openResource("results.xml")));
+        writer.close();
+
+        ArrowStream stream = new ArrowStream(out.toByteArray());
+        int si = stream.names.indexOf("_si");
+        Assert.assertTrue(stream.list.get(si));
+        Assert.assertEquals(Arrays.asList("dfoster-mbp17.local", "_internal"), stream.rows.get(0).get(si));
+        // Fields of the second results are not in the schema.
+        Assert.assertFalse(stream.names.contains("series"));
+        for (int i = 1; i < expected.size(); i++) {
+            Assert.assertNull(stream.rows.get(i).get(si));
+        }
+        Assert.assertEquals(6, stream.rows.size());
+    }
+
+    @Test
+    public void testEmptyResults() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ColumnarResultWriter writer = new ColumnarResultWriter(out);
+        writer.write(new ResultsReaderXml(SDKTestCase.openResource("data/results/5.0.2/results-empty.xml")));
+        writer.close();
+        ArrowStream stream = new ArrowStream(out.toByteArray());
+        Assert.assertEquals(0, stream.batches);
+        Assert.assertEquals(0, stream.rows.size());
+    }
+
+    private static void assertRows(List<Event> expected, ArrowStream stream) {
+        Assert.assertEquals(expected.size(), stream.rows.size());
+        for (int i = 0; i < expected.size(); i++) {
+            for (int c = 0; c < stream.names.size(); c++) {
+                Assert.assertEquals(expected.get(i).get(stream.names.get(c)), stream.rows.get(i).get(c));
+            }
+        }
+    }
+
+    private static List<Event> readAll(ResultsReader reader) throws IOException {
+        List<Event> events = new ArrayList<Event>();
+        for (Event event : reader) {
+            events.add(event);
+        }
+        reader.close();
+        return events;
+    }
+
+    // Decodes a stream of string, dictionary-encoded string and list of
+    // string columns into rows.
+    private static class ArrowStream {
+        final List<String> names = new ArrayList<String>();
+        final List<Boolean> dictionary = new ArrayList<Boolean>();
+        final List<Boolean> list = new ArrayList<Boolean>();
+        final Map<Long, List<String>> dictionaries = new HashMap<Long, List<String>>();
+        final Map<Long, Integer> dictionaryBatches = new HashMap<Long, Integer>();
+        final List<List<Object>> rows = new ArrayList<List<Object>>();
+        int batches = 0;
+
+        private final ByteBuffer buffer;
+        private long[] nodes;
+        private long[] buffers;
+        private int node;
+        private int bufferIndex;
+        private int body;
+
+        ArrowStream(byte[] bytes) {
+            buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            int position = 0;
+            while (true) {
+                Assert.assertEquals(0xFFFFFFFF, buffer.getInt(position));
+                int length = buffer.getInt(position + 4);
+                if (length == 0) {
+                    Assert.assertEquals(bytes.length, position + 8);
+                    break;
+                }
+                Assert.assertEquals(0, length % 8);
+                int root = position + 8;
+                int message = root + buffer.getInt(root);
+                Assert.assertEquals(4, buffer.getShort(field(message, 0)));
+                int header = deref(field(message, 2));
+                long bodyLength = buffer.getLong(field(message, 3));
+                body = root + length;
+                switch (buffer.get(field(message, 1))) {
+                    case 1: readSchema(header); break;
+                    case 2: readDictionary(header); break;
+                    case 3: readBatch(header); break;
+                    default: Assert.fail("Unexpected message");
+                }
+                position = body + (int) bodyLength;
+            }
+        }
+
+        private void readSchema(int schema) {
+            int fields = deref(field(schema, 1));
+            for (int i = 0; i < buffer.getInt(fields); i++) {
+                int f = element(fields, i);
+                names.add(string(field(f, 0)));
+                int children = buffer.getInt(deref(field(f, 5)));
+                dictionary.add(field(f, 4) != 0);
+                list.add(buffer.get(field(f, 2)) == 12);
+                Assert.assertEquals(list.get(i) ? 1 : 0, children);
+            }
+        }
+
+        private void readDictionary(int batch) {
+            long id = buffer.getLong(field(batch, 0));
+            boolean delta = field(batch, 2) != 0 && buffer.get(field(batch, 2)) != 0;
+            Assert.assertEquals(dictionaries.containsKey(id), delta);
+            if (!delta)
+                dictionaries.put(id, new ArrayList<String>());
+            Integer count = dictionaryBatches.get(id);
+            dictionaryBatches.put(id, count == null ? 1 : count + 1);
+            int data = deref(field(batch, 1));
+            start(data);
+            dictionaries.get(id).addAll(strings());
+        }
+
+        private void readBatch(int batch) {
+            batches++;
+            int length = (int) buffer.getLong(field(batch, 0));
+            start(batch);
+            int first = rows.size();
+            for (int r = 0; r < length; r++)
+                rows.add(new ArrayList<Object>());
+            for (int c = 0; c < names.size(); c++) {
+                List<?> values;
+                if (dictionary.get(c)) {
+                    boolean[] valid = validity();
+                    int[] indices = ints((int) nodes[2 * node++]);
+                    List<String> strings = new ArrayList<String>();
+                    for (int i = 0; i < indices.length; i++)
+                        strings.add(valid[i] ? dictionaries.get((long) c).get(indices[i]) : null);
+                    values = strings;
+                } else if (list.get(c)) {
+                    int count = (int) nodes[2 * node++];
+                    boolean[] valid = validity();
+                    int[] offsets = ints(count + 1);
+                    List<String> items = strings();
+                    List<List<String>> lists = new ArrayList<List<String>>();
+                    for (int i = 0; i < count; i++)
+                        lists.add(valid[i] ? items.subList(offsets[i], offsets[i + 1]) : null);
+                    values = lists;
+                } else {
+                    values = strings();
+                }
+                Assert.assertEquals(length, values.size());
+                for (int r = 0; r < length; r++)
+                    rows.get(first + r).add(values.get(r));
+            }
+            Assert.assertEquals(nodes.length / 2, node);
+            Assert.assertEquals(buffers.length / 2, bufferIndex);
+        }
+
+        private void start(int recordBatch) {
+            nodes = structs(deref(field(recordBatch, 1)));
+            buffers = structs(deref(field(recordBatch, 2)));
+            node = 0;
+            bufferIndex = 0;
+        }
+
+        private List<String> strings() {
+            int count = (int) nodes[2 * node++];
+            boolean[] valid = validity();
+            int[] offsets = ints(count + 1);
+            int data = nextBuffer();
+            List<String> strings = new ArrayList<String>();
+            for (int i = 0; i < count; i++) {
+                byte[] utf8 = new byte[offsets[i + 1] - offsets[i]];
+                for (int b = 0; b < utf8.length; b++)
+                    utf8[b] = buffer.get(data + offsets[i] + b);
+                strings.add(valid[i] ? decode(utf8) : null);
+            }
+            return strings;
+        }
+
+        // Reads the validity buffer of the current node.
+        private boolean[] validity() {
+            int count = (int) nodes[2 * node - 2];
+            long nulls = nodes[2 * node - 1];
+            long length = buffers[2 * bufferIndex + 1];
+            int bitmap = nextBuffer();
+            boolean[] valid = new boolean[count];
+            int invalid = 0;
+            for (int i = 0; i < count; i++) {
+                valid[i] = length == 0 || (buffer.get(bitmap + i / 8) & (1 << (i % 8))) != 0;
+                if (!valid[i])
+                    invalid++;
+            }
+            Assert.assertEquals(nulls, invalid);
+            return valid;
+        }
+
+        private int[] ints(int count) {
+            Assert.assertEquals(4L * count, buffers[2 * bufferIndex + 1]);
+            int start = nextBuffer();
+            int[] values = new int[count];
+            for (int i = 0; i < count; i++)
+                values[i] = buffer.getInt(start + 4 * i);
+            return values;
+        }
+
+        private int nextBuffer() {
+            long offset = buffers[2 * bufferIndex++];
+            Assert.assertEquals(0, offset % 8);
+            return body + (int) offset;
+        }
+
+        private long[] structs(int vector) {
+            Assert.assertEquals(0, (vector + 4) % 8);
+            long[] values = new long[2 * buffer.getInt(vector)];
+            for (int i = 0; i < values.length; i++)
+                values[i] = buffer.getLong(vector + 4 + 8 * i);
+            return values;
+        }
+
+        // Returns the position of a field of a table, or 0 if it is absent.
+        private int field(int table, int id) {
+            int vtable = table - buffer.getInt(table);
+            if (4 + 2 * id >= buffer.getShort(vtable))
+                return 0;
+            int offset = buffer.getShort(vtable + 4 + 2 * id);
+            return offset == 0 ? 0 : table + offset;
+        }
+
+        private int deref(int position) {
+            return position + buffer.getInt(position);
+        }
+
+        private int element(int vector, int i) {
+            return deref(vector + 4 + 4 * i);
+        }
+
+        private String string(int position) {
+            int start = deref(position);
+            byte[] utf8 = new byte[buffer.getInt(start)];
+            for (int b = 0; b < utf8.length; b++)
+                utf8[b] = buffer.get(start + 4 + b);
+            return decode(utf8);
+        }
+
+        private static String decode(byte[] utf8) {
+            try {
+                return new String(utf8, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
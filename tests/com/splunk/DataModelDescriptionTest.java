@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the index of data model descriptions against a full parse of the
+ * same JSON, so no Splunk instance is needed.
+ */
+public class DataModelDescriptionTest {
+    private static final String[] MODELS = new String[] {
+        "data_model_for_pivot.json",
+        "data_model_with_test_objects.json",
+        "empty_data_model.json",
+        "inheritance_test_data.json",
+        "model_with_empty_headers.json",
+        "model_with_multiple_types.json",
+        "model_with_unicode_headers.json",
+        "object_with_one_search.json",
+        "object_with_two_searches.json",
+    };
+
+    @Test
+    public void testIndexMatchesFullParse() {
+        for (String model : MODELS) {
+            String json = SDKTestCase.streamToString(
+                    SDKTestCase.openResource("data/datamodels/" + model));
+            JsonObject root = new JsonParser().parse(json).getAsJsonObject();
+            DataModelDescription index = DataModelDescription.of(json);
+
+            Assert.assertEquals(model, getString(root, "modelName"), index.getModelName());
+            Assert.assertEquals(model, getString(root, "displayName"), index.getDisplayName());
+            Assert.assertEquals(model, getString(root, "description"), index.getDescription());
+
+            JsonArray objects = root.has("objects") ? root.getAsJsonArray("objects") : new JsonArray();
+            List<String> names = new ArrayList<String>();
+            for (JsonElement object : objects) {
+                names.add(object.getAsJsonObject().get("objectName").getAsString());
+            }
+            Assert.assertEquals(model, names, index.getObjectNames());
+
+            for (JsonElement object : objects) {
+                DataModelObject expected = DataModelObject.parse(null, object);
+                DataModelObject actual = index.parseObject(null, expected.getName());
+                Assert.assertEquals(expected.getClass(), actual.getClass());
+                Assert.assertEquals(expected.getDisplayName(), actual.getDisplayName());
+                Assert.assertEquals(expected.getParentName(), actual.getParentName());
+                Assert.assertEquals(expected.getFields().size(), actual.getFields().size());
+            }
+        }
+    }
+
+    @Test
+    public void testSharedByContent() {
+        String json = "{\"modelName\":\"m\",\"objects\":[]}";
+        DataModelDescription index = DataModelDescription.of(json);
+        Assert.assertSame(index, DataModelDescription.of(new String(json)));
+        Assert.assertNotSame(index, DataModelDescription.of("{\"modelName\":\"n\",\"objects\":[]}"));
+    }
+
+    @Test
+    public void testClearShared() {
+        String json = "{\"modelName\":\"cleared\",\"objects\":[]}";
+        DataModelDescription index = DataModelDescription.of(json);
+        Service.clearDataModelDescriptions();
+        Assert.assertEquals(0, DataModelDescription.sharedChars());
+        DataModelDescription again = DataModelDescription.of(json);
+        Assert.assertNotSame(index, again);
+        Assert.assertEquals(index.getModelName(), again.getModelName());
+        Assert.assertEquals(json.length(), DataModelDescription.sharedChars());
+    }
+
+    @Test
+    public void testSharedCharsAreBounded() {
+        StringBuilder description = new StringBuilder();
+        while (description.length() <= DataModelDescription.MAX_SHARED_CHARS)
+            description.append("0123456789abcdef");
+        String small = "{\"modelName\":\"small\",\"objects\":[]}";
+        String large = "{\"modelName\":\"large\",\"description\":\"" + description + "\",\"objects\":[]}";
+
+        DataModelDescription.clearShared();
+        DataModelDescription index = DataModelDescription.of(small);
+        // The large description does not fit, so it is not kept.
+        DataModelDescription largeIndex = DataModelDescription.of(large);
+        Assert.assertEquals("large", largeIndex.getModelName());
+        Assert.assertNotSame(largeIndex, DataModelDescription.of(large));
+        Assert.assertSame(index, DataModelDescription.of(small));
+        Assert.assertEquals(small.length(), DataModelDescription.sharedChars());
+    }
+
+    @Test
+    public void testEscapes() {
+        String json = "{ \"description\" : \"a \\\"quoted\\\" \\u00e9 ]}\", \"extra\": {\"x\": [1, \"]\"]},"
+                + " \"objects\": [ {\"fields\": [], \"objectName\": \"o\\/1\"} ] }";
+        DataModelDescription index = DataModelDescription.of(json);
+        Assert.assertEquals("a \"quoted\" \u00e9 ]}", index.getDescription());
+        Assert.assertTrue(index.containsObject("o/1"));
+        Assert.assertNull(index.getModelName());
+        Assert.assertNull(index.parseObject(null, "o"));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testMalformed() {
+        DataModelDescription.of("{\"objects\": [ {\"objectName\": \"o\"");
+    }
+
+    private static String getString(JsonObject root, String key) {
+        return root.has(key) ? root.get(key).getAsString() : null;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tests discovering input kinds and listing inputs against the stub splunkd,
+ * which serves monitor, script, cooked and raw TCP, and UDP inputs, so no
+ * Splunk instance is needed.
+ */
+public class InputDiscoveryTest {
+    // data/inputs and data/inputs/tcp.
+    private static final int DISCOVERY_REQUESTS = 2;
+    private static final int KINDS = 5;
+
+    private StubSplunkd splunkd;
+    private Service service;
+
+    @Before
+    public void setUp() throws IOException {
+        splunkd = new StubSplunkd();
+        splunkd.start();
+        service = Service.connect(splunkd.getServiceArgs());
+    }
+
+    @After
+    public void tearDown() {
+        splunkd.stop();
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        InputCollection sequential = service.getInputs();
+        Set<String> expected = relativePaths(sequential.refresh().getInputKinds());
+        Assert.assertEquals(new TreeSet<String>(Arrays.asList(
+                "monitor", "script", "tcp/cooked", "tcp/raw", "udp")), expected);
+        Assert.assertEquals(KINDS * 10, sequential.size());
+
+        service.setInputDiscoveryThreads(4);
+        InputCollection parallel = service.getInputs();
+        Assert.assertEquals(expected, relativePaths(parallel.refresh().getInputKinds()));
+        Assert.assertEquals(sequential.keySet(), parallel.keySet());
+        Assert.assertTrue(parallel.get("raw-3") instanceof TcpInput);
+        Assert.assertTrue(parallel.get("udp-7") instanceof UdpInput);
+    }
+
+    @Test
+    public void testInputKindsAreCached() {
+        service.setInputKindsTtl(60000);
+        long requests = splunkd.getRequestCount();
+        service.getInputs().refresh();
+        Assert.assertEquals(DISCOVERY_REQUESTS + KINDS, splunkd.getRequestCount() - requests);
+
+        requests = splunkd.getRequestCount();
+        InputCollection inputs = service.getInputs().refresh();
+        Assert.assertEquals(KINDS, splunkd.getRequestCount() - requests);
+        Assert.assertEquals(KINDS, inputs.getInputKinds().size());
+
+        service.invalidateInputKinds();
+        requests = splunkd.getRequestCount();
+        service.getInputs().refresh();
+        Assert.assertEquals(DISCOVERY_REQUESTS + KINDS, splunkd.getRequestCount() - requests);
+    }
+
+    @Test
+    public void testRefreshSelectedKinds() {
+        InputCollection inputs = service.getInputs();
+        inputs.refresh();
+        service.post("data/inputs/udp", new Args("name", "udp-new"));
+        service.post("data/inputs/monitor", new Args("name", "monitor-new"));
+
+        long requests = splunkd.getRequestCount();
+        inputs.refresh(InputKind.Udp);
+        Assert.assertEquals(1, splunkd.getRequestCount() - requests);
+        Assert.assertTrue(inputs.containsKey("udp-new"));
+        Assert.assertTrue(inputs.containsKey("udp-0"));
+        Assert.assertFalse(inputs.containsKey("monitor-new"));
+        Assert.assertEquals(KINDS * 10 + 1, inputs.size());
+    }
+
+    private static Set<String> relativePaths(Set<InputKind> kinds) {
+        Set<String> relpaths = new TreeSet<String>();
+        for (InputKind kind : kinds) {
+            relpaths.add(kind.getRelativePath());
+        }
+        return relpaths;
+    }
+}
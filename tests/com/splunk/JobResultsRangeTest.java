@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests paging and splitting job results against the stub splunkd, so no
+ * Splunk instance is needed.
+ */
+public class JobResultsRangeTest {
+    private StubSplunkd splunkd;
+    private Service service;
+    private Job job;
+
+    @Before
+    public void setUp() throws IOException {
+        splunkd = new StubSplunkd();
+        splunkd.setResultCount(2345);
+        splunkd.start();
+        service = Service.connect(splunkd.getServiceArgs());
+        job = service.getJobs().create("search *");
+        job.refresh();
+    }
+
+    @After
+    public void tearDown() {
+        splunkd.stop();
+    }
+
+    @Test
+    public void testIteratesInPages() throws IOException {
+        List<Event> expected = new ArrayList<Event>();
+        for (Event event : new ResultsReaderJson(job.getResults(
+                new Args("count", 0).add("output_mode", "json")))) {
+            expected.add(event);
+        }
+
+        long requests = splunkd.getRequestCount();
+        JobResultsRange range = job.getResultsRange(500, null);
+        Assert.assertEquals(2345, range.size());
+        List<Event> actual = new ArrayList<Event>();
+        for (Event event : range) {
+            actual.add(event);
+        }
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(5, splunkd.getRequestCount() - requests);
+    }
+
+    @Test
+    public void testSplit() {
+        JobResultsRange range = job.getResultsRange(100, null);
+        JobResultsRange prefix = range.trySplit();
+        Assert.assertEquals(0, prefix.getOffset());
+        Assert.assertEquals(1200, prefix.getEnd());
+        Assert.assertEquals(1200, range.getOffset());
+        Assert.assertEquals(2345, range.getEnd());
+        Assert.assertEquals(2345, prefix.size() + range.size());
+        Assert.assertNull(new JobResultsRange(job, 0, 100, 100, null).trySplit());
+
+        List<JobResultsRange> parts = job.getResultsRange(100, null).split(4);
+        Assert.assertEquals(4, parts.size());
+        long next = 0;
+        for (JobResultsRange part : parts) {
+            Assert.assertEquals(next, part.getOffset());
+            Assert.assertEquals(0, part.getOffset() % 100);
+            next = part.getEnd();
+        }
+        Assert.assertEquals(2345, next);
+        Assert.assertEquals(1, new JobResultsRange(job, 0, 50, 100, null).split(8).size());
+    }
+
+    @Test
+    public void testForEachInParallel() throws Exception {
+        final Set<String> raw = Collections.synchronizedSet(new HashSet<String>());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            job.getResultsRange(200, null).forEach(executor, 4, new JobResultsRange.EventHandler() {
+                public void handle(Event event) {
+                    Assert.assertTrue(raw.add(event.get("_raw")));
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(2345, raw.size());
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the job summary and timeline parsers against the test data files
+ * and the stub splunkd, so no Splunk instance is needed.
+ */
+public class JobSummaryTest {
+    @Test
+    public void testSummary() {
+        JobSummary summary = new JobSummary().read(SDKTestCase.openResource("summary.xml"));
+        Assert.assertFalse(summary.isBusy());
+        Assert.assertEquals(500, summary.getEventCount());
+        Assert.assertEquals(0.085, summary.getDuration(), 1e-9);
+        Assert.assertEquals("2013-01-31T10:00:00.000-08:00", summary.getEarliestTime());
+        Assert.assertEquals(3, summary.getFields().size());
+
+        JobSummary.Field bytes = summary.getField("bytes");
+        Assert.assertEquals(500, bytes.getCount());
+        Assert.assertEquals(500, bytes.getNumericCount());
+        Assert.assertEquals(372, bytes.getDistinctCount());
+        Assert.assertFalse(bytes.isExact());
+        Assert.assertTrue(bytes.hasNumericStats());
+        Assert.assertEquals(1009, bytes.getMin(), 0);
+        Assert.assertEquals(3998, bytes.getMax(), 0);
+        Assert.assertEquals(2473.576, bytes.getMean(), 1e-9);
+        Assert.assertEquals(873.040546, bytes.getStdev(), 1e-9);
+        Assert.assertEquals(3, bytes.getTopValueCount());
+        Assert.assertEquals("2017", bytes.getTopValue(0));
+        Assert.assertEquals(4, bytes.getTopValueEventCount(0));
+
+        JobSummary.Field host = summary.getField("host");
+        Assert.assertFalse(host.hasNumericStats());
+        Assert.assertTrue(Double.isNaN(host.getMin()));
+        Assert.assertTrue(host.isExact());
+        Assert.assertEquals("db & cache", host.getTopValue(2));
+        Assert.assertEquals(50, host.getTopValueEventCount(2));
+    }
+
+    @Test
+    public void testSummaryIsReused() throws IOException {
+        JobSummary summary = new JobSummary().read(SDKTestCase.openResource("summary.xml"));
+        JobSummary.Field host = summary.getField("host");
+
+        // A later summary without the status field, and with fewer hosts.
+        String xml = read(SDKTestCase.openResource("summary.xml"))
+                .replaceAll("(?s)<field k=\"status\".*?</field>\n", "")
+                .replaceAll("(?s)\t\t<value c=\"50\".*?</value>\n", "")
+                .replace("busy=\"0\"", "busy=\"1\"");
+        Assert.assertSame(summary, summary.read(new ByteArrayInputStream(xml.getBytes("UTF-8"))));
+        Assert.assertTrue(summary.isBusy());
+        Assert.assertSame(host, summary.getField("host"));
+        Assert.assertEquals(2, host.getTopValueCount());
+        Assert.assertNull(summary.getField("status"));
+        Assert.assertEquals(2, summary.getFields().size());
+    }
+
+    @Test
+    public void testFieldOrderFollowsServer() throws IOException {
+        JobSummary summary = new JobSummary().read(SDKTestCase.openResource("summary.xml"));
+        JobSummary.Field status = summary.getField("status");
+
+        // A later summary that lists status first.
+        String xml = read(SDKTestCase.openResource("summary.xml"));
+        String statusField = xml.substring(xml.indexOf("<field k=\"status\""), xml.indexOf("</summary>"));
+        xml = xml.replace(statusField, "").replace("<field k=\"bytes\"", statusField + "<field k=\"bytes\"");
+        summary.read(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+
+        List<String> names = new ArrayList<String>();
+        for (JobSummary.Field field : summary.getFields()) {
+            names.add(field.getName());
+        }
+        Assert.assertEquals(Arrays.asList("status", "bytes", "host"), names);
+        Assert.assertSame(status, summary.getField("status"));
+    }
+
+    @Test
+    public void testTimeline() {
+        JobTimeline timeline = new JobTimeline().read(SDKTestCase.openResource("timeline.xml"));
+        Assert.assertEquals(5, timeline.getBucketCount());
+        Assert.assertEquals(500, timeline.getEventCount());
+        Assert.assertEquals(1359655200000L, timeline.getCursorTime());
+        Assert.assertEquals(1359655260000L, timeline.getEarliestTimes()[1]);
+        Assert.assertEquals(1359655440500L, timeline.getEarliestTimes()[4]);
+        Assert.assertEquals(60000, timeline.getDurations()[0]);
+        Assert.assertEquals(59500, timeline.getDurations()[4]);
+        Assert.assertEquals(185, timeline.getEventCounts()[3]);
+        Assert.assertEquals(180, timeline.getAvailableCounts()[3]);
+        Assert.assertTrue(timeline.isFinalized(3));
+        Assert.assertFalse(timeline.isFinalized(4));
+
+        long total = 0;
+        for (int i = 0; i < timeline.getBucketCount(); i++) {
+            total += timeline.getEventCounts()[i];
+        }
+        Assert.assertEquals(timeline.getEventCount(), total);
+
+        // Reading again overwrites the same arrays.
+        long[] times = timeline.getEarliestTimes();
+        timeline.read(SDKTestCase.openResource("timeline.xml"));
+        Assert.assertSame(times, timeline.getEarliestTimes());
+        Assert.assertEquals(5, timeline.getBucketCount());
+    }
+
+    @Test
+    public void testMonthlyBuckets() {
+        // Month-long buckets, as on an all-time timeline, last longer than
+        // an int can count in milliseconds.
+        JobTimeline timeline = new JobTimeline().read(SDKTestCase.openResource("timeline_monthly.xml"));
+        Assert.assertEquals(3, timeline.getBucketCount());
+        Assert.assertEquals(2678400000L, timeline.getDurations()[0]);
+        Assert.assertEquals(2419200000L, timeline.getDurations()[1]);
+        Assert.assertEquals(timeline.getEarliestTimes()[2],
+                timeline.getEarliestTimes()[1] + timeline.getDurations()[1]);
+    }
+
+    @Test
+    public void testReadFromJob() throws IOException {
+        StubSplunkd splunkd = new StubSplunkd().start();
+        try {
+            Service service = Service.connect(splunkd.getServiceArgs());
+            Job job = service.getJobs().create("search *");
+            String path = "search/jobs/" + job.getSid();
+            splunkd.setResponse("GET", path + "/summary", 200, "text/xml",
+                    read(SDKTestCase.openResource("summary.xml")).getBytes("UTF-8"));
+            splunkd.setResponse("GET", path + "/timeline", 200, "text/xml",
+                    read(SDKTestCase.openResource("timeline.xml")).getBytes("UTF-8"));
+
+            JobSummary summary = job.readSummary(null);
+            Assert.assertEquals(3, summary.getFields().size());
+            Assert.assertSame(summary, job.readSummary(summary));
+
+            JobTimeline timeline = job.readTimeline(null);
+            Assert.assertEquals(5, timeline.getBucketCount());
+            Assert.assertSame(timeline, job.readTimeline(timeline));
+        } finally {
+            splunkd.stop();
+        }
+    }
+
+    private static String read(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = stream.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        stream.close();
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests local result stores, using the test data files and the stub
+ * splunkd, so no Splunk instance is needed.
+ */
+public class LocalResultStoreTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("splunk-store", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testRowsMatchReader() throws IOException {
+        List<Event> expected = readAll(new ResultsReaderXml(SDKTestCase.openResource("results.xml")));
+        ResultsReader reader = new ResultsReaderXml(SDKTestCase.openResource("results.xml"));
+        LocalResultStore store = LocalResultStore.write(reader, new File(directory, "results.lrs"));
+        reader.close();
+
+        Assert.assertEquals(expected.size(), store.getRowCount());
+        for (int i = expected.size() - 1; i >= 0; i--) {
+            Event row = store.getRow(i);
+            Assert.assertEquals(expected.get(i), row);
+            for (String field : row.keySet()) {
+                Assert.assertArrayEquals(expected.get(i).getArray(field), row.getArray(field));
+            }
+        }
+        Assert.assertEquals(expected.subList(1, 3), store.getRows(1, 2));
+        Assert.assertEquals(expected.size() - 1, store.getRows(1, 1000).size());
+        store.close();
+
+        // The file can be reopened.
+        LocalResultStore reopened = LocalResultStore.open(new File(directory, "results.lrs"));
+        Assert.assertEquals(expected.get(0), reopened.getRow(0));
+        reopened.close();
+    }
+
+    @Test
+    public void testValueViews() throws IOException {
+        StubSplunkd splunkd = new StubSplunkd();
+        splunkd.setResultCount(1000);
+        splunkd.start();
+        try {
+            Service service = Service.connect(splunkd.getServiceArgs());
+            Job job = service.getJobs().create("search *");
+            LocalResultStore store = LocalResultStore.fromJob(job, new File(directory, "job.lrs"));
+            Assert.assertEquals(1000, store.getRowCount());
+
+            CharSequence host = store.getValue(765, "host");
+            Assert.assertEquals("stub-host-5", host.toString());
+            Assert.assertEquals('5', host.charAt(10));
+            Assert.assertEquals("host", host.subSequence(5, 9).toString());
+            Assert.assertNull(store.getValue(765, "no_such_field"));
+
+            ByteBuffer raw = store.getValueBytes(999, "_raw");
+            Assert.assertEquals(store.getRow(999).get("_raw").length(), raw.remaining());
+            Assert.assertTrue(raw.isReadOnly());
+
+            store.close();
+            try {
+                store.getRow(0);
+                Assert.fail("Expected an IllegalStateException.");
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+        } finally {
+            splunkd.stop();
+        }
+    }
+
+    @Test
+    public void testMultiValueFields() throws IOException {
+        ResultsReader reader = new ResultsReaderJson(SDKTestCase.openResource("resultsMV5.json"));
+        List<Event> expected = readAll(new ResultsReaderJson(SDKTestCase.openResource("resultsMV5.json")));
+        LocalResultStore store = LocalResultStore.write(reader, new File(directory, "json.lrs"));
+        reader.close();
+        for (int i = 0; i < expected.size(); i++) {
+            Event row = store.getRow(i);
+            for (String field : expected.get(i).keySet()) {
+                String[] values = expected.get(i).getArray(field);
+                Assert.assertArrayEquals(values, row.getArray(field));
+                if (values.length == 1) {
+                    Assert.assertEquals(values[0], store.getValue(i, field).toString());
+                }
+            }
+        }
+        store.close();
+    }
+
+    @Test
+    public void testPoolEvictsLeastRecentlyUsed() throws IOException {
+        StubSplunkd splunkd = new StubSplunkd();
+        splunkd.setResultCount(200);
+        splunkd.start();
+        try {
+            Service service = Service.connect(splunkd.getServiceArgs());
+            Job first = service.getJobs().create("search first");
+            Job second = service.getJobs().create("search second");
+            Job third = service.getJobs().create("search third");
+
+            LocalResultStorePool probe = new LocalResultStorePool(new File(directory, "probe"), Long.MAX_VALUE);
+            long size = probe.get(first).getFile().length();
+            probe.clear();
+
+            LocalResultStorePool pool = new LocalResultStorePool(new File(directory, "pool"), size * 2);
+            LocalResultStore firstStore = pool.get(first);
+            Assert.assertSame(firstStore, pool.get(first));
+            pool.get(second);
+            pool.get(first);
+            pool.get(third);
+
+            // The second store was the least recently used.
+            Assert.assertEquals(2, pool.size());
+            Assert.assertSame(firstStore, pool.get(first));
+            Assert.assertEquals(2, new File(directory, "pool").listFiles().length);
+            Assert.assertEquals(size * 2, pool.getTotalBytes());
+            pool.clear();
+            Assert.assertEquals(0, new File(directory, "pool").listFiles().length);
+            new File(directory, "probe").delete();
+            new File(directory, "pool").delete();
+        } finally {
+            splunkd.stop();
+        }
+    }
+
+    private static List<Event> readAll(ResultsReader reader) throws IOException {
+        List<Event> events = new ArrayList<Event>();
+        Event event;
+        while ((event = reader.getNextEvent()) != null) {
+            events.add(event);
+        }
+        reader.close();
+        return events;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the request metrics SPI against a local HTTP server, so no Splunk
+ * instance is needed.
+ */
+public class MetricsRecorderTest {
+    private HttpServer server;
+    private HttpService http;
+    private final List<RequestMetrics> recorded = new ArrayList<RequestMetrics>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                while (in.read() != -1) { }
+                byte[] body = "<response>hello</response>".getBytes("UTF-8");
+                int status = exchange.getRequestURI().getPath().endsWith("missing") ? 404 : 200;
+                exchange.sendResponseHeaders(status, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+
+        http = new HttpService("127.0.0.1", server.getAddress().getPort(), "http");
+        http.setMetricsRecorder(new MetricsRecorder() {
+            public void record(RequestMetrics metrics) {
+                synchronized (recorded) {
+                    recorded.add(metrics);
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testRequestIsRecordedWhenBodyIsRead() throws IOException {
+        ResponseMessage response = http.get("/services/search/jobs/1234.56/results?count=10");
+        Assert.assertTrue(recorded.isEmpty());
+
+        InputStream content = response.getContent();
+        while (content.read() != -1) { }
+        content.close();
+
+        Assert.assertEquals(1, recorded.size());
+        RequestMetrics metrics = recorded.get(0);
+        Assert.assertEquals("/services/search/jobs/{name}/results", metrics.getEndpoint());
+        Assert.assertEquals("GET", metrics.getMethod());
+        Assert.assertEquals(200, metrics.getStatus());
+        Assert.assertEquals("<response>hello</response>".length(), metrics.getBytesIn());
+        Assert.assertEquals(0, metrics.getBytesOut());
+        Assert.assertTrue(metrics.getFirstByteNanos() >= metrics.getConnectNanos());
+        Assert.assertTrue(metrics.getTotalNanos() >= metrics.getFirstByteNanos());
+    }
+
+    @Test
+    public void testPostAndErrorAreRecorded() {
+        Args args = new Args("name", "value");
+        http.post("/servicesNS/admin/search/saved/searches", args).getContent();
+        try {
+            http.get("/services/missing");
+            Assert.fail("Expected an HttpException.");
+        } catch (HttpException e) {
+            Assert.assertEquals(404, e.getStatus());
+        }
+
+        // The POST's body was never read, so only the error is recorded.
+        Assert.assertEquals(1, recorded.size());
+        Assert.assertEquals(404, recorded.get(0).getStatus());
+    }
+
+    @Test
+    public void testFailedConnectionIsRecorded() {
+        server.stop(0);
+        try {
+            http.get("/services/server/info");
+            Assert.fail("Expected a connection failure.");
+        } catch (RuntimeException e) {
+            // Expected
+        }
+        Assert.assertEquals(1, recorded.size());
+        Assert.assertEquals(0, recorded.get(0).getStatus());
+    }
+
+    @Test
+    public void testHistogramMetricsRecorder() throws IOException {
+        HistogramMetricsRecorder histograms = new HistogramMetricsRecorder();
+        http.setMetricsRecorder(histograms);
+        for (int i = 0; i < 5; i++) {
+            http.get("/servicesNS/nobody/search/search/jobs/sid" + i).getContent().close();
+        }
+        Args args = new Args("search", "search *");
+        http.post("/services/search/jobs", args).getContent().close();
+
+        Map<String, HistogramMetricsRecorder.EndpointStats> snapshot = histograms.getSnapshot();
+        Assert.assertEquals(2, snapshot.size());
+        HistogramMetricsRecorder.EndpointStats gets =
+                snapshot.get("GET /servicesNS/{owner}/{app}/search/jobs/{name}");
+        Assert.assertEquals(5, gets.getRequestCount());
+        Assert.assertEquals(5, gets.getTotalLatency().getCount());
+        HistogramMetricsRecorder.EndpointStats posts = snapshot.get("POST /services/search/jobs");
+        Assert.assertEquals(1, posts.getRequestCount());
+        Assert.assertEquals(Args.encode(args).length(), posts.getBytesOut());
+    }
+
+    @Test
+    public void testEndpointTemplates() {
+        Assert.assertEquals("/services/search/jobs",
+                RequestMetrics.endpointTemplate("/services/search/jobs?count=0"));
+        Assert.assertEquals("/servicesNS/{owner}/{app}/saved/searches/{name}/dispatch",
+                RequestMetrics.endpointTemplate("/servicesNS/admin/search/saved/searches/My%20Search/dispatch"));
+        Assert.assertEquals("/services/data/inputs/tcp/raw/{name}",
+                RequestMetrics.endpointTemplate("/services/data/inputs/tcp/raw/9997"));
+        Assert.assertEquals("/services/receivers/simple",
+                RequestMetrics.endpointTemplate("/services/receivers/simple?index=main"));
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 100);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(100000, histogram.getMax());
+        Assert.assertEquals(50050.0, histogram.getMean(), 0.001);
+
+        long p50 = histogram.getPercentile(50);
+        Assert.assertTrue("p50 was " + p50, p50 >= 50000 && p50 <= 50000 * 17 / 16);
+        long p99 = histogram.getPercentile(99);
+        Assert.assertTrue("p99 was " + p99, p99 >= 99000 && p99 <= 100000);
+        Assert.assertEquals(100000, histogram.getPercentile(100));
+
+        LatencyHistogram copy = histogram.copy();
+        histogram.record(5000000);
+        Assert.assertEquals(1000, copy.getCount());
+        Assert.assertEquals(100000, copy.getMax());
+
+        for (long v = 0; v < 1L << 36; v = v * 3 / 2 + 1) {
+            int index = LatencyHistogram.indexOf(v);
+            Assert.assertTrue(LatencyHistogram.highestValueIn(index) >= v);
+            if (index > 0) {
+                Assert.assertTrue(LatencyHistogram.highestValueIn(index - 1) < v);
+            }
+        }
+    }
+}
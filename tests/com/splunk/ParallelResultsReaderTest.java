@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that the parallel results reader returns the same events, in the
+ * same order, as the sequential readers, using the test data files and the
+ * stub splunkd, so no Splunk instance is needed.
+ */
+public class ParallelResultsReaderTest {
+    private StubSplunkd splunkd;
+    private Service service;
+
+    @Before
+    public void setUp() throws IOException {
+        splunkd = new StubSplunkd();
+        splunkd.setResultCount(1200);
+        splunkd.setEventSize(200);
+        splunkd.start();
+        service = Service.connect(splunkd.getServiceArgs());
+    }
+
+    @After
+    public void tearDown() {
+        splunkd.stop();
+    }
+
+    @Test
+    public void testJobResults() throws IOException {
+        Job job = service.getJobs().create("search *");
+        for (String mode : new String[] {"xml", "json"}) {
+            Args args = new Args("count", 0);
+            args.put("output_mode", mode);
+            ResultsReader expected = mode.equals("xml")
+                    ? new ResultsReaderXml(job.getResults(args))
+                    : new ResultsReaderJson(job.getResults(args));
+            ParallelResultsReader actual = new ParallelResultsReader(job.getResults(args), 4, 4096);
+            if (mode.equals("xml")) {
+                Assert.assertEquals(expected.getFields(), actual.getFields());
+            }
+            List<Event> events = readAll(actual);
+            Assert.assertEquals(1200, events.size());
+            Assert.assertEquals(readAll(expected), events);
+        }
+    }
+
+    @Test
+    public void testExport() throws IOException {
+        for (String mode : new String[] {"xml", "json"}) {
+            Args args = new Args("output_mode", mode);
+            ResultsReader expected = mode.equals("xml")
+                    ? new ResultsReaderXml(service.export("search *", args))
+                    : new ResultsReaderJson(service.export("search *", args));
+            ParallelResultsReader actual = new ParallelResultsReader(service.export("search *", args), 3, 10000);
+            Assert.assertEquals(readAll(expected), readAll(actual));
+        }
+    }
+
+    @Test
+    public void testFixtures() throws IOException {
+        String[] files = new String[] {"results.xml", "resultsMV.xml", "results4.json",
+                "results5.json", "resultsMV5.json", "resultsExport.xml", "resultsExport.json"};
+        for (String file : files) {
+            for (int chunkSize : new int[] {1, 300, 1 << 20}) {
+                boolean xml = file.endsWith(".xml");
+                boolean export = file.startsWith("resultsExport");
+                ResultsReader expected = xml
+                        ? new ResultsReaderXml(open(file, export))
+                        : new ResultsReaderJson(open(file, export));
+                ParallelResultsReader actual = new ParallelResultsReader(open(file, export), 2, chunkSize);
+                Assert.assertEquals(file + " in chunks of " + chunkSize, readAll(expected), readAll(actual));
+            }
+        }
+    }
+
+    @Test
+    public void testCloseBeforeTheEnd() throws IOException {
+        Job job = service.getJobs().create("search *");
+        ParallelResultsReader reader = new ParallelResultsReader(job.getResults(new Args("count", 0)), 2, 1024);
+        Assert.assertNotNull(reader.getNextEvent());
+        reader.close();
+        Assert.assertNull(reader.getNextEvent());
+    }
+
+    private static InputStream open(String file, boolean export) {
+        InputStream stream = SDKTestCase.openResource(file);
+        return export ? new ExportResultsStream(stream) : stream;
+    }
+
+    private static List<Event> readAll(ResultsReader reader) throws IOException {
+        List<Event> events = new ArrayList<Event>();
+        Event event;
+        while ((event = reader.getNextEvent()) != null) {
+            events.add(event);
+        }
+        reader.close();
+        return events;
+    }
+}
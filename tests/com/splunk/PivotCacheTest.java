@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+/**
+ * Tests the pivot cache against the stub splunkd, which serves a canned data
+ * model and pivot, so no Splunk instance is needed.
+ */
+public class PivotCacheTest {
+    static final String MODEL_PATH = "datamodel/model/pivot_model";
+    private static final String PIVOT_PATH = "datamodel/pivot/pivot_model";
+
+    private StubSplunkd splunkd;
+    private Service stubService;
+    private PivotCache cache;
+    private DataModelObject dataModelObject;
+
+    @Before
+    public void setUp() throws IOException {
+        splunkd = new StubSplunkd();
+        String rawJson = SDKTestCase.streamToString(
+                SDKTestCase.openResource("data/datamodels/data_model_for_pivot.json"));
+        splunkd.setResponse("GET", MODEL_PATH, 200, "text/xml",
+                modelFeed(rawJson).getBytes("UTF-8"));
+        servePivot("host=SDKPIVOTPARAM0X");
+        splunkd.start();
+
+        stubService = Service.connect(splunkd.getServiceArgs());
+        cache = new PivotCache(16, 60000);
+        stubService.setPivotCache(cache);
+        DataModel model = new DataModel(stubService, MODEL_PATH);
+        dataModelObject = model.getObject("test_data");
+        Assert.assertNotNull(dataModelObject);
+    }
+
+    @After
+    public void tearDown() {
+        splunkd.stop();
+    }
+
+    @Test
+    public void testSameShapeSharesTranslation() {
+        long requests = splunkd.getRequestCount();
+        Pivot first = hostIs("boris").pivot();
+        Pivot second = hostIs("natasha").pivot();
+
+        Assert.assertEquals("| pivot host=boris", first.getPivotQuery());
+        Assert.assertEquals("| pivot host=natasha", second.getPivotQuery());
+        Assert.assertEquals("| tstats host=natasha", second.getAcceleratedQuery());
+        Assert.assertEquals(1, splunkd.getRequestCount() - requests);
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testOtherValuesAreCachedByValue() {
+        long requests = splunkd.getRequestCount();
+        hostIs("two words").pivot();
+        hostIs("two words").pivot();
+        Assert.assertEquals(1, splunkd.getRequestCount() - requests);
+
+        hostIs("other words").pivot();
+        Assert.assertEquals(2, splunkd.getRequestCount() - requests);
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testTranslationWithoutPlaceholders() throws IOException {
+        servePivot("host=*");
+        long requests = splunkd.getRequestCount();
+        Assert.assertEquals("| pivot host=*", hostIs("boris").pivot().getPivotQuery());
+        Assert.assertEquals(2, splunkd.getRequestCount() - requests);
+
+        // The shape is remembered, so the value is translated directly.
+        hostIs("boris").pivot();
+        Assert.assertEquals(2, splunkd.getRequestCount() - requests);
+        hostIs("natasha").pivot();
+        Assert.assertEquals(3, splunkd.getRequestCount() - requests);
+    }
+
+    @Test
+    public void testPlaceholdersMissingFromAcceleratedQuery() throws IOException {
+        // A placeholder rendered differently in the tstats query would be
+        // left in the query that runs, so the shape is cached by value.
+        servePivot("host=SDKPIVOTPARAM0X", "host=sdkpivotparam0x");
+        long requests = splunkd.getRequestCount();
+        hostIs("boris").pivot();
+        hostIs("natasha").pivot();
+        Assert.assertEquals(3, splunkd.getRequestCount() - requests);
+        Assert.assertEquals(0, cache.getHitCount());
+
+        cache.clear();
+        servePivot("host=SDKPIVOTPARAM0X", "host=*");
+        requests = splunkd.getRequestCount();
+        hostIs("boris").pivot();
+        Assert.assertEquals(2, splunkd.getRequestCount() - requests);
+    }
+
+    @Test
+    public void testInvalidate() {
+        hostIs("boris").pivot();
+        Assert.assertEquals(1, cache.size());
+
+        cache.invalidate("some_other_model");
+        Assert.assertEquals(1, cache.size());
+        cache.invalidate(dataModelObject.getDataModel().getName());
+        Assert.assertEquals(0, cache.size());
+
+        hostIs("boris").pivot();
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        cache = new PivotCache(16, 1);
+        stubService.setPivotCache(cache);
+        hostIs("boris").pivot();
+        Thread.sleep(10);
+        hostIs("boris").pivot();
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(0, cache.getHitCount());
+    }
+
+    private PivotSpecification hostIs(String value) {
+        return dataModelObject.createPivotSpecification()
+                .addFilter("host", StringComparison.IS, value)
+                .addCellValue("test_data", "Count", StatsFunction.COUNT);
+    }
+
+    private void servePivot(String clause) throws IOException {
+        servePivot(clause, clause);
+    }
+
+    private void servePivot(String clause, String tstatsClause) throws IOException {
+        String feed = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:s=\"http://dev.splunk.com/ns/rest\">\n"
+                + "  <title>pivot</title>\n"
+                + "  <entry>\n"
+                + "    <title>pivot_model</title>\n"
+                + "    <content type=\"text/xml\">\n"
+                + "      <s:dict>\n"
+                + "        <s:key name=\"drilldown_search\">| drilldown " + clause + "</s:key>\n"
+                + "        <s:key name=\"open_in_search\">| open " + clause + "</s:key>\n"
+                + "        <s:key name=\"pivot_search\">| pivot " + clause + "</s:key>\n"
+                + "        <s:key name=\"search\">search " + clause + "</s:key>\n"
+                + "        <s:key name=\"tstats_search\">| tstats " + tstatsClause + "</s:key>\n"
+                + "      </s:dict>\n"
+                + "    </content>\n"
+                + "  </entry>\n"
+                + "</feed>\n";
+        splunkd.setResponse("GET", PIVOT_PATH, 200, "text/xml", feed.getBytes("UTF-8"));
+    }
+
+    static String modelFeed(String rawJson) {
+        String path = "/servicesNS/nobody/search/" + MODEL_PATH;
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:s=\"http://dev.splunk.com/ns/rest\">\n"
+                + "  <title>datamodels</title>\n"
+                + "  <entry>\n"
+                + "    <title>pivot_model</title>\n"
+                + "    <id>" + path + "</id>\n"
+                + "    <updated>2013-01-01T00:00:00+00:00</updated>\n"
+                + "    <link href=\"" + path + "\" rel=\"edit\"/>\n"
+                + "    <content type=\"text/xml\">\n"
+                + "      <s:dict>\n"
+                + "        <s:key name=\"acceleration\">{\"enabled\":false}</s:key>\n"
+                + "        <s:key name=\"description\">" + xmlEscape(rawJson) + "</s:key>\n"
+                + "      </s:dict>\n"
+                + "    </content>\n"
+                + "  </entry>\n"
+                + "</feed>\n";
+    }
+
+    private static String xmlEscape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the read-ahead stream against in-memory streams and the test data
+ * files, so no Splunk instance is needed.
+ */
+public class ReadAheadInputStreamTest {
+    @Test
+    public void testReadsTheSameBytes() throws IOException {
+        byte[] data = new byte[300000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        // Small buffers and a source that returns a few bytes at a time
+        // exercise the wrapping of the ring.
+        ReadAheadInputStream stream = new ReadAheadInputStream(
+                trickle(new ByteArrayInputStream(data), 1000), 3, 4096);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b = stream.read();
+        out.write(b);
+        byte[] buffer = new byte[777];
+        int n;
+        while ((n = stream.read(buffer, 0, buffer.length)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        Assert.assertEquals(-1, stream.read());
+        stream.close();
+
+        Assert.assertArrayEquals(data, out.toByteArray());
+        Assert.assertEquals(data.length, stream.getBytesRead());
+        Assert.assertEquals(3, stream.getBufferCount());
+    }
+
+    @Test
+    public void testExportIsStillAnExport() throws IOException {
+        ResultsReader expected = new ResultsReaderXml(
+                new ExportResultsStream(SDKTestCase.openResource("resultsExport.xml")));
+        ReadAheadInputStream stream = new ReadAheadInputStream(
+                new ExportResultsStream(SDKTestCase.openResource("resultsExport.xml")), 2, 100);
+        Assert.assertTrue(ResultsReader.isExportStream(stream));
+        Assert.assertEquals(readAll(expected), readAll(new ResultsReaderXml(stream)));
+
+        expected = new ResultsReaderJson(SDKTestCase.openResource("results5.json"));
+        stream = new ReadAheadInputStream(SDKTestCase.openResource("results5.json"));
+        Assert.assertFalse(ResultsReader.isExportStream(stream));
+        Assert.assertEquals(readAll(expected), readAll(new ResultsReaderJson(stream)));
+    }
+
+    @Test
+    public void testSlowReaderFillsTheRing() throws Exception {
+        ReadAheadInputStream stream = new ReadAheadInputStream(
+                new ByteArrayInputStream(new byte[100000]), 4, 1000);
+        // Without reading, the background thread fills every buffer and
+        // then waits.
+        long deadline = System.currentTimeMillis() + 10000;
+        while (stream.getFullStallCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(1, stream.getFullStallCount());
+        Assert.assertEquals(4, stream.getFilledBufferCount());
+        Assert.assertEquals(4000, stream.available());
+        Assert.assertEquals(4000, stream.getBytesRead());
+        Assert.assertTrue(stream.getAverageFilledBufferCount() > 1);
+        Assert.assertEquals(0, stream.getReadStallCount());
+        stream.close();
+    }
+
+    @Test
+    public void testBuffersAreFilledFromShortReads() throws Exception {
+        // A source that returns a few bytes at a time, as a socket does,
+        // still fills whole buffers.
+        ReadAheadInputStream stream = new ReadAheadInputStream(
+                trickle(new ByteArrayInputStream(new byte[10000]), 100), 2, 1000);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (stream.getFullStallCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(2, stream.getFilledBufferCount());
+        Assert.assertEquals(2000, stream.available());
+        Assert.assertEquals(1000, stream.read(new byte[4096]));
+        stream.close();
+    }
+
+    @Test
+    public void testErrorsReachTheReader() throws IOException {
+        InputStream failing = new InputStream() {
+            private int count = 0;
+
+            public int read() throws IOException {
+                if (count++ >= 10) {
+                    throw new IOException("Connection reset");
+                }
+                return 'x';
+            }
+        };
+        ReadAheadInputStream stream = new ReadAheadInputStream(failing, 2, 4);
+        int n = 0;
+        try {
+            while (stream.read() != -1) {
+                n++;
+            }
+            Assert.fail("Expected an IOException.");
+        } catch (IOException e) {
+            Assert.assertEquals("Connection reset", e.getMessage());
+        }
+        Assert.assertEquals(10, n);
+        Assert.assertTrue(stream.getReadStallCount() > 0);
+    }
+
+    @Test
+    public void testClose() throws IOException {
+        final boolean[] closed = new boolean[1];
+        InputStream source = new FilterInputStream(new ByteArrayInputStream(new byte[100000])) {
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+        ReadAheadInputStream stream = new ReadAheadInputStream(source, 2, 1000);
+        Assert.assertEquals(0, stream.read());
+        stream.close();
+        Assert.assertTrue(closed[0]);
+        try {
+            stream.read();
+            Assert.fail("Expected an IOException.");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    // Returns a stream that returns at most max bytes from each read.
+    private static InputStream trickle(InputStream in, final int max) {
+        return new FilterInputStream(in) {
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                return super.read(buffer, offset, Math.min(length, max));
+            }
+        };
+    }
+
+    private static List<Event> readAll(ResultsReader reader) throws IOException {
+        List<Event> events = new ArrayList<Event>();
+        Event event;
+        while ((event = reader.getNextEvent()) != null) {
+            events.add(event);
+        }
+        reader.close();
+        return events;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests building request paths and query strings, which needs no Splunk
+ * instance.
+ */
+public class RequestPathTest {
+    @Test
+    public void testEncodeMatchesUrlEncoder() throws Exception {
+        String[] values = new String[] {
+            "", "search", "index=main | head 10", "a+b&c=d/e?f#g%h",
+            "bill@some domain\u0150", "\u65e5\u672c\u8a9e", "\ud83d\ude00 emoji",
+            "unpaired \ud83d high", "unpaired \ude00 low", "~!*'()._-",
+        };
+        for (String value : values) {
+            Assert.assertEquals(URLEncoder.encode(value, "UTF-8"), Args.encode(value));
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            char[] chars = new char[random.nextInt(20)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) (random.nextBoolean()
+                        ? random.nextInt(0x80) : random.nextInt(0x10000));
+            }
+            String value = new String(chars);
+            Assert.assertEquals(URLEncoder.encode(value, "UTF-8"), Args.encode(value));
+        }
+    }
+
+    @Test
+    public void testEncodeArgs() {
+        Args args = new Args();
+        args.put("search", "search *");
+        args.put("f", new String[] {"_time", "_raw"});
+        args.put("empty", new String[0]);
+        args.put("count", 0);
+        Assert.assertEquals("search=search+*&f=_time&f=_raw&count=0", args.encode());
+        Assert.assertEquals(args.encode(), Args.encode((Map<String, Object>) args));
+        Assert.assertEquals("", Args.encode((Map<String, Object>) null));
+    }
+
+    @Test
+    public void testFullpath() {
+        Service service = new Service("localhost", 8089);
+        Assert.assertEquals("/services/search/jobs", service.fullpath("search/jobs", null));
+        Assert.assertEquals("/services/receivers/simple", service.fullpath("/services/receivers/simple", null));
+
+        Args namespace = new Args();
+        namespace.put("owner", "bill@some domain\u0150");
+        namespace.put("app", "my! app!@");
+        Assert.assertEquals("/servicesNS/bill%40some+domain%C5%90/my%21+app%21%40/saved/searches",
+                service.fullpath("saved/searches", namespace));
+
+        namespace.put("sharing", "system");
+        Assert.assertEquals("/servicesNS/nobody/system/", service.fullpath("", namespace));
+
+        ServiceArgs serviceArgs = new ServiceArgs();
+        serviceArgs.setApp("search");
+        Service scoped = new Service(serviceArgs);
+        Assert.assertEquals("/servicesNS/-/search/search/jobs", scoped.fullpath("search/jobs", null));
+        Assert.assertEquals("/servicesNS/Bob/search/apps/local",
+                scoped.fullpath("apps/local", new Args("owner", "Bob")));
+        Assert.assertEquals("/servicesNS/-/search/data/indexes", scoped.fullpath("data/indexes", null));
+    }
+
+    @Test
+    public void testEndpointTemplateIsCached() {
+        String first = RequestMetrics.endpointTemplate("/services/search/jobs/1234.5/results?count=10");
+        String second = RequestMetrics.endpointTemplate("/services/search/jobs/1234.5/results?count=20");
+        Assert.assertEquals("/services/search/jobs/{name}/results", first);
+        Assert.assertSame(first, second);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the results publisher against the stub splunkd and the test data
+ * files, so no Splunk instance is needed.
+ */
+public class ResultsPublisherTest {
+    private StubSplunkd splunkd;
+    private Service service;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        splunkd = new StubSplunkd();
+        splunkd.setResultCount(1000);
+        splunkd.start();
+        service = Service.connect(splunkd.getServiceArgs());
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        splunkd.stop();
+    }
+
+    @Test
+    public void testPublishesEveryEvent() throws Exception {
+        Args args = new Args("output_mode", "json");
+        List<Event> expected = readAll(new ResultsReaderJson(service.export("search *", args)));
+
+        // Several publishers share the executor.
+        List<RecordingSubscriber<Event>> subscribers = new ArrayList<RecordingSubscriber<Event>>();
+        for (int i = 0; i < 4; i++) {
+            RecordingSubscriber<Event> subscriber = new RecordingSubscriber<Event>();
+            ResultsPublisher.events(new ResultsReaderJson(service.export("search *", args)), executor)
+                    .subscribe(subscriber);
+            subscriber.subscription.request(Long.MAX_VALUE);
+            subscribers.add(subscriber);
+        }
+        for (RecordingSubscriber<Event> subscriber : subscribers) {
+            subscriber.await();
+            Assert.assertNull(subscriber.error);
+            Assert.assertEquals(expected, subscriber.items);
+        }
+    }
+
+    @Test
+    public void testSendsNoMoreThanRequested() throws Exception {
+        RecordingSubscriber<Event> subscriber = new RecordingSubscriber<Event>();
+        ResultsPublisher.events(new ResultsReaderXml(service.export("search *")), executor)
+                .subscribe(subscriber);
+        subscriber.subscription.request(10);
+        subscriber.subscription.request(5);
+        Thread.sleep(200);
+        Assert.assertEquals(15, subscriber.itemCount());
+        Assert.assertFalse(subscriber.isFinished());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.await();
+        Assert.assertEquals(1000, subscriber.itemCount());
+        Assert.assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void testCancelCancelsTheJob() throws Exception {
+        Job job = service.getJobs().create("search *");
+        String sid = job.getSid();
+        ResultsReaderXml reader = new ResultsReaderXml(job.getResults(new Args("count", 0)));
+        RecordingSubscriber<Event> subscriber = new RecordingSubscriber<Event>();
+        ResultsPublisher.events(reader, executor, job).subscribe(subscriber);
+        subscriber.subscription.request(3);
+        subscriber.subscription.cancel();
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertTrue(subscriber.itemCount() <= 3);
+        Assert.assertFalse(subscriber.isFinished());
+        Assert.assertFalse(service.getJobs().containsKey(sid));
+    }
+
+    @Test
+    public void testPublishesResultSets() throws Exception {
+        MultiResultsReaderXml expected = new MultiResultsReaderXml(
+                new ExportResultsStream(SDKTestCase.openResource("resultsExport.xml")));
+        List<Integer> expectedSizes = new ArrayList<Integer>();
+        for (SearchResults results : expected) {
+            expectedSizes.add(readAll(results).size());
+        }
+        expected.close();
+
+        MultiResultsReaderXml reader = new MultiResultsReaderXml(
+                new ExportResultsStream(SDKTestCase.openResource("resultsExport.xml")));
+        final List<Integer> sizes = new ArrayList<Integer>();
+        RecordingSubscriber<SearchResults> subscriber = new RecordingSubscriber<SearchResults>() {
+            public void onNext(SearchResults results) {
+                // The events of a set are read while it is current.
+                sizes.add(readAll(results).size());
+                super.onNext(results);
+            }
+        };
+        ResultsPublisher.resultSets(reader, executor).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.await();
+        Assert.assertTrue(subscriber.completed);
+        Assert.assertEquals(expectedSizes, sizes);
+    }
+
+    @Test
+    public void testProtocolErrors() throws Exception {
+        ResultsPublisher<Event> publisher = ResultsPublisher.events(
+                new ResultsReaderXml(SDKTestCase.openResource("results.xml")), executor);
+        RecordingSubscriber<Event> first = new RecordingSubscriber<Event>();
+        publisher.subscribe(first);
+
+        RecordingSubscriber<Event> second = new RecordingSubscriber<Event>();
+        publisher.subscribe(second);
+        second.await();
+        Assert.assertTrue(second.error instanceof IllegalStateException);
+
+        first.subscription.request(0);
+        first.await();
+        Assert.assertTrue(first.error instanceof IllegalArgumentException);
+        Assert.assertEquals(0, first.itemCount());
+    }
+
+    private static List<Event> readAll(Iterable<Event> reader) {
+        List<Event> events = new ArrayList<Event>();
+        for (Event event : reader) {
+            events.add(event);
+        }
+        return events;
+    }
+
+    private static class RecordingSubscriber<T> implements ResultsPublisher.Subscriber<T> {
+        final List<T> items = new ArrayList<T>();
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile ResultsPublisher.Subscription subscription;
+        volatile Throwable error;
+        volatile boolean completed;
+
+        public void onSubscribe(ResultsPublisher.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public void onNext(T item) {
+            synchronized (items) {
+                items.add(item);
+            }
+        }
+
+        public void onError(Throwable error) {
+            this.error = error;
+            finished.countDown();
+        }
+
+        public void onComplete() {
+            completed = true;
+            finished.countDown();
+        }
+
+        int itemCount() {
+            synchronized (items) {
+                return items.size();
+            }
+        }
+
+        boolean isFinished() {
+            return finished.getCount() == 0;
+        }
+
+        void await() throws InterruptedException {
+            Assert.assertTrue(finished.await(10, TimeUnit.SECONDS));
+        }
+    }
+}
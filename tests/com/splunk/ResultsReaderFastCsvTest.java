@@ -0,0 +1,149 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the byte-level CSV results reader against the opencsv-based reader
+ * and the stub splunkd's export stream, so no Splunk instance is needed.
+ */
+public class ResultsReaderFastCsvTest {
+    @Test
+    public void testMatchesOpenCsvReader() throws IOException {
+        for (String name : new String[] {"results.csv", "resultsMV.csv", "resultsMVOneshot.csv"}) {
+            ResultsReaderCsv expected = new ResultsReaderCsv(SDKTestCase.openResource(name));
+            ResultsReaderFastCsv actual = new ResultsReaderFastCsv(SDKTestCase.openResource(name));
+            Assert.assertEquals(new ArrayList<String>(expected.getFields()),
+                    new ArrayList<String>(actual.getFields()));
+            Assert.assertEquals(readAll(expected), readAll(actual));
+        }
+
+        ResultsReaderFastCsv reader = new ResultsReaderFastCsv(SDKTestCase.openResource("resultsMV.csv"));
+        String[] si = reader.getNextEvent().getArray("_si", "\n");
+        Assert.assertEquals(Arrays.asList("dfoster-mbp17.local", "_internal"), Arrays.asList(si));
+        reader.close();
+    }
+
+    @Test
+    public void testQuotingOneByteAtATime() throws IOException {
+        String csv = "a,b,c\r\n"
+                + "\"x, y\",\"say \"\"hi\"\"\",\"line\r\nbreak\"\r\n"
+                + "plain,,\"caf\u00e9 \u65e5\u672c\"\r\n"
+                + "\"\",last,\"\"";
+        for (InputStream input : new InputStream[] {stream(csv), new OneByteInputStream(stream(csv))}) {
+            ResultsReaderFastCsv reader = new ResultsReaderFastCsv(input);
+            Event first = reader.getNextEvent();
+            Assert.assertEquals("x, y", first.get("a"));
+            Assert.assertEquals("say \"hi\"", first.get("b"));
+            Assert.assertEquals("line\r\nbreak", first.get("c"));
+            Event second = reader.getNextEvent();
+            Assert.assertEquals("plain", second.get("a"));
+            Assert.assertEquals("", second.get("b"));
+            Assert.assertEquals("caf\u00e9 \u65e5\u672c", second.get("c"));
+            Event third = reader.getNextEvent();
+            Assert.assertEquals("", third.get("a"));
+            Assert.assertEquals("last", third.get("b"));
+            Assert.assertEquals("", third.get("c"));
+            Assert.assertNull(reader.getNextEvent());
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testMultiValueColumns() throws IOException {
+        String csv = "host,__mv_host,count,__mv_tag\n"
+                + "\"a\nb$c\",\"$a$;$b$$c$\",3,\"$x$\"\n"
+                + "d,,4,\n";
+        ResultsReaderFastCsv reader = new ResultsReaderFastCsv(stream(csv));
+        Assert.assertEquals(Arrays.asList("host", "count", "tag"), reader.getFields());
+        Event first = reader.getNextEvent();
+        Assert.assertEquals(Arrays.asList("a", "b$c"), Arrays.asList(first.getArray("host")));
+        Assert.assertEquals(Arrays.asList("x"), Arrays.asList(first.getArray("tag")));
+        Assert.assertFalse(first.containsKey("__mv_host"));
+        Event second = reader.getNextEvent();
+        Assert.assertEquals(Arrays.asList("d"), Arrays.asList(second.getArray("host")));
+        Assert.assertEquals("4", second.get("count"));
+        Assert.assertFalse(second.containsKey("tag"));
+        reader.close();
+    }
+
+    @Test
+    public void testExport() throws IOException {
+        StubSplunkd splunkd = new StubSplunkd();
+        splunkd.setResultCount(1200);
+        splunkd.start();
+        try {
+            Service service = Service.connect(splunkd.getServiceArgs());
+            Args args = new Args("output_mode", "csv");
+
+            ResultsReaderFastCsv reader = new ResultsReaderFastCsv(service.export("search *", args));
+            List<Event> events = readAll(reader);
+            Assert.assertEquals(1200, events.size());
+            Assert.assertEquals("stub-host-7", events.get(1199).get("host"));
+
+            MultiResultsReaderFastCsv multi = new MultiResultsReaderFastCsv(service.export("search *", args));
+            List<Integer> sizes = new ArrayList<Integer>();
+            for (SearchResults set : multi) {
+                int count = 0;
+                for (Event event : set) {
+                    count++;
+                }
+                sizes.add(count);
+            }
+            multi.close();
+            Assert.assertEquals(Arrays.asList(500, 500, 200), sizes);
+        } finally {
+            splunkd.stop();
+        }
+    }
+
+    private static InputStream stream(String text) throws IOException {
+        return new ByteArrayInputStream(text.getBytes("UTF-8"));
+    }
+
+    private static List<Event> readAll(ResultsReader reader) throws IOException {
+        List<Event> events = new ArrayList<Event>();
+        Event event;
+        while ((event = reader.getNextEvent()) != null) {
+            events.add(event);
+        }
+        reader.close();
+        return events;
+    }
+
+    // Returns at most one byte per read, to split every token across reads.
+    private static class OneByteInputStream extends FilterInputStream {
+        OneByteInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, 1));
+        }
+    }
+}
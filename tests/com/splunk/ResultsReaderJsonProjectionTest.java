@@ -0,0 +1,127 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests reading a subset of the fields of JSON results, using the test data
+ * files and the stub splunkd, so no Splunk instance is needed.
+ */
+public class ResultsReaderJsonProjectionTest {
+    @Test
+    public void testProjection() throws IOException {
+        Set<String> fields = Collections.singleton("series");
+        ResultsReaderJson reader = new ResultsReaderJson(SDKTestCase.openResource("results5.json"), fields);
+        List<Event> events = readAll(reader);
+        Assert.assertEquals(3, events.size());
+        for (Event event : events) {
+            Assert.assertEquals(fields, event.keySet());
+        }
+        Assert.assertEquals("splunkd", events.get(1).get("series"));
+    }
+
+    @Test
+    public void testProjectionOfMultiValueFields() throws IOException {
+        Set<String> fields = new HashSet<String>(Arrays.asList("_si", "host"));
+        Event event = new ResultsReaderJson(SDKTestCase.openResource("resultsMV5.json"), fields).getNextEvent();
+        Assert.assertEquals(fields, event.keySet());
+        Assert.assertEquals(2, event.getArray("_si", "\n").length);
+    }
+
+    @Test
+    public void testFieldNamesAreShared() throws IOException {
+        List<Event> events = readAll(new ResultsReaderJson(SDKTestCase.openResource("results5.json")));
+        Assert.assertSame(key(events.get(0), "series"), key(events.get(2), "series"));
+    }
+
+    @Test
+    public void testExportPreviewsWithProjection() throws IOException {
+        Set<String> fields = Collections.singleton("count");
+        MultiResultsReaderJson all = new MultiResultsReaderJson(SDKTestCase.openResource("resultsExport.json"));
+        MultiResultsReaderJson projected = new MultiResultsReaderJson(
+                SDKTestCase.openResource("resultsExport.json"), fields);
+        List<Boolean> allPreviews = new ArrayList<Boolean>();
+        List<Boolean> projectedPreviews = new ArrayList<Boolean>();
+        List<String> allCounts = new ArrayList<String>();
+        List<String> projectedCounts = new ArrayList<String>();
+        for (SearchResults set : all) {
+            allPreviews.add(set.isPreview());
+            for (Event event : set) {
+                allCounts.add(event.get("count"));
+            }
+        }
+        for (SearchResults set : projected) {
+            projectedPreviews.add(set.isPreview());
+            for (Event event : set) {
+                Assert.assertEquals(fields, event.keySet());
+                projectedCounts.add(event.get("count"));
+            }
+        }
+        all.close();
+        projected.close();
+        Assert.assertEquals(allPreviews, projectedPreviews);
+        Assert.assertEquals(allCounts, projectedCounts);
+    }
+
+    @Test
+    public void testExportFromStub() throws IOException {
+        StubSplunkd splunkd = new StubSplunkd();
+        splunkd.setResultCount(1200);
+        splunkd.start();
+        try {
+            Service service = Service.connect(splunkd.getServiceArgs());
+            ResultsReaderJson reader = new ResultsReaderJson(
+                    service.export("search *", new Args("output_mode", "json")),
+                    Collections.singleton("host"));
+            List<Event> events = readAll(reader);
+            Assert.assertEquals(1200, events.size());
+            Assert.assertEquals("stub-host-7", events.get(1199).get("host"));
+            Assert.assertEquals(1, events.get(1199).size());
+        } finally {
+            splunkd.stop();
+        }
+    }
+
+    private static String key(Event event, String name) {
+        for (String key : event.keySet()) {
+            if (key.equals(name)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    private static List<Event> readAll(ResultsReader reader) throws IOException {
+        List<Event> events = new ArrayList<Event>();
+        Event event;
+        while ((event = reader.getNextEvent()) != null) {
+            events.add(event);
+        }
+        reader.close();
+        return events;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Tests coalescing of identical searches against the stub splunkd, so no
+ * Splunk instance is needed.
+ */
+public class SearchCoalescerTest {
+    private StubSplunkd splunkd;
+    private Service service;
+    private SearchCoalescer coalescer;
+
+    @Before
+    public void setUp() throws IOException {
+        splunkd = new StubSplunkd();
+        splunkd.setResultCount(50);
+        splunkd.start();
+        service = Service.connect(splunkd.getServiceArgs());
+        coalescer = new SearchCoalescer(service);
+        coalescer.setPollInterval(10);
+    }
+
+    @After
+    public void tearDown() {
+        splunkd.stop();
+    }
+
+    @Test
+    public void testConcurrentSearchesShareOneJob() throws Exception {
+        final int threads = 20;
+        splunkd.setLatency(20, 20);
+        splunkd.setJobPollsUntilDone(3);
+        final CyclicBarrier created = new CyclicBarrier(threads);
+        final Set<String> sids = Collections.synchronizedSet(new HashSet<String>());
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final List<Integer> counts = Collections.synchronizedList(new ArrayList<Integer>());
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        SearchCoalescer.SharedSearch search =
+                                coalescer.create("search index=main | stats count by host");
+                        created.await();
+                        sids.add(search.getJob().getSid());
+                        ResultsReader reader = search.getResultsReader(new Args("count", 0));
+                        int count = 0;
+                        while (reader.getNextEvent() != null) {
+                            count++;
+                        }
+                        reader.close();
+                        counts.add(count);
+                        search.close();
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        Assert.assertEquals(Collections.<Throwable>emptyList(), failures);
+        Assert.assertEquals(1, sids.size());
+        Assert.assertEquals(1, coalescer.getDispatchCount());
+        Assert.assertEquals(threads - 1, coalescer.getAttachCount());
+        Assert.assertEquals(Collections.nCopies(threads, 50), counts);
+        Assert.assertEquals(0, coalescer.getActiveSearchCount());
+
+        // The last caller to close cancelled the job.
+        Job job = new Job(service, JobCollection.REST_PATH + "/" + sids.iterator().next());
+        try {
+            job.refresh();
+            Assert.fail("Expected an HttpException.");
+        } catch (HttpException e) {
+            Assert.assertEquals(404, e.getStatus());
+        }
+    }
+
+    @Test
+    public void testDifferentSearchesAreNotShared() {
+        SearchCoalescer.SharedSearch first = coalescer.create("search index=main");
+        SearchCoalescer.SharedSearch second = coalescer.create("search index=main", new Args("earliest_time", "-1h"));
+        SearchCoalescer.SharedSearch third = coalescer.create("search  index=main ");
+        Assert.assertFalse(first.getJob().getSid().equals(second.getJob().getSid()));
+        Assert.assertEquals(first.getJob().getSid(), third.getJob().getSid());
+        Assert.assertEquals(2, coalescer.getActiveSearchCount());
+
+        first.close();
+        first.close();
+        Assert.assertEquals(2, coalescer.getActiveSearchCount());
+        third.close();
+        second.close();
+        Assert.assertEquals(0, coalescer.getActiveSearchCount());
+
+        // A later identical search dispatches a new job.
+        SearchCoalescer.SharedSearch fourth = coalescer.create("search index=main");
+        Assert.assertEquals(3, coalescer.getDispatchCount());
+        fourth.close();
+    }
+
+    @Test
+    public void testFailedDispatchIsNotShared() {
+        try {
+            coalescer.create("");
+            Assert.fail("Expected an HttpException.");
+        } catch (HttpException e) {
+            Assert.assertEquals(400, e.getStatus());
+        }
+        Assert.assertEquals(0, coalescer.getActiveSearchCount());
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tests the search result cache against the stub splunkd, so no Splunk
+ * instance is needed.
+ */
+public class SearchResultCacheTest {
+    private StubSplunkd splunkd;
+    private Service service;
+    private SearchResultCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        splunkd = new StubSplunkd();
+        splunkd.setResultCount(50);
+        splunkd.start();
+        cache = new SearchResultCache(1024 * 1024, 60000);
+        ServiceArgs args = splunkd.getServiceArgs();
+        args.setSearchResultCache(cache);
+        service = Service.connect(args);
+    }
+
+    @After
+    public void tearDown() {
+        splunkd.stop();
+    }
+
+    @Test
+    public void testExportIsCached() throws IOException {
+        Assert.assertEquals(50, countEvents(new ResultsReaderXml(service.export("search  index=main"))));
+        long requests = splunkd.getRequestCount();
+
+        // The same search with different whitespace is answered from the cache.
+        Assert.assertEquals(50, countEvents(new ResultsReaderXml(service.export(" search index=main\n"))));
+        Assert.assertEquals(requests, splunkd.getRequestCount());
+        Assert.assertEquals(1, cache.getHitCount());
+
+        // Other arguments or quoted whitespace make a different search.
+        service.export("search index=main", new Args("output_mode", "json")).close();
+        service.export("search index=\"main  \"").close();
+        Assert.assertEquals(requests + 2, splunkd.getRequestCount());
+    }
+
+    @Test
+    public void testOneshotIsCached() throws IOException {
+        Args args = new Args("count", 0);
+        args.put("earliest_time", "-15m");
+        Assert.assertEquals(50, countEvents(new ResultsReaderXml(service.oneshotSearch("search *", args))));
+        Args reordered = new Args("earliest_time", "-15m");
+        reordered.put("count", 0);
+        Assert.assertEquals(50, countEvents(new ResultsReaderXml(service.oneshotSearch("search *", reordered))));
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testPartialReadAndRealTimeAreNotCached() throws IOException {
+        InputStream partial = service.export("search *");
+        partial.read();
+        partial.close();
+        service.export("search *", new Args("earliest_time", "rt-5m")).close();
+        drain(service.export("search *", new Args("earliest_time", "rt-5m")));
+        drain(service.export("search *", new Args("earliest_time", "rt-5m")));
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(0, cache.getMemoryBytes());
+    }
+
+    @Test
+    public void testJobIsReused() {
+        Job first = service.getJobs().create("search index=_internal");
+        String sid = first.getSid();
+        Job second = service.getJobs().create("search  index=_internal");
+        Assert.assertEquals(sid, second.getSid());
+
+        // A cancelled job is dispatched again.
+        first.cancel();
+        Job third = service.getJobs().create("search index=_internal");
+        Assert.assertFalse(sid.equals(third.getSid()));
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        SearchResultCache shortLived = new SearchResultCache(1024 * 1024, 50);
+        service.setSearchResultCache(shortLived);
+        drain(service.export("search *"));
+        Thread.sleep(100);
+        drain(service.export("search *"));
+        Assert.assertEquals(0, shortLived.getHitCount());
+        Assert.assertEquals(2, shortLived.getMissCount());
+    }
+
+    @Test
+    public void testSpillToDisk() throws Exception {
+        File directory = File.createTempFile("splunk-cache", "");
+        directory.delete();
+        // Room in memory for one response of about 30KB.
+        SearchResultCache small = new SearchResultCache(40000, 60000);
+        small.setMaxEntryBytes(40000);
+        small.setSpillDirectory(directory, 1024 * 1024);
+        service.setSearchResultCache(small);
+        try {
+            splunkd.setEventSize(200);
+            drain(service.export("search first"));
+            drain(service.export("search second"));
+            Assert.assertTrue(small.getDiskBytes() > 0);
+            Assert.assertTrue(small.getDiskBytes() < small.getMemoryBytes());
+
+            long requests = splunkd.getRequestCount();
+            Assert.assertEquals(50, countEvents(new ResultsReaderXml(service.export("search first"))));
+            Assert.assertEquals(requests, splunkd.getRequestCount());
+            Assert.assertEquals(1, small.getDiskHitCount());
+        } finally {
+            small.clear();
+            directory.delete();
+        }
+    }
+
+    private static void drain(InputStream stream) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (stream.read(buffer) != -1) { }
+        stream.close();
+    }
+
+    private static int countEvents(ResultsReader reader) throws IOException {
+        int count = 0;
+        while (reader.getNextEvent() != null) {
+            count++;
+        }
+        reader.close();
+        return count;
+    }
+}
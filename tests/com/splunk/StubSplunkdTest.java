@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Tests the SDK against the in-process stub splunkd, so no Splunk instance
+ * is needed.
+ */
+public class StubSplunkdTest {
+    private StubSplunkd splunkd;
+    private Service service;
+
+    @Before
+    public void setUp() throws IOException {
+        splunkd = new StubSplunkd();
+        splunkd.setResultCount(1234);
+        splunkd.start();
+        service = Service.connect(splunkd.getServiceArgs());
+    }
+
+    @After
+    public void tearDown() {
+        splunkd.stop();
+    }
+
+    @Test
+    public void testLoginAndInfo() {
+        Assert.assertEquals("Splunk " + StubSplunkd.SESSION_KEY, service.getToken());
+        Assert.assertEquals("6.0.0", service.getInfo().getVersion());
+    }
+
+    @Test
+    public void testUnauthenticatedRequestFails() {
+        Service anonymous = new Service("127.0.0.1", splunkd.getPort(), "http");
+        try {
+            anonymous.getInfo().getVersion();
+            Assert.fail("Expected an HttpException.");
+        } catch (HttpException e) {
+            Assert.assertEquals(401, e.getStatus());
+        }
+    }
+
+    @Test
+    public void testJobResults() throws Exception {
+        splunkd.setJobPollsUntilDone(3);
+        Job job = service.getJobs().create("search index=_internal");
+        int polls = 0;
+        while (!job.isDone()) {
+            polls++;
+            Assert.assertTrue("The job never finished.", polls < 10);
+        }
+        Assert.assertEquals(1234, job.getResultCount());
+
+        Args args = new Args("count", 0);
+        Assert.assertEquals(1234, countEvents(new ResultsReaderXml(job.getResults(args))));
+        args.put("output_mode", "json");
+        Assert.assertEquals(1234, countEvents(new ResultsReaderJson(job.getResults(args))));
+
+        Args page = new Args("count", 100);
+        page.put("offset", 1200);
+        Assert.assertEquals(34, countEvents(new ResultsReaderXml(job.getResults(page))));
+
+        job.cancel();
+        try {
+            job.refresh();
+            Assert.fail("Expected an HttpException.");
+        } catch (HttpException e) {
+            Assert.assertEquals(404, e.getStatus());
+        }
+    }
+
+    @Test
+    public void testExportAndOneshot() throws Exception {
+        Assert.assertEquals(1234, countEvents(new ResultsReaderXml(
+                service.export("search *"))));
+        Assert.assertEquals(1234, countEvents(new ResultsReaderJson(
+                service.export("search *", new Args("output_mode", "json")))));
+
+        splunkd.setResultCount(7);
+        Args args = new Args("count", 0);
+        Assert.assertEquals(7, countEvents(new ResultsReaderXml(
+                service.oneshotSearch("search *", args))));
+    }
+
+    @Test
+    public void testReceivers() throws Exception {
+        Receiver receiver = service.getReceiver();
+        receiver.submit("main", "first event\nsecond event\n");
+        Assert.assertEquals(2, splunkd.getEventsReceived());
+
+        Socket socket = receiver.attach("main");
+        OutputStream out = socket.getOutputStream();
+        for (int i = 0; i < 100; i++) {
+            out.write(("streamed event " + i + "\n").getBytes("UTF-8"));
+        }
+        out.flush();
+        socket.close();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (splunkd.getEventsReceived() < 102 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(102, splunkd.getEventsReceived());
+    }
+
+    @Test
+    public void testCollections() {
+        splunkd.setCollectionSize(25);
+        EntityCollection<Application> apps = service.getApplications();
+        Assert.assertEquals(25, apps.size());
+        Assert.assertTrue(apps.containsKey("local-3"));
+
+        IndexCollection indexes = service.getIndexes(new Args("count", 10));
+        Assert.assertEquals(10, indexes.size());
+
+        Index created = service.getIndexes().create("sdk-stub-index");
+        Assert.assertEquals("sdk-stub-index", created.getName());
+        Assert.assertTrue(service.getIndexes().containsKey("sdk-stub-index"));
+
+        SavedSearch saved = service.getSavedSearches().create("stub search", "search *");
+        Assert.assertEquals("search *", saved.getSearch());
+        saved.disable();
+        Assert.assertTrue(saved.isDisabled());
+        saved.remove();
+        Assert.assertFalse(service.getSavedSearches().containsKey("stub search"));
+    }
+
+    @Test
+    public void testCannedResponseAndLatency() throws IOException {
+        splunkd.setResponse("GET", "search/jobs/canned/results", 200, "text/xml",
+                "<?xml version='1.0' encoding='UTF-8'?>\n<results preview='0'></results>\n".getBytes("UTF-8"));
+        InputStream results = service.get("search/jobs/canned/results").getContent();
+        Assert.assertEquals(0, countEvents(new ResultsReaderXml(results)));
+
+        splunkd.setLatency(50, 50);
+        long start = System.currentTimeMillis();
+        service.getInfo().getVersion();
+        Assert.assertTrue(System.currentTimeMillis() - start >= 50);
+        Assert.assertTrue(splunkd.getRequestCount() >= 3);
+    }
+
+    private static int countEvents(ResultsReader reader) throws IOException {
+        int count = 0;
+        while (reader.getNextEvent() != null) {
+            count++;
+        }
+        reader.close();
+        return count;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tests the TLS settings of the default SSL socket factory and connection
+ * pre-warming, which need no Splunk instance.
+ */
+public class TlsSettingsTest {
+    @After
+    public void tearDown() {
+        HttpService.setSslProtocols(null);
+        HttpService.setSslCipherSuites(null);
+    }
+
+    @Test
+    public void testProtocolPreference() throws IOException {
+        HttpService.setSslProtocols(new String[] {"TLSv1.2", "NoSuchProtocol"});
+        SSLSocket socket = (SSLSocket) HttpService.getSSLSocketFactory().createSocket();
+        Assert.assertEquals(Arrays.asList("TLSv1.2"), Arrays.asList(socket.getEnabledProtocols()));
+        socket.close();
+
+        HttpService.setSslProtocols(null);
+        socket = (SSLSocket) HttpService.getSSLSocketFactory().createSocket();
+        Assert.assertEquals(Arrays.asList(HttpService.getSslSecurityProtocol().toString()),
+                Arrays.asList(socket.getEnabledProtocols()));
+        socket.close();
+    }
+
+    @Test
+    public void testCipherSuitePreference() throws IOException {
+        String[] supported = HttpService.getSSLSocketFactory().getSupportedCipherSuites();
+        String[] wanted = new String[] {supported[1], "NO_SUCH_SUITE", supported[0]};
+        HttpService.setSslCipherSuites(wanted);
+        SSLSocket socket = (SSLSocket) HttpService.getSSLSocketFactory().createSocket();
+        Assert.assertEquals(Arrays.asList(supported[1], supported[0]),
+                Arrays.asList(socket.getEnabledCipherSuites()));
+        socket.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedProtocols() {
+        HttpService.setSslProtocols(new String[] {"NoSuchProtocol"});
+    }
+
+    @Test
+    public void testPrewarm() throws IOException {
+        StubSplunkd splunkd = new StubSplunkd().start();
+        try {
+            ServiceArgs args = splunkd.getServiceArgs();
+            args.setPrewarmConnections(4);
+            Service.connect(args);
+            // auth/login, server/info, and the pre-warming requests.
+            Assert.assertEquals(6, splunkd.getRequestCount());
+        } finally {
+            splunkd.stop();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import com.splunk.modularinput.BatchingEventWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that the SDK reports its spans to an installed {@code Tracer}. No
+ * Splunk instance is needed.
+ */
+public class TracerTest {
+    private final List<String> spans = new ArrayList<String>();
+    private int open = 0;
+
+    private class RecordingTracer extends Tracer {
+        private synchronized String begin(String span) {
+            open++;
+            return span;
+        }
+
+        private synchronized void end(Object span, String details) {
+            open--;
+            spans.add(span + " " + details);
+        }
+
+        @Override
+        public Object beginRequest(String method, String path) {
+            return begin("request " + method + " " + path);
+        }
+
+        @Override
+        public void endRequest(Object request, RequestMetrics metrics) {
+            end(request, metrics.getStatus() + " in=" + metrics.getBytesIn());
+        }
+
+        @Override
+        public Object beginFeedParse() {
+            return begin("feed");
+        }
+
+        @Override
+        public void endFeedParse(Object parse, int entries) {
+            end(parse, "entries=" + entries);
+        }
+
+        @Override
+        public Object beginResultSet(String reader, boolean preview) {
+            return begin("set " + reader + " preview=" + preview);
+        }
+
+        @Override
+        public void endResultSet(Object set, long rows) {
+            end(set, "rows=" + rows);
+        }
+
+        @Override
+        public Object beginReceiverSubmit(String index, int chars) {
+            return begin("submit " + index + " chars=" + chars);
+        }
+
+        @Override
+        public void endReceiverSubmit(Object submit, boolean succeeded) {
+            end(submit, "succeeded=" + succeeded);
+        }
+
+        @Override
+        public Object beginEventBatch() {
+            return begin("batch");
+        }
+
+        @Override
+        public void endEventBatch(Object batch, int events, long chars) {
+            end(batch, "events=" + events);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        Tracer.setTracer(new RecordingTracer());
+    }
+
+    @After
+    public void tearDown() {
+        Tracer.setTracer(null);
+    }
+
+    @Test
+    public void testAtomFeedParse() {
+        AtomFeed feed = AtomFeed.parseStream(
+                SDKTestCase.openResource("data/atom/atom_with_several_entries.xml"));
+        Assert.assertEquals(3, feed.entries.size());
+        Assert.assertEquals(1, spans.size());
+        Assert.assertEquals("feed entries=3", spans.get(0));
+        Assert.assertEquals(0, open);
+    }
+
+    @Test
+    public void testResultSet() throws IOException {
+        ResultsReaderXml reader = new ResultsReaderXml(SDKTestCase.openResource("results.xml"));
+        int rows = 0;
+        for (Event ignored : reader) {
+            rows++;
+        }
+        reader.close();
+
+        Assert.assertEquals(1, spans.size());
+        Assert.assertEquals("set ResultsReaderXml preview=false rows=" + rows, spans.get(0));
+        Assert.assertEquals(0, open);
+    }
+
+    @Test
+    public void testResultSetEndsOnClose() throws IOException {
+        ResultsReaderCsv reader = new ResultsReaderCsv(SDKTestCase.openResource("results.csv"));
+        reader.getNextEvent();
+        reader.getNextEvent();
+        Assert.assertTrue(spans.isEmpty());
+        reader.close();
+
+        Assert.assertEquals(1, spans.size());
+        Assert.assertEquals("set ResultsReaderCsv preview=false rows=2", spans.get(0));
+    }
+
+    @Test
+    public void testEventBatches() throws Exception {
+        StringWriter out = new StringWriter();
+        BatchingEventWriter writer = new BatchingEventWriter(out, new StringWriter());
+        for (int i = 0; i < 10; i++) {
+            com.splunk.modularinput.Event event = new com.splunk.modularinput.Event();
+            event.setStanza("test://tracer");
+            event.setData("event " + i);
+            writer.writeEvent(event);
+        }
+        writer.close();
+
+        int events = 0;
+        for (String span : spans) {
+            Assert.assertTrue(span, span.startsWith("batch events="));
+            events += Integer.parseInt(span.substring("batch events=".length()));
+        }
+        Assert.assertEquals(10, events);
+        Assert.assertEquals(0, open);
+    }
+
+    @Test
+    public void testRequestsAndReceiverSubmit() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                while (in.read() != -1) { }
+                byte[] body = "<response/>".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        try {
+            Service service = new Service("127.0.0.1", server.getAddress().getPort(), "http");
+            service.getReceiver().submit("main", "hello, world");
+        } finally {
+            server.stop(0);
+        }
+
+        Assert.assertEquals(2, spans.size());
+        Assert.assertEquals("request POST /services/receivers/simple?index=main 200 in=0",
+                spans.get(0));
+        Assert.assertEquals("submit main chars=12 succeeded=true", spans.get(1));
+        Assert.assertEquals(0, open);
+    }
+
+    @Test
+    public void testNoTracer() {
+        Tracer.setTracer(null);
+        AtomFeed.parseStream(SDKTestCase.openResource("data/atom/atom_with_several_entries.xml"));
+        Assert.assertTrue(spans.isEmpty());
+    }
+}
@@ -0,0 +1,235 @@
+package com.splunk.modularinput;
+
+import com.splunk.SDKTestCase;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks that BatchingEventWriter produces the same stream as EventWriter, from one thread and from many.
+ */
+public class BatchingEventWriterTest extends ModularInputTestCase {
+    private Event makeEvent(String stanza, String data) {
+        Event event = new Event();
+        event.setTime(new Date(1372275124466L));
+        event.setStanza(stanza);
+        event.setData(data);
+        event.setHost("localhost");
+        event.setIndex("main");
+        event.setSource("hilda");
+        event.setSourceType("misc");
+        return event;
+    }
+
+    /**
+     * Events written from one thread should come out in order and be identical to what EventWriter writes.
+     */
+    @Test
+    public void testWritingEventsOnBatchingEventWriter() throws XMLStreamException, MalformedDataException,
+            TransformerException, ParserConfigurationException {
+        StringWriter out = new StringWriter();
+        StringWriter err = new StringWriter();
+
+        BatchingEventWriter ew = new BatchingEventWriter(out, err);
+
+        Event event = makeEvent("fubar", "This is a test of the emergency broadcast system.");
+        ew.writeEvent(event);
+        ew.writeEvent(event);
+        ew.close();
+
+        Document found = stringToXmlDocument(out.toString());
+        Document expected = resourceToXmlDocument("modularinput/data/stream_with_two_events.xml");
+        assertXmlEqual(expected, found);
+        Assert.assertEquals("", err.toString());
+        Assert.assertEquals(2, ew.getEventsWritten());
+    }
+
+    /**
+     * A batch that has not reached its size limits should still be written once its delay has passed.
+     */
+    @Test
+    public void testBatchIsFlushedAfterDelay() throws XMLStreamException, MalformedDataException,
+            InterruptedException {
+        StringWriter out = new StringWriter();
+        StringWriter err = new StringWriter();
+
+        BatchingEventWriter ew = new BatchingEventWriter(out, err, 1000, 1 << 20, 10);
+        ew.writeEvent(makeEvent("fubar", "an event"));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ew.getEventsWritten() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(1, ew.getEventsWritten());
+        Assert.assertTrue(out.toString().contains("<data>an event</data>"));
+        ew.close();
+    }
+
+    /**
+     * Events written concurrently from many threads should all arrive, each thread's events in the order it wrote
+     * them, in fewer batches than events.
+     */
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        StringWriter out = new StringWriter();
+        StringWriter err = new StringWriter();
+
+        final int nThreads = 8;
+        final int eventsPerThread = 2000;
+        final BatchingEventWriter ew = new BatchingEventWriter(out, err, 64, 16 * 1024, 50, 256);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < nThreads; t++) {
+            final String stanza = "input://" + t;
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < eventsPerThread; i++) {
+                        try {
+                            ew.writeEvent(makeEvent(stanza, Integer.toString(i)));
+                        } catch (MalformedDataException e) {
+                            throw new AssertionError(e);
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        ew.close();
+
+        Assert.assertEquals("", err.toString());
+        Assert.assertEquals(nThreads * eventsPerThread, ew.getEventsWritten());
+        Assert.assertTrue(ew.getBatchesWritten() < ew.getEventsWritten());
+
+        Document found = stringToXmlDocument(out.toString());
+        NodeList events = found.getElementsByTagName("event");
+        Assert.assertEquals(nThreads * eventsPerThread, events.getLength());
+
+        Map<String, Integer> nextExpected = new HashMap<String, Integer>();
+        for (int i = 0; i < events.getLength(); i++) {
+            Element e = (Element) events.item(i);
+            String stanza = e.getAttribute("stanza");
+            int data = Integer.parseInt(e.getElementsByTagName("data").item(0).getTextContent());
+            Integer expected = nextExpected.get(stanza);
+            Assert.assertEquals(expected == null ? 0 : expected.intValue(), data);
+            nextExpected.put(stanza, data + 1);
+        }
+    }
+
+    /**
+     * An event without data should fail in the calling thread, as it does with EventWriter.
+     */
+    @Test
+    public void testErrorInBatchingEventWriter() throws XMLStreamException {
+        StringWriter out = new StringWriter();
+        StringWriter err = new StringWriter();
+
+        BatchingEventWriter ew = new BatchingEventWriter(out, err);
+        try {
+            ew.writeEvent(new Event());
+            Assert.fail();
+        } catch (MalformedDataException e) {
+            Assert.assertTrue(err.toString().startsWith("WARN"));
+        } finally {
+            ew.close();
+        }
+    }
+
+    /**
+     * Events queued before streamEvents throws should still be written when Script.run returns.
+     */
+    @Test
+    public void testQueuedEventsWrittenWhenStreamEventsFails() throws XMLStreamException {
+        StringWriter out = new StringWriter();
+        StringWriter err = new StringWriter();
+        // A delay long enough that nothing is written before the writer is closed.
+        BatchingEventWriter ew = new BatchingEventWriter(out, err, 1000, 1 << 20, 60000);
+
+        Script script = new Script() {
+            @Override
+            public Scheme getScheme() {
+                return null;  // Unused
+            }
+
+            @Override
+            public void streamEvents(InputDefinition inputs, EventWriter ew) throws MalformedDataException,
+                    XMLStreamException {
+                ew.writeEvent(makeEvent("fubar", "first"));
+                ew.writeEvent(makeEvent("fubar", "second"));
+                throw new IllegalStateException("The input failed.");
+            }
+        };
+
+        InputStream input = SDKTestCase.openResource("modularinput/data/conf_with_2_inputs.xml");
+        Assert.assertEquals(1, script.run(new String[] {}, ew, input));
+        Assert.assertEquals(2, ew.getEventsWritten());
+        Assert.assertTrue(out.toString().contains("<data>second</data>"));
+        Assert.assertTrue(out.toString().trim().endsWith("</stream>"));
+        Assert.assertTrue(err.toString().startsWith(EventWriter.ERROR));
+    }
+
+    /**
+     * Every writeEvent that races with close either throws or has its event written.
+     */
+    @Test
+    public void testCloseWhileWriting() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            final BatchingEventWriter ew = new BatchingEventWriter(new StringWriter(), new StringWriter(),
+                    64, 16 * 1024, 50, 4);
+            final AtomicLong accepted = new AtomicLong();
+            final CountDownLatch started = new CountDownLatch(4);
+            List<Thread> producers = new ArrayList<Thread>();
+            for (int t = 0; t < 4; t++) {
+                Thread producer = new Thread(new Runnable() {
+                    public void run() {
+                        started.countDown();
+                        try {
+                            while (true) {
+                                ew.writeEvent(makeEvent("fubar", "racing"));
+                                accepted.incrementAndGet();
+                            }
+                        } catch (IllegalStateException e) {
+                            // Closed.
+                        } catch (MalformedDataException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+                producers.add(producer);
+                producer.start();
+            }
+            started.await();
+            ew.close();
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            Assert.assertEquals(accepted.get(), ew.getEventsWritten());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWriteAfterClose() throws XMLStreamException, MalformedDataException {
+        BatchingEventWriter ew = new BatchingEventWriter(new StringWriter(), new StringWriter());
+        ew.writeEvent(makeEvent("fubar", "first"));
+        ew.close();
+        ew.writeEvent(makeEvent("fubar", "second"));
+    }
+}
@@ -0,0 +1,179 @@
+package com.splunk.modularinput;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that CheckpointStore keeps checkpoints across reopening, compaction, and torn writes.
+ */
+public class CheckpointStoreTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("checkpoints", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private File logFile() {
+        for (File f : directory.listFiles()) {
+            if (f.getName().endsWith(".ckpt")) {
+                return f;
+            }
+        }
+        throw new AssertionError("No checkpoint log in " + directory);
+    }
+
+    @Test
+    public void testPutGetRemove() throws IOException {
+        CheckpointStore store = new CheckpointStore(directory);
+        Assert.assertNull(store.get("foobar://aaa", "last_id"));
+
+        store.put("foobar://aaa", "last_id", "17");
+        store.put("foobar://bbb", "last_id", "\u00FCber");
+        Assert.assertEquals("17", store.get("foobar://aaa", "last_id"));
+        Assert.assertEquals("\u00FCber", store.get("foobar://bbb", "last_id"));
+
+        store.remove("foobar://aaa", "last_id");
+        Assert.assertNull(store.get("foobar://aaa", "last_id"));
+        Assert.assertEquals(1, store.getAll("foobar://bbb").size());
+        store.close();
+    }
+
+    @Test
+    public void testCheckpointsSurviveReopen() throws IOException {
+        CheckpointStore store = new CheckpointStore(directory);
+        store.put("foobar://aaa", "offset", "1");
+        store.put("foobar://aaa", "offset", "2");
+        store.put("foobar://aaa", "file", "/var/log/messages");
+        store.put("foobar://bbb", "offset", "3");
+        store.remove("foobar://bbb", "offset");
+        store.close();
+
+        store = new CheckpointStore(directory);
+        Assert.assertEquals("2", store.get("foobar://aaa", "offset"));
+        Assert.assertEquals("/var/log/messages", store.get("foobar://aaa", "file"));
+        Assert.assertNull(store.get("foobar://bbb", "offset"));
+
+        store.put("foobar://bbb", "offset", "4");
+        store.close();
+
+        store = new CheckpointStore(directory);
+        Assert.assertEquals("4", store.get("foobar://bbb", "offset"));
+        store.close();
+    }
+
+    @Test
+    public void testCompactionKeepsLatestValues() throws IOException {
+        CheckpointStore store = new CheckpointStore(directory, "compacted", 0);
+        for (int i = 0; i < 30000; i++) {
+            store.put("foobar://" + (i % 10), "offset", Integer.toString(i));
+        }
+        // Automatic compaction must have replaced the first log.
+        Assert.assertFalse(new File(directory, "compacted.0.ckpt").exists());
+        store.compact();
+        store.put("foobar://0", "extra", "after compaction");
+        store.close();
+
+        store = new CheckpointStore(directory, "compacted", 0);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(Integer.toString(29990 + i), store.get("foobar://" + i, "offset"));
+        }
+        Assert.assertEquals("after compaction", store.get("foobar://0", "extra"));
+        store.close();
+    }
+
+    @Test
+    public void testTornWriteIsDiscarded() throws IOException {
+        CheckpointStore store = new CheckpointStore(directory);
+        store.put("foobar://aaa", "offset", "1");
+        store.put("foobar://aaa", "offset", "2");
+        store.close();
+
+        // Corrupt the body of the last record, as a crash in the middle of writing it would.
+        File log = logFile();
+        RandomAccessFile raf = new RandomAccessFile(log, "rw");
+        byte[] contents = new byte[4096];
+        raf.readFully(contents);
+        int end = contents.length;
+        while (contents[end - 1] == 0) {
+            end--;
+        }
+        raf.seek(end - 1);
+        raf.write('X');
+        raf.close();
+
+        store = new CheckpointStore(directory);
+        Assert.assertEquals("1", store.get("foobar://aaa", "offset"));
+        store.put("foobar://aaa", "offset", "3");
+        store.put("foobar://aaa", "other", "4");
+        store.close();
+
+        store = new CheckpointStore(directory);
+        Assert.assertEquals("3", store.get("foobar://aaa", "offset"));
+        Assert.assertEquals("4", store.get("foobar://aaa", "other"));
+        store.close();
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final CheckpointStore store = new CheckpointStore(directory);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final String stanza = "foobar://" + t;
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 5000; i++) {
+                            store.put(stanza, "offset", Integer.toString(i));
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        store.close();
+
+        CheckpointStore reopened = new CheckpointStore(directory);
+        for (int t = 0; t < 8; t++) {
+            Assert.assertEquals("4999", reopened.get("foobar://" + t, "offset"));
+        }
+        reopened.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testStoreCannotBeOpenedTwice() throws IOException {
+        CheckpointStore store = new CheckpointStore(directory);
+        try {
+            new CheckpointStore(directory);
+        } finally {
+            store.close();
+        }
+    }
+}
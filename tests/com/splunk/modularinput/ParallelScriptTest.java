@@ -0,0 +1,160 @@
+package com.splunk.modularinput;
+
+import com.splunk.SDKTestCase;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test that ParallelScript runs each stanza on its own and keeps failures of one stanza away from the others.
+ */
+public class ParallelScriptTest extends ModularInputTestCase {
+    StringWriter out, err;
+    EventWriter eventWriter;
+
+    @Before
+    public void setUp() throws XMLStreamException {
+        out = new StringWriter();
+        err = new StringWriter();
+        eventWriter = new BatchingEventWriter(out, err);
+    }
+
+    /*
+     * Both stanzas of conf_with_2_inputs.xml should run at the same time, each writing events tagged with
+     * its own stanza.
+     */
+    @Test
+    public void testStanzasRunInParallel() {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        ParallelScript script = new ParallelScript() {
+            @Override
+            public Scheme getScheme() {
+                return null;  // Unused
+            }
+
+            @Override
+            public void streamStanzaEvents(String stanzaName, Map<String, Parameter> parameters,
+                                           InputDefinition inputs, EventWriter ew) throws Exception {
+                bothStarted.countDown();
+                Assert.assertTrue(bothStarted.await(5, TimeUnit.SECONDS));
+                String param1 = ((SingleValueParameter) parameters.get("param1")).getValue();
+                for (int i = 0; i < 10; i++) {
+                    Event event = new Event();
+                    event.setData(param1 + " " + i);
+                    ew.writeEvent(event);
+                }
+            }
+        };
+
+        InputStream input = SDKTestCase.openResource("modularinput/data/conf_with_2_inputs.xml");
+        int returnValue = script.run(new String[] {}, eventWriter, input);
+
+        Assert.assertEquals(0, returnValue);
+        Assert.assertFalse(err.toString().contains("ERROR"));
+
+        Document found = stringToXmlDocument(out.toString());
+        NodeList events = found.getElementsByTagName("event");
+        Assert.assertEquals(20, events.getLength());
+        for (int i = 0; i < events.getLength(); i++) {
+            Element event = (Element) events.item(i);
+            String data = event.getElementsByTagName("data").item(0).getTextContent();
+            if (data.startsWith("value11 ")) {
+                Assert.assertEquals("foobar://bbb", event.getAttribute("stanza"));
+            } else {
+                Assert.assertTrue(data.startsWith("value1 "));
+                Assert.assertEquals("foobar://aaa", event.getAttribute("stanza"));
+            }
+        }
+
+        Map<String, StanzaMetrics> metrics = script.getStanzaMetrics();
+        Assert.assertEquals(2, metrics.size());
+        for (StanzaMetrics m : metrics.values()) {
+            Assert.assertEquals(10, m.getEventCount());
+            Assert.assertEquals(0, m.getErrorCount());
+            Assert.assertFalse(m.isRunning());
+        }
+    }
+
+    /*
+     * An exception in one stanza should be logged and counted, and not stop the other stanza.
+     */
+    @Test
+    public void testFailureIsIsolatedToStanza() {
+        ParallelScript script = new ParallelScript() {
+            @Override
+            public Scheme getScheme() {
+                return null;  // Unused
+            }
+
+            @Override
+            public void streamStanzaEvents(String stanzaName, Map<String, Parameter> parameters,
+                                           InputDefinition inputs, EventWriter ew) throws Exception {
+                if (stanzaName.equals("foobar://aaa")) {
+                    throw new IllegalStateException("Oh, the vogonity!");
+                }
+                Event event = new Event();
+                event.setData("survivor");
+                ew.writeEvent(event);
+            }
+        };
+        script.setMaxParallelism(1);
+
+        InputStream input = SDKTestCase.openResource("modularinput/data/conf_with_2_inputs.xml");
+        int returnValue = script.run(new String[] {}, eventWriter, input);
+
+        Assert.assertEquals(0, returnValue);
+        Assert.assertTrue(err.toString().contains("ERROR Input foobar://aaa failed: " +
+                "java.lang.IllegalStateException: Oh, the vogonity!"));
+        Assert.assertTrue(out.toString().contains("<data>survivor</data>"));
+
+        StanzaMetrics failed = script.getStanzaMetrics().get("foobar://aaa");
+        Assert.assertEquals(1, failed.getErrorCount());
+        Assert.assertTrue(failed.getLastError() instanceof IllegalStateException);
+        Assert.assertEquals(1, script.getStanzaMetrics().get("foobar://bbb").getEventCount());
+    }
+
+    /*
+     * requestShutdown should interrupt stanzas that are blocked and let the script exit.
+     */
+    @Test
+    public void testRequestShutdownStopsStanzas() {
+        final AtomicInteger interrupted = new AtomicInteger();
+        final ParallelScript[] holder = new ParallelScript[1];
+        ParallelScript script = new ParallelScript() {
+            @Override
+            public Scheme getScheme() {
+                return null;  // Unused
+            }
+
+            @Override
+            public void streamStanzaEvents(String stanzaName, Map<String, Parameter> parameters,
+                                           InputDefinition inputs, EventWriter ew) throws Exception {
+                holder[0].requestShutdown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.incrementAndGet();
+                }
+            }
+        };
+        holder[0] = script;
+
+        InputStream input = SDKTestCase.openResource("modularinput/data/conf_with_2_inputs.xml");
+        int returnValue = script.run(new String[] {}, eventWriter, input);
+
+        Assert.assertEquals(0, returnValue);
+        Assert.assertTrue(script.isShuttingDown());
+        Assert.assertTrue(interrupted.get() >= 1);
+    }
+}
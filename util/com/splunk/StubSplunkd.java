@@ -0,0 +1,1316 @@
+/*
+ * Copyright 2012 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code StubSplunkd} class is an embeddable, in-process stand-in for
+ * splunkd's REST API, for exercising the SDK without a Splunk instance: in
+ * unit tests, in CI, and in throughput and latency benchmarks of the whole
+ * {@code Service} stack. It serves plain HTTP on the loopback interface.
+ * <p>
+ * It implements enough of splunkd for the common SDK calls:
+ * <ul>
+ * <li>{@code auth/login} and {@code server/info}.</li>
+ * <li>{@code search/jobs}: creating normal, blocking, and oneshot jobs,
+ * listing them, polling their status, control actions, and reading their
+ * results, events, and preview in XML, JSON, or CSV.</li>
+ * <li>{@code search/jobs/export}, streamed in XML, JSON, or CSV.</li>
+ * <li>{@code receivers/simple} and {@code receivers/stream}, which count the
+ * events and bytes they receive.</li>
+ * <li>Atom collection listings and basic create, update, and delete for the
+ * collections in {@code DEFAULT_COLLECTIONS} and any added with
+ * {@code addCollection}.</li>
+ * </ul>
+ * Search results are generated: {@code setResultCount} rows of
+ * {@code _time}, {@code host}, {@code source}, {@code sourcetype}, and a
+ * {@code _raw} of about {@code setEventSize} characters. Canned payloads can
+ * be replayed for any path with {@code setResponse}, and every response can
+ * be delayed with {@code setLatency} and {@code setTailLatency}.
+ * <p>
+ * Example:
+ * <pre>
+ * StubSplunkd splunkd = new StubSplunkd();
+ * splunkd.setResultCount(10000);
+ * splunkd.setLatency(1, 5);
+ * splunkd.start();
+ * Service service = Service.connect(splunkd.getServiceArgs());
+ * ...
+ * splunkd.stop();
+ * </pre>
+ */
+public class StubSplunkd {
+    /** The session key returned by {@code auth/login}. */
+    public static final String SESSION_KEY = "stub-session-key";
+
+    /** The collections served by default, relative to {@code /services}. */
+    public static final String[] DEFAULT_COLLECTIONS = new String[] {
+        "apps/local",
+        "authentication/users",
+        "authorization/roles",
+        "data/indexes",
+        "data/inputs/monitor",
+        "data/inputs/script",
+        "data/inputs/tcp/cooked",
+        "data/inputs/tcp/raw",
+        "data/inputs/udp",
+        "messages",
+        "saved/eventtypes",
+        "saved/searches",
+        "storage/passwords",
+    };
+
+    /** The time to live, in seconds, of search jobs, which {@code touch} restores. */
+    public static final int DEFAULT_JOB_TTL = 600;
+
+    // The number of rows in each result set of a generated export stream.
+    private static final int EXPORT_SET_SIZE = 500;
+    private static final String UPDATED = "2013-01-01T00:00:00+00:00";
+    private static final String[] FIELDS = new String[] {
+        "_time", "host", "source", "sourcetype", "_raw"
+    };
+
+    private final ConcurrentMap<String, CannedResponse> cannedResponses =
+            new ConcurrentHashMap<String, CannedResponse>();
+    private final ConcurrentMap<String, StubJob> jobs =
+            new ConcurrentHashMap<String, StubJob>();
+    private final ConcurrentMap<String, Map<String, Map<String, String>>> collections =
+            new ConcurrentHashMap<String, Map<String, Map<String, String>>>();
+    private final Set<String> collectionPaths = new CopyOnWriteArraySet<String>();
+    private final Set<Socket> openSockets = Collections.synchronizedSet(new HashSet<Socket>());
+    private final Random random = new Random();
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong eventsReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong nextSid = new AtomicLong();
+
+    private volatile String version = "6.0.0";
+    private volatile int resultCount = 100;
+    private volatile int eventSize = 100;
+    private volatile int collectionSize = 10;
+    private volatile int jobPollsUntilDone = 0;
+    private volatile int jobTtl = DEFAULT_JOB_TTL;
+    private volatile long minLatencyMillis = 0;
+    private volatile long maxLatencyMillis = 0;
+    private volatile double tailLatencyProbability = 0;
+    private volatile long tailLatencyMillis = 0;
+
+    private ServerSocket serverSocket;
+    private ExecutorService connections;
+    private volatile boolean running = false;
+
+    /**
+     * Creates a stub splunkd. Call {@code start} to start serving.
+     */
+    public StubSplunkd() {
+        for (String path : DEFAULT_COLLECTIONS) {
+            collectionPaths.add(path);
+        }
+    }
+
+    /**
+     * Starts serving on an ephemeral port of the loopback interface.
+     *
+     * @return This {@code StubSplunkd}.
+     * @throws IOException If the server socket cannot be opened.
+     */
+    public synchronized StubSplunkd start() throws IOException {
+        return start(0);
+    }
+
+    /**
+     * Starts serving on the given port of the loopback interface.
+     *
+     * @param port The port, or 0 for an ephemeral port.
+     * @return This {@code StubSplunkd}.
+     * @throws IOException If the server socket cannot be opened.
+     */
+    public synchronized StubSplunkd start(int port) throws IOException {
+        if (running) {
+            throw new IllegalStateException("The stub splunkd is already running.");
+        }
+        serverSocket = new ServerSocket(port, 128, InetAddress.getByName("127.0.0.1"));
+        final AtomicInteger threadCount = new AtomicInteger();
+        connections = Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "stub-splunkd-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        running = true;
+        connections.execute(new Runnable() {
+            public void run() {
+                acceptLoop();
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Stops serving and closes every open connection.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Nothing more to do.
+        }
+        synchronized (openSockets) {
+            for (Socket socket : openSockets) {
+                closeQuietly(socket);
+            }
+            openSockets.clear();
+        }
+        connections.shutdownNow();
+    }
+
+    /**
+     * Returns the port the stub splunkd is serving on.
+     *
+     * @return The port.
+     */
+    public int getPort() {
+        if (serverSocket == null) {
+            throw new IllegalStateException("The stub splunkd has not been started.");
+        }
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the arguments for connecting a {@code Service} to this stub
+     * splunkd. Any username and password are accepted.
+     *
+     * @return The {@code ServiceArgs}.
+     */
+    public ServiceArgs getServiceArgs() {
+        ServiceArgs args = new ServiceArgs();
+        args.setHost("127.0.0.1");
+        args.setPort(getPort());
+        args.setScheme("http");
+        args.setUsername("admin");
+        args.setPassword("changeme");
+        return args;
+    }
+
+    /**
+     * Sets the version reported by {@code server/info}. The default is
+     * {@code "6.0.0"}.
+     *
+     * @param version The Splunk version.
+     */
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    /**
+     * Sets the number of results generated for search jobs created from now
+     * on, oneshot searches, and exports. The default is 100.
+     *
+     * @param resultCount The number of results.
+     */
+    public void setResultCount(int resultCount) {
+        this.resultCount = resultCount;
+    }
+
+    /**
+     * Sets the approximate length, in characters, of the {@code _raw} field
+     * of generated results. The default is 100.
+     *
+     * @param eventSize The length of each event.
+     */
+    public void setEventSize(int eventSize) {
+        this.eventSize = eventSize;
+    }
+
+    /**
+     * Sets the number of entities that a collection holds the first time it
+     * is used. The default is 10.
+     *
+     * @param collectionSize The number of entities.
+     */
+    public void setCollectionSize(int collectionSize) {
+        this.collectionSize = collectionSize;
+    }
+
+    /**
+     * Sets the number of times the status of a normal search job is read as
+     * running before the job is done. The default is 0, so jobs are done as
+     * soon as they are created.
+     *
+     * @param polls The number of polls.
+     */
+    public void setJobPollsUntilDone(int polls) {
+        this.jobPollsUntilDone = polls;
+    }
+
+    /**
+     * Sets the time to live reported by search jobs created from now on,
+     * until they are touched. The default is {@link #DEFAULT_JOB_TTL}.
+     *
+     * @param ttl The time to live, in seconds.
+     */
+    public void setJobTtl(int ttl) {
+        this.jobTtl = ttl;
+    }
+
+    /**
+     * Delays every response by a random time between {@code minMillis} and
+     * {@code maxMillis} milliseconds.
+     *
+     * @param minMillis The shortest delay.
+     * @param maxMillis The longest delay.
+     */
+    public void setLatency(long minMillis, long maxMillis) {
+        if (minMillis < 0 || maxMillis < minMillis) {
+            throw new IllegalArgumentException("Invalid latency range.");
+        }
+        this.minLatencyMillis = minMillis;
+        this.maxLatencyMillis = maxMillis;
+    }
+
+    /**
+     * Delays a random fraction of responses by a further {@code millis}
+     * milliseconds, to model tail latency.
+     *
+     * @param probability The fraction of responses to delay, between 0 and 1.
+     * @param millis The extra delay.
+     */
+    public void setTailLatency(double probability, long millis) {
+        this.tailLatencyProbability = probability;
+        this.tailLatencyMillis = millis;
+    }
+
+    /**
+     * Replays a canned response for every request with the given method and
+     * path, instead of the built-in behavior.
+     *
+     * @param method The HTTP method.
+     * @param path The path relative to {@code /services} (such as
+     * {@code "server/info"}), which matches under any {@code servicesNS}
+     * namespace too, or a full path starting with a slash.
+     * @param status The HTTP status.
+     * @param contentType The value of the {@code Content-Type} header.
+     * @param body The body of the response.
+     */
+    public void setResponse(String method, String path, int status, String contentType, byte[] body) {
+        cannedResponses.put(method + " " + path, new CannedResponse(status, contentType, body));
+    }
+
+    /**
+     * Serves an additional Atom collection, such as
+     * {@code "data/inputs/win-event-log-collections"}.
+     *
+     * @param path The path of the collection, relative to {@code /services}.
+     */
+    public void addCollection(String path) {
+        collectionPaths.add(path);
+    }
+
+    /**
+     * @return The number of HTTP requests served.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return The number of events received by the receivers endpoints,
+     * counted as lines.
+     */
+    public long getEventsReceived() {
+        return eventsReceived.get();
+    }
+
+    /**
+     * @return The number of bytes of events received by the receivers
+     * endpoints.
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return; // Closed by stop.
+            }
+            openSockets.add(socket);
+            try {
+                connections.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            serve(socket);
+                        } finally {
+                            openSockets.remove(socket);
+                            closeQuietly(socket);
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                openSockets.remove(socket);
+                closeQuietly(socket); // Rejected during stop.
+            }
+        }
+    }
+
+    // Serves the requests of one keep-alive connection.
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (running) {
+                Request request = Request.read(in);
+                if (request == null) {
+                    return;
+                }
+                requestCount.incrementAndGet();
+
+                if (request.relativePath.equals("receivers/stream")) {
+                    // The stream receiver reads events until the client
+                    // closes the socket, and never responds.
+                    countEvents(in);
+                    return;
+                }
+
+                request.readBody(in);
+                Response response = handle(request);
+                delay();
+                response.write(out, request.keepAlive);
+                if (!request.keepAlive) {
+                    return;
+                }
+            }
+        } catch (SocketException e) {
+            // The client or stop closed the connection.
+        } catch (IOException e) {
+            // Drop the connection, as splunkd would.
+        }
+    }
+
+    private void delay() {
+        long millis = minLatencyMillis;
+        if (maxLatencyMillis > minLatencyMillis) {
+            millis += (long) (random.nextDouble() * (maxLatencyMillis - minLatencyMillis + 1));
+        }
+        if (tailLatencyProbability > 0 && random.nextDouble() < tailLatencyProbability) {
+            millis += tailLatencyMillis;
+        }
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Response handle(Request request) {
+        CannedResponse canned = cannedResponses.get(request.method + " " + request.path);
+        if (canned == null) {
+            canned = cannedResponses.get(request.method + " " + request.relativePath);
+        }
+        if (canned != null) {
+            return Response.bytes(canned.status, canned.contentType, canned.body);
+        }
+
+        String path = request.relativePath;
+        if (path.equals("auth/login") && request.method.equals("POST")) {
+            return Response.xml(200, "<response>\n<sessionKey>" + SESSION_KEY + "</sessionKey>\n</response>\n");
+        }
+        if (!("Splunk " + SESSION_KEY).equals(request.headers.get("authorization"))) {
+            return message(401, "WARN", "call not properly authenticated");
+        }
+
+        if (path.equals("server/info")) {
+            Map<String, String> info = new LinkedHashMap<String, String>();
+            info.put("build", "stub");
+            info.put("cpu_arch", "x86_64");
+            info.put("guid", "00000000-0000-0000-0000-000000000000");
+            info.put("licenseState", "OK");
+            info.put("mode", "normal");
+            info.put("os_name", "Linux");
+            info.put("serverName", "stub-splunkd");
+            info.put("version", version);
+            return Response.xml(200, feed("server-info", "server/info",
+                    Collections.singletonMap("server-info", info), 0, 0));
+        }
+        if (path.equals("receivers/simple")) {
+            return receiveSimple(request);
+        }
+        if (path.equals("search/jobs/export")) {
+            return export(request);
+        }
+        if (path.equals("search/jobs")) {
+            return request.method.equals("POST") ? createJob(request) : listJobs(request);
+        }
+        if (path.startsWith("search/jobs/")) {
+            return handleJob(request, path.substring("search/jobs/".length()));
+        }
+        return handleCollection(request);
+    }
+
+    private Response receiveSimple(Request request) {
+        if (!request.method.equals("POST")) {
+            return message(405, "ERROR", "Method not allowed.");
+        }
+        int events = countLines(request.body, 0, request.body.length);
+        if (events == 0 && request.body.length > 0) {
+            events = 1;
+        }
+        eventsReceived.addAndGet(events);
+        bytesReceived.addAndGet(request.body.length);
+        String index = request.params.containsKey("index") ? request.params.get("index") : "main";
+        return Response.xml(200, "<response>\n<results>\n<result>\n"
+                + "<field k='_index'>\n<value><text>" + xmlEscape(index) + "</text></value>\n</field>\n"
+                + "<field k='bytes'>\n<value><text>" + request.body.length + "</text></value>\n</field>\n"
+                + "</result>\n</results>\n</response>\n");
+    }
+
+    private void countEvents(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        int n;
+        boolean pending = false;
+        while ((n = in.read(buffer)) != -1) {
+            bytesReceived.addAndGet(n);
+            eventsReceived.addAndGet(countLines(buffer, 0, n));
+            pending = buffer[n - 1] != '\n';
+        }
+        if (pending) {
+            eventsReceived.incrementAndGet();
+        }
+    }
+
+    private Response createJob(Request request) {
+        String execMode = request.params.get("exec_mode");
+        if ("oneshot".equals(execMode)) {
+            return results(request, resultCount);
+        }
+        String search = request.params.get("search");
+        if (search == null || search.trim().length() == 0) {
+            return message(400, "FATAL", "Empty search.");
+        }
+        // The port keeps the sids of several stubs apart, as the server name
+        // does for the members of a search head cluster.
+        String sid = "stub_" + getPort() + "_" + System.currentTimeMillis() / 1000 + "." + nextSid.incrementAndGet();
+        int polls = "blocking".equals(execMode) ? 0 : jobPollsUntilDone;
+        jobs.put(sid, new StubJob(sid, search, resultCount, polls, jobTtl));
+        return Response.xml(201, "<?xml version='1.0' encoding='UTF-8'?>\n<response><sid>" + sid + "</sid></response>\n");
+    }
+
+    private Response listJobs(Request request) {
+        Map<String, Map<String, String>> entries = new LinkedHashMap<String, Map<String, String>>();
+        for (StubJob job : jobs.values()) {
+            entries.put(job.sid, job.content(false));
+        }
+        return Response.xml(200, feed("jobs", "search/jobs", entries,
+                request.intParam("count", 0), request.intParam("offset", 0)));
+    }
+
+    private Response handleJob(Request request, String rest) {
+        int slash = rest.indexOf('/');
+        String sid = decode(slash < 0 ? rest : rest.substring(0, slash));
+        String action = slash < 0 ? "" : rest.substring(slash + 1);
+        StubJob job = jobs.get(sid);
+        if (job == null) {
+            return message(404, "FATAL", "Unknown sid.");
+        }
+
+        if (action.equals("")) {
+            if (request.method.equals("DELETE")) {
+                jobs.remove(sid);
+                return message(200, "INFO", "Search job cancelled.");
+            }
+            return Response.xml(200, entryDocument(job.sid, "search/jobs", job.content(true)));
+        }
+        if (action.equals("control")) {
+            String control = request.params.get("action");
+            if ("cancel".equals(control)) {
+                jobs.remove(sid);
+            } else if ("finalize".equals(control)) {
+                job.finish();
+            } else if ("touch".equals(control)) {
+                job.touch();
+            }
+            return message(200, "INFO", "Search job " + control + " succeeded.");
+        }
+        if (action.equals("results") || action.equals("events") || action.equals("results_preview")) {
+            return results(request, job.resultCount);
+        }
+        return message(404, "ERROR", "Unknown endpoint.");
+    }
+
+    private Response handleCollection(Request request) {
+        String path = request.relativePath;
+        if (path.endsWith("/")) {
+            // splunkd ignores a trailing slash, as in data/inputs/.
+            path = path.substring(0, path.length() - 1);
+        }
+        String collection = path;
+        String name = null;
+        String action = null;
+        if (!collectionPaths.contains(collection)) {
+            int slash = path.lastIndexOf('/');
+            if (slash > 0 && (path.endsWith("/disable") || path.endsWith("/enable"))) {
+                action = path.substring(slash + 1);
+                path = path.substring(0, slash);
+                slash = path.lastIndexOf('/');
+            }
+            if (slash < 0 || !collectionPaths.contains(path.substring(0, slash))) {
+                if (request.method.equals("GET") && isDirectory(collection)) {
+                    return Response.xml(200, directory(collection));
+                }
+                return message(404, "ERROR", "Not Found");
+            }
+            collection = path.substring(0, slash);
+            name = decode(path.substring(slash + 1));
+        }
+
+        Map<String, Map<String, String>> entities = collection(collection);
+        synchronized (entities) {
+            if (name == null) {
+                if (request.method.equals("POST")) {
+                    name = request.params.get("name");
+                    if (name == null) {
+                        return message(400, "ERROR", "Missing name.");
+                    }
+                    if (entities.containsKey(name)) {
+                        return message(409, "ERROR", "An object with name=" + name + " already exists");
+                    }
+                    Map<String, String> content = newEntity(name);
+                    content.putAll(request.params);
+                    content.remove("name");
+                    entities.put(name, content);
+                    return Response.xml(201, feed(collection, collection,
+                            Collections.singletonMap(name, content), 0, 0));
+                }
+                return Response.xml(200, feed(collection, collection, entities,
+                        request.intParam("count", 0), request.intParam("offset", 0)));
+            }
+
+            Map<String, String> content = entities.get(name);
+            if (content == null) {
+                return message(404, "ERROR", "Could not find object id=" + name);
+            }
+            if (request.method.equals("DELETE")) {
+                entities.remove(name);
+                return Response.xml(200, feed(collection, collection, entities, 0, 0));
+            }
+            if (request.method.equals("POST")) {
+                if (action != null) {
+                    content.put("disabled", action.equals("disable") ? "1" : "0");
+                } else {
+                    content.putAll(request.params);
+                }
+            }
+            return Response.xml(200, feed(collection, collection,
+                    Collections.singletonMap(name, content), 0, 0));
+        }
+    }
+
+    // Whether a path, such as data/inputs, is a parent of served collections.
+    private boolean isDirectory(String path) {
+        for (String collection : collectionPaths) {
+            if (collection.startsWith(path + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Lists the children of a directory, as splunkd lists data/inputs: the
+    // children that are collections have a create link.
+    private String directory(String path) {
+        Set<String> children = new TreeSet<String>();
+        for (String collection : collectionPaths) {
+            if (collection.startsWith(path + "/")) {
+                String rest = collection.substring(path.length() + 1);
+                int slash = rest.indexOf('/');
+                children.add(slash < 0 ? rest : rest.substring(0, slash));
+            }
+        }
+        Map<String, Map<String, String>> entries = new LinkedHashMap<String, Map<String, String>>();
+        for (String child : children) {
+            entries.put(child, new LinkedHashMap<String, String>());
+        }
+        String xml = feed(path, path, entries, 0, 0);
+        for (String child : children) {
+            if (collectionPaths.contains(path + "/" + child)) {
+                String href = "/servicesNS/nobody/search/" + path + "/" + urlEncode(child);
+                String edit = href + "\" rel=\"edit\"/>\n";
+                xml = xml.replace(edit, edit + "    <link href=\"" + href + "/_new\" rel=\"create\"/>\n");
+            }
+        }
+        return xml;
+    }
+
+    // Returns the entities of a collection, creating collectionSize of them
+    // on first use.
+    private Map<String, Map<String, String>> collection(String path) {
+        Map<String, Map<String, String>> entities = collections.get(path);
+        if (entities == null) {
+            Map<String, Map<String, String>> created = new LinkedHashMap<String, Map<String, String>>();
+            String prefix = path.substring(path.lastIndexOf('/') + 1);
+            for (int i = 0; i < collectionSize; i++) {
+                String name = prefix + "-" + i;
+                Map<String, String> content = newEntity(name);
+                content.put("description", "Generated entity " + i + " of " + path);
+                created.put(name, content);
+            }
+            entities = collections.putIfAbsent(path, created);
+            if (entities == null) {
+                entities = created;
+            }
+        }
+        return entities;
+    }
+
+    private static Map<String, String> newEntity(String name) {
+        Map<String, String> content = new LinkedHashMap<String, String>();
+        content.put("disabled", "0");
+        return content;
+    }
+
+    // Writes generated results in the job's output mode, honoring the count
+    // and offset parameters (count=0 means all).
+    private Response results(Request request, int total) {
+        final int offset = Math.min(Math.max(request.intParam("offset", 0), 0), total);
+        int count = request.intParam("count", 100);
+        final int end = count <= 0 ? total : Math.min(total, offset + count);
+        final int size = eventSize;
+        String mode = request.params.containsKey("output_mode") ? request.params.get("output_mode") : "xml";
+
+        if (mode.equals("json")) {
+            return Response.stream(200, "application/json", new Body() {
+                public void writeTo(Writer out) throws IOException {
+                    out.write("{\"preview\":false,\"init_offset\":" + offset + ",\"messages\":[],\"fields\":[");
+                    for (int f = 0; f < FIELDS.length; f++) {
+                        out.write((f > 0 ? ",\"" : "\"") + FIELDS[f] + "\"");
+                    }
+                    out.write("],\"results\":[");
+                    for (int i = offset; i < end; i++) {
+                        if (i > offset) {
+                            out.write(',');
+                        }
+                        writeJsonRow(out, i, size);
+                    }
+                    out.write("]}\n");
+                }
+            });
+        }
+        if (mode.equals("csv")) {
+            return Response.stream(200, "text/csv", new Body() {
+                public void writeTo(Writer out) throws IOException {
+                    writeCsvResultSet(out, offset, end, size);
+                }
+            });
+        }
+        return Response.stream(200, "text/xml", new Body() {
+            public void writeTo(Writer out) throws IOException {
+                out.write("<?xml version='1.0' encoding='UTF-8'?>\n");
+                writeXmlResultSet(out, offset, end, size);
+            }
+        });
+    }
+
+    // Streams an export of resultCount rows, as final result sets of
+    // EXPORT_SET_SIZE rows each.
+    private Response export(Request request) {
+        final int total = resultCount;
+        final int size = eventSize;
+        String mode = request.params.containsKey("output_mode") ? request.params.get("output_mode") : "xml";
+
+        if (mode.equals("json")) {
+            return Response.stream(200, "application/json", new Body() {
+                public void writeTo(Writer out) throws IOException {
+                    for (int i = 0; i < total; i++) {
+                        boolean lastRow = i == total - 1 || (i + 1) % EXPORT_SET_SIZE == 0;
+                        out.write("{\"preview\":false,\"offset\":" + (i % EXPORT_SET_SIZE)
+                                + (lastRow ? ",\"lastrow\":true" : "") + ",\"result\":");
+                        writeJsonRow(out, i, size);
+                        out.write("}\n");
+                    }
+                }
+            });
+        }
+        if (mode.equals("csv")) {
+            // Each set has its own header line, and sets are separated by a
+            // blank line.
+            return Response.stream(200, "text/csv", new Body() {
+                public void writeTo(Writer out) throws IOException {
+                    for (int start = 0; start < total; start += EXPORT_SET_SIZE) {
+                        if (start > 0) {
+                            out.write('\n');
+                        }
+                        writeCsvResultSet(out, start, Math.min(total, start + EXPORT_SET_SIZE), size);
+                    }
+                }
+            });
+        }
+        return Response.stream(200, "text/xml", new Body() {
+            public void writeTo(Writer out) throws IOException {
+                out.write("<?xml version='1.0' encoding='UTF-8'?>\n");
+                for (int start = 0; start < total; start += EXPORT_SET_SIZE) {
+                    writeXmlResultSet(out, start, Math.min(total, start + EXPORT_SET_SIZE), size);
+                }
+            }
+        });
+    }
+
+    private static void writeXmlResultSet(Writer out, int start, int end, int size) throws IOException {
+        out.write("<results preview='0'>\n<meta>\n<fieldOrder>\n");
+        for (String field : FIELDS) {
+            out.write("<field>" + field + "</field>\n");
+        }
+        out.write("</fieldOrder>\n</meta>\n");
+        for (int i = start; i < end; i++) {
+            String[] row = row(i, size);
+            out.write("\t<result offset='" + i + "'>\n");
+            for (int f = 0; f < FIELDS.length; f++) {
+                out.write("\t\t<field k='" + FIELDS[f] + "'>\n");
+                if (FIELDS[f].equals("_raw")) {
+                    out.write("\t\t\t<v xml:space='preserve' trunc='0'>" + xmlEscape(row[f]) + "</v>\n");
+                } else {
+                    out.write("\t\t\t<value><text>" + xmlEscape(row[f]) + "</text></value>\n");
+                }
+                out.write("\t\t</field>\n");
+            }
+            out.write("\t</result>\n");
+        }
+        out.write("</results>\n");
+    }
+
+    private static void writeCsvResultSet(Writer out, int start, int end, int size) throws IOException {
+        for (int f = 0; f < FIELDS.length; f++) {
+            out.write((f > 0 ? ",\"" : "\"") + FIELDS[f] + "\"");
+        }
+        out.write('\n');
+        for (int i = start; i < end; i++) {
+            String[] row = row(i, size);
+            for (int f = 0; f < row.length; f++) {
+                out.write((f > 0 ? ",\"" : "\"") + row[f].replace("\"", "\"\"") + "\"");
+            }
+            out.write('\n');
+        }
+    }
+
+    private static void writeJsonRow(Writer out, int i, int size) throws IOException {
+        String[] row = row(i, size);
+        out.write('{');
+        for (int f = 0; f < FIELDS.length; f++) {
+            out.write((f > 0 ? ",\"" : "\"") + FIELDS[f] + "\":\"" + jsonEscape(row[f]) + "\"");
+        }
+        out.write('}');
+    }
+
+    // The values of generated result i, in the order of FIELDS.
+    private static String[] row(int i, int size) {
+        int seconds = i % 86400;
+        String time = String.format("2013-01-%02d %02d:%02d:%02d",
+                1 + (i / 86400) % 28, seconds / 3600, (seconds / 60) % 60, seconds % 60);
+        String host = "stub-host-" + (i % 8);
+        StringBuilder raw = new StringBuilder(size + 64);
+        raw.append(time).append(" host=").append(host).append(" event=").append(i)
+                .append(" status=").append(200 + (i % 4) * 100).append(" message=");
+        while (raw.length() < size) {
+            raw.append("lorem ipsum dolor sit amet ");
+        }
+        return new String[] {
+            time.replace(' ', 'T') + ".000+00:00", host, "/var/log/stub.log", "stub", raw.toString()
+        };
+    }
+
+    private static int countLines(byte[] buffer, int offset, int length) {
+        int lines = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (buffer[i] == '\n') {
+                lines++;
+            }
+        }
+        if (length > 0 && buffer[offset + length - 1] != '\n') {
+            lines++;
+        }
+        return lines;
+    }
+
+    private String feed(String title, String collection, Map<String, Map<String, String>> entries,
+                        int count, int offset) {
+        int total = entries.size();
+        int start = Math.min(Math.max(offset, 0), total);
+        int end = count <= 0 ? total : Math.min(total, start + count);
+        StringBuilder xml = new StringBuilder(512 + 1024 * (end - start));
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:s=\"http://dev.splunk.com/ns/rest\"")
+                .append(" xmlns:opensearch=\"http://a9.com/-/spec/opensearch/1.1/\">\n")
+                .append("  <title>").append(xmlEscape(title)).append("</title>\n")
+                .append("  <id>/services/").append(collection).append("</id>\n")
+                .append("  <updated>").append(UPDATED).append("</updated>\n")
+                .append("  <generator version=\"stub\"/>\n")
+                .append("  <author>\n    <name>Splunk</name>\n  </author>\n")
+                .append("  <opensearch:totalResults>").append(total).append("</opensearch:totalResults>\n")
+                .append("  <opensearch:itemsPerPage>").append(end - start).append("</opensearch:itemsPerPage>\n")
+                .append("  <opensearch:startIndex>").append(start).append("</opensearch:startIndex>\n")
+                .append("  <s:messages/>\n");
+        int i = 0;
+        for (Map.Entry<String, Map<String, String>> entry : entries.entrySet()) {
+            if (i >= start && i < end) {
+                appendEntry(xml, entry.getKey(), collection, entry.getValue());
+            }
+            i++;
+        }
+        xml.append("</feed>\n");
+        return xml.toString();
+    }
+
+    private String entryDocument(String name, String collection, Map<String, String> content) {
+        StringBuilder xml = new StringBuilder(2048);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        appendEntry(xml, name, collection, content);
+        return xml.toString()
+                .replaceFirst("<entry>", "<entry xmlns=\"http://www.w3.org/2005/Atom\""
+                        + " xmlns:s=\"http://dev.splunk.com/ns/rest\">");
+    }
+
+    private static void appendEntry(StringBuilder xml, String name, String collection,
+                                    Map<String, String> content) {
+        String path = "/servicesNS/nobody/search/" + collection + "/" + urlEncode(name);
+        xml.append("  <entry>\n")
+                .append("    <title>").append(xmlEscape(name)).append("</title>\n")
+                .append("    <id>").append(path).append("</id>\n")
+                .append("    <updated>").append(UPDATED).append("</updated>\n")
+                .append("    <link href=\"").append(path).append("\" rel=\"alternate\"/>\n")
+                .append("    <author>\n      <name>nobody</name>\n    </author>\n")
+                .append("    <link href=\"").append(path).append("\" rel=\"list\"/>\n")
+                .append("    <link href=\"").append(path).append("\" rel=\"edit\"/>\n")
+                .append("    <link href=\"").append(path).append("\" rel=\"remove\"/>\n")
+                .append("    <content type=\"text/xml\">\n      <s:dict>\n");
+        for (Map.Entry<String, String> key : content.entrySet()) {
+            xml.append("        <s:key name=\"").append(xmlEscape(key.getKey())).append("\">")
+                    .append(xmlEscape(key.getValue())).append("</s:key>\n");
+        }
+        xml.append("        <s:key name=\"eai:acl\"><s:dict>")
+                .append("<s:key name=\"app\">search</s:key>")
+                .append("<s:key name=\"can_write\">1</s:key>")
+                .append("<s:key name=\"modifiable\">1</s:key>")
+                .append("<s:key name=\"owner\">nobody</s:key>")
+                .append("<s:key name=\"removable\">1</s:key>")
+                .append("<s:key name=\"sharing\">app</s:key>")
+                .append("</s:dict></s:key>\n")
+                .append("      </s:dict>\n    </content>\n  </entry>\n");
+    }
+
+    private static Response message(int status, String type, String text) {
+        return Response.xml(status, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<response>\n  <messages>\n"
+                + "    <msg type=\"" + type + "\">" + xmlEscape(text) + "</msg>\n  </messages>\n</response>\n");
+    }
+
+    private static String xmlEscape(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement;
+            switch (c) {
+                case '&': replacement = "&amp;"; break;
+                case '<': replacement = "&lt;"; break;
+                case '>': replacement = "&gt;"; break;
+                case '"': replacement = "&quot;"; break;
+                case '\'': replacement = "&apos;"; break;
+                default: replacement = null;
+            }
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 16);
+                escaped.append(value, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+
+    private static String jsonEscape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String urlEncode(String value) {
+        return Args.encode(value).replace("+", "%20");
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing more to do.
+        }
+    }
+
+    private static class CannedResponse {
+        final int status;
+        final String contentType;
+        final byte[] body;
+
+        CannedResponse(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    private class StubJob {
+        final String sid;
+        final String search;
+        final int resultCount;
+        private int pollsRemaining;
+        private int ttl;
+
+        StubJob(String sid, String search, int resultCount, int polls, int ttl) {
+            this.sid = sid;
+            this.search = search;
+            this.resultCount = resultCount;
+            this.pollsRemaining = polls;
+            this.ttl = ttl;
+        }
+
+        synchronized void finish() {
+            pollsRemaining = 0;
+        }
+
+        synchronized void touch() {
+            ttl = DEFAULT_JOB_TTL;
+        }
+
+        // The job's status; reading it as a poll counts towards completion.
+        synchronized Map<String, String> content(boolean poll) {
+            boolean done = pollsRemaining <= 0;
+            if (poll && !done) {
+                pollsRemaining--;
+            }
+            Map<String, String> content = new LinkedHashMap<String, String>();
+            content.put("sid", sid);
+            content.put("dispatchState", done ? "DONE" : "RUNNING");
+            content.put("doneProgress", done ? "1.00000" : "0.50000");
+            content.put("eventAvailableCount", Integer.toString(done ? resultCount : 0));
+            content.put("eventCount", Integer.toString(done ? resultCount : 0));
+            content.put("isDone", done ? "1" : "0");
+            content.put("isFailed", "0");
+            content.put("isFinalized", "0");
+            content.put("isPaused", "0");
+            content.put("isSaved", "0");
+            content.put("isZombie", "0");
+            content.put("resultCount", Integer.toString(done ? resultCount : 0));
+            content.put("runDuration", "0.001");
+            content.put("scanCount", Integer.toString(done ? resultCount : 0));
+            content.put("search", search);
+            content.put("ttl", Integer.toString(ttl));
+            return content;
+        }
+    }
+
+    // Writes a streamed response body.
+    private interface Body {
+        void writeTo(Writer out) throws IOException;
+    }
+
+    private static class Response {
+        private static final Map<Integer, String> REASONS = new HashMap<Integer, String>();
+        static {
+            REASONS.put(200, "OK");
+            REASONS.put(201, "Created");
+            REASONS.put(400, "Bad Request");
+            REASONS.put(401, "Unauthorized");
+            REASONS.put(404, "Not Found");
+            REASONS.put(405, "Method Not Allowed");
+            REASONS.put(409, "Conflict");
+        }
+
+        final int status;
+        final String contentType;
+        final byte[] body;
+        final Body stream;
+
+        private Response(int status, String contentType, byte[] body, Body stream) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+            this.stream = stream;
+        }
+
+        static Response bytes(int status, String contentType, byte[] body) {
+            return new Response(status, contentType, body, null);
+        }
+
+        static Response xml(int status, String body) {
+            try {
+                return bytes(status, "text/xml; charset=UTF-8", body.getBytes("UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        static Response stream(int status, String contentType, Body stream) {
+            return new Response(status, contentType + "; charset=UTF-8", null, stream);
+        }
+
+        void write(OutputStream out, boolean keepAlive) throws IOException {
+            String reason = REASONS.containsKey(status) ? REASONS.get(status) : "Status";
+            StringBuilder header = new StringBuilder(256);
+            header.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n")
+                    .append("Server: Splunkd\r\n")
+                    .append("Content-Type: ").append(contentType).append("\r\n")
+                    .append("Connection: ").append(keepAlive ? "Keep-Alive" : "close").append("\r\n");
+            if (stream == null) {
+                header.append("Content-Length: ").append(body.length).append("\r\n\r\n");
+                out.write(header.toString().getBytes("ISO-8859-1"));
+                out.write(body);
+                out.flush();
+                return;
+            }
+
+            header.append("Transfer-Encoding: chunked\r\n\r\n");
+            out.write(header.toString().getBytes("ISO-8859-1"));
+            ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(chunked, "UTF-8"), 16384);
+            stream.writeTo(writer);
+            writer.flush();
+            chunked.finish();
+        }
+    }
+
+    // Writes HTTP/1.1 chunked transfer coding; each write is one chunk.
+    private static class ChunkedOutputStream extends OutputStream {
+        private final OutputStream out;
+
+        ChunkedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            out.write((Integer.toHexString(length) + "\r\n").getBytes("ISO-8859-1"));
+            out.write(buffer, offset, length);
+            out.write('\r');
+            out.write('\n');
+        }
+
+        void finish() throws IOException {
+            out.write("0\r\n\r\n".getBytes("ISO-8859-1"));
+            out.flush();
+        }
+    }
+
+    private static class Request {
+        String method;
+        String path;
+        // The path under /services, or under /servicesNS/{owner}/{app}.
+        String relativePath;
+        final Map<String, String> headers = new HashMap<String, String>();
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        byte[] body = new byte[0];
+        boolean keepAlive = true;
+
+        // Reads the request line and headers; returns null at the end of
+        // the connection.
+        static Request read(InputStream in) throws IOException {
+            String line = readLine(in);
+            while (line != null && line.length() == 0) {
+                line = readLine(in);
+            }
+            if (line == null) {
+                return null;
+            }
+            String[] parts = line.split(" ");
+            if (parts.length < 2) {
+                throw new IOException("Malformed request line: " + line);
+            }
+
+            Request request = new Request();
+            request.method = parts[0];
+            String target = parts[1];
+            int query = target.indexOf('?');
+            request.path = query < 0 ? target : target.substring(0, query);
+            if (query >= 0) {
+                request.parseParams(target.substring(query + 1));
+            }
+            request.relativePath = relativePath(request.path);
+
+            while ((line = readLine(in)) != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    request.headers.put(line.substring(0, colon).trim().toLowerCase(),
+                            line.substring(colon + 1).trim());
+                }
+            }
+            request.keepAlive = !"close".equalsIgnoreCase(request.headers.get("connection"));
+            return request;
+        }
+
+        void readBody(InputStream in) throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+                String line;
+                while ((line = readLine(in)) != null) {
+                    int semicolon = line.indexOf(';');
+                    int length = Integer.parseInt(
+                            (semicolon < 0 ? line : line.substring(0, semicolon)).trim(), 16);
+                    if (length == 0) {
+                        while ((line = readLine(in)) != null && line.length() > 0) { }
+                        break;
+                    }
+                    copy(in, buffer, length);
+                    readLine(in);
+                }
+            } else if (headers.containsKey("content-length")) {
+                copy(in, buffer, Integer.parseInt(headers.get("content-length")));
+            }
+            body = buffer.toByteArray();
+
+            String contentType = headers.get("content-type");
+            if (body.length > 0 && (contentType == null
+                    || contentType.startsWith("application/x-www-form-urlencoded"))
+                    && !relativePath.startsWith("receivers/")) {
+                parseParams(new String(body, "UTF-8"));
+            }
+        }
+
+        int intParam(String name, int defaultValue) {
+            String value = params.get(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+
+        private void parseParams(String encoded) {
+            for (String pair : encoded.split("&")) {
+                if (pair.length() == 0) {
+                    continue;
+                }
+                int equals = pair.indexOf('=');
+                if (equals < 0) {
+                    params.put(decode(pair), "");
+                } else {
+                    params.put(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
+                }
+            }
+        }
+
+        private static String relativePath(String path) {
+            if (path.startsWith("/servicesNS/")) {
+                String[] segments = path.split("/", 5);
+                return segments.length == 5 ? segments[4] : "";
+            }
+            if (path.startsWith("/services/")) {
+                return path.substring("/services/".length());
+            }
+            return path;
+        }
+
+        private static void copy(InputStream in, ByteArrayOutputStream out, int length) throws IOException {
+            byte[] chunk = new byte[8192];
+            while (length > 0) {
+                int n = in.read(chunk, 0, Math.min(chunk.length, length));
+                if (n == -1) {
+                    throw new IOException("Unexpected end of request body.");
+                }
+                out.write(chunk, 0, n);
+                length -= n;
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder(128);
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\n') {
+                    int last = line.length() - 1;
+                    if (last >= 0 && line.charAt(last) == '\r') {
+                        line.setLength(last);
+                    }
+                    return line.toString();
+                }
+                line.append((char) c);
+            }
+            return line.length() == 0 ? null : line.toString();
+        }
+    }
+}